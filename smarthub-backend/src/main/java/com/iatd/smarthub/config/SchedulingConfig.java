@@ -0,0 +1,12 @@
+package com.iatd.smarthub.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Active les tâches planifiées (nettoyage des sessions d'upload, etc.).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -1,6 +1,7 @@
 package com.iatd.smarthub.config;
 
 import com.iatd.smarthub.service.CustomUserDetailsService;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -65,6 +66,9 @@ public class SecurityConfig {
 
             .authorizeHttpRequests(auth -> auth
 
+                // Redispatch des réponses asynchrones (CompletableFuture) : la requête d'origine a déjà été autorisée
+                .dispatcherTypeMatchers(DispatcherType.ASYNC, DispatcherType.ERROR).permitAll()
+
                 // ========= ROUTES PUBLIQUES =========
                 .requestMatchers("/api/auth/**").permitAll()
                 .requestMatchers("/api/test/**").permitAll()
@@ -97,6 +101,9 @@ public class SecurityConfig {
                 .requestMatchers("/api/rag/**")
                     .hasAnyRole("STUDENT", "TEACHER", "ADMIN")  // ✅ AJOUTÉ
 
+                .requestMatchers("/api/quiz-jobs/**")
+                    .hasAnyRole("STUDENT", "TEACHER", "ADMIN")
+
                 // ========= COURS - LECTURE (STUDENT OK) =========
                 .requestMatchers(HttpMethod.GET, "/api/courses")
                     .hasAnyRole("STUDENT", "TEACHER", "ADMIN")
@@ -166,8 +173,10 @@ public class SecurityConfig {
             "https://*.vercel.app"
         ));
         config.setAllowedMethods(Arrays.asList("GET","POST","PUT","DELETE","OPTIONS","PATCH","HEAD"));
-        config.setAllowedHeaders(Arrays.asList("Authorization","Content-Type","Accept","X-Requested-With","Origin"));
-        config.setExposedHeaders(Arrays.asList("Authorization"));
+        config.setAllowedHeaders(Arrays.asList("Authorization","Content-Type","Accept","X-Requested-With","Origin",
+                "Range","If-Range","If-None-Match","If-Modified-Since"));
+        config.setExposedHeaders(Arrays.asList("Authorization","Content-Disposition","Content-Range",
+                "Accept-Ranges","ETag","Last-Modified"));
         config.setAllowCredentials(true);
         config.setMaxAge(3600L);
 
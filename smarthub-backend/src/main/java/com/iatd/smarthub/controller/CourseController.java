@@ -11,13 +11,13 @@ import com.iatd.smarthub.model.user.User;
 import com.iatd.smarthub.mapper.CourseMapper;
 import com.iatd.smarthub.service.CourseService;
 import com.iatd.smarthub.service.UserService;
-import com.iatd.smarthub.service.FileStorageService;
+import com.iatd.smarthub.service.FileDownloadService;
 import com.iatd.smarthub.repository.UserRepository;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -42,7 +42,7 @@ public class CourseController {
     private final CourseService courseService;
     private final UserService userService;
     private final CourseMapper courseMapper;
-    private final FileStorageService fileStorageService;
+    private final FileDownloadService fileDownloadService;
     private final UserRepository userRepository;
     
     // ============ GESTION DES REQUÊTES OPTIONS (CORS) ============
@@ -587,21 +587,18 @@ public class CourseController {
     }
     
     @GetMapping("/files/{fileId}/download")
-    public ResponseEntity<org.springframework.core.io.Resource> downloadFile(@PathVariable Long fileId) {
+    public void downloadFile(@PathVariable Long fileId,
+                             HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        CourseFile courseFile;
         try {
-            CourseFile courseFile = courseService.getCourseFileById(fileId);
-            byte[] fileContent = fileStorageService.loadFile(courseFile.getFilePath());
-            org.springframework.core.io.Resource fileResource = new ByteArrayResource(fileContent);
-
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + courseFile.getFileName() + "\"")
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(fileResource);
-        } catch (IOException e) {
-            return ResponseEntity.notFound().build();
+            courseFile = courseService.getCourseFileById(fileId);
         } catch (RuntimeException e) {
-            return ResponseEntity.notFound().build();
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        fileDownloadService.sendStoredFile(courseFile.getFilePath(), courseFile.getFileName(),
+                MediaType.APPLICATION_OCTET_STREAM_VALUE, request, response);
     }
 
     @PostMapping(value = "/{courseId}/files", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -2,11 +2,11 @@ package com.iatd.smarthub.controller;
 
 import com.iatd.smarthub.model.course.CourseFile;
 import com.iatd.smarthub.service.CourseFileService;
+import com.iatd.smarthub.service.FileDownloadService;
 import com.iatd.smarthub.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -15,8 +15,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +28,7 @@ public class CourseFileController {
 
     private final CourseFileService courseFileService;
     private final UserService userService;
+    private final FileDownloadService fileDownloadService;
 
     @PostMapping("/upload")
     @PreAuthorize("hasRole('TEACHER')")
@@ -80,25 +80,17 @@ public class CourseFileController {
 
     @GetMapping("/{fileId}/download")
     @PreAuthorize("hasRole('STUDENT') or hasRole('TEACHER') or hasRole('ADMIN')")
-    public ResponseEntity<Resource> downloadFile(@PathVariable Long courseId, @PathVariable Long fileId) {
+    public void downloadFile(@PathVariable Long courseId, @PathVariable Long fileId,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        CourseFile courseFile;
         try {
-            CourseFile courseFile = courseFileService.getFile(fileId);
-            
-            Path filePath = Paths.get(courseFile.getFilePath()).normalize();
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (resource.exists()) {
-                return ResponseEntity.ok()
-                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                        .header(HttpHeaders.CONTENT_DISPOSITION, 
-                                "attachment; filename=\"" + courseFile.getFileName() + "\"")
-                        .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
-            }
-        } catch (Exception e) {
-            return ResponseEntity.notFound().build();
+            courseFile = courseFileService.getFile(fileId);
+        } catch (RuntimeException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        fileDownloadService.sendStoredFile(courseFile.getFilePath(), courseFile.getFileName(),
+                MediaType.APPLICATION_OCTET_STREAM_VALUE, request, response);
     }
 
     @DeleteMapping("/{fileId}")
@@ -4,8 +4,11 @@ import com.iatd.smarthub.dto.*;
 import com.iatd.smarthub.service.QuizService;
 import com.iatd.smarthub.service.QuizAttemptService;
 import com.iatd.smarthub.service.QuizGenerationService;
+import com.iatd.smarthub.service.TextExtractionService;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -13,6 +16,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/v1/quizzes")
@@ -22,6 +26,7 @@ public class QuizController {
     private final QuizService quizService;
     private final QuizAttemptService quizAttemptService;
     private final QuizGenerationService quizGenerationService;
+    private final TextExtractionService textExtractionService;
     
     // ==================== QUIZ MANAGEMENT ====================
 
@@ -97,7 +102,7 @@ public class QuizController {
      * Cette méthode utilise QuizGenerationRequest avec topic et description
      */
     @PostMapping("/generate")
-    public ResponseEntity<QuizResponseDTO> generateQuiz(
+    public CompletableFuture<ResponseEntity<QuizResponseDTO>> generateQuiz(
             @Valid @RequestBody QuizGenerationRequest request) {
         try {
             // Construire le contenu à partir du topic et de la description
@@ -116,17 +121,21 @@ public class QuizController {
             String title = request.getTopic();
             int questionCount = request.getQuestionCount();
             
-            // CORRECTION: Utilisez la méthode qui existe dans votre service
-            QuizResponseDTO quiz = quizGenerationService.generateQuizFromText(content, title, questionCount);
-            
-            return ResponseEntity.ok(quiz);
+            // Génération non bloquante : le thread de requête est libéré pendant l'appel Gemini
+            return quizGenerationService.generateQuizFromTextAsync(content, title, questionCount)
+                    .thenApply(ResponseEntity::ok)
+                    .exceptionally(e -> {
+                        // Log l'erreur pour le débogage
+                        System.err.println("Erreur lors de la génération du quiz: " + e.getMessage());
+                        return generationError(e, HttpStatus.BAD_REQUEST);
+                    });
             
         } catch (Exception e) {
             // Log l'erreur pour le débogage
             System.err.println("Erreur lors de la génération du quiz: " + e.getMessage());
             e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(null);
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(null));
         }
     }
 
@@ -135,50 +144,67 @@ public class QuizController {
      * Différent de l'endpoint /generate qui utilise un sujet structuré
      */
     @PostMapping("/generate/from-text")
-    public ResponseEntity<QuizResponseDTO> generateQuizFromFreeText(
+    public CompletableFuture<ResponseEntity<QuizResponseDTO>> generateQuizFromFreeText(
             @RequestParam String content,
             @RequestParam String title,
             @RequestParam(defaultValue = "10") int questionCount) {
-        try {
-            QuizResponseDTO quiz = quizGenerationService.generateQuizFromText(content, title, questionCount);
-            return ResponseEntity.ok(quiz);
-        } catch (Exception e) {
-            System.err.println("Erreur lors de la génération depuis texte libre: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(null);
-        }
+        return quizGenerationService.generateQuizFromTextAsync(content, title, questionCount)
+                .thenApply(ResponseEntity::ok)
+                .exceptionally(e -> {
+                    System.err.println("Erreur lors de la génération depuis texte libre: " + e.getMessage());
+                    return generationError(e, HttpStatus.BAD_REQUEST);
+                });
     }
 
     /**
      * Générer un quiz automatiquement depuis un fichier uploadé
      */
     @PostMapping("/generate/from-file")
-    public ResponseEntity<QuizResponseDTO> generateQuizFromFile(
+    public CompletableFuture<ResponseEntity<QuizResponseDTO>> generateQuizFromFile(
             @RequestParam("file") MultipartFile file,
             @RequestParam(defaultValue = "10") int questionCount) {
         
         if (file.isEmpty()) {
-            return ResponseEntity.badRequest().body(null);
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(null));
         }
         
         try {
-            String content = new String(file.getBytes());
+            // Extraction en flux (PDF, DOCX, PPTX, texte) limitée au volume utile pour questionCount
+            String content = textExtractionService.extract(file, questionCount);
             String fileName = file.getOriginalFilename();
+            if (content.isBlank()) {
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(null));
+            }
             
-            QuizResponseDTO quiz = quizGenerationService.generateQuizFromFile(fileName, content, questionCount);
-            return ResponseEntity.ok(quiz);
+            return quizGenerationService.generateQuizFromFileAsync(fileName, content, questionCount)
+                    .thenApply(ResponseEntity::ok)
+                    .exceptionally(e -> {
+                        System.err.println("Erreur lors de la génération depuis fichier: " + e.getMessage());
+                        return generationError(e, HttpStatus.INTERNAL_SERVER_ERROR);
+                    });
             
         } catch (IOException e) {
             System.err.println("Erreur IO lors de la lecture du fichier: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(null);
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(null));
         } catch (Exception e) {
             System.err.println("Erreur lors de la génération depuis fichier: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(null);
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(null));
         }
     }
 
+    /**
+     * Quota Gemini saturé : 429 avec Retry-After pour que le client réessaie plus tard
+     */
+    private ResponseEntity<QuizResponseDTO> generationError(Throwable error, HttpStatus defaultStatus) {
+        return GeminiGovernor.findOverload(error)
+                .<ResponseEntity<QuizResponseDTO>>map(overloaded -> ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(overloaded.getRetryAfterSeconds()))
+                        .body(null))
+                .orElseGet(() -> ResponseEntity.status(defaultStatus).body(null));
+    }
+
     /**
      * Générer un quiz automatiquement depuis une URL
      */
@@ -0,0 +1,160 @@
+package com.iatd.smarthub.controller;
+
+import com.iatd.smarthub.dto.QuizGenerationRequest;
+import com.iatd.smarthub.model.quiz.QuizGenerationJob;
+import com.iatd.smarthub.service.QuizJobService;
+import com.iatd.smarthub.service.TextExtractionService;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Génération de quiz asynchrone : chaque soumission répond 202 avec l'identifiant du job,
+ * suivi ensuite par GET /{jobId} (polling) ou GET /{jobId}/events (SSE).
+ * Les endpoints synchrones existants restent disponibles.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/quiz-jobs")
+@RequiredArgsConstructor
+public class QuizJobController {
+
+    private final QuizJobService quizJobService;
+    private final TextExtractionService textExtractionService;
+
+    @Value("${quiz.jobs.events-poll-ms:1000}")
+    private long eventsPollMs;
+
+    @PostMapping("/course")
+    public ResponseEntity<Map<String, Object>> submitCourseQuiz(
+            @RequestParam Long userId,
+            @RequestParam Long courseId,
+            @RequestParam String courseTitle) {
+        return submit(QuizGenerationJob.Type.COURSE_QUIZ, userId, courseId, Map.of("courseTitle", courseTitle));
+    }
+
+    @PostMapping("/generate")
+    public ResponseEntity<Map<String, Object>> submitTopicQuiz(@Valid @RequestBody QuizGenerationRequest request) {
+        StringBuilder content = new StringBuilder("Sujet: ").append(request.getTopic());
+        if (request.getDescription() != null && !request.getDescription().isBlank()) {
+            content.append("\n\nDescription: ").append(request.getDescription());
+        }
+        if (request.getTags() != null && !request.getTags().isEmpty()) {
+            content.append("\n\nTags: ").append(String.join(", ", request.getTags()));
+        }
+        return submit(QuizGenerationJob.Type.TOPIC_QUIZ, null, null, Map.of(
+                "content", content.toString(),
+                "title", request.getTopic(),
+                "questionCount", request.getQuestionCount()));
+    }
+
+    @PostMapping("/from-text")
+    public ResponseEntity<Map<String, Object>> submitTextQuiz(
+            @RequestParam String content,
+            @RequestParam String title,
+            @RequestParam(defaultValue = "10") int questionCount) {
+        return submit(QuizGenerationJob.Type.TEXT_QUIZ, null, null, Map.of(
+                "content", content, "title", title, "questionCount", questionCount));
+    }
+
+    /**
+     * Le texte est extrait pendant la requête : le fichier uploadé n'existe plus une fois le job lancé.
+     */
+    @PostMapping("/from-file")
+    public ResponseEntity<Map<String, Object>> submitFileQuiz(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(defaultValue = "10") int questionCount) {
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Fichier vide"));
+        }
+        try {
+            String content = textExtractionService.extract(file, questionCount);
+            if (content.isBlank()) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Aucun texte exploitable dans le fichier"));
+            }
+            Map<String, Object> params = new HashMap<>();
+            params.put("fileName", file.getOriginalFilename());
+            params.put("content", content);
+            params.put("questionCount", questionCount);
+            return submit(QuizGenerationJob.Type.FILE_QUIZ, null, null, params);
+        } catch (Exception e) {
+            log.error("❌ Lecture du fichier impossible: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", "Lecture du fichier impossible: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/adaptive")
+    public ResponseEntity<Map<String, Object>> submitAdaptiveQuiz(
+            @RequestParam Long userId,
+            @RequestParam Long courseId) {
+        return submit(QuizGenerationJob.Type.ADAPTIVE_QUIZ, userId, courseId, Map.of());
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> getJob(@PathVariable String jobId) {
+        return quizJobService.getJob(jobId)
+                .map(job -> ResponseEntity.ok(quizJobService.describe(job)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "Job introuvable: " + jobId)));
+    }
+
+    /**
+     * Avancement en SSE : un événement "status" à chaque changement, le flux se termine
+     * quand le job est terminé (SUCCEEDED ou FAILED).
+     */
+    @GetMapping(value = "/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamJob(@PathVariable String jobId) {
+        return Flux.interval(Duration.ZERO, Duration.ofMillis(eventsPollMs))
+                .onBackpressureDrop()
+                .concatMap(tick -> Flux.defer(() -> Flux.just(quizJobService.getJob(jobId)))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .takeUntil(job -> job.isEmpty() || job.get().isFinished())
+                .map(job -> job.<Map<String, Object>>map(quizJobService::describe)
+                        .orElseGet(() -> Map.of("error", "Job introuvable: " + jobId)))
+                .distinctUntilChanged(view -> String.valueOf(view.get("status")) + view.get("progress") + view.get("queuePosition"))
+                .map(view -> ServerSentEvent.<Object>builder(view)
+                        .event(view.containsKey("jobId") ? "status" : "error")
+                        .build());
+    }
+
+    @GetMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> getMetrics() {
+        return ResponseEntity.ok(quizJobService.getMetrics());
+    }
+
+    private ResponseEntity<Map<String, Object>> submit(QuizGenerationJob.Type type, Long userId, Long courseId,
+                                                       Map<String, Object> params) {
+        try {
+            QuizGenerationJob job = quizJobService.submit(type, userId, courseId, params);
+            String statusUrl = "/api/quiz-jobs/" + job.getId();
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("jobId", job.getId());
+            body.put("status", job.getStatus());
+            body.put("statusUrl", statusUrl);
+            body.put("eventsUrl", statusUrl + "/events");
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.LOCATION, statusUrl)
+                    .body(body);
+        } catch (Exception e) {
+            log.error("❌ Soumission du job {} impossible: {}", type, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Soumission impossible: " + e.getMessage()));
+        }
+    }
+}
@@ -3,13 +3,13 @@ package com.iatd.smarthub.controller;
 import com.iatd.smarthub.dto.ResourceRequestDTO;
 import com.iatd.smarthub.dto.ResourceResponseDTO;
 import com.iatd.smarthub.model.resource.Resource;
-import com.iatd.smarthub.service.FileStorageService;
+import com.iatd.smarthub.service.FileDownloadService;
 import com.iatd.smarthub.service.ResourceService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -27,7 +27,7 @@ import java.util.List;
 public class ResourceController {
 
     private final ResourceService resourceService;
-    private final FileStorageService fileStorageService;
+    private final FileDownloadService fileDownloadService;
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> createResource(
@@ -60,18 +60,16 @@ public class ResourceController {
     }
 
     // Endpoint pour télécharger le fichier - accessible sans restriction de rôle
+    // Envoi sans chargement en mémoire, avec reprise (Range) et cache (ETag)
     @GetMapping("/files/{fileName}")
-    public ResponseEntity<org.springframework.core.io.Resource> downloadFile(@PathVariable String fileName) {
+    public void downloadFile(@PathVariable String fileName,
+                             HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
         try {
-            byte[] fileContent = fileStorageService.loadFile(fileName);
-            org.springframework.core.io.Resource fileResource = new ByteArrayResource(fileContent);
-
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(fileResource);
-        } catch (IOException e) {
-            return ResponseEntity.notFound().build();
+            fileDownloadService.sendStoredFile(fileName, fileName, MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                    request, response);
+        } catch (RuntimeException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
         }
     }
 
@@ -0,0 +1,110 @@
+package com.iatd.smarthub.controller;
+
+import com.iatd.smarthub.dto.UploadSessionRequest;
+import com.iatd.smarthub.model.storage.UploadSession;
+import com.iatd.smarthub.service.UploadSessionService;
+import com.iatd.smarthub.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Upload résumable : POST session → PUT morceaux (corps brut, en-tête X-Chunk-Sha256) → POST commit.
+ * En cas de coupure, GET session renvoie les morceaux manquants à renvoyer.
+ */
+@RestController
+@RequestMapping("/api/uploads/sessions")
+@RequiredArgsConstructor
+@Slf4j
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+    private final UserService userService;
+
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> createSession(
+            @Valid @RequestBody UploadSessionRequest request,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            UploadSession session = uploadSessionService.createSession(
+                    getUserId(userDetails),
+                    request.getTarget(),
+                    request.getTargetId(),
+                    request.getFileName(),
+                    request.getContentType(),
+                    request.getTotalSize(),
+                    request.getChunkSize());
+            return ResponseEntity.status(HttpStatus.CREATED).body(uploadSessionService.toResponse(session));
+        } catch (Exception e) {
+            log.error("❌ Erreur création session d'upload: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<Map<String, Object>> getSession(
+            @PathVariable String sessionId,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            UploadSession session = uploadSessionService.getSession(sessionId, getUserId(userDetails));
+            return ResponseEntity.ok(uploadSessionService.toResponse(session));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PutMapping("/{sessionId}/chunks/{index}")
+    public ResponseEntity<Map<String, Object>> uploadChunk(
+            @PathVariable String sessionId,
+            @PathVariable int index,
+            @RequestHeader(value = "X-Chunk-Sha256", required = false) String chunkSha256,
+            HttpServletRequest request,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            UploadSession session = uploadSessionService.receiveChunk(sessionId, getUserId(userDetails), index,
+                    chunkSha256, request.getContentLengthLong(), request.getInputStream());
+            return ResponseEntity.ok(uploadSessionService.toResponse(session));
+        } catch (Exception e) {
+            log.warn("⚠️ Morceau {} refusé pour la session {}: {}", index, sessionId, e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/{sessionId}/commit")
+    public ResponseEntity<Map<String, Object>> commit(
+            @PathVariable String sessionId,
+            @RequestParam(required = false) String sha256,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            UploadSession session = uploadSessionService.commit(sessionId, getUserId(userDetails), sha256);
+            return ResponseEntity.ok(uploadSessionService.toResponse(session));
+        } catch (Exception e) {
+            log.error("❌ Erreur validation session {}: {}", sessionId, e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Void> abort(
+            @PathVariable String sessionId,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            uploadSessionService.abort(sessionId, getUserId(userDetails));
+            return ResponseEntity.noContent().build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    private Long getUserId(UserDetails userDetails) {
+        return userService.getUserEntityByUsername(userDetails.getUsername()).getId();
+    }
+}
@@ -7,13 +7,17 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import com.iatd.smarthub.dto.UserRequestDTO;
 import com.iatd.smarthub.dto.UserResponseDTO;
 import com.iatd.smarthub.model.user.User;
+import com.iatd.smarthub.service.FileDownloadService;
 import com.iatd.smarthub.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
@@ -32,6 +36,7 @@ public class UserController {
 
     private final UserService userService;
     private final UserRepository userRepository;
+    private final FileDownloadService fileDownloadService;
 
     @GetMapping
     public ResponseEntity<List<UserResponseDTO>> getAllUsers() {
@@ -182,20 +187,26 @@ public class UserController {
     }
     
     @GetMapping("/{userId}/profile-image")
-    public ResponseEntity<?> getProfileImage(@PathVariable Long userId) {
+    public void getProfileImage(@PathVariable Long userId,
+                                HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
         User user = userService.findById(userId);
         if (user == null || user.getProfileImage() == null) {
-            return ResponseEntity.notFound().build();
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
         
-        try {
-            Path imagePath = Paths.get("." + user.getProfileImage());
-            byte[] imageBytes = Files.readAllBytes(imagePath);
-            return ResponseEntity.ok()
-                .contentType(MediaType.IMAGE_JPEG)
-                .body(imageBytes);
-        } catch (IOException e) {
-            return ResponseEntity.notFound().build();
+        // Le chemin stocké est de la forme /uploads/profile-images/xxx.jpg
+        Path uploadsRoot = Paths.get("uploads").toAbsolutePath().normalize();
+        Path imagePath = Paths.get("." + user.getProfileImage()).toAbsolutePath().normalize();
+        if (!imagePath.startsWith(uploadsRoot)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        
+        String contentType = MediaTypeFactory.getMediaType(imagePath.getFileName().toString())
+                .orElse(MediaType.IMAGE_JPEG)
+                .toString();
+        fileDownloadService.sendFile(imagePath, null, null, contentType, true, request, response);
     }
 }
\ No newline at end of file
@@ -2,13 +2,37 @@ package com.iatd.smarthub.controller.rag;
 
 import com.iatd.smarthub.dto.QuizResponseDTO;
 import com.iatd.smarthub.model.rag.QuizRecommendation;
+import com.iatd.smarthub.service.OllamaService;
+import com.iatd.smarthub.service.llm.GeminiCircuitBreaker;
+import com.iatd.smarthub.service.llm.GeminiContextCache;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
+import com.iatd.smarthub.service.llm.GeminiHealthMonitor;
+import com.iatd.smarthub.service.llm.GeminiHedger;
+import com.iatd.smarthub.service.llm.GeminiHttpClient;
+import com.iatd.smarthub.service.llm.LlmResponseCache;
+import com.iatd.smarthub.service.llm.LlmRouter;
+import com.iatd.smarthub.service.llm.LlmTokenAccounting;
+import com.iatd.smarthub.service.llm.LlmTrafficRecorder;
+import com.iatd.smarthub.service.llm.LlmTrafficReplay;
+import com.iatd.smarthub.service.llm.SingleFlight;
+import com.iatd.smarthub.service.llm.ReactiveGeminiClient;
+import com.iatd.smarthub.service.rag.EmbeddingBatcher;
+import com.iatd.smarthub.service.rag.QuestionBankService;
 import com.iatd.smarthub.service.rag.RAGQuizService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RestController
 @RequestMapping("/api/rag")
@@ -16,6 +40,22 @@ import java.util.Map;
 public class RAGQuizController {
 
     private final RAGQuizService ragQuizService;
+    private final GeminiHttpClient geminiHttpClient;
+    private final ReactiveGeminiClient reactiveGeminiClient;
+    private final GeminiCircuitBreaker geminiCircuitBreaker;
+    private final GeminiHealthMonitor geminiHealthMonitor;
+    private final LlmResponseCache llmResponseCache;
+    private final SingleFlight singleFlight;
+    private final GeminiGovernor geminiGovernor;
+    private final LlmRouter llmRouter;
+    private final QuestionBankService questionBankService;
+    private final GeminiContextCache geminiContextCache;
+    private final LlmTrafficRecorder llmTrafficRecorder;
+    private final LlmTrafficReplay llmTrafficReplay;
+    private final EmbeddingBatcher embeddingBatcher;
+    private final LlmTokenAccounting llmTokenAccounting;
+    private final GeminiHedger geminiHedger;
+    private final OllamaService ollamaService;
 
     // === MÉTHODES QUI EXISTENT RÉELLEMENT ===
 
@@ -41,11 +81,41 @@ public class RAGQuizController {
         try {
             QuizResponseDTO quiz = ragQuizService.generatePersonalizedQuizForCourse(userId, courseId, courseTitle);
             return ResponseEntity.ok(quiz);
+        } catch (GeminiGovernor.GeminiOverloadedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(null);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(null);
         }
     }
 
+    // 2 bis. Quiz de cours en flux (SSE) : un événement "question" par question dès qu'elle est générée,
+    // puis "done" (nombre de questions) ou "error"
+    @GetMapping(value = "/generate-course-quiz/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamCourseQuiz(
+            @RequestParam Long userId,
+            @RequestParam Long courseId,
+            @RequestParam String courseTitle) {
+        AtomicInteger count = new AtomicInteger();
+        return ragQuizService.streamPersonalizedQuizForCourse(userId, courseId, courseTitle)
+                .map(question -> ServerSentEvent.<Object>builder(question)
+                        .event("question")
+                        .id(String.valueOf(count.incrementAndGet()))
+                        .build())
+                .concatWith(Mono.fromSupplier(() -> ServerSentEvent.<Object>builder(Map.of("count", count.get()))
+                        .event("done")
+                        .build()))
+                .onErrorResume(e -> {
+                    Map<String, Object> error = new LinkedHashMap<>();
+                    error.put("error", e.getMessage());
+                    error.put("count", count.get());
+                    GeminiGovernor.findOverload(e)
+                            .ifPresent(overloaded -> error.put("retryAfterSeconds", overloaded.getRetryAfterSeconds()));
+                    return Mono.just(ServerSentEvent.<Object>builder(error).event("error").build());
+                });
+    }
+
     // 3. Récupérer les recommandations (EXISTE)
     @GetMapping("/recommendations/{userId}")
     public ResponseEntity<List<QuizRecommendation>> getRecommendations(
@@ -210,4 +280,42 @@ public class RAGQuizController {
             return ResponseEntity.ok(false);
         }
     }
-}
\ No newline at end of file
+
+    // 12. Métriques des appels Gemini (client HTTP partagé)
+    @GetMapping("/llm-metrics")
+    public ResponseEntity<Map<String, Object>> getLlmMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("http", geminiHttpClient.getMetrics());
+        metrics.put("reactive", reactiveGeminiClient.getMetrics());
+        metrics.put("circuitBreaker", geminiCircuitBreaker.getMetrics());
+        metrics.put("health", geminiHealthMonitor.getStatus());
+        metrics.put("responseCache", llmResponseCache.getMetrics());
+        metrics.put("singleFlight", singleFlight.getMetrics());
+        metrics.put("governor", geminiGovernor.getMetrics());
+        metrics.put("routing", llmRouter.getMetrics());
+        metrics.put("contextCache", geminiContextCache.getMetrics());
+        metrics.put("trafficRecording", llmTrafficRecorder.getMetrics());
+        metrics.put("trafficReplay", llmTrafficReplay.getMetrics());
+        metrics.put("embeddingBatching", embeddingBatcher.getMetrics());
+        metrics.put("tokens", llmTokenAccounting.getMetrics());
+        metrics.put("hedging", geminiHedger.getMetrics());
+        metrics.put("topUp", ollamaService.getTopUpMetrics());
+        return ResponseEntity.ok(metrics);
+    }
+
+    // 13. Banque de questions d'un cours : état et demande de réapprovisionnement
+    @GetMapping("/question-bank/{courseId}")
+    public ResponseEntity<Map<String, Object>> getQuestionBank(@PathVariable Long courseId) {
+        try {
+            return ResponseEntity.ok(questionBankService.getStatus(courseId));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/question-bank/{courseId}/refill")
+    public ResponseEntity<Map<String, Object>> refillQuestionBank(@PathVariable Long courseId) {
+        questionBankService.requestRefill(courseId);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(questionBankService.getStatus(courseId));
+    }
+}
@@ -48,4 +48,8 @@ public class QuestionResponseDTO {
         }
         this.options.addAll(options);
     }
+    
+    public QuestionResponseDTO copy() {
+        return new QuestionResponseDTO(id, text, type, options, correctAnswer, quizId, explanation);
+    }
 }
\ No newline at end of file
@@ -37,4 +37,15 @@ public class QuizResponseDTO {
     public void addQuestion(QuestionResponseDTO question) {
         this.questions.add(question);
     }
+
+    /**
+     * Copie profonde (questions comprises), pour partager un résultat sans effet de bord.
+     */
+    public QuizResponseDTO copy() {
+        QuizResponseDTO copy = new QuizResponseDTO(id, title, description, active, createdAt, updatedAt);
+        if (questions != null) {
+            questions.forEach(question -> copy.addQuestion(question != null ? question.copy() : null));
+        }
+        return copy;
+    }
 }
\ No newline at end of file
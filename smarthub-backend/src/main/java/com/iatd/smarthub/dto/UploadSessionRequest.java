@@ -0,0 +1,34 @@
+package com.iatd.smarthub.dto;
+
+import com.iatd.smarthub.model.storage.UploadSession;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Ouverture d'une session d'upload par morceaux (fichier de cours ou rendu de devoir).
+ */
+@Getter
+@Setter
+public class UploadSessionRequest {
+
+    @NotNull(message = "La cible est obligatoire (COURSE_FILE ou SUBMISSION)")
+    private UploadSession.Target target;
+
+    @NotNull(message = "L'identifiant de la cible est obligatoire")
+    private Long targetId;
+
+    @NotBlank(message = "Le nom du fichier est obligatoire")
+    private String fileName;
+
+    private String contentType;
+
+    @NotNull(message = "La taille du fichier est obligatoire")
+    @Positive(message = "La taille du fichier doit être positive")
+    private Long totalSize;
+
+    // Optionnel : taille de morceau souhaitée (sinon valeur par défaut du serveur)
+    private Integer chunkSize;
+}
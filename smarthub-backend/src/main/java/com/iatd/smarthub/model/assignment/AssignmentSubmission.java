@@ -1,5 +1,40 @@
 package com.iatd.smarthub.model.assignment;
 
-public class AssignmentSubmission {
+import com.iatd.smarthub.model.base.BaseEntity;
+import com.iatd.smarthub.model.user.User;
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Entity
+@Table(name = "assignment_submissions",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"assignment_id", "student_id"}))
+@Getter
+@Setter
+@NoArgsConstructor
+public class AssignmentSubmission extends BaseEntity {
+
+    // Référence simple : l'entité Assignment n'est pas encore modélisée
+    @Column(name = "assignment_id", nullable = false)
+    private Long assignmentId;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "student_id", nullable = false)
+    private User student;
+
+    @Column(name = "submitted_at")
+    private LocalDateTime submittedAt;
+
+    @OneToMany(mappedBy = "submission", cascade = CascadeType.ALL, orphanRemoval = true)
+    private List<SubmissionFile> files = new ArrayList<>();
+
+    public AssignmentSubmission(Long assignmentId, User student) {
+        this.assignmentId = assignmentId;
+        this.student = student;
+    }
 }
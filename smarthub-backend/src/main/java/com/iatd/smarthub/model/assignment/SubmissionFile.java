@@ -1,5 +1,44 @@
 package com.iatd.smarthub.model.assignment;
 
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "submission_files")
+@Getter
+@Setter
+@NoArgsConstructor
 public class SubmissionFile {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String fileName;
+
+    @Column(nullable = false)
+    private String filePath; // Nom stocké dans FileStorageService (sha256.ext)
+
+    private String fileType;
+
+    private Long fileSize;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "submission_id", nullable = false)
+    private AssignmentSubmission submission;
+
+    @Column(name = "uploaded_date")
+    private LocalDateTime uploadedDate = LocalDateTime.now();
 
+    public SubmissionFile(String fileName, String filePath, String fileType, Long fileSize, AssignmentSubmission submission) {
+        this.fileName = fileName;
+        this.filePath = filePath;
+        this.fileType = fileType;
+        this.fileSize = fileSize;
+        this.submission = submission;
+    }
 }
@@ -0,0 +1,69 @@
+package com.iatd.smarthub.model.quiz;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Question pré-générée pour un cours : les quiz de cours sont assemblés en tirant
+ * dans cette banque, sans appel au LLM. La version de contenu (empreinte des fichiers
+ * du cours) écarte les questions d'un contenu qui a changé.
+ */
+@Entity
+@Table(name = "question_bank", indexes = {
+        @Index(name = "idx_question_bank_course_version", columnList = "course_id, content_version")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class QuestionBankEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "course_id", nullable = false)
+    private Long courseId;
+
+    @Column(name = "content_version", nullable = false, length = 64)
+    private String contentVersion;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String text;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private QuestionType type;
+
+    @Column(columnDefinition = "TEXT")
+    private String options; // JSON
+
+    @Column(name = "correct_answer", nullable = false, length = 1000)
+    private String correctAnswer;
+
+    @Column(columnDefinition = "TEXT")
+    private String explanation;
+
+    // Passages sources, "fichier#numéro" séparés par des virgules
+    @Column(name = "source_refs", length = 2000)
+    private String sourceRefs;
+
+    // Embedding du texte, pour reconstruire l'index de quasi-doublons sans appel au modèle
+    @Lob
+    @Column(name = "embedding")
+    private float[] embedding;
+
+    @Column(name = "times_served", nullable = false)
+    private Integer timesServed = 0;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "last_served_at")
+    private LocalDateTime lastServedAt;
+}
@@ -0,0 +1,84 @@
+package com.iatd.smarthub.model.quiz;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Génération de quiz exécutée en arrière-plan : la requête HTTP rend la main
+ * immédiatement (202) et le client suit l'avancement par son identifiant.
+ * Les paramètres sont conservés pour reprendre le travail après un redémarrage.
+ */
+@Entity
+@Table(name = "quiz_generation_jobs", indexes = {
+        @Index(name = "idx_quiz_jobs_status_next", columnList = "status, next_attempt_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class QuizGenerationJob {
+
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Type type;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status = Status.PENDING;
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "course_id")
+    private Long courseId;
+
+    @Lob
+    @Column(columnDefinition = "LONGTEXT")
+    private String parameters; // JSON
+
+    @Lob
+    @Column(columnDefinition = "LONGTEXT")
+    private String result; // JSON
+
+    @Column(length = 1000)
+    private String error;
+
+    @Column(length = 255)
+    private String progress;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    public enum Type {
+        COURSE_QUIZ, TOPIC_QUIZ, TEXT_QUIZ, FILE_QUIZ, ADAPTIVE_QUIZ
+    }
+
+    public enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED
+    }
+}
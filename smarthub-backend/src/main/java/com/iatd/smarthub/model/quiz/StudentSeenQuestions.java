@@ -0,0 +1,44 @@
+package com.iatd.smarthub.model.quiz;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Questions déjà présentées à un étudiant pour un cours, sous forme de filtre de Bloom
+ * sérialisé : une seule lecture suffit pour filtrer tout un quiz.
+ */
+@Entity
+@Table(name = "student_seen_questions", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_seen_questions_user_course", columnNames = {"user_id", "course_id"})
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class StudentSeenQuestions {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "course_id", nullable = false)
+    private Long courseId;
+
+    @Lob
+    @Column(name = "bloom_filter")
+    private byte[] bloomFilter;
+
+    @Column(name = "questions_seen", nullable = false)
+    private Integer questionsSeen = 0;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
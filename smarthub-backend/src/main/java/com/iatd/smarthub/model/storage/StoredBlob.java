@@ -0,0 +1,46 @@
+package com.iatd.smarthub.model.storage;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Contenu physique d'un fichier, adressé par son empreinte SHA-256.
+ * Un même contenu uploadé plusieurs fois (plusieurs cours, ressources...)
+ * n'est stocké qu'une seule fois et partagé via un compteur de références.
+ */
+@Entity
+@Table(name = "stored_blobs")
+@Getter
+@Setter
+@NoArgsConstructor
+public class StoredBlob {
+
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount = 0;
+
+    // Texte extrait une seule fois par contenu (PDF, texte...)
+    @Lob
+    @Column(name = "extracted_text", columnDefinition = "LONGTEXT")
+    private String extractedText;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    public StoredBlob(String sha256, Long size) {
+        this.sha256 = sha256;
+        this.size = size;
+    }
+}
@@ -0,0 +1,38 @@
+package com.iatd.smarthub.model.storage;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Morceau reçu et vérifié d'une session d'upload (une ligne par morceau :
+ * les envois parallèles ne se marchent pas dessus).
+ */
+@Entity
+@Table(name = "upload_chunks", indexes = @Index(columnList = "session_id"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class UploadChunk {
+
+    @Id
+    @Column(length = 50)
+    private String id; // sessionId:index
+
+    @Column(name = "session_id", nullable = false, length = 36)
+    private String sessionId;
+
+    @Column(name = "chunk_index", nullable = false)
+    private Integer chunkIndex;
+
+    @Column(length = 64)
+    private String sha256;
+
+    public UploadChunk(String sessionId, Integer chunkIndex, String sha256) {
+        this.id = sessionId + ":" + chunkIndex;
+        this.sessionId = sessionId;
+        this.chunkIndex = chunkIndex;
+        this.sha256 = sha256;
+    }
+}
@@ -0,0 +1,75 @@
+package com.iatd.smarthub.model.storage;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Session d'upload par morceaux : le fichier est assemblé directement sur disque,
+ * morceau par morceau, puis validé (commit) dans le store dédupliqué.
+ */
+@Entity
+@Table(name = "upload_sessions")
+@Getter
+@Setter
+@NoArgsConstructor
+public class UploadSession {
+
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @Column(name = "owner_id", nullable = false)
+    private Long ownerId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Target target;
+
+    @Column(name = "target_id", nullable = false)
+    private Long targetId; // courseId ou assignmentId selon la cible
+
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+
+    @Column(name = "content_type")
+    private String contentType;
+
+    @Column(name = "total_size", nullable = false)
+    private Long totalSize;
+
+    @Column(name = "chunk_size", nullable = false)
+    private Integer chunkSize;
+
+    @Column(name = "chunk_count", nullable = false)
+    private Integer chunkCount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status = Status.OPEN;
+
+    @Column(name = "stored_file_name")
+    private String storedFileName;
+
+    @Column(name = "result_id")
+    private Long resultId; // id du CourseFile / SubmissionFile créé
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "expires_at")
+    private LocalDateTime expiresAt;
+
+    public enum Target {
+        COURSE_FILE, SUBMISSION
+    }
+
+    public enum Status {
+        OPEN, COMMITTING, COMMITTED, ABORTED
+    }
+}
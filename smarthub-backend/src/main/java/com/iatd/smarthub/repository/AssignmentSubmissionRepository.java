@@ -1,5 +1,16 @@
 package com.iatd.smarthub.repository;
 
-public class AssignmentSubmissionRepository {
+import com.iatd.smarthub.model.assignment.AssignmentSubmission;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
 
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface AssignmentSubmissionRepository extends JpaRepository<AssignmentSubmission, Long> {
+
+    Optional<AssignmentSubmission> findByAssignmentIdAndStudentId(Long assignmentId, Long studentId);
+
+    List<AssignmentSubmission> findByAssignmentId(Long assignmentId);
 }
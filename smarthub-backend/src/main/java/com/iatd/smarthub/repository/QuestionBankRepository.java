@@ -0,0 +1,34 @@
+package com.iatd.smarthub.repository;
+
+import com.iatd.smarthub.model.quiz.QuestionBankEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface QuestionBankRepository extends JpaRepository<QuestionBankEntry, Long> {
+
+    List<QuestionBankEntry> findByCourseIdAndContentVersion(Long courseId, String contentVersion);
+
+    long countByCourseIdAndContentVersion(Long courseId, String contentVersion);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE QuestionBankEntry q SET q.timesServed = q.timesServed + 1, q.lastServedAt = :now WHERE q.id IN :ids")
+    int markServed(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    /**
+     * Supprime les questions générées pour une ancienne version du contenu du cours.
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM QuestionBankEntry q WHERE q.courseId = :courseId AND q.contentVersion <> :contentVersion")
+    int deleteStale(@Param("courseId") Long courseId, @Param("contentVersion") String contentVersion);
+}
@@ -0,0 +1,39 @@
+package com.iatd.smarthub.repository;
+
+import com.iatd.smarthub.model.quiz.QuizGenerationJob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface QuizGenerationJobRepository extends JpaRepository<QuizGenerationJob, String> {
+
+    List<QuizGenerationJob> findByStatusAndNextAttemptAtLessThanEqualOrderByCreatedAtAsc(
+            QuizGenerationJob.Status status, LocalDateTime now, Pageable pageable);
+
+    List<QuizGenerationJob> findByStatus(QuizGenerationJob.Status status);
+
+    long countByStatusAndCreatedAtBefore(QuizGenerationJob.Status status, LocalDateTime createdAt);
+
+    /**
+     * Prise en charge atomique d'un job en attente : 0 si un autre worker l'a déjà pris.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE QuizGenerationJob j SET j.status = com.iatd.smarthub.model.quiz.QuizGenerationJob.Status.RUNNING, " +
+           "j.startedAt = :now, j.attempts = j.attempts + 1, j.progress = :progress " +
+           "WHERE j.id = :id AND j.status = com.iatd.smarthub.model.quiz.QuizGenerationJob.Status.PENDING")
+    int claim(@Param("id") String id, @Param("now") LocalDateTime now, @Param("progress") String progress);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM QuizGenerationJob j WHERE j.finishedAt < :before")
+    int deleteFinishedBefore(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,56 @@
+package com.iatd.smarthub.repository;
+
+import com.iatd.smarthub.model.storage.StoredBlob;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String> {
+
+    /**
+     * Verrou exclusif sur la ligne d'un contenu, tenu jusqu'à la fin de la transaction :
+     * sérialise uploads et libérations d'un même SHA-256 entre toutes les instances.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM StoredBlob b WHERE b.sha256 = :sha256")
+    Optional<StoredBlob> findForUpdate(@Param("sha256") String sha256);
+
+    /**
+     * Ajoute une référence au contenu, en créant sa ligne si besoin, en une seule instruction :
+     * la ligne reste verrouillée jusqu'à la fin de la transaction appelante.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO stored_blobs (sha256, size, ref_count, created_at) VALUES (:sha256, :size, 1, NOW()) " +
+                   "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1", nativeQuery = true)
+    int addReference(@Param("sha256") String sha256, @Param("size") long size);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE StoredBlob b SET b.refCount = b.refCount - 1 WHERE b.sha256 = :sha256 AND b.refCount > 0")
+    int decrementRefCount(@Param("sha256") String sha256);
+
+    /**
+     * Compteur lu en base (et non dans l'entité éventuellement en cache après une mise à jour en masse).
+     */
+    @Query("SELECT b.refCount FROM StoredBlob b WHERE b.sha256 = :sha256")
+    Optional<Integer> findRefCount(@Param("sha256") String sha256);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM StoredBlob b WHERE b.sha256 = :sha256 AND b.refCount = 0")
+    int deleteIfUnreferenced(@Param("sha256") String sha256);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE StoredBlob b SET b.extractedText = :text WHERE b.sha256 = :sha256")
+    int updateExtractedText(@Param("sha256") String sha256, @Param("text") String text);
+}
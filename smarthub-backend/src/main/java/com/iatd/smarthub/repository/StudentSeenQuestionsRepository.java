@@ -0,0 +1,39 @@
+package com.iatd.smarthub.repository;
+
+import com.iatd.smarthub.model.quiz.StudentSeenQuestions;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+@Repository
+public interface StudentSeenQuestionsRepository extends JpaRepository<StudentSeenQuestions, Long> {
+
+    Optional<StudentSeenQuestions> findByUserIdAndCourseId(Long userId, Long courseId);
+
+    /**
+     * Crée la ligne (étudiant, cours) si besoin, en une seule instruction : deux premiers quiz
+     * simultanés ne se heurtent plus à la contrainte d'unicité, et la ligne reste verrouillée
+     * jusqu'à la fin de la transaction appelante.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO student_seen_questions (user_id, course_id, questions_seen, updated_at) " +
+                   "VALUES (:userId, :courseId, 0, NOW()) ON DUPLICATE KEY UPDATE questions_seen = questions_seen",
+           nativeQuery = true)
+    int ensureExists(@Param("userId") Long userId, @Param("courseId") Long courseId);
+
+    /**
+     * Verrou exclusif sur le filtre, tenu jusqu'à la fin de la transaction : les mises à jour
+     * concurrentes d'un même étudiant s'enchaînent au lieu d'écraser les bits l'une de l'autre.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM StudentSeenQuestions s WHERE s.userId = :userId AND s.courseId = :courseId")
+    Optional<StudentSeenQuestions> findForUpdate(@Param("userId") Long userId, @Param("courseId") Long courseId);
+}
@@ -0,0 +1,13 @@
+package com.iatd.smarthub.repository;
+
+import com.iatd.smarthub.model.assignment.SubmissionFile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface SubmissionFileRepository extends JpaRepository<SubmissionFile, Long> {
+
+    List<SubmissionFile> findBySubmissionId(Long submissionId);
+}
@@ -0,0 +1,38 @@
+package com.iatd.smarthub.repository;
+
+import com.iatd.smarthub.model.storage.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    List<UploadSession> findByStatusAndExpiresAtBefore(UploadSession.Status status, LocalDateTime dateTime);
+
+    /**
+     * Prise en charge atomique de la validation d'une session ouverte : 0 si une autre
+     * validation l'a déjà prise (ou si la session n'est plus ouverte).
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = com.iatd.smarthub.model.storage.UploadSession.Status.COMMITTING " +
+           "WHERE s.id = :id AND s.status = com.iatd.smarthub.model.storage.UploadSession.Status.OPEN " +
+           "AND (s.expiresAt IS NULL OR s.expiresAt > :now)")
+    int claimForCommit(@Param("id") String id, @Param("now") LocalDateTime now);
+
+    /**
+     * Validation échouée : la session redevient ouverte (morceaux renvoyables, nouvelle validation possible).
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = com.iatd.smarthub.model.storage.UploadSession.Status.OPEN " +
+           "WHERE s.id = :id AND s.status = com.iatd.smarthub.model.storage.UploadSession.Status.COMMITTING")
+    int releaseCommit(@Param("id") String id);
+}
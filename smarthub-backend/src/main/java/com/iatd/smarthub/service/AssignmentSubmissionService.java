@@ -1,5 +1,103 @@
 package com.iatd.smarthub.service;
 
+import com.iatd.smarthub.model.assignment.AssignmentSubmission;
+import com.iatd.smarthub.model.assignment.SubmissionFile;
+import com.iatd.smarthub.model.user.User;
+import com.iatd.smarthub.repository.AssignmentSubmissionRepository;
+import com.iatd.smarthub.repository.SubmissionFileRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
 public class AssignmentSubmissionService {
 
+    private final AssignmentSubmissionRepository submissionRepository;
+    private final SubmissionFileRepository submissionFileRepository;
+    private final FileStorageService fileStorageService;
+    private final UserService userService;
+
+    /**
+     * Upload direct (petits fichiers). Les gros rendus passent par les sessions d'upload par morceaux.
+     */
+    @Transactional
+    public SubmissionFile uploadFile(Long assignmentId, Long studentId, MultipartFile file) throws IOException {
+        checkCanSubmit(assignmentId, studentId);
+        String storedFileName = fileStorageService.storeFile(file);
+        return attachStoredFile(assignmentId, studentId, storedFileName,
+                file.getOriginalFilename(), file.getContentType(), file.getSize());
+    }
+
+    /**
+     * Vérifie que l'utilisateur peut déposer un rendu pour ce devoir : seul un étudiant rend un devoir.
+     * L'entité Assignment n'étant pas encore modélisée, existence du devoir, date limite et
+     * inscription au cours ne peuvent pas encore être contrôlées ici.
+     */
+    public void checkCanSubmit(Long assignmentId, Long studentId) {
+        if (assignmentId == null || assignmentId <= 0) {
+            throw new RuntimeException("Devoir invalide: " + assignmentId);
+        }
+        User student = userService.getUserEntityById(studentId);
+        if (student.getRole() != User.Role.STUDENT) {
+            throw new RuntimeException("Seul un étudiant peut déposer un rendu de devoir");
+        }
+    }
+
+    /**
+     * Rattache un fichier déjà présent dans le store au rendu de l'étudiant (créé si besoin).
+     */
+    @Transactional
+    public SubmissionFile attachStoredFile(Long assignmentId, Long studentId, String storedFileName,
+                                           String fileName, String fileType, Long fileSize) {
+        checkCanSubmit(assignmentId, studentId);
+        User student = userService.getUserEntityById(studentId);
+
+        AssignmentSubmission submission = submissionRepository
+                .findByAssignmentIdAndStudentId(assignmentId, studentId)
+                .orElseGet(() -> submissionRepository.save(new AssignmentSubmission(assignmentId, student)));
+        submission.setSubmittedAt(LocalDateTime.now());
+
+        SubmissionFile submissionFile = new SubmissionFile(fileName, storedFileName, fileType, fileSize, submission);
+        submission.getFiles().add(submissionFile);
+        submissionFileRepository.save(submissionFile);
+
+        log.info("📎 Fichier {} ajouté au rendu (devoir {}, étudiant {})", fileName, assignmentId, studentId);
+        return submissionFile;
+    }
+
+    public List<SubmissionFile> getSubmissionFiles(Long assignmentId, Long studentId) {
+        return submissionRepository.findByAssignmentIdAndStudentId(assignmentId, studentId)
+                .map(submission -> submissionFileRepository.findBySubmissionId(submission.getId()))
+                .orElse(List.of());
+    }
+
+    public SubmissionFile getSubmissionFile(Long fileId) {
+        return submissionFileRepository.findById(fileId)
+                .orElseThrow(() -> new RuntimeException("Fichier de rendu non trouvé"));
+    }
+
+    @Transactional
+    public void deleteFile(Long fileId, Long studentId) {
+        SubmissionFile submissionFile = getSubmissionFile(fileId);
+
+        if (!submissionFile.getSubmission().getStudent().getId().equals(studentId)) {
+            throw new RuntimeException("Seul l'étudiant auteur du rendu peut supprimer ce fichier");
+        }
+
+        try {
+            fileStorageService.deleteFile(submissionFile.getFilePath());
+        } catch (IOException e) {
+            log.warn("Could not delete physical file: {}", e.getMessage());
+        }
+        submissionFile.getSubmission().getFiles().remove(submissionFile);
+        submissionFileRepository.delete(submissionFile);
+    }
 }
@@ -4,16 +4,14 @@ import com.iatd.smarthub.model.course.Course;
 import com.iatd.smarthub.model.course.CourseFile;
 import com.iatd.smarthub.model.user.User;
 import com.iatd.smarthub.repository.CourseFileRepository;
+import com.iatd.smarthub.service.llm.LlmResponseCache;
+import com.iatd.smarthub.service.rag.QuestionBankService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
-import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
@@ -22,11 +20,34 @@ public class CourseFileService {
     private final CourseFileRepository courseFileRepository;
     private final CourseService courseService;
     private final UserService userService;
-
-    // Répertoire de stockage des fichiers
-    private final Path fileStorageLocation = Paths.get("uploads/courses").toAbsolutePath().normalize();
+    private final FileStorageService fileStorageService;
+    private final LlmResponseCache llmResponseCache;
+    private final QuestionBankService questionBankService;
 
     public CourseFile uploadFile(Long courseId, Long teacherId, MultipartFile file) throws IOException {
+        checkCanUpload(courseId, teacherId);
+
+        // Stockage dédupliqué (SHA-256) : un même fichier partagé entre cours n'est stocké qu'une fois
+        String storedFileName = fileStorageService.storeFile(file);
+        return attachStoredFile(courseId, teacherId, storedFileName,
+                file.getOriginalFilename(), file.getContentType(), file.getSize());
+    }
+
+    /**
+     * Vérifie que l'enseignant peut ajouter des fichiers au cours.
+     */
+    public void checkCanUpload(Long courseId, Long teacherId) {
+        Course course = courseService.getCourseById(courseId);
+        if (!course.getTeacher().getId().equals(teacherId)) {
+            throw new RuntimeException("Seul l'enseignant du cours peut uploader des fichiers");
+        }
+    }
+
+    /**
+     * Crée le CourseFile pour un fichier déjà présent dans le store (upload direct ou par morceaux).
+     */
+    public CourseFile attachStoredFile(Long courseId, Long teacherId, String storedFileName,
+                                       String fileName, String fileType, Long fileSize) {
         // Vérifier que le cours existe et que l'enseignant est le propriétaire
         Course course = courseService.getCourseById(courseId);
         User teacher = userService.getUserEntityById(teacherId);
@@ -36,29 +57,21 @@ public class CourseFileService {
             throw new RuntimeException("Seul l'enseignant du cours peut uploader des fichiers");
         }
 
-        // Créer le répertoire s'il n'existe pas
-        Files.createDirectories(fileStorageLocation);
-
-        // Générer un nom de fichier unique
-        String originalFileName = file.getOriginalFilename();
-        String fileExtension = getFileExtension(originalFileName);
-        String storedFileName = UUID.randomUUID().toString() + "." + fileExtension;
-        Path targetLocation = fileStorageLocation.resolve(storedFileName);
-
-        // Copier le fichier
-        Files.copy(file.getInputStream(), targetLocation);
-
         // Créer l'entité CourseFile
         CourseFile courseFile = new CourseFile(
-            originalFileName,
-            targetLocation.toString(),
-            file.getContentType(),
-            file.getSize(),
+            fileName,
+            storedFileName,
+            fileType,
+            fileSize,
             course,
             teacher
         );
 
-        return courseFileRepository.save(courseFile);
+        CourseFile saved = courseFileRepository.save(courseFile);
+        // Les quiz générés depuis les fichiers du cours ne sont plus à jour
+        llmResponseCache.invalidateScope(LlmResponseCache.courseScope(courseId));
+        questionBankService.requestRefill(courseId);
+        return saved;
     }
 
     public List<CourseFile> getFilesByCourseId(Long courseId) {
@@ -75,10 +88,12 @@ public class CourseFileService {
         }
 
         try {
-            // Supprimer le fichier physique
-            Files.deleteIfExists(Paths.get(courseFile.getFilePath()));
+            // Libérer la référence (fichier physique supprimé au dernier référent)
+            fileStorageService.deleteFile(courseFile.getFilePath());
             // Supprimer l'entrée en base
             courseFileRepository.delete(courseFile);
+            llmResponseCache.invalidateScope(LlmResponseCache.courseScope(courseFile.getCourse().getId()));
+            questionBankService.requestRefill(courseFile.getCourse().getId());
         } catch (IOException e) {
             throw new RuntimeException("Erreur lors de la suppression du fichier: " + e.getMessage());
         }
@@ -88,10 +103,4 @@ public class CourseFileService {
         return courseFileRepository.findById(fileId)
                 .orElseThrow(() -> new RuntimeException("Fichier non trouvé"));
     }
-
-    private String getFileExtension(String fileName) {
-        if (fileName == null) return "";
-        int lastDotIndex = fileName.lastIndexOf(".");
-        return (lastDotIndex == -1) ? "" : fileName.substring(lastDotIndex + 1);
-    }
 }
\ No newline at end of file
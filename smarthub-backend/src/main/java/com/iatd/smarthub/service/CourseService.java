@@ -4,6 +4,8 @@ import com.iatd.smarthub.model.course.Course;
 import com.iatd.smarthub.repository.*;
 import com.iatd.smarthub.model.course.CourseFile;
 import com.iatd.smarthub.model.user.User;
+import com.iatd.smarthub.service.llm.LlmResponseCache;
+import com.iatd.smarthub.service.rag.QuestionBankService;
 import com.iatd.smarthub.repository.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -27,6 +29,8 @@ public class CourseService {
     private final UserRepository userRepository;
     private final CourseFileRepository courseFileRepository;
     private final FileStorageService fileStorageService;
+    private final LlmResponseCache llmResponseCache;
+    private final QuestionBankService questionBankService;
     // ⚠️ RETIREZ CourseStudentRepository
     
     // ============ GESTION DES ÉTUDIANTS (CORRIGÉ) ============
@@ -334,6 +338,8 @@ public class CourseService {
         }
         
         courseRepository.save(course);
+        llmResponseCache.invalidateScope(LlmResponseCache.courseScope(courseId));
+        questionBankService.requestRefill(courseId);
     }
     
     @Transactional
@@ -348,6 +354,8 @@ public class CourseService {
         }
         
         courseFileRepository.delete(courseFile);
+        llmResponseCache.invalidateScope(LlmResponseCache.courseScope(courseFile.getCourse().getId()));
+        questionBankService.requestRefill(courseFile.getCourse().getId());
     }
     
     @Transactional
@@ -363,6 +371,7 @@ public class CourseService {
         }
         
         courseFileRepository.deleteAll(files);
+        llmResponseCache.invalidateScope(LlmResponseCache.courseScope(courseId));
     }
     
     @Transactional(readOnly = true)
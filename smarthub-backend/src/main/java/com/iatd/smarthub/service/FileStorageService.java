@@ -1,56 +1,308 @@
 package com.iatd.smarthub.service;
 
+import com.iatd.smarthub.model.storage.StoredBlob;
+import com.iatd.smarthub.repository.StoredBlobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * Stockage de fichiers adressé par contenu (SHA-256).
+ *
+ * Le nom retourné par {@link #storeFile} est "<sha256>.<ext>" : deux uploads
+ * identiques partagent le même fichier physique, libéré quand plus aucune
+ * entité ne le référence. Les anciens chemins (UUID, chemins absolus de
+ * uploads/courses) restent résolus par {@link #resolvePath}.
+ */
+@Slf4j
 @Service
+@RequiredArgsConstructor
 public class FileStorageService {
 
+    private static final Pattern STORED_NAME_PATTERN = Pattern.compile("^([0-9a-f]{64})(\\.[A-Za-z0-9]{1,10})?$");
+    private static final String BLOBS_DIR = "blobs";
+    private static final String TMP_DIR = "tmp";
+
+    private final StoredBlobRepository storedBlobRepository;
+    private final PlatformTransactionManager transactionManager;
+
     @Value("${file.upload-dir}")
     private String uploadDir;
 
+    @Transactional
     public String storeFile(MultipartFile file) throws IOException {
-        // Créer le répertoire s'il n'existe pas
-        Path uploadPath = Paths.get(uploadDir);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
+        try (InputStream in = file.getInputStream()) {
+            return store(in, file.getOriginalFilename());
         }
+    }
+
+    /**
+     * Stocke un flux en calculant son SHA-256 à la volée (aucune mise en mémoire complète).
+     * Si le contenu existe déjà, seul son compteur de références est incrémenté.
+     */
+    @Transactional
+    public String store(InputStream in, String originalFileName) throws IOException {
+        Path tmpFile = getTempFile(UUID.randomUUID() + ".part");
 
-        // Générer un nom de fichier unique pour éviter les collisions
-        String originalFileName = file.getOriginalFilename();
-        String fileExtension = "";
-        if (originalFileName != null && originalFileName.contains(".")) {
-            fileExtension = originalFileName.substring(originalFileName.lastIndexOf("."));
+        MessageDigest digest = newSha256();
+        long size;
+        try (DigestInputStream digestIn = new DigestInputStream(in, digest);
+             OutputStream out = Files.newOutputStream(tmpFile)) {
+            size = digestIn.transferTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
         }
 
-        String fileName = UUID.randomUUID().toString() + fileExtension;
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        return commitTempFile(tmpFile, sha256, size, originalFileName);
+    }
 
-        // Copier le fichier dans le répertoire de destination
-        Path targetLocation = uploadPath.resolve(fileName);
-        Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Enregistre un fichier temporaire déjà haché dans le store (déplacement atomique
+     * si le contenu est nouveau, suppression du temporaire sinon).
+     *
+     * La ligne du contenu est verrouillée en base (référence ajoutée) avant de toucher au
+     * fichier : une libération concurrente du même contenu attend la fin de la transaction.
+     */
+    @Transactional
+    public String commitTempFile(Path tmpFile, String sha256, long size, String originalFileName) throws IOException {
+        try {
+            storedBlobRepository.addReference(sha256, size);
 
-        return fileName;
+            Path target = getBlobPath(sha256);
+            if (Files.exists(target)) {
+                Files.deleteIfExists(tmpFile);
+                log.info("♻️ Contenu déjà stocké, déduplication: {}", sha256);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE);
+                log.info("💾 Nouveau contenu stocké: {} ({} octets)", sha256, size);
+                // Upload annulé : le contenu ajouté est libéré s'il reste sans référence
+                runAfterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK, () -> releaseIfUnreferenced(sha256));
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
+        return sha256 + normalizeExtension(originalFileName);
     }
 
-    public byte[] loadFile(String fileName) throws IOException {
-        Path filePath = Paths.get(uploadDir).resolve(fileName);
-        return Files.readAllBytes(filePath);
+    /**
+     * Libère une référence. Le fichier physique n'est supprimé qu'au dernier
+     * référent, après commit de la transaction appelante.
+     */
+    @Transactional
+    public void deleteFile(String fileName) throws IOException {
+        String sha256 = extractSha256(fileName);
+        if (sha256 == null) {
+            // Ancien fichier non dédupliqué
+            Files.deleteIfExists(resolvePath(fileName));
+            return;
+        }
+
+        if (storedBlobRepository.findForUpdate(sha256).isEmpty()) {
+            log.warn("⚠️ Contenu {} inconnu, rien à libérer", sha256);
+            return;
+        }
+        storedBlobRepository.decrementRefCount(sha256);
+        int remaining = storedBlobRepository.findRefCount(sha256).orElse(0);
+        if (remaining > 0) {
+            log.debug("🔗 Contenu {} encore référencé {} fois", sha256, remaining);
+            return;
+        }
+        runAfterCompletion(TransactionSynchronization.STATUS_COMMITTED, () -> releaseIfUnreferenced(sha256));
     }
 
-    public void deleteFile(String fileName) throws IOException {
-        Path filePath = Paths.get(uploadDir).resolve(fileName);
-        Files.deleteIfExists(filePath);
+    /**
+     * Supprime fichier et ligne d'un contenu sans référence, dans une transaction dédiée qui
+     * verrouille la ligne (ou son emplacement si elle n'existe plus) : un upload du même
+     * contenu attend la fin de la suppression, puis recrée le fichier.
+     */
+    private void releaseIfUnreferenced(String sha256) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transaction.executeWithoutResult(status -> {
+            Optional<StoredBlob> blob = storedBlobRepository.findForUpdate(sha256);
+            if (blob.isPresent() && blob.get().getRefCount() > 0) {
+                return;
+            }
+            Path target = getBlobPath(sha256);
+            try {
+                Files.deleteIfExists(target);
+                log.info("🗑️ Contenu supprimé (plus aucune référence): {}", sha256);
+            } catch (IOException e) {
+                log.warn("⚠️ Impossible de supprimer {}: {}", target, e.getMessage());
+                return;
+            }
+            blob.ifPresent(b -> storedBlobRepository.deleteIfUnreferenced(sha256));
+        });
+    }
+
+    /**
+     * Résout un nom stocké (nouveau format ou ancien chemin) vers le fichier physique.
+     */
+    public Path resolvePath(String fileName) {
+        if (fileName == null || fileName.isBlank()) {
+            throw new RuntimeException("Nom de fichier vide");
+        }
+
+        String sha256 = extractSha256(fileName);
+        if (sha256 != null) {
+            return getBlobPath(sha256);
+        }
+
+        // Anciens chemins absolus (CourseFileService stockait le chemin complet)
+        Path direct = Paths.get(fileName);
+        if (direct.isAbsolute()) {
+            return direct.normalize();
+        }
+
+        for (Path base : getLegacyRoots()) {
+            Path candidate = base.resolve(fileName).normalize();
+            if (candidate.startsWith(base) && Files.exists(candidate)) {
+                return candidate;
+            }
+        }
+
+        Path root = getRootPath();
+        Path fallback = root.resolve(fileName).normalize();
+        if (!fallback.startsWith(root)) {
+            throw new RuntimeException("Chemin de fichier invalide: " + fileName);
+        }
+        return fallback;
+    }
+
+    public boolean exists(String fileName) {
+        try {
+            return Files.exists(resolvePath(fileName));
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Texte déjà extrait pour ce contenu, s'il existe (extraction faite une seule fois par SHA-256).
+     */
+    public Optional<String> getExtractedText(String fileName) {
+        String sha256 = extractSha256(fileName);
+        if (sha256 == null) {
+            return Optional.empty();
+        }
+        return storedBlobRepository.findById(sha256).map(StoredBlob::getExtractedText);
+    }
+
+    @Transactional
+    public void saveExtractedText(String fileName, String text) {
+        String sha256 = extractSha256(fileName);
+        if (sha256 == null || text == null) {
+            return;
+        }
+        // Mise à jour ciblée : ne réécrit pas un compteur de références périmé
+        storedBlobRepository.updateExtractedText(sha256, text);
+    }
+
+    /**
+     * Empreinte SHA-256 d'un nom stocké, ou null pour un ancien fichier.
+     */
+    public String extractSha256(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        Matcher matcher = STORED_NAME_PATTERN.matcher(fileName);
+        return matcher.matches() ? matcher.group(1) : null;
     }
 
     public String getFileDownloadUrl(String fileName) {
         return "/api/v1/resources/files/" + fileName;
     }
+
+    public Path getRootPath() {
+        return Paths.get(uploadDir).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Fichier temporaire sur le même volume que le store (déplacement atomique possible au commit).
+     */
+    public Path getTempFile(String name) throws IOException {
+        Path tmpDir = getRootPath().resolve(TMP_DIR);
+        Files.createDirectories(tmpDir);
+        Path tmpFile = tmpDir.resolve(name).normalize();
+        if (!tmpFile.startsWith(tmpDir)) {
+            throw new RuntimeException("Nom de fichier temporaire invalide: " + name);
+        }
+        return tmpFile;
+    }
+
+    private Path getBlobPath(String sha256) {
+        return getRootPath().resolve(BLOBS_DIR).resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private List<Path> getLegacyRoots() {
+        return List.of(
+                getRootPath(),
+                Paths.get("uploads").toAbsolutePath().normalize(),
+                Paths.get("uploads/courses").toAbsolutePath().normalize()
+        );
+    }
+
+    /**
+     * Exécute action à la fin de la transaction courante si elle se termine avec le statut donné
+     * (immédiatement, hors transaction, pour un commit).
+     */
+    private void runAfterCompletion(int expectedStatus, Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == expectedStatus) {
+                        action.run();
+                    }
+                }
+            });
+        } else if (expectedStatus == TransactionSynchronization.STATUS_COMMITTED) {
+            action.run();
+        }
+    }
+
+    private String normalizeExtension(String originalFileName) {
+        if (originalFileName == null || !originalFileName.contains(".")) {
+            return "";
+        }
+        String ext = originalFileName.substring(originalFileName.lastIndexOf('.') + 1).toLowerCase();
+        return ext.matches("[a-z0-9]{1,10}") ? "." + ext : "";
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 indisponible", e);
+        }
+    }
 }
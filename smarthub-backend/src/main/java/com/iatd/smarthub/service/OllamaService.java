@@ -2,36 +2,184 @@ package com.iatd.smarthub.service;
 
 import com.iatd.smarthub.model.quiz.Question;
 import com.iatd.smarthub.model.quiz.QuestionType;
+import com.iatd.smarthub.service.llm.GeminiCircuitBreaker;
+import com.iatd.smarthub.service.llm.GeminiContextCache;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
+import com.iatd.smarthub.service.llm.GeminiHedger;
+import com.iatd.smarthub.service.llm.GeminiHttpClient;
+import com.iatd.smarthub.service.llm.LlmRequest;
+import com.iatd.smarthub.service.llm.LlmResponseCache;
+import com.iatd.smarthub.service.llm.LlmRouter;
+import com.iatd.smarthub.service.llm.LlmTokenAccounting;
+import com.iatd.smarthub.service.llm.LlmTask;
+import com.iatd.smarthub.service.llm.LlmTrafficRecorder;
+import com.iatd.smarthub.service.llm.LlmTrafficReplay;
+import com.iatd.smarthub.service.llm.QuizJsonStreamParser;
+import com.iatd.smarthub.service.llm.ReactiveGeminiClient;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Slf4j
 @Service
 public class OllamaService {
     
-    @Value("${gemini.api.key:}")
-    private String geminiApiKey;
-    
     @Value("${gemini.model.name:gemini-2.5-flash}")
     private String geminiModelName;
     
-    @Value("${gemini.api.url:https://generativelanguage.googleapis.com/v1beta/models/}")
-    private String geminiApiUrl;
-    
-    private final RestTemplate restTemplate;
+    @Value("${gemini.stream.thinking-budget:0}")
+    private int streamThinkingBudget;
+
+    @Value("${gemini.top-up.max-attempts:2}")
+    private int topUpMaxAttempts;
+
+    @Value("${gemini.top-up.backoff-ms:500}")
+    private long topUpBackoffMs;
+
+    @Value("${gemini.top-up.max-backoff-ms:5000}")
+    private long topUpMaxBackoffMs;
+
+    private final LongAdder partialResponses = new LongAdder();
+    private final LongAdder topUpCalls = new LongAdder();
+    private final LongAdder topUpFailures = new LongAdder();
+    private final LongAdder toppedUpQuestions = new LongAdder();
+    private final LongAdder shortResults = new LongAdder();
+
+    private final GeminiHttpClient geminiHttpClient;
+    private final ReactiveGeminiClient reactiveGeminiClient;
+    private final LlmResponseCache responseCache;
+    private final LlmRouter llmRouter;
+    private final GeminiContextCache contextCache;
+    private final LlmTrafficRecorder trafficRecorder;
+    private final LlmTrafficReplay trafficReplay;
+    private final LlmTokenAccounting tokenAccounting;
+    private final GeminiHedger hedger;
     private final ObjectMapper objectMapper;
     
-    public OllamaService() {
-        this.restTemplate = new RestTemplate();
+    public OllamaService(GeminiHttpClient geminiHttpClient, ReactiveGeminiClient reactiveGeminiClient,
+                         LlmResponseCache responseCache, LlmRouter llmRouter, GeminiContextCache contextCache,
+                         LlmTrafficRecorder trafficRecorder, LlmTrafficReplay trafficReplay,
+                         LlmTokenAccounting tokenAccounting, GeminiHedger hedger) {
+        this.geminiHttpClient = geminiHttpClient;
+        this.reactiveGeminiClient = reactiveGeminiClient;
+        this.responseCache = responseCache;
+        this.llmRouter = llmRouter;
+        this.contextCache = contextCache;
+        this.trafficRecorder = trafficRecorder;
+        this.trafficReplay = trafficReplay;
+        this.tokenAccounting = tokenAccounting;
+        this.hedger = hedger;
         this.objectMapper = new ObjectMapper();
     }
     
+    /**
+     * Appel Gemini synchrone : servi par le rejeu s'il est actif, enregistré si l'enregistrement
+     * est actif. recordedRequest est la requête autonome (contexte partagé remis en ligne).
+     * La consommation de tokens de la réponse est comptabilisée.
+     */
+    private Map<String, Object> callGemini(String operation, String method, Map<String, Object> recordedRequest,
+                                           Supplier<Map<String, Object>> call) {
+        Map<String, Object> response = exchangeGemini(operation, method, recordedRequest, call);
+        tokenAccounting.recordUsage(operation, method, response);
+        return response;
+    }
+    
+    private Map<String, Object> exchangeGemini(String operation, String method, Map<String, Object> recordedRequest,
+                                               Supplier<Map<String, Object>> call) {
+        if (trafficReplay.isEnabled()) {
+            return trafficReplay.replay(method, recordedRequest);
+        }
+        // Appel réel doublé s'il traîne (hedging) ; seule la réponse retenue est enregistrée
+        if (!trafficRecorder.isEnabled()) {
+            return hedger.call(operation, call);
+        }
+        long start = System.nanoTime();
+        try {
+            Map<String, Object> response = hedger.call(operation, call);
+            trafficRecorder.record(operation, method, recordedRequest, response, elapsedMs(start));
+            return response;
+        } catch (RuntimeException e) {
+            trafficRecorder.recordFailure(operation, method, recordedRequest, e, elapsedMs(start));
+            throw e;
+        }
+    }
+    
+    private Map<String, Object> postGemini(String operation, String method, Map<String, Object> request) {
+        return callGemini(operation, method, request, () -> geminiHttpClient.post(operation, method, request));
+    }
+    
+    private Mono<Map<String, Object>> postGeminiAsync(String operation, String method, Map<String, Object> request) {
+        return exchangeGeminiAsync(operation, method, request)
+            .doOnNext(response -> tokenAccounting.recordUsage(operation, method, response));
+    }
+    
+    private Mono<Map<String, Object>> exchangeGeminiAsync(String operation, String method, Map<String, Object> request) {
+        if (trafficReplay.isEnabled()) {
+            return trafficReplay.replayAsync(method, request);
+        }
+        Supplier<Mono<Map<String, Object>>> call = () -> reactiveGeminiClient.post(operation, method, request);
+        if (!trafficRecorder.isEnabled()) {
+            return hedger.callAsync(operation, call);
+        }
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return hedger.callAsync(operation, call)
+                .doOnSuccess(response -> trafficRecorder.record(operation, method, request, response, elapsedMs(start)))
+                .doOnError(e -> trafficRecorder.recordFailure(operation, method, request, e, elapsedMs(start)));
+        });
+    }
+    
+    /**
+     * Flux Gemini ; la consommation comptée est celle du dernier morceau portant usageMetadata.
+     */
+    private Flux<Map<String, Object>> streamGemini(String operation, String method, Map<String, Object> request) {
+        return Flux.defer(() -> {
+            AtomicReference<Map<String, Object>> lastUsage = new AtomicReference<>();
+            return exchangeGeminiStream(operation, method, request)
+                .doOnNext(chunk -> {
+                    if (chunk.containsKey("usageMetadata")) {
+                        lastUsage.set(chunk);
+                    }
+                })
+                .doOnComplete(() -> tokenAccounting.recordUsage(operation, method, lastUsage.get()));
+        });
+    }
+    
+    private Flux<Map<String, Object>> exchangeGeminiStream(String operation, String method, Map<String, Object> request) {
+        if (trafficReplay.isEnabled()) {
+            return trafficReplay.replayStream(method, request);
+        }
+        if (!trafficRecorder.isEnabled()) {
+            return reactiveGeminiClient.stream(operation, method, request);
+        }
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            List<LlmTrafficRecorder.StreamChunk> chunks = Collections.synchronizedList(new ArrayList<>());
+            return reactiveGeminiClient.stream(operation, method, request)
+                .doOnNext(chunk -> chunks.add(new LlmTrafficRecorder.StreamChunk(elapsedMs(start), chunk)))
+                .doOnComplete(() -> trafficRecorder.recordStream(operation, method, request, chunks, elapsedMs(start)))
+                .doOnError(e -> trafficRecorder.recordFailure(operation, method, request, e, elapsedMs(start)));
+        });
+    }
+    
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+    
     /**
      * Génère une réponse brute depuis Gemini
      */
@@ -39,86 +187,15 @@ public class OllamaService {
         log.info("📤 Génération réponse brute Gemini - Prompt: {} caractères", prompt.length());
         
         try {
-            String url = geminiApiUrl + geminiModelName + ":generateContent?key=" + geminiApiKey;
-            
-            Map<String, Object> request = new HashMap<>();
-            
-            List<Map<String, Object>> contents = new ArrayList<>();
-            Map<String, Object> content = new HashMap<>();
-            
-            List<Map<String, Object>> parts = new ArrayList<>();
-            Map<String, Object> part = new HashMap<>();
-            part.put("text", prompt);
-            parts.add(part);
-            
-            content.put("parts", parts);
-            contents.add(content);
-            
-            request.put("contents", contents);
-            
-            Map<String, Object> generationConfig = new HashMap<>();
-            generationConfig.put("maxOutputTokens", 16000);
-            generationConfig.put("temperature", 0.3);
-            
-            request.put("generationConfig", generationConfig);
-            
-            // Safety settings
-            List<Map<String, Object>> safetySettings = new ArrayList<>();
-            safetySettings.add(Map.of(
-                "category", "HARM_CATEGORY_HARASSMENT",
-                "threshold", "BLOCK_MEDIUM_AND_ABOVE"
-            ));
-            safetySettings.add(Map.of(
-                "category", "HARM_CATEGORY_HATE_SPEECH", 
-                "threshold", "BLOCK_MEDIUM_AND_ABOVE"
-            ));
-            safetySettings.add(Map.of(
-                "category", "HARM_CATEGORY_SEXUALLY_EXPLICIT",
-                "threshold", "BLOCK_MEDIUM_AND_ABOVE"
-            ));
-            safetySettings.add(Map.of(
-                "category", "HARM_CATEGORY_DANGEROUS_CONTENT",
-                "threshold", "BLOCK_MEDIUM_AND_ABOVE"
-            ));
-            
-            request.put("safetySettings", safetySettings);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(request, headers);
-            
-            log.debug("🔗 Envoi requête à Gemini: {}", url);
-            
-            ResponseEntity<Map> response = restTemplate.exchange(
-                url, 
-                HttpMethod.POST, 
-                entity, 
-                Map.class
-            );
-            
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                Map<String, Object> responseBody = response.getBody();
-                
-                String aiResponse = extractTextFromGeminiResponse(responseBody);
-                
-                if (aiResponse != null) {
-                    log.info("✅ Réponse brute reçue: {} caractères", aiResponse.length());
-                    
-                    // Afficher les 200 premiers caractères de la réponse
-                    String preview = aiResponse.length() > 200 ? 
-                        aiResponse.substring(0, 200) + "..." : aiResponse;
-                    log.info("📄 Prévisualisation réponse: {}", preview);
-                    
-                    return aiResponse;
-                } else {
-                    log.error("❌ Impossible d'extraire le texte de la réponse Gemini");
-                    throw new RuntimeException("Réponse Gemini invalide - texte non extractible");
-                }
-            } else {
-                log.error("❌ Réponse HTTP invalide: {}", response.getStatusCode());
-                throw new RuntimeException("Erreur HTTP: " + response.getStatusCode());
-            }
+            Map<String, Object> request = buildRawRequest(prompt);
+            
+            log.debug("🔗 Envoi requête à Gemini: {}:generateContent", geminiModelName);
+            
+            Map<String, Object> responseBody = postGemini(
+                "generateRaw", geminiModelName + ":generateContent", request);
+            tokenAccounting.recordOutput("raw", 1, request, responseBody);
+            
+            return handleRawResponse(responseBody);
             
         } catch (Exception e) {
             log.error("❌ Erreur génération réponse brute: {}", e.getMessage());
@@ -126,6 +203,91 @@ public class OllamaService {
         }
     }
     
+    /**
+     * Variante non bloquante de generateRawResponse (aucun thread immobilisé pendant l'appel)
+     */
+    public Mono<String> generateRawResponseAsync(String prompt) {
+        log.info("📤 Génération réponse brute Gemini (async) - Prompt: {} caractères", prompt.length());
+        
+        return Mono.fromCallable(() -> buildRawRequest(prompt))
+            .flatMap(request -> postGeminiAsync(
+                "generateRaw", geminiModelName + ":generateContent", request)
+                .doOnNext(response -> tokenAccounting.recordOutput("raw", 1, request, response)))
+            .map(this::handleRawResponse)
+            .doOnError(e -> log.error("❌ Erreur génération réponse brute: {}", e.getMessage()))
+            .onErrorMap(e -> new RuntimeException("Erreur de communication avec Gemini: " + e.getMessage(), e));
+    }
+    
+    private Map<String, Object> buildRawRequest(String prompt) {
+        Map<String, Object> request = new HashMap<>();
+        
+        List<Map<String, Object>> contents = new ArrayList<>();
+        Map<String, Object> content = new HashMap<>();
+        
+        List<Map<String, Object>> parts = new ArrayList<>();
+        Map<String, Object> part = new HashMap<>();
+        part.put("text", prompt);
+        parts.add(part);
+        
+        content.put("parts", parts);
+        contents.add(content);
+        
+        request.put("contents", contents);
+        
+        Map<String, Object> generationConfig = new HashMap<>();
+        // Budget adaptatif d'après les réponses brutes précédentes, 16000 au plus
+        generationConfig.put("maxOutputTokens", tokenAccounting.maxOutputTokens("raw", 1, 16000));
+        generationConfig.put("temperature", 0.3);
+        
+        request.put("generationConfig", generationConfig);
+        
+        // Safety settings
+        List<Map<String, Object>> safetySettings = new ArrayList<>();
+        safetySettings.add(Map.of(
+            "category", "HARM_CATEGORY_HARASSMENT",
+            "threshold", "BLOCK_MEDIUM_AND_ABOVE"
+        ));
+        safetySettings.add(Map.of(
+            "category", "HARM_CATEGORY_HATE_SPEECH", 
+            "threshold", "BLOCK_MEDIUM_AND_ABOVE"
+        ));
+        safetySettings.add(Map.of(
+            "category", "HARM_CATEGORY_SEXUALLY_EXPLICIT",
+            "threshold", "BLOCK_MEDIUM_AND_ABOVE"
+        ));
+        safetySettings.add(Map.of(
+            "category", "HARM_CATEGORY_DANGEROUS_CONTENT",
+            "threshold", "BLOCK_MEDIUM_AND_ABOVE"
+        ));
+        
+        request.put("safetySettings", safetySettings);
+        
+        return request;
+    }
+    
+    private String handleRawResponse(Map<String, Object> responseBody) {
+        if (responseBody != null) {
+            String aiResponse = extractTextFromGeminiResponse(responseBody);
+            
+            if (aiResponse != null) {
+                log.info("✅ Réponse brute reçue: {} caractères", aiResponse.length());
+                
+                // Afficher les 200 premiers caractères de la réponse
+                String preview = aiResponse.length() > 200 ? 
+                    aiResponse.substring(0, 200) + "..." : aiResponse;
+                log.info("📄 Prévisualisation réponse: {}", preview);
+                
+                return aiResponse;
+            } else {
+                log.error("❌ Impossible d'extraire le texte de la réponse Gemini");
+                throw new RuntimeException("Réponse Gemini invalide - texte non extractible");
+            }
+        } else {
+            log.error("❌ Réponse Gemini vide");
+            throw new RuntimeException("Réponse Gemini vide");
+        }
+    }
+    
     /**
      * Test simple de génération pour RAG
      */
@@ -158,48 +320,93 @@ public class OllamaService {
      * Lance une exception si la génération échoue
      */
     public List<Question> generateQuestions(String prompt, int questionCount) {
+        return generateQuestions(prompt, questionCount, null);
+    }
+    
+    /**
+     * @param cacheScope portée d'invalidation du cache de réponses (ex: "course:42"), peut être null
+     */
+    public List<Question> generateQuestions(String prompt, int questionCount, String cacheScope) {
         log.info("🎯 Génération de {} questions avec Gemini", questionCount);
         
         try {
             // Construction du prompt spécifique
             String fullPrompt = buildQuestionPrompt(prompt, questionCount);
+            logQuestionPrompt(fullPrompt);
             
-            // Afficher le prompt pour débogage
-            log.info("📝 Prompt envoyé à Gemini ({} caractères):", fullPrompt.length());
-            String promptPreview = fullPrompt.substring(0, Math.min(500, fullPrompt.length()));
-            log.info("📄 Extrait prompt: {}", promptPreview + (fullPrompt.length() > 500 ? "..." : ""));
-            
-            // Appel à Gemini
-            String aiResponse = callGeminiAPI(fullPrompt, questionCount);
-            
-            // Validation de la réponse
-            if (aiResponse == null || aiResponse.trim().isEmpty()) {
-                throw new RuntimeException("Réponse Gemini vide");
-            }
-            
-            // Afficher la réponse brute
-            log.info("📥 Réponse brute Gemini ({} caractères):", aiResponse.length());
-            String responsePreview = aiResponse.substring(0, Math.min(300, aiResponse.length()));
-            log.info("📋 Extrait réponse: {}", responsePreview + (aiResponse.length() > 300 ? "..." : ""));
-            
-            // Parsing de la réponse
-            List<Question> questions = parseAIResponse(aiResponse, questionCount);
-            
-            // Validation finale
-            validateGeneratedQuestions(questions, questionCount);
-            
-            // AFFICHER LES QUESTIONS GÉNÉRÉES DANS LES LOGS
-            displayGeneratedQuestions(questions);
-            
-            log.info("✅ {} questions générées avec succès", questions.size());
-            return questions;
-            
+            // Appel à Gemini (ou réponse en cache pour une requête identique)
+            List<Question> questions = generateWithCache(fullPrompt, questionCount, cacheScope,
+                aiResponse -> processQuestionsResponse(aiResponse, questionCount));
+
+            // Réponse incomplète : seules les questions manquantes sont redemandées
+            return topUpQuestions(null, prompt, questions, questionCount, cacheScope, this::buildQuestionPrompt);
+
         } catch (Exception e) {
             log.error("❌ Échec de génération des questions: {}", e.getMessage());
             throw new RuntimeException("Impossible de générer des questions: " + e.getMessage(), e);
         }
     }
     
+    /**
+     * Variante non bloquante de generateQuestions
+     */
+    public Mono<List<Question>> generateQuestionsAsync(String prompt, int questionCount) {
+        log.info("🎯 Génération de {} questions avec Gemini (async)", questionCount);
+        
+        String fullPrompt = buildQuestionPrompt(prompt, questionCount);
+        logQuestionPrompt(fullPrompt);
+        
+        Map<String, Object> request = buildGenerateRequest(fullPrompt, questionCount);
+        String cacheKey = responseCache.fingerprint(geminiModelName, request);
+        Optional<List<Question>> cached = fromCache(cacheKey,
+            aiResponse -> processQuestionsResponse(aiResponse, questionCount));
+        if (cached.isPresent()) {
+            return topUpQuestionsAsync(prompt, cached.get(), questionCount);
+        }
+        
+        return callGeminiAPIAsync(request, fullPrompt.length(), questionCount)
+            .map(aiResponse -> {
+                List<Question> questions = processQuestionsResponse(aiResponse, questionCount);
+                responseCache.put(cacheKey, aiResponse, null);
+                return questions;
+            })
+            // Réponse incomplète : seules les questions manquantes sont redemandées
+            .flatMap(questions -> topUpQuestionsAsync(prompt, questions, questionCount))
+            .doOnError(e -> log.error("❌ Échec de génération des questions: {}", e.getMessage()))
+            .onErrorMap(e -> new RuntimeException("Impossible de générer des questions: " + e.getMessage(), e));
+    }
+    
+    private void logQuestionPrompt(String fullPrompt) {
+        // Afficher le prompt pour débogage
+        log.info("📝 Prompt envoyé à Gemini ({} caractères):", fullPrompt.length());
+        String promptPreview = fullPrompt.substring(0, Math.min(500, fullPrompt.length()));
+        log.info("📄 Extrait prompt: {}", promptPreview + (fullPrompt.length() > 500 ? "..." : ""));
+    }
+    
+    private List<Question> processQuestionsResponse(String aiResponse, int questionCount) {
+        // Validation de la réponse
+        if (aiResponse == null || aiResponse.trim().isEmpty()) {
+            throw new RuntimeException("Réponse Gemini vide");
+        }
+        
+        // Afficher la réponse brute
+        log.info("📥 Réponse brute Gemini ({} caractères):", aiResponse.length());
+        String responsePreview = aiResponse.substring(0, Math.min(300, aiResponse.length()));
+        log.info("📋 Extrait réponse: {}", responsePreview + (aiResponse.length() > 300 ? "..." : ""));
+        
+        // Parsing de la réponse
+        List<Question> questions = parseAIResponse(aiResponse, questionCount);
+        
+        // Validation finale : les questions invalides sont écartées, les valides conservées
+        questions = validateGeneratedQuestions(questions, questionCount);
+        
+        // AFFICHER LES QUESTIONS GÉNÉRÉES DANS LES LOGS
+        displayGeneratedQuestions(questions);
+        
+        log.info("✅ {} questions générées avec succès", questions.size());
+        return questions;
+    }
+    
     /**
      * Affiche les questions générées dans les logs avec un format lisible
      */
@@ -278,66 +485,15 @@ public class OllamaService {
     
     private String callGeminiAPI(String prompt, int questionCount) {
         try {
-            String url = geminiApiUrl + geminiModelName + ":generateContent?key=" + geminiApiKey;
-            
             log.info("📤 Envoi à Gemini - Model: {}, Prompt: {} caractères, Questions demandées: {}", 
                     geminiModelName, prompt.length(), questionCount);
             
-            Map<String, Object> request = new HashMap<>();
-            
-            List<Map<String, Object>> contents = new ArrayList<>();
-            Map<String, Object> content = new HashMap<>();
-            
-            List<Map<String, Object>> parts = new ArrayList<>();
-            Map<String, Object> part = new HashMap<>();
-            part.put("text", prompt);
-            parts.add(part);
-            
-            content.put("parts", parts);
-            contents.add(content);
-            
-            request.put("contents", contents);
-            
-            // Ajuster les tokens en fonction du nombre de questions
-            int maxTokens = calculateMaxTokensForQuestions(questionCount);
-            
-            Map<String, Object> generationConfig = new HashMap<>();
-            generationConfig.put("maxOutputTokens", maxTokens);
-            generationConfig.put("temperature", 0.3);
-            generationConfig.put("topP", 0.95);
-            
-            request.put("generationConfig", generationConfig);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+            Map<String, Object> request = buildGenerateRequest(prompt, questionCount);
             
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(request, headers);
+            Map<String, Object> responseBody = postGemini(
+                "generateContent", geminiModelName + ":generateContent", request);
             
-            ResponseEntity<Map> response = restTemplate.exchange(
-                url, 
-                HttpMethod.POST, 
-                entity, 
-                Map.class
-            );
-            
-            log.debug("📥 Statut réponse: {}", response.getStatusCode());
-            
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                Map<String, Object> responseBody = response.getBody();
-                
-                String aiResponse = extractTextFromGeminiResponse(responseBody);
-                
-                if (aiResponse != null) {
-                    log.info("✅ Réponse Gemini reçue: {} caractères", aiResponse.length());
-                    return aiResponse;
-                } else {
-                    throw new RuntimeException("Impossible d'extraire le texte de la réponse Gemini");
-                }
-            } else {
-                log.error("❌ Réponse Gemini invalide: {}", response.getStatusCode());
-                throw new RuntimeException("Réponse Gemini invalide: " + response.getStatusCode());
-            }
+            return handleGenerateResponse(responseBody);
             
         } catch (Exception e) {
             log.error("❌ Erreur API Gemini: {}", e.getMessage());
@@ -345,6 +501,297 @@ public class OllamaService {
         }
     }
     
+    /**
+     * Génération avec cache de réponses : la clé couvre modèle, prompt et paramètres.
+     * Seule une réponse exploitable (traitement sans erreur) est mise en cache.
+     */
+    private <T> T generateWithCache(String prompt, int questionCount, String cacheScope, Function<String, T> processor) {
+        return generateWithCache(null, prompt, questionCount, cacheScope, processor);
+    }
+    
+    /**
+     * @param sharedContext contexte commun à plusieurs appels (contenu d'un cours), confié au cache
+     *                      de contexte Gemini ; la clé du cache de réponses reste celle du prompt complet
+     */
+    private <T> T generateWithCache(String sharedContext, String prompt, int questionCount, String cacheScope,
+                                    Function<String, T> processor) {
+        Map<String, Object> request = buildGenerateRequest(prompt, questionCount);
+        String cacheKey = responseCache.fingerprint(geminiModelName, sharedContext != null
+            ? GeminiContextCache.withInlineContext(request, sharedContext) : request);
+        
+        Optional<T> cached = fromCache(cacheKey, processor);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        
+        log.info("📤 Envoi à Gemini - Model: {}, Prompt: {} caractères (+ contexte partagé: {}), Questions demandées: {}", 
+                geminiModelName, prompt.length(), sharedContext != null ? sharedContext.length() : 0, questionCount);
+        String aiResponse;
+        try {
+            Map<String, Object> responseBody = sharedContext != null
+                ? callGemini("generateContent", geminiModelName + ":generateContent",
+                    GeminiContextCache.withInlineContext(request, sharedContext),
+                    () -> contextCache.generateContent(sharedContext, request))
+                : postGemini("generateContent", geminiModelName + ":generateContent", request);
+            tokenAccounting.recordOutput("quiz", questionCount, request, responseBody);
+            aiResponse = handleGenerateResponse(responseBody);
+        } catch (Exception e) {
+            log.error("❌ Erreur API Gemini: {}", e.getMessage());
+            throw new RuntimeException("Erreur de communication avec Gemini: " + e.getMessage(), e);
+        }
+        
+        T result = processor.apply(aiResponse);
+        responseCache.put(cacheKey, aiResponse, cacheScope);
+        return result;
+    }
+    
+    private <T> Optional<T> fromCache(String cacheKey, Function<String, T> processor) {
+        Optional<String> cached = responseCache.get(cacheKey);
+        if (cached.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            log.info("⚡ Réponse Gemini servie depuis le cache ({})", cacheKey.substring(0, 12));
+            return Optional.of(processor.apply(cached.get()));
+        } catch (RuntimeException e) {
+            log.warn("⚠️ Réponse en cache inexploitable, invalidée: {}", e.getMessage());
+            responseCache.invalidate(cacheKey);
+            return Optional.empty();
+        }
+    }
+    
+    /**
+     * Complément ciblé d'une génération incomplète : les questions valides sont gardées et seules
+     * les manquantes sont redemandées (prompt construit par promptBuilder pour ce nombre), en citant
+     * les questions déjà retenues pour éviter les doublons. Une reprise après échec attend un délai
+     * exponentiel avec gigue ; si le complément échoue, le résultat partiel est retourné tel quel.
+     */
+    private List<Question> topUpQuestions(String sharedContext, String basePrompt, List<Question> questions,
+                                          int questionCount, String cacheScope,
+                                          BiFunction<String, Integer, String> promptBuilder) {
+        if (questions.size() >= questionCount || topUpMaxAttempts <= 0) {
+            return questions;
+        }
+        List<Question> completed = new ArrayList<>(questions);
+        Set<String> seenTexts = new HashSet<>();
+        completed.forEach(question -> seenTexts.add(topUpKey(question)));
+        
+        for (int attempt = 1; attempt <= topUpMaxAttempts && completed.size() < questionCount; attempt++) {
+            if (attempt > 1 && !sleepBeforeRetry(attempt - 1)) {
+                break;
+            }
+            int missing = questionCount - completed.size();
+            log.info("🩹 {} questions valides sur {}: complément de {} question(s) (tentative {}/{})",
+                    completed.size(), questionCount, missing, attempt, topUpMaxAttempts);
+            topUpCalls.increment();
+            try {
+                String prompt = promptBuilder.apply(withAskedQuestions(basePrompt, completed), missing);
+                List<Question> extra = generateWithCache(sharedContext, prompt, missing, cacheScope,
+                    aiResponse -> parseAIResponse(aiResponse, missing));
+                for (Question question : extra) {
+                    if (completed.size() < questionCount && seenTexts.add(topUpKey(question))) {
+                        completed.add(question);
+                        toppedUpQuestions.increment();
+                    }
+                }
+            } catch (RuntimeException e) {
+                topUpFailures.increment();
+                log.warn("⚠️ Complément de {} question(s) en échec: {}", missing, e.getMessage());
+                // Quota saturé ou disjoncteur ouvert : une reprise échouerait de la même façon
+                if (GeminiGovernor.findOverload(e).isPresent() || isCircuitOpen(e)) {
+                    break;
+                }
+            }
+        }
+        
+        if (completed.size() < questionCount) {
+            shortResults.increment();
+            log.warn("⚠️ Génération incomplète après complément: {} questions sur {}", completed.size(), questionCount);
+        }
+        return completed;
+    }
+    
+    /**
+     * Variante non bloquante de topUpQuestions (prompt de generateQuestions) : les reprises
+     * attendent par Mono.delay, sans bloquer de thread.
+     */
+    private Mono<List<Question>> topUpQuestionsAsync(String basePrompt, List<Question> questions, int questionCount) {
+        if (questions.size() >= questionCount || topUpMaxAttempts <= 0) {
+            return Mono.just(questions);
+        }
+        List<Question> completed = new ArrayList<>(questions);
+        Set<String> seenTexts = new HashSet<>();
+        completed.forEach(question -> seenTexts.add(topUpKey(question)));
+        
+        return topUpAttemptAsync(basePrompt, completed, seenTexts, questionCount, 1)
+            .then(Mono.fromCallable(() -> {
+                if (completed.size() < questionCount) {
+                    shortResults.increment();
+                    log.warn("⚠️ Génération incomplète après complément: {} questions sur {}", completed.size(), questionCount);
+                }
+                return completed;
+            }));
+    }
+    
+    /**
+     * Tentative n du complément asynchrone ; les tentatives s'enchaînent l'une après l'autre,
+     * completed n'est donc jamais modifiée en parallèle.
+     */
+    private Mono<Void> topUpAttemptAsync(String basePrompt, List<Question> completed, Set<String> seenTexts,
+                                         int questionCount, int attempt) {
+        if (attempt > topUpMaxAttempts || completed.size() >= questionCount) {
+            return Mono.empty();
+        }
+        Mono<Long> backoff = attempt == 1 ? Mono.just(0L)
+            : Mono.delay(Duration.ofMillis(jitteredBackoffMs(topUpBackoffMs, topUpMaxBackoffMs, attempt - 1)));
+        
+        return backoff.then(Mono.defer(() -> {
+            int missing = questionCount - completed.size();
+            log.info("🩹 {} questions valides sur {}: complément de {} question(s) (tentative {}/{}, async)",
+                    completed.size(), questionCount, missing, attempt, topUpMaxAttempts);
+            topUpCalls.increment();
+            String fullPrompt = buildQuestionPrompt(withAskedQuestions(basePrompt, completed), missing);
+            Map<String, Object> request = buildGenerateRequest(fullPrompt, missing);
+            String cacheKey = responseCache.fingerprint(geminiModelName, request);
+            
+            return fromCache(cacheKey, aiResponse -> parseAIResponse(aiResponse, missing))
+                .map(Mono::just)
+                .orElseGet(() -> callGeminiAPIAsync(request, fullPrompt.length(), missing)
+                    .map(aiResponse -> {
+                        List<Question> extra = parseAIResponse(aiResponse, missing);
+                        responseCache.put(cacheKey, aiResponse, null);
+                        return extra;
+                    }))
+                .map(extra -> {
+                    for (Question question : extra) {
+                        if (completed.size() < questionCount && seenTexts.add(topUpKey(question))) {
+                            completed.add(question);
+                            toppedUpQuestions.increment();
+                        }
+                    }
+                    return true;
+                })
+                .onErrorResume(e -> {
+                    topUpFailures.increment();
+                    log.warn("⚠️ Complément de {} question(s) en échec: {}", missing, e.getMessage());
+                    // Quota saturé ou disjoncteur ouvert : une reprise échouerait de la même façon
+                    return Mono.just(GeminiGovernor.findOverload(e).isEmpty() && !isCircuitOpen(e));
+                });
+        })).flatMap(retry -> retry ? topUpAttemptAsync(basePrompt, completed, seenTexts, questionCount, attempt + 1)
+            : Mono.empty());
+    }
+    
+    private String withAskedQuestions(String basePrompt, List<Question> asked) {
+        StringBuilder prompt = new StringBuilder(basePrompt)
+            .append("\n\nQuestions déjà posées (ne pas les répéter ni les reformuler):");
+        for (Question question : asked) {
+            String text = question.getText();
+            prompt.append("\n- ").append(text.length() > 150 ? text.substring(0, 150) + "..." : text);
+        }
+        return prompt.toString();
+    }
+    
+    private static String topUpKey(Question question) {
+        return question.getText() == null ? "" : question.getText().trim().toLowerCase(Locale.ROOT);
+    }
+    
+    private static boolean isCircuitOpen(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof GeminiCircuitBreaker.GeminiUnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Attente avant la reprise n : false si le thread a été interrompu.
+     */
+    private boolean sleepBeforeRetry(int retry) {
+        long delayMs = jitteredBackoffMs(topUpBackoffMs, topUpMaxBackoffMs, retry);
+        log.debug("⏳ Reprise du complément dans {} ms", delayMs);
+        try {
+            Thread.sleep(delayMs);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Délai exponentiel plafonné avant la reprise n, dont la moitié est tirée au hasard :
+     * des appels en échec au même moment ne repartent pas ensemble.
+     */
+    static long jitteredBackoffMs(long baseMs, long maxMs, int retry) {
+        long ceiling = Math.min(Math.max(0, maxMs), Math.max(0, baseMs) << Math.min(20, Math.max(0, retry - 1)));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling - ceiling / 2 + 1);
+    }
+    
+    private Mono<String> callGeminiAPIAsync(Map<String, Object> request, int promptLength, int questionCount) {
+        log.info("📤 Envoi à Gemini (async) - Model: {}, Prompt: {} caractères, Questions demandées: {}", 
+                geminiModelName, promptLength, questionCount);
+        
+        return postGeminiAsync("generateContent", geminiModelName + ":generateContent", request)
+            .doOnNext(response -> tokenAccounting.recordOutput("quiz", questionCount, request, response))
+            .map(this::handleGenerateResponse)
+            .doOnError(e -> log.error("❌ Erreur API Gemini: {}", e.getMessage()))
+            .onErrorMap(e -> new RuntimeException("Erreur de communication avec Gemini: " + e.getMessage(), e));
+    }
+    
+    private Map<String, Object> buildGenerateRequest(String prompt, int questionCount) {
+        return buildGenerateRequest(prompt, questionCount, "quiz");
+    }
+    
+    /**
+     * @param budgetKind type de génération dont l'historique fixe maxOutputTokens ("quiz", "quiz-stream")
+     */
+    private Map<String, Object> buildGenerateRequest(String prompt, int questionCount, String budgetKind) {
+        Map<String, Object> request = new HashMap<>();
+        
+        List<Map<String, Object>> contents = new ArrayList<>();
+        Map<String, Object> content = new HashMap<>();
+        
+        List<Map<String, Object>> parts = new ArrayList<>();
+        Map<String, Object> part = new HashMap<>();
+        part.put("text", prompt);
+        parts.add(part);
+        
+        content.put("parts", parts);
+        contents.add(content);
+        
+        request.put("contents", contents);
+        
+        // Ajuster les tokens en fonction du nombre de questions et de la sortie réelle des appels précédents
+        int maxTokens = tokenAccounting.maxOutputTokens(budgetKind, questionCount,
+            calculateMaxTokensForQuestions(questionCount));
+        
+        Map<String, Object> generationConfig = new HashMap<>();
+        generationConfig.put("maxOutputTokens", maxTokens);
+        generationConfig.put("temperature", 0.3);
+        generationConfig.put("topP", 0.95);
+        
+        request.put("generationConfig", generationConfig);
+        
+        return request;
+    }
+    
+    private String handleGenerateResponse(Map<String, Object> responseBody) {
+        if (responseBody != null) {
+            String aiResponse = extractTextFromGeminiResponse(responseBody);
+            
+            if (aiResponse != null) {
+                log.info("✅ Réponse Gemini reçue: {} caractères", aiResponse.length());
+                return aiResponse;
+            } else {
+                throw new RuntimeException("Impossible d'extraire le texte de la réponse Gemini");
+            }
+        } else {
+            log.error("❌ Réponse Gemini vide");
+            throw new RuntimeException("Réponse Gemini vide");
+        }
+    }
+    
     private int calculateMaxTokensForQuestions(int questionCount) {
         // Estimation: 100 tokens par question pour 40 questions
         int baseTokens = 10000;
@@ -432,49 +879,45 @@ public class OllamaService {
         log.info("🔍 Parsing réponse Gemini ({} caractères)", aiResponse.length());
         
         try {
-            // Nettoyer et valider la réponse
-            String cleanedResponse = cleanAndValidateAIResponse(aiResponse);
-            
-            // Afficher le JSON nettoyé pour débogage
-            log.info("🧹 JSON nettoyé ({} caractères):", cleanedResponse.length());
-            String jsonPreview = cleanedResponse.substring(0, Math.min(500, cleanedResponse.length()));
-            log.info("📄 Extrait JSON: {}", jsonPreview + (cleanedResponse.length() > 500 ? "..." : ""));
-            
-            // Parser le JSON
-            Map<String, Object> responseMap = objectMapper.readValue(cleanedResponse, Map.class);
-            
-            // Validation de la structure
-            if (!responseMap.containsKey("questions")) {
-                throw new RuntimeException("Champ 'questions' manquant dans la réponse JSON");
-            }
-            
-            Object questionsObj = responseMap.get("questions");
-            if (!(questionsObj instanceof List)) {
-                throw new RuntimeException("Le champ 'questions' n'est pas une liste");
-            }
-            
-            List<Map<String, Object>> questionsData = (List<Map<String, Object>>) questionsObj;
+            // Lecture en un seul passage : balises markdown et prose ignorées, questions complètes conservées
+            QuizJsonStreamParser.Result result = QuizJsonStreamParser.parse(aiResponse);
+            List<QuizJsonStreamParser.ParsedQuestion> questionsData = result.questions();
             
             if (questionsData.isEmpty()) {
-                throw new RuntimeException("La liste des questions est vide");
+                throw new RuntimeException(result.complete()
+                    ? "La liste des questions est vide ou absente"
+                    : "Aucune question complète dans la réponse JSON");
+            }
+            if (!result.complete()) {
+                log.warn("⚠️ Réponse JSON tronquée ou invalide: {} questions complètes récupérées", questionsData.size());
             }
             
             List<Question> questions = new ArrayList<>();
             
             log.info("📊 Détection: {} questions dans la réponse JSON", questionsData.size());
             
-            for (int i = 0; i < Math.min(questionsData.size(), expectedCount); i++) {
-                Map<String, Object> qData = questionsData.get(i);
-                
+            // Une question mal formée est écartée sans perdre les autres (complétées ensuite si besoin)
+            int rejected = 0;
+            for (int i = 0; i < questionsData.size() && questions.size() < expectedCount; i++) {
                 log.info("🔧 Parsing question {}...", i + 1);
                 
-                Question question = parseQuestion(qData, i + 1);
+                Question question = parseStreamedQuestion(questionsData.get(i), i + 1);
+                if (question == null) {
+                    rejected++;
+                    continue;
+                }
                 questions.add(question);
                 
                 log.info("   ✅ Question {} parsée avec succès", i + 1);
             }
             
-            log.info("✅ {} questions parsées avec succès", questions.size());
+            if (questions.isEmpty()) {
+                throw new RuntimeException("Aucune question valide sur " + questionsData.size());
+            }
+            if (rejected > 0 || !result.complete()) {
+                partialResponses.increment();
+            }
+            log.info("✅ {} questions parsées avec succès ({} écartées)", questions.size(), rejected);
             return questions;
             
         } catch (Exception e) {
@@ -484,17 +927,17 @@ public class OllamaService {
         }
     }
     
-    private Question parseQuestion(Map<String, Object> qData, int questionNumber) {
+    private Question parseQuestion(QuizJsonStreamParser.ParsedQuestion qData, int questionNumber) {
         log.debug("   📝 Parsing détaillé question {}...", questionNumber);
         
         Question question = new Question();
         
         // Texte de la question (obligatoire)
-        if (!qData.containsKey("text")) {
+        if (qData.value("text") == null) {
             log.error("   ❌ Champ 'text' manquant pour la question {}", questionNumber);
             throw new RuntimeException("Question " + questionNumber + ": champ 'text' manquant");
         }
-        String text = qData.get("text").toString().trim();
+        String text = qData.value("text").trim();
         log.debug("   📖 Texte détecté ({} caractères): {}", text.length(), 
                  text.substring(0, Math.min(100, text.length())) + (text.length() > 100 ? "..." : ""));
         
@@ -509,8 +952,8 @@ public class OllamaService {
         
         // Type de question (optionnel, par défaut SINGLE_CHOICE)
         QuestionType type = QuestionType.SINGLE_CHOICE;
-        if (qData.containsKey("type")) {
-            String typeStr = qData.get("type").toString().toUpperCase();
+        if (qData.value("type") != null) {
+            String typeStr = qData.value("type").toUpperCase();
             log.debug("   🔤 Type détecté: {}", typeStr);
             try {
                 type = QuestionType.valueOf(typeStr);
@@ -523,23 +966,20 @@ public class OllamaService {
         question.setType(type);
         
         // Réponse correcte - gérer les tableaux pour MULTIPLE_CHOICE
-        if (!qData.containsKey("correctAnswer")) {
+        if (!qData.has("correctAnswer")) {
             log.error("   ❌ Champ 'correctAnswer' manquant pour la question {}", questionNumber);
             throw new RuntimeException("Question " + questionNumber + ": champ 'correctAnswer' manquant");
         }
         
-        Object correctAnswerObj = qData.get("correctAnswer");
+        List<String> correctAnswersList = qData.list("correctAnswer");
         String correctAnswer;
         
-        if (correctAnswerObj instanceof List) {
+        if (correctAnswersList != null) {
             // C'est une liste pour MULTIPLE_CHOICE
-            List<?> correctAnswersList = (List<?>) correctAnswerObj;
             List<String> correctAnswers = new ArrayList<>();
             
-            for (Object answer : correctAnswersList) {
-                if (answer != null) {
-                    correctAnswers.add(answer.toString().trim());
-                }
+            for (String answer : correctAnswersList) {
+                correctAnswers.add(answer.trim());
             }
             
             // Joindre les réponses avec des virgules
@@ -547,7 +987,7 @@ public class OllamaService {
             log.debug("   🎯 Réponse correcte MULTIPLE_CHOICE détectée: {}", correctAnswer);
         } else {
             // C'est une chaîne pour SINGLE_CHOICE ou TRUE_FALSE
-            correctAnswer = correctAnswerObj.toString().trim();
+            correctAnswer = qData.value("correctAnswer").trim();
             log.debug("   🎯 Réponse correcte détectée: {}", correctAnswer);
         }
         
@@ -559,22 +999,17 @@ public class OllamaService {
         
         // Options (obligatoires)
         List<String> options = new ArrayList<>();
-        if (qData.containsKey("options") && qData.get("options") instanceof List) {
-            List<?> rawOptions = (List<?>) qData.get("options");
+        if (qData.list("options") != null) {
+            List<String> rawOptions = qData.list("options");
             log.debug("   📌 {} options détectées", rawOptions.size());
             
             for (int i = 0; i < rawOptions.size(); i++) {
-                Object opt = rawOptions.get(i);
-                if (opt != null) {
-                    String option = opt.toString().trim();
-                    if (!option.isEmpty()) {
-                        options.add(option);
-                        log.debug("     {}. {}", (char)('A' + i), option);
-                    } else {
-                        log.warn("     ⚠️ Option {} vide, ignorée", i + 1);
-                    }
+                String option = rawOptions.get(i).trim();
+                if (!option.isEmpty()) {
+                    options.add(option);
+                    log.debug("     {}. {}", (char)('A' + i), option);
                 } else {
-                    log.warn("     ⚠️ Option {} nulle, ignorée", i + 1);
+                    log.warn("     ⚠️ Option {} vide, ignorée", i + 1);
                 }
             }
             
@@ -623,63 +1058,10 @@ public class OllamaService {
         return question;
     }
     
-    private String cleanAndValidateAIResponse(String response) {
-        log.debug("🧹 Nettoyage et validation de la réponse");
-        
-        String cleaned = response.trim();
-        
-        // Supprimer les blocs markdown
-        if (cleaned.startsWith("```json")) {
-            log.debug("   🔧 Suppression du préfixe ```json");
-            cleaned = cleaned.substring(7);
-        } else if (cleaned.startsWith("```")) {
-            log.debug("   🔧 Suppression du préfixe ```");
-            cleaned = cleaned.substring(3);
-        }
-        
-        if (cleaned.endsWith("```")) {
-            log.debug("   🔧 Suppression du suffixe ```");
-            cleaned = cleaned.substring(0, cleaned.length() - 3);
-        }
-        
-        cleaned = cleaned.trim();
-        log.debug("   📏 Longueur après nettoyage markdown: {} caractères", cleaned.length());
-        
-        // Trouver le début et la fin du JSON
-        int jsonStart = cleaned.indexOf('{');
-        int jsonEnd = cleaned.lastIndexOf('}');
-        
-        if (jsonStart == -1) {
-            log.error("   ❌ Caractère '{' non trouvé dans la réponse");
-            throw new RuntimeException("Structure JSON invalide: caractère '{' non trouvé");
-        }
-        
-        if (jsonEnd == -1) {
-            log.error("   ❌ Caractère '}' non trouvé dans la réponse");
-            throw new RuntimeException("Structure JSON invalide: caractère '}' non trouvé");
-        }
-        
-        if (jsonEnd < jsonStart) {
-            log.error("   ❌ Positions invalides: {} < {}", jsonEnd, jsonStart);
-            throw new RuntimeException("Structure JSON invalide: '}' avant '{'");
-        }
-        
-        // Extraire uniquement le JSON
-        cleaned = cleaned.substring(jsonStart, jsonEnd + 1);
-        log.debug("   📏 Longueur après extraction JSON: {} caractères", cleaned.length());
-        
-        // Valider que c'est du JSON valide
-        try {
-            objectMapper.readTree(cleaned);
-            log.debug("   ✅ JSON valide détecté");
-            return cleaned;
-        } catch (Exception e) {
-            log.error("   ❌ JSON invalide: {}", e.getMessage());
-            throw new RuntimeException("JSON invalide dans la réponse: " + e.getMessage());
-        }
-    }
-    
-    private void validateGeneratedQuestions(List<Question> questions, int expectedCount) {
+    /**
+     * Écarte les questions incomplètes et retourne les valides ; échoue seulement s'il n'en reste aucune.
+     */
+    private List<Question> validateGeneratedQuestions(List<Question> questions, int expectedCount) {
         log.info("🔍 Validation finale des questions générées...");
         
         if (questions == null) {
@@ -701,6 +1083,7 @@ public class OllamaService {
         }
         
         // Valider chaque question
+        List<Question> validQuestions = new ArrayList<>();
         int invalidQuestions = 0;
         for (int i = 0; i < questions.size(); i++) {
             Question q = questions.get(i);
@@ -730,6 +1113,7 @@ public class OllamaService {
                     continue;
                 }
                 
+                validQuestions.add(q);
                 log.debug("   ✅ Question {} validée avec succès", i + 1);
                 
             } catch (Exception e) {
@@ -742,13 +1126,14 @@ public class OllamaService {
             log.warn("⚠️ {} questions invalides sur {}", invalidQuestions, questions.size());
         }
         
-        // Si plus de la moitié des questions sont invalides, lancer une exception
-        if (invalidQuestions > questions.size() / 2) {
-            throw new RuntimeException("Trop de questions invalides: " + invalidQuestions + "/" + questions.size());
+        // Les questions valides sont gardées, les manquantes sont complétées par l'appelant
+        if (validQuestions.isEmpty()) {
+            throw new RuntimeException("Aucune question valide: " + invalidQuestions + "/" + questions.size());
         }
         
         log.info("✅ Validation terminée: {} questions valides sur {}", 
-                questions.size() - invalidQuestions, questions.size());
+                validQuestions.size(), questions.size());
+        return validQuestions;
     }
     
     /**
@@ -816,36 +1201,51 @@ public class OllamaService {
      * Génère un quiz structuré pour RAG - 20 QUESTIONS
      */
     public List<Question> generateStructuredQuiz(String ragPrompt) {
-        log.info("🎯 Génération quiz structuré RAG - 20 QUESTIONS ({} caractères)", ragPrompt.length());
+        return generateStructuredQuiz(ragPrompt, null);
+    }
+    
+    /**
+     * @param cacheScope portée d'invalidation du cache de réponses (ex: "course:42"), peut être null
+     */
+    public List<Question> generateStructuredQuiz(String ragPrompt, String cacheScope) {
+        return generateStructuredQuiz(ragPrompt, 20, cacheScope);
+    }
+    
+    /**
+     * @param questionCount nombre de questions demandées (ex: une part d'une génération répartie)
+     */
+    public List<Question> generateStructuredQuiz(String ragPrompt, int questionCount, String cacheScope) {
+        return generateStructuredQuiz(null, ragPrompt, questionCount, cacheScope);
+    }
+    
+    /**
+     * @param sharedContext contenu du cours commun à tous les étudiants (mis en cache côté Gemini),
+     *                      ragPrompt ne porte alors que la consigne propre à l'appel ; peut être null
+     */
+    public List<Question> generateStructuredQuiz(String sharedContext, String ragPrompt, int questionCount,
+                                                 String cacheScope) {
+        log.info("🎯 Génération quiz structuré RAG - {} QUESTIONS ({} caractères)", questionCount, ragPrompt.length());
         
         try {
             // Afficher un extrait du prompt RAG
             String promptPreview = ragPrompt.substring(0, Math.min(300, ragPrompt.length()));
             log.info("📝 Extrait prompt RAG: {}...", promptPreview);
             
-            // Construire un prompt optimisé pour 20 questions
-            String jsonPrompt = ragPrompt + 
-                "\n\nIMPORTANT CRITIQUE - SUIVRE À LA LETTRE:\n" +
-                "1. Retourne UNIQUEMENT un JSON valide\n" +
-                "2. Format exact: {\"questions\": [{...}]}\n" +
-                "3. GÉNÈRE EXACTEMENT 20 QUESTIONS (PAS 5, PAS 40)\n" +
-                "4. Pas de texte avant ni après le JSON\n" +
-                "5. Base-toi STRICTEMENT sur le contexte fourni\n" +
-                "6. Répartis les questions sur différents aspects du contenu\n" +
-                "7. Inclus des questions de différents niveaux de difficulté\n" +
-                "8. Assure-toi que chaque question est unique et spécifique\n" +
-                "9. Format de chaque question: {\"text\": \"...\", \"type\": \"SINGLE_CHOICE\", \"options\": [\"...\", \"...\", \"...\", \"...\"], \"correctAnswer\": \"...\"}";
-            
-            // Appel à Gemini avec configuration pour 20 questions
-            String aiResponse = callGeminiAPI(jsonPrompt, 20);
-            
-            // Parsing strict pour 20 questions
-            List<Question> questions = parseAIResponse(aiResponse, 20);
+            // Construire un prompt optimisé pour le nombre de questions demandé
+            String jsonPrompt = buildStructuredQuizPrompt(ragPrompt, questionCount);
+            
+            // Appel à Gemini configuré pour ce nombre de questions (ou réponse en cache), parsing strict
+            List<Question> questions = generateWithCache(sharedContext, jsonPrompt, questionCount, cacheScope,
+                aiResponse -> parseAIResponse(aiResponse, questionCount));
+            
+            // Questions invalides ou JSON tronqué : petit appel complémentaire pour les manquantes
+            questions = topUpQuestions(sharedContext, ragPrompt, questions, questionCount, cacheScope,
+                this::buildStructuredQuizPrompt);
             
             // Afficher les questions générées
             displayGeneratedQuestions(questions);
             
-            log.info("✅ Quiz RAG généré: {} questions valides (sur 20 demandées)", questions.size());
+            log.info("✅ Quiz RAG généré: {} questions valides (sur {} demandées)", questions.size(), questionCount);
             return questions;
             
         } catch (Exception e) {
@@ -853,6 +1253,139 @@ public class OllamaService {
             throw new RuntimeException("Erreur lors de la génération du quiz RAG: " + e.getMessage(), e);
         }
     }
+    
+    private String buildStructuredQuizPrompt(String ragPrompt, int questionCount) {
+        return ragPrompt + 
+            "\n\nIMPORTANT CRITIQUE - SUIVRE À LA LETTRE:\n" +
+            "1. Retourne UNIQUEMENT un JSON valide\n" +
+            "2. Format exact: {\"questions\": [{...}]}\n" +
+            "3. GÉNÈRE EXACTEMENT " + questionCount + " QUESTIONS\n" +
+            "4. Pas de texte avant ni après le JSON\n" +
+            "5. Base-toi STRICTEMENT sur le contexte fourni\n" +
+            "6. Répartis les questions sur différents aspects du contenu\n" +
+            "7. Inclus des questions de différents niveaux de difficulté\n" +
+            "8. Assure-toi que chaque question est unique et spécifique\n" +
+            "9. Format de chaque question: {\"text\": \"...\", \"type\": \"SINGLE_CHOICE\", \"options\": [\"...\", \"...\", \"...\", \"...\"], \"correctAnswer\": \"...\"}";
+    }
+    
+    /**
+     * Variante en flux de generateStructuredQuiz : chaque question est émise dès que
+     * son objet JSON est complet dans la réponse de streamGenerateContent.
+     * Une question mal formée est ignorée sans interrompre le flux.
+     */
+    public Flux<Question> streamStructuredQuiz(String ragPrompt, String cacheScope) {
+        String jsonPrompt = buildStructuredQuizPrompt(ragPrompt, 20);
+        Map<String, Object> request = buildGenerateRequest(jsonPrompt, 20, "quiz-stream");
+        // Même clé que la génération classique (budget de sortie exclu) : les deux chemins partagent le cache
+        String cacheKey = responseCache.fingerprint(geminiModelName, request);
+        
+        return Flux.defer(() -> {
+            Optional<List<Question>> cached = fromCache(cacheKey, aiResponse -> parseAIResponse(aiResponse, 20));
+            if (cached.isPresent()) {
+                return Flux.fromIterable(cached.get());
+            }
+            
+            log.info("📤 Envoi à Gemini (flux) - Model: {}, Prompt: {} caractères", geminiModelName, jsonPrompt.length());
+            long start = System.nanoTime();
+            QuizJsonStreamParser parser = new QuizJsonStreamParser();
+            StringBuilder fullResponse = new StringBuilder();
+            AtomicInteger emitted = new AtomicInteger();
+            AtomicReference<Map<String, Object>> lastChunk = new AtomicReference<>();
+            
+            return streamGemini("streamGenerateContent",
+                    geminiModelName + ":streamGenerateContent", buildStreamRequest(request))
+                .doOnNext(chunk -> {
+                    if (chunk.containsKey("usageMetadata")) {
+                        lastChunk.set(chunk);
+                    }
+                })
+                .concatMapIterable(chunk -> {
+                    String text = extractStreamChunkText(chunk);
+                    fullResponse.append(text);
+                    List<Question> completed = new ArrayList<>();
+                    for (QuizJsonStreamParser.ParsedQuestion parsed : parser.feed(text)) {
+                        if (emitted.get() >= 20) {
+                            break;
+                        }
+                        Question question = parseStreamedQuestion(parsed, emitted.get() + 1);
+                        if (question != null) {
+                            if (emitted.incrementAndGet() == 1) {
+                                log.info("⚡ Première question reçue en {} ms", (System.nanoTime() - start) / 1_000_000);
+                            }
+                            completed.add(question);
+                        }
+                    }
+                    return completed;
+                })
+                .concatWith(Flux.defer(() -> {
+                    tokenAccounting.recordOutput("quiz-stream", 20, request, lastChunk.get());
+                    if (emitted.get() == 0) {
+                        return Flux.error(new RuntimeException("Aucune question exploitable dans la réponse Gemini"));
+                    }
+                    if (!parser.isComplete()) {
+                        log.warn("⚠️ Réponse en flux tronquée: {} questions complètes conservées", emitted.get());
+                    } else {
+                        responseCache.put(cacheKey, fullResponse.toString(), cacheScope);
+                    }
+                    log.info("✅ Quiz RAG en flux terminé: {} questions en {} ms",
+                            emitted.get(), (System.nanoTime() - start) / 1_000_000);
+                    return Flux.empty();
+                }))
+                .doOnError(e -> log.error("❌ Erreur génération quiz RAG en flux: {}", e.getMessage()))
+                .onErrorMap(e -> new RuntimeException("Erreur lors de la génération du quiz RAG: " + e.getMessage(), e));
+        });
+    }
+    
+    /**
+     * Requête de flux : réflexion du modèle limitée pour que le premier morceau arrive vite.
+     */
+    private Map<String, Object> buildStreamRequest(Map<String, Object> request) {
+        Map<String, Object> streamRequest = new HashMap<>(request);
+        if (streamThinkingBudget >= 0) {
+            Map<String, Object> generationConfig = new HashMap<>((Map<String, Object>) request.get("generationConfig"));
+            generationConfig.put("thinkingConfig", Map.of("thinkingBudget", streamThinkingBudget));
+            streamRequest.put("generationConfig", generationConfig);
+        }
+        return streamRequest;
+    }
+    
+    /**
+     * Texte d'un morceau de flux, sans trim (un morceau peut couper une chaîne JSON).
+     */
+    private String extractStreamChunkText(Map<String, Object> chunk) {
+        if (chunk.containsKey("error")) {
+            throw new RuntimeException("Erreur Gemini: " + chunk.get("error"));
+        }
+        List<Map<String, Object>> candidates = (List<Map<String, Object>>) chunk.get("candidates");
+        if (candidates == null || candidates.isEmpty()) {
+            return "";
+        }
+        Map<String, Object> candidate = candidates.get(0);
+        if ("SAFETY".equals(candidate.get("finishReason"))) {
+            throw new RuntimeException("Réponse bloquée pour raison de sécurité");
+        }
+        Map<String, Object> content = (Map<String, Object>) candidate.get("content");
+        if (content == null || !(content.get("parts") instanceof List<?> parts)) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Object part : parts) {
+            if (part instanceof Map<?, ?> partMap && !Boolean.TRUE.equals(partMap.get("thought"))
+                    && partMap.get("text") != null) {
+                text.append(partMap.get("text"));
+            }
+        }
+        return text.toString();
+    }
+    
+    private Question parseStreamedQuestion(QuizJsonStreamParser.ParsedQuestion parsed, int questionNumber) {
+        try {
+            return parseQuestion(parsed, questionNumber);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ Question {} ignorée: {}", questionNumber, e.getMessage());
+            return null;
+        }
+    }
     /**
      * Génère des embeddings (pour référence, peut échouer sans fallback)
      */
@@ -860,54 +1393,117 @@ public class OllamaService {
         try {
             log.info("🔍 Génération embedding pour texte ({} caractères)", text.length());
             
-            String url = geminiApiUrl + "embedding-001:embedContent?key=" + geminiApiKey;
+            Map<String, Object> body = postGemini(
+                "embedContent", "embedding-001:embedContent", buildEmbeddingRequest(text));
             
-            Map<String, Object> request = new HashMap<>();
+            return parseEmbeddingResponse(body);
             
-            Map<String, Object> content = new HashMap<>();
-            Map<String, Object> part = new HashMap<>();
-            part.put("text", text.substring(0, Math.min(500, text.length())));
-            
-            List<Map<String, Object>> parts = new ArrayList<>();
-            parts.add(part);
-            content.put("parts", parts);
-            
-            request.put("content", content);
+        } catch (Exception e) {
+            log.error("❌ Erreur génération embedding: {}", e.getMessage());
+            throw new RuntimeException("Impossible de générer l'embedding: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Embeddings de plusieurs textes en un seul appel (batchEmbedContents), dans l'ordre des textes
+     */
+    public List<float[]> generateEmbeddingsBatch(List<String> texts) {
+        try {
+            log.info("🔍 Génération de {} embeddings en un seul appel", texts.size());
             
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
+            List<Map<String, Object>> requests = new ArrayList<>();
+            for (String text : texts) {
+                Map<String, Object> request = buildEmbeddingRequest(text);
+                request.put("model", "models/embedding-001");
+                requests.add(request);
+            }
+            Map<String, Object> batchRequest = new HashMap<>();
+            batchRequest.put("requests", requests);
             
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(request, headers);
+            Map<String, Object> body = postGemini(
+                "batchEmbedContents", "embedding-001:batchEmbedContents", batchRequest);
             
-            ResponseEntity<Map> response = restTemplate.exchange(
-                url, HttpMethod.POST, entity, Map.class
-            );
+            return parseBatchEmbeddingResponse(body, texts.size());
             
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                Map<String, Object> body = response.getBody();
-                
-                if (body.containsKey("embedding")) {
-                    Map<String, Object> embeddingData = (Map<String, Object>) body.get("embedding");
-                    if (embeddingData.containsKey("values")) {
-                        List<Double> values = (List<Double>) embeddingData.get("values");
-                        float[] embedding = new float[values.size()];
-                        
-                        for (int i = 0; i < values.size(); i++) {
-                            embedding[i] = values.get(i).floatValue();
-                        }
-                        
-                        log.info("✅ Embedding généré avec {} ({} dimensions)", geminiModelName, embedding.length);
-                        return embedding;
+        } catch (Exception e) {
+            log.error("❌ Erreur génération embeddings par lot: {}", e.getMessage());
+            throw new RuntimeException("Impossible de générer les embeddings: " + e.getMessage(), e);
+        }
+    }
+    
+    private List<float[]> parseBatchEmbeddingResponse(Map<String, Object> body, int expectedCount) {
+        if (body == null || !(body.get("embeddings") instanceof List<?> embeddings)) {
+            throw new RuntimeException("Structure de réponse d'embeddings par lot invalide");
+        }
+        if (embeddings.size() != expectedCount) {
+            throw new RuntimeException("Réponse batchEmbedContents incomplète: " + embeddings.size()
+                + " embeddings pour " + expectedCount + " textes");
+        }
+        List<float[]> vectors = new ArrayList<>(expectedCount);
+        for (Object entry : embeddings) {
+            if (!(entry instanceof Map<?, ?> embedding) || !(embedding.get("values") instanceof List<?> values)) {
+                throw new RuntimeException("Embedding sans valeurs dans la réponse par lot");
+            }
+            float[] vector = new float[values.size()];
+            for (int i = 0; i < values.size(); i++) {
+                vector[i] = ((Number) values.get(i)).floatValue();
+            }
+            vectors.add(vector);
+        }
+        log.info("✅ {} embeddings générés en un appel ({} dimensions)", vectors.size(),
+            vectors.isEmpty() ? 0 : vectors.get(0).length);
+        return vectors;
+    }
+    
+    /**
+     * Variante non bloquante de generateEmbedding
+     */
+    public Mono<float[]> generateEmbeddingAsync(String text) {
+        log.info("🔍 Génération embedding (async) pour texte ({} caractères)", text.length());
+        
+        return Mono.fromCallable(() -> buildEmbeddingRequest(text))
+            .flatMap(request -> postGeminiAsync(
+                "embedContent", "embedding-001:embedContent", request))
+            .map(this::parseEmbeddingResponse)
+            .doOnError(e -> log.error("❌ Erreur génération embedding: {}", e.getMessage()))
+            .onErrorMap(e -> new RuntimeException("Impossible de générer l'embedding: " + e.getMessage(), e));
+    }
+    
+    private Map<String, Object> buildEmbeddingRequest(String text) {
+        Map<String, Object> request = new HashMap<>();
+        
+        Map<String, Object> content = new HashMap<>();
+        Map<String, Object> part = new HashMap<>();
+        part.put("text", text.substring(0, Math.min(500, text.length())));
+        
+        List<Map<String, Object>> parts = new ArrayList<>();
+        parts.add(part);
+        content.put("parts", parts);
+        
+        request.put("content", content);
+        
+        return request;
+    }
+    
+    private float[] parseEmbeddingResponse(Map<String, Object> body) {
+        if (body != null) {
+            if (body.containsKey("embedding")) {
+                Map<String, Object> embeddingData = (Map<String, Object>) body.get("embedding");
+                if (embeddingData.containsKey("values")) {
+                    List<Double> values = (List<Double>) embeddingData.get("values");
+                    float[] embedding = new float[values.size()];
+                    
+                    for (int i = 0; i < values.size(); i++) {
+                        embedding[i] = values.get(i).floatValue();
                     }
+                    
+                    log.info("✅ Embedding généré avec {} ({} dimensions)", geminiModelName, embedding.length);
+                    return embedding;
                 }
             }
-            
-            throw new RuntimeException("Structure de réponse d'embedding invalide");
-            
-        } catch (Exception e) {
-            log.error("❌ Erreur génération embedding: {}", e.getMessage());
-            throw new RuntimeException("Impossible de générer l'embedding: " + e.getMessage(), e);
         }
+        
+        throw new RuntimeException("Structure de réponse d'embedding invalide");
     }
     
     /**
@@ -924,16 +1520,18 @@ public class OllamaService {
     }
     
     /**
-     * Génération simple de texte
+     * Génération simple de texte : tâche légère, routée de préférence vers le modèle local
      */
     public String generateText(String prompt) {
         try {
             log.info("📝 Génération texte simple: {} caractères", prompt.length());
             log.info("📤 Prompt: {}", prompt.substring(0, Math.min(200, prompt.length())) + (prompt.length() > 200 ? "..." : ""));
             
-            String response = callGeminiAPI(prompt, 1);
+            LlmRouter.LlmResponse routed = llmRouter.generate(LlmRequest.of(prompt, LlmTask.SIMPLE_TEXT));
+            String response = routed.text();
             
-            log.info("📥 Réponse texte: {}", response.substring(0, Math.min(200, response.length())) + (response.length() > 200 ? "..." : ""));
+            log.info("📥 Réponse texte ({}): {}", routed.provider(),
+                    response.substring(0, Math.min(200, response.length())) + (response.length() > 200 ? "..." : ""));
             
             return response;
         } catch (Exception e) {
@@ -942,6 +1540,45 @@ public class OllamaService {
         }
     }
     
+    /**
+     * Variante non bloquante de generateText
+     */
+    public Mono<String> generateTextAsync(String prompt) {
+        // Le routeur peut choisir le modèle local (client bloquant) : exécution hors du thread réseau
+        return Mono.fromCallable(() -> generateText(prompt))
+            .subscribeOn(Schedulers.boundedElastic());
+    }
+    
+    /**
+     * Questions de secours quand la génération principale a échoué : tâche légère,
+     * confiée de préférence au modèle local (Ollama), sans contexte RAG.
+     */
+    public List<Question> generateFallbackQuestions(String topic, List<String> hints, int questionCount) {
+        StringBuilder prompt = new StringBuilder(buildQuestionPrompt(topic, questionCount));
+        if (hints != null && !hints.isEmpty()) {
+            prompt.append("\nÉléments du cours: ").append(String.join(", ", hints));
+        }
+        
+        LlmRouter.LlmResponse routed = llmRouter.generate(new LlmRequest(
+            prompt.toString(), LlmTask.FALLBACK_QUIZ, 400 + questionCount * 250, 0.3, true));
+        log.info("🛟 Questions de secours générées par {} en {} ms", routed.provider(), routed.latencyMs());
+        return parseAIResponse(routed.text(), questionCount);
+    }
+    
+    /**
+     * Réponses partielles récupérées et compléments ciblés envoyés à Gemini.
+     */
+    public Map<String, Object> getTopUpMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("maxAttempts", topUpMaxAttempts);
+        metrics.put("partialResponses", partialResponses.sum());
+        metrics.put("topUpCalls", topUpCalls.sum());
+        metrics.put("topUpFailures", topUpFailures.sum());
+        metrics.put("toppedUpQuestions", toppedUpQuestions.sum());
+        metrics.put("shortResults", shortResults.sum());
+        return metrics;
+    }
+    
     public String getModelInfo() {
         return this.geminiModelName;
     }
@@ -953,10 +1590,11 @@ public class OllamaService {
         Map<String, Object> diagnostic = new HashMap<>();
         
         try {
-            diagnostic.put("service", "OllamaService (Gemini uniquement)");
+            diagnostic.put("service", "OllamaService (Gemini + modèle local routé)");
             diagnostic.put("model", geminiModelName);
-            diagnostic.put("apiKeyConfigured", geminiApiKey != null && !geminiApiKey.isEmpty());
-            diagnostic.put("fallbackDisabled", true);
+            diagnostic.put("apiKeyConfigured", geminiHttpClient.isApiKeyConfigured());
+            diagnostic.put("httpClient", geminiHttpClient.getMetrics());
+            diagnostic.put("llmRouting", llmRouter.getMetrics());
             
             // Test de connexion
             try {
@@ -6,13 +6,17 @@ import com.iatd.smarthub.model.quiz.Question;
 import com.iatd.smarthub.model.quiz.Quiz;
 import com.iatd.smarthub.repository.QuestionRepository;
 import com.iatd.smarthub.repository.QuizRepository;
+import com.iatd.smarthub.service.llm.GeminiHealthMonitor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Service
@@ -22,10 +26,17 @@ public class QuizGenerationService {
     private final QuizRepository quizRepository;
     private final QuestionRepository questionRepository;
     private final OllamaService ollamaService;
+    private final GeminiHealthMonitor geminiHealthMonitor;
+    private final TransactionTemplate transactionTemplate;
     
     @Value("${gemini.model.name:gemini-2.5-flash}")
     private String geminiModelName;
     
+    // Limite propre au prompt texte/sujet (3000 caractères avant l'externalisation) ; l'extraction
+    // des fichiers de cours garde quiz.generation.max-content-length
+    @Value("${quiz.generation.text-prompt-max-chars:3000}")
+    private int maxContentLength;
+    
     @Transactional
     public QuizResponseDTO generateQuizFromText(String content, String title, int questionCount) {
         log.info("Génération de quiz depuis texte utilisateur: {} ({} questions)", title, questionCount);
@@ -42,28 +53,8 @@ public class QuizGenerationService {
             // 3. Appeler le service pour générer les questions
             List<Question> questions = ollamaService.generateQuestions(prompt, questionCount);
             
-            // 4. Créer et sauvegarder le quiz
-            Quiz quiz = new Quiz();
-            quiz.setTitle(title);
-            quiz.setDescription("Quiz généré depuis votre contenu avec Gemini AI");
-            quiz.setActive(true);
-            
-            Quiz savedQuiz = quizRepository.save(quiz);
-            
-            // 5. Associer et sauvegarder les questions
-            for (Question question : questions) {
-                question.setQuiz(savedQuiz);
-                questionRepository.save(question);
-                savedQuiz.addQuestion(question);
-            }
-            
-            // 6. Sauvegarder à nouveau
-            quizRepository.save(savedQuiz);
-            
-            log.info("Quiz généré avec succès. ID: {}, Questions: {}", savedQuiz.getId(), questions.size());
-            
-            // 7. Convertir en DTO avec les questions
-            return convertToResponseDTO(savedQuiz);
+            // 4. Créer et sauvegarder le quiz avec ses questions
+            return saveGeneratedQuiz(title, questions);
             
         } catch (Exception e) {
             log.error("Erreur lors de la génération du quiz", e);
@@ -72,17 +63,60 @@ public class QuizGenerationService {
     }
     
     /**
-     * Vérifie si le service AI est disponible
+     * Variante non bloquante : l'appel Gemini ne retient aucun thread de requête,
+     * seule la persistance finale s'exécute (en transaction) sur un thread élastique.
      */
-    private boolean isAIServiceAvailable() {
-        try {
-            // Essayer de générer un petit texte de test
-            String testResponse = ollamaService.generateText("Test de connexion");
-            return testResponse != null && !testResponse.toLowerCase().contains("erreur");
-        } catch (Exception e) {
-            log.warn("Service AI non disponible: {}", e.getMessage());
-            return false;
+    public CompletableFuture<QuizResponseDTO> generateQuizFromTextAsync(String content, String title, int questionCount) {
+        log.info("Génération de quiz (async) depuis texte utilisateur: {} ({} questions)", title, questionCount);
+        
+        String prompt = buildQuizGenerationPrompt(content, questionCount);
+        
+        if (!isAIServiceAvailable()) {
+            return CompletableFuture.failedFuture(new RuntimeException("Erreur de génération du quiz: Le service AI (Gemini) n'est pas disponible. Vérifiez votre connexion internet et votre clé API."));
         }
+        
+        return ollamaService.generateQuestionsAsync(prompt, questionCount)
+            .publishOn(Schedulers.boundedElastic())
+            .map(questions -> transactionTemplate.execute(status -> saveGeneratedQuiz(title, questions)))
+            .doOnError(e -> log.error("Erreur lors de la génération du quiz", e))
+            .onErrorMap(e -> new RuntimeException("Erreur de génération du quiz: " + e.getMessage(), e))
+            .toFuture();
+    }
+    
+    public CompletableFuture<QuizResponseDTO> generateQuizFromFileAsync(String fileName, String fileContent, int questionCount) {
+        log.info("Génération de quiz (async) depuis fichier: {} ({} questions)", fileName, questionCount);
+        return generateQuizFromTextAsync(fileContent, extractTitleFromFileName(fileName), questionCount);
+    }
+    
+    private QuizResponseDTO saveGeneratedQuiz(String title, List<Question> questions) {
+        Quiz quiz = new Quiz();
+        quiz.setTitle(title);
+        quiz.setDescription("Quiz généré depuis votre contenu avec Gemini AI");
+        quiz.setActive(true);
+        
+        Quiz savedQuiz = quizRepository.save(quiz);
+        
+        // Associer et sauvegarder les questions
+        for (Question question : questions) {
+            question.setQuiz(savedQuiz);
+            questionRepository.save(question);
+            savedQuiz.addQuestion(question);
+        }
+        
+        // Sauvegarder à nouveau
+        quizRepository.save(savedQuiz);
+        
+        log.info("Quiz généré avec succès. ID: {}, Questions: {}", savedQuiz.getId(), questions.size());
+        
+        // Convertir en DTO avec les questions
+        return convertToResponseDTO(savedQuiz);
+    }
+    
+    /**
+     * Vérifie si le service AI est disponible (état tenu à jour en arrière-plan, sans appel Gemini)
+     */
+    private boolean isAIServiceAvailable() {
+        return geminiHealthMonitor.isAvailable();
     }
     
     private QuizResponseDTO convertToResponseDTO(Quiz quiz) {
@@ -201,8 +235,8 @@ public class QuizGenerationService {
      */
     private String buildQuizGenerationPrompt(String content, int questionCount) {
         // Limiter la taille du contenu
-        String limitedContent = content.length() > 3000 
-            ? content.substring(0, 3000) + "... [contenu tronqué]" 
+        String limitedContent = content.length() > maxContentLength 
+            ? content.substring(0, maxContentLength) + "... [contenu tronqué]" 
             : content;
         
         return String.format("""
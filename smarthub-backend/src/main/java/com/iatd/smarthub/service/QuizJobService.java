@@ -0,0 +1,276 @@
+package com.iatd.smarthub.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iatd.smarthub.model.quiz.QuizGenerationJob;
+import com.iatd.smarthub.repository.QuizGenerationJobRepository;
+import com.iatd.smarthub.service.agent.AdaptiveQuizOrchestrator;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
+import com.iatd.smarthub.service.rag.RAGQuizService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jobs de génération de quiz : la soumission enregistre le job (table quiz_generation_jobs)
+ * et rend la main ; un pool borné de workers l'exécute. La table sert de file d'attente :
+ * ce qui ne tient pas dans le pool, les jobs à réessayer et ceux interrompus par un
+ * redémarrage sont repris par le dispatcher périodique.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QuizJobService {
+
+    private static final TypeReference<Map<String, Object>> PARAMS_TYPE = new TypeReference<>() {};
+
+    private final QuizGenerationJobRepository jobRepository;
+    private final RAGQuizService ragQuizService;
+    private final QuizGenerationService quizGenerationService;
+    private final AdaptiveQuizOrchestrator adaptiveQuizOrchestrator;
+    private final ObjectMapper objectMapper;
+
+    @Value("${quiz.jobs.workers:4}")
+    private int workers;
+
+    @Value("${quiz.jobs.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${quiz.jobs.retention-hours:168}")
+    private long retentionHours;
+
+    private ThreadPoolExecutor executor;
+    private final Set<String> dispatched = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        // File interne de la taille du pool : le surplus reste en base (PENDING)
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(workers),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "quiz-job-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        // Les jobs en cours resteront RUNNING et seront repris au prochain démarrage
+        executor.shutdownNow();
+    }
+
+    /**
+     * Enregistre un job et tente de le lancer immédiatement.
+     */
+    public QuizGenerationJob submit(QuizGenerationJob.Type type, Long userId, Long courseId, Map<String, Object> parameters) {
+        QuizGenerationJob job = new QuizGenerationJob();
+        job.setId(UUID.randomUUID().toString());
+        job.setType(type);
+        job.setUserId(userId);
+        job.setCourseId(courseId);
+        job.setParameters(toJson(parameters));
+        job.setProgress("En attente");
+        job.setNextAttemptAt(LocalDateTime.now());
+        QuizGenerationJob saved = jobRepository.save(job);
+
+        log.info("📥 Job {} soumis: {} (userId: {}, courseId: {})", saved.getId(), type, userId, courseId);
+        dispatch(saved.getId());
+        return saved;
+    }
+
+    public Optional<QuizGenerationJob> getJob(String jobId) {
+        return jobRepository.findById(jobId);
+    }
+
+    /**
+     * Vue du job pour l'API : statut, avancement, position dans la file, résultat ou erreur.
+     */
+    public Map<String, Object> describe(QuizGenerationJob job) {
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("jobId", job.getId());
+        view.put("type", job.getType());
+        view.put("status", job.getStatus());
+        view.put("progress", job.getProgress());
+        view.put("attempts", job.getAttempts());
+        view.put("createdAt", job.getCreatedAt());
+        view.put("startedAt", job.getStartedAt());
+        view.put("finishedAt", job.getFinishedAt());
+        if (job.getStatus() == QuizGenerationJob.Status.PENDING && job.getCreatedAt() != null) {
+            view.put("queuePosition", jobRepository.countByStatusAndCreatedAtBefore(
+                    QuizGenerationJob.Status.PENDING, job.getCreatedAt()) + 1);
+        }
+        if (job.getStatus() == QuizGenerationJob.Status.SUCCEEDED && job.getResult() != null) {
+            try {
+                view.put("result", objectMapper.readValue(job.getResult(), Object.class));
+            } catch (JsonProcessingException e) {
+                view.put("result", null);
+            }
+        }
+        if (job.getStatus() == QuizGenerationJob.Status.FAILED) {
+            view.put("error", job.getError());
+        }
+        return view;
+    }
+
+    /**
+     * Au démarrage : les jobs RUNNING d'une instance arrêtée sont remis en file (ou abandonnés
+     * après maxAttempts), puis la file est relancée.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterruptedJobs() {
+        List<QuizGenerationJob> interrupted = jobRepository.findByStatus(QuizGenerationJob.Status.RUNNING);
+        for (QuizGenerationJob job : interrupted) {
+            if (job.getAttempts() >= maxAttempts) {
+                finish(job, QuizGenerationJob.Status.FAILED, null, "Interrompu par un redémarrage (tentatives épuisées)");
+            } else {
+                job.setStatus(QuizGenerationJob.Status.PENDING);
+                job.setProgress("Repris après redémarrage");
+                job.setNextAttemptAt(LocalDateTime.now());
+                jobRepository.save(job);
+            }
+        }
+        if (!interrupted.isEmpty()) {
+            log.info("🔁 {} job(s) interrompu(s) repris après redémarrage", interrupted.size());
+        }
+        dispatchPending();
+    }
+
+    @Scheduled(fixedDelayString = "${quiz.jobs.dispatch-interval-ms:5000}",
+            initialDelayString = "${quiz.jobs.dispatch-interval-ms:5000}")
+    public void dispatchPending() {
+        int free = executor.getMaximumPoolSize() + executor.getQueue().remainingCapacity()
+                - executor.getActiveCount() - executor.getQueue().size();
+        if (free <= 0) {
+            return;
+        }
+        jobRepository.findByStatusAndNextAttemptAtLessThanEqualOrderByCreatedAtAsc(
+                        QuizGenerationJob.Status.PENDING, LocalDateTime.now(), PageRequest.of(0, free))
+                .forEach(job -> dispatch(job.getId()));
+    }
+
+    @Scheduled(fixedDelayString = "${quiz.jobs.cleanup-interval-ms:3600000}")
+    public void purgeFinishedJobs() {
+        int deleted = jobRepository.deleteFinishedBefore(LocalDateTime.now().minusHours(retentionHours));
+        if (deleted > 0) {
+            log.info("🧹 {} job(s) de génération terminés supprimés", deleted);
+        }
+    }
+
+    private void dispatch(String jobId) {
+        if (!dispatched.add(jobId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> run(jobId));
+        } catch (RejectedExecutionException e) {
+            // Pool plein : le job reste PENDING, le dispatcher le reprendra
+            dispatched.remove(jobId);
+        }
+    }
+
+    private void run(String jobId) {
+        try {
+            if (jobRepository.claim(jobId, LocalDateTime.now(), "Génération en cours") == 0) {
+                return;
+            }
+            QuizGenerationJob job = jobRepository.findById(jobId).orElseThrow();
+            long start = System.currentTimeMillis();
+            try {
+                Object result = execute(job);
+                finish(job, QuizGenerationJob.Status.SUCCEEDED, toJson(result), null);
+                log.info("✅ Job {} terminé en {} ms", jobId, System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                handleFailure(job, e);
+            }
+        } catch (Exception e) {
+            log.error("❌ Erreur inattendue sur le job {}: {}", jobId, e.getMessage(), e);
+        } finally {
+            dispatched.remove(jobId);
+        }
+    }
+
+    private Object execute(QuizGenerationJob job) {
+        Map<String, Object> params = fromJson(job.getParameters());
+        int questionCount = params.get("questionCount") instanceof Number count ? count.intValue() : 10;
+
+        return switch (job.getType()) {
+            case COURSE_QUIZ -> ragQuizService.generatePersonalizedQuizForCourse(
+                    job.getUserId(), job.getCourseId(), (String) params.get("courseTitle"));
+            case TOPIC_QUIZ, TEXT_QUIZ -> quizGenerationService.generateQuizFromTextAsync(
+                    (String) params.get("content"), (String) params.get("title"), questionCount).join();
+            case FILE_QUIZ -> quizGenerationService.generateQuizFromFileAsync(
+                    (String) params.get("fileName"), (String) params.get("content"), questionCount).join();
+            case ADAPTIVE_QUIZ -> adaptiveQuizOrchestrator.orchestrateAdaptiveQuiz(job.getUserId(), job.getCourseId());
+        };
+    }
+
+    /**
+     * Quota Gemini saturé : le job retourne en file après le délai indiqué (dans la limite
+     * de maxAttempts). Toute autre erreur est définitive.
+     */
+    private void handleFailure(QuizGenerationJob job, Exception error) {
+        Optional<GeminiGovernor.GeminiOverloadedException> overload = GeminiGovernor.findOverload(error);
+        if (overload.isPresent() && job.getAttempts() < maxAttempts) {
+            long delay = Math.max(1, overload.get().getRetryAfterSeconds());
+            job.setStatus(QuizGenerationJob.Status.PENDING);
+            job.setProgress("Quota AI saturé, nouvel essai dans " + delay + " s");
+            job.setNextAttemptAt(LocalDateTime.now().plusSeconds(delay));
+            jobRepository.save(job);
+            log.warn("⏳ Job {} remis en file ({} s): quota Gemini saturé", job.getId(), delay);
+            return;
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        log.error("❌ Job {} en échec: {}", job.getId(), cause.getMessage());
+        finish(job, QuizGenerationJob.Status.FAILED, null, cause.getMessage());
+    }
+
+    private void finish(QuizGenerationJob job, QuizGenerationJob.Status status, String result, String error) {
+        job.setStatus(status);
+        job.setResult(result);
+        job.setError(error != null && error.length() > 1000 ? error.substring(0, 1000) : error);
+        job.setProgress(status == QuizGenerationJob.Status.SUCCEEDED ? "Terminé" : "Échec");
+        job.setFinishedAt(LocalDateTime.now());
+        jobRepository.save(job);
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Sérialisation JSON impossible: " + e.getMessage(), e);
+        }
+    }
+
+    private Map<String, Object> fromJson(String json) {
+        try {
+            return json != null ? objectMapper.readValue(json, PARAMS_TYPE) : Map.of();
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Paramètres du job illisibles: " + e.getMessage(), e);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("workers", workers);
+        metrics.put("active", executor.getActiveCount());
+        metrics.put("queued", executor.getQueue().size());
+        metrics.put("completed", executor.getCompletedTaskCount());
+        return metrics;
+    }
+}
@@ -0,0 +1,243 @@
+package com.iatd.smarthub.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extraction de texte en flux avec arrêt anticipé : on lit juste assez de texte
+ * pour le nombre de questions demandé (PDF page par page, DOCX/PPTX via StAX
+ * sans décompresser l'archive entière, texte brut par blocs).
+ */
+@Slf4j
+@Service
+public class TextExtractionService {
+
+    private static final Pattern SLIDE_ENTRY = Pattern.compile("ppt/slides/slide(\\d+)\\.xml");
+    private static final String DOCX_BODY = "word/document.xml";
+
+    public enum FileKind {
+        PDF, DOCX, PPTX, TEXT
+    }
+
+    @Value("${quiz.extraction.chars-per-question:400}")
+    private int charsPerQuestion;
+
+    @Value("${quiz.extraction.min-chars:1500}")
+    private int minChars;
+
+    @Value("${quiz.generation.max-content-length:3000}")
+    private int maxContentLength;
+
+    /**
+     * Nombre de caractères utiles pour générer questionCount questions.
+     */
+    public int getTargetLength(int questionCount) {
+        return Math.min(maxContentLength, Math.max(minChars, questionCount * charsPerQuestion));
+    }
+
+    public String extract(MultipartFile file, int questionCount) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return extract(in, file.getOriginalFilename(), getTargetLength(questionCount));
+        }
+    }
+
+    public String extract(InputStream input, String fileName, int maxChars) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(input);
+        FileKind kind = detectKind(in, fileName);
+        log.info("🔍 Extraction {} ({}), objectif {} caractères", fileName, kind, maxChars);
+
+        String text = switch (kind) {
+            case PDF -> extractPdf(in, maxChars);
+            case DOCX -> extractOfficeXml(in, maxChars, false);
+            case PPTX -> extractOfficeXml(in, maxChars, true);
+            case TEXT -> extractPlainText(in, maxChars);
+        };
+
+        text = text.replaceAll("[ \\t]+", " ").replaceAll("\\n{3,}", "\n\n").trim();
+        if (text.length() > maxChars) {
+            text = text.substring(0, maxChars);
+        }
+        log.info("✅ {} caractères extraits de {}", text.length(), fileName);
+        return text;
+    }
+
+    /**
+     * Détection par signature (octets magiques), l'extension ne sert qu'à départager les archives ZIP.
+     */
+    FileKind detectKind(BufferedInputStream in, String fileName) throws IOException {
+        in.mark(8);
+        byte[] header = in.readNBytes(4);
+        in.reset();
+
+        String name = fileName != null ? fileName.toLowerCase() : "";
+        if (header.length == 4 && header[0] == '%' && header[1] == 'P' && header[2] == 'D' && header[3] == 'F') {
+            return FileKind.PDF;
+        }
+        if (header.length == 4 && header[0] == 'P' && header[1] == 'K' && header[2] == 3 && header[3] == 4) {
+            if (name.endsWith(".pptx")) {
+                return FileKind.PPTX;
+            }
+            if (name.endsWith(".docx")) {
+                return FileKind.DOCX;
+            }
+            throw new RuntimeException("Archive non supportée: " + fileName + " (formats acceptés: PDF, DOCX, PPTX, texte)");
+        }
+        return FileKind.TEXT;
+    }
+
+    /**
+     * PDF : PDFBox a besoin d'un accès aléatoire, le flux est donc déversé sur disque
+     * (cache de flux sur fichier temporaire) puis lu page par page jusqu'à l'objectif.
+     */
+    private String extractPdf(InputStream in, int maxChars) throws IOException {
+        Path tmp = Files.createTempFile("extract-", ".pdf");
+        try {
+            Files.copy(in, tmp, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            try (PDDocument document = Loader.loadPDF(tmp.toFile(), IOUtils.createTempFileOnlyStreamCache())) {
+                if (document.isEncrypted()) {
+                    throw new RuntimeException("PDF protégé (chiffré) - impossible d'extraire le contenu");
+                }
+
+                PDFTextStripper stripper = new PDFTextStripper();
+                stripper.setSortByPosition(true);
+                StringBuilder text = new StringBuilder();
+                int pageCount = document.getNumberOfPages();
+                int page = 1;
+                for (; page <= pageCount && text.length() < maxChars; page++) {
+                    stripper.setStartPage(page);
+                    stripper.setEndPage(page);
+                    text.append(stripper.getText(document)).append('\n');
+                }
+                log.debug("📄 PDF: {} page(s) lue(s) sur {}", page - 1, pageCount);
+                return text.toString();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * DOCX / PPTX : lecture séquentielle de l'archive, analyse StAX des seules entrées utiles.
+     */
+    private String extractOfficeXml(InputStream in, int maxChars, boolean slides) throws IOException {
+        Map<Integer, String> slideTexts = new TreeMap<>();
+        StringBuilder text = new StringBuilder();
+        int collected = 0;
+
+        try (ZipInputStream zip = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null && collected < maxChars) {
+                String entryName = entry.getName();
+                if (slides) {
+                    Matcher matcher = SLIDE_ENTRY.matcher(entryName);
+                    if (matcher.matches()) {
+                        String slideText = parseXmlText(zip, "t", "p", maxChars - collected);
+                        slideTexts.put(Integer.parseInt(matcher.group(1)), slideText);
+                        collected += slideText.length();
+                    }
+                } else if (DOCX_BODY.equals(entryName)) {
+                    text.append(parseXmlText(zip, "t", "p", maxChars));
+                    break;
+                }
+            }
+        }
+
+        if (slides) {
+            // Les entrées ne sont pas forcément dans l'ordre des diapositives
+            slideTexts.forEach((number, slideText) ->
+                    text.append("Diapositive ").append(number).append(":\n").append(slideText).append("\n\n"));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Concatène le contenu des éléments textElement (w:t / a:t), saut de ligne à chaque
+     * fin de paragraphElement, arrêt dès que maxChars est atteint.
+     */
+    private String parseXmlText(InputStream xml, String textElement, String paragraphElement, int maxChars) throws IOException {
+        StringBuilder text = new StringBuilder();
+        XMLStreamReader reader = null;
+        try {
+            reader = createXmlInputFactory().createXMLStreamReader(new FilterInputStream(xml) {
+                @Override
+                public void close() {
+                    // Ne pas fermer le ZipInputStream sous-jacent
+                }
+            });
+            boolean inText = false;
+            while (reader.hasNext() && text.length() < maxChars) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT && textElement.equals(reader.getLocalName())) {
+                    inText = true;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (textElement.equals(reader.getLocalName())) {
+                        inText = false;
+                    } else if (paragraphElement.equals(reader.getLocalName())) {
+                        text.append('\n');
+                    }
+                } else if (inText && event == XMLStreamConstants.CHARACTERS) {
+                    text.append(reader.getText());
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Document Office illisible: " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private String extractPlainText(InputStream in, int maxChars) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        try (Reader reader = new InputStreamReader(in, decoder)) {
+            int read;
+            while (text.length() < maxChars && (read = reader.read(buffer, 0, Math.min(buffer.length, maxChars - text.length()))) != -1) {
+                text.append(buffer, 0, read);
+            }
+        }
+        if (text.indexOf("\u0000") >= 0) {
+            throw new RuntimeException("Fichier binaire non supporté (formats acceptés: PDF, DOCX, PPTX, texte)");
+        }
+        return text.toString();
+    }
+
+    private XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // Protection XXE
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
@@ -0,0 +1,322 @@
+package com.iatd.smarthub.service;
+
+import com.iatd.smarthub.model.storage.UploadChunk;
+import com.iatd.smarthub.model.storage.UploadSession;
+import com.iatd.smarthub.repository.UploadChunkRepository;
+import com.iatd.smarthub.repository.UploadSessionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Upload résumable par morceaux : chaque morceau est écrit directement à sa
+ * position dans un fichier de travail du store (pas de tampon mémoire ni de
+ * fichier multipart dans /tmp), vérifié par SHA-256, puis le fichier complet
+ * est validé dans le store dédupliqué et rattaché à un cours ou à un rendu.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UploadSessionService {
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final UploadChunkRepository uploadChunkRepository;
+    private final FileStorageService fileStorageService;
+    private final CourseFileService courseFileService;
+    private final AssignmentSubmissionService assignmentSubmissionService;
+
+    @Value("${upload.chunk.default-size:5242880}")
+    private int defaultChunkSize;
+
+    @Value("${upload.chunk.max-size:16777216}")
+    private int maxChunkSize;
+
+    @Value("${upload.max-file-size:2147483648}")
+    private long maxFileSize;
+
+    @Value("${upload.session.ttl-hours:24}")
+    private long sessionTtlHours;
+
+    public UploadSession createSession(Long userId, UploadSession.Target target, Long targetId,
+                                       String fileName, String contentType, Long totalSize, Integer chunkSize) throws IOException {
+        if (fileName == null || fileName.isBlank()) {
+            throw new RuntimeException("Nom de fichier obligatoire");
+        }
+        if (totalSize == null || totalSize <= 0 || totalSize > maxFileSize) {
+            throw new RuntimeException("Taille de fichier invalide (max " + maxFileSize + " octets)");
+        }
+        int effectiveChunkSize = chunkSize != null ? chunkSize : defaultChunkSize;
+        if (effectiveChunkSize <= 0 || effectiveChunkSize > maxChunkSize) {
+            throw new RuntimeException("Taille de morceau invalide (max " + maxChunkSize + " octets)");
+        }
+        switch (target) {
+            case COURSE_FILE -> courseFileService.checkCanUpload(targetId, userId);
+            case SUBMISSION -> assignmentSubmissionService.checkCanSubmit(targetId, userId);
+        }
+
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setOwnerId(userId);
+        session.setTarget(target);
+        session.setTargetId(targetId);
+        session.setFileName(fileName);
+        session.setContentType(contentType);
+        session.setTotalSize(totalSize);
+        session.setChunkSize(effectiveChunkSize);
+        session.setChunkCount((int) ((totalSize + effectiveChunkSize - 1) / effectiveChunkSize));
+        session.setExpiresAt(LocalDateTime.now().plusHours(sessionTtlHours));
+
+        Files.deleteIfExists(getPartFile(session));
+        Files.createFile(getPartFile(session));
+
+        log.info("📤 Session d'upload créée {} ({} octets, {} morceaux)",
+                session.getId(), totalSize, session.getChunkCount());
+        return uploadSessionRepository.save(session);
+    }
+
+    /**
+     * Écrit un morceau à sa position. Renvoyer un morceau déjà reçu est sans effet
+     * (le client peut rejouer après une coupure sans risque).
+     *
+     * Le morceau est d'abord reçu dans un fichier à part et n'est recopié dans le fichier
+     * de travail qu'une fois sa taille et son checksum vérifiés : un envoi corrompu
+     * n'écrase jamais des octets déjà acceptés.
+     */
+    public UploadSession receiveChunk(String sessionId, Long userId, int index, String expectedSha256,
+                                      long contentLength, InputStream body) throws IOException {
+        UploadSession session = getOpenSession(sessionId, userId);
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new RuntimeException("Index de morceau invalide: " + index);
+        }
+        if (uploadChunkRepository.existsById(new UploadChunk(sessionId, index, null).getId())) {
+            log.debug("🧩 Morceau {}/{} déjà reçu pour la session {}, ignoré", index + 1, session.getChunkCount(), sessionId);
+            return session;
+        }
+
+        long offset = (long) index * session.getChunkSize();
+        long expectedLength = Math.min(session.getChunkSize(), session.getTotalSize() - offset);
+        if (contentLength >= 0 && contentLength != expectedLength) {
+            throw new RuntimeException("Taille du morceau " + index + " invalide: attendu " + expectedLength
+                    + " octets, reçu " + contentLength);
+        }
+
+        Path chunkFile = fileStorageService.getTempFile(
+                "upload-" + sessionId + "." + index + "-" + UUID.randomUUID() + ".chunk");
+        try {
+            MessageDigest digest = FileStorageService.newSha256();
+            long written;
+            try (FileChannel channel = FileChannel.open(chunkFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                 ReadableByteChannel source = Channels.newChannel(new DigestInputStream(body, digest))) {
+                written = transfer(source, channel, 0, expectedLength);
+            }
+
+            if (written != expectedLength) {
+                throw new RuntimeException("Morceau " + index + " incomplet: " + written + "/" + expectedLength + " octets");
+            }
+
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.isBlank() && !expectedSha256.equalsIgnoreCase(sha256)) {
+                throw new RuntimeException("Checksum du morceau " + index + " invalide, renvoyez-le");
+            }
+
+            try (FileChannel source = FileChannel.open(chunkFile, StandardOpenOption.READ);
+                 FileChannel channel = FileChannel.open(getPartFile(session), StandardOpenOption.WRITE)) {
+                transfer(source, channel, offset, expectedLength);
+            }
+            uploadChunkRepository.save(new UploadChunk(sessionId, index, sha256));
+        } finally {
+            Files.deleteIfExists(chunkFile);
+        }
+        log.debug("🧩 Morceau {}/{} reçu pour la session {}", index + 1, session.getChunkCount(), sessionId);
+        return session;
+    }
+
+    private static long transfer(ReadableByteChannel source, FileChannel target, long position, long length) throws IOException {
+        long written = 0;
+        while (written < length) {
+            long transferred = target.transferFrom(source, position + written, length - written);
+            if (transferred <= 0) {
+                break;
+            }
+            written += transferred;
+        }
+        return written;
+    }
+
+    /**
+     * Valide la session : vérifie que tous les morceaux sont présents, calcule le SHA-256
+     * complet en lecture séquentielle puis rattache le fichier à sa cible.
+     *
+     * La session passe d'abord OPEN → COMMITTING par une mise à jour conditionnelle : deux
+     * validations simultanées ne rattachent pas le fichier deux fois. En cas d'échec, elle redevient OPEN.
+     */
+    public UploadSession commit(String sessionId, Long userId, String expectedSha256) throws IOException {
+        UploadSession session = getOpenSession(sessionId, userId);
+        if (uploadSessionRepository.claimForCommit(sessionId, LocalDateTime.now()) == 0) {
+            throw new RuntimeException("Session d'upload déjà en cours de validation");
+        }
+        try {
+            return commitClaimed(session, userId, expectedSha256);
+        } catch (IOException | RuntimeException e) {
+            uploadSessionRepository.releaseCommit(sessionId);
+            throw e;
+        }
+    }
+
+    private UploadSession commitClaimed(UploadSession session, Long userId, String expectedSha256) throws IOException {
+        String sessionId = session.getId();
+        List<Integer> missing = getMissingChunks(session);
+        if (!missing.isEmpty()) {
+            throw new RuntimeException("Morceaux manquants: " + missing);
+        }
+
+        Path partFile = getPartFile(session);
+        MessageDigest digest = FileStorageService.newSha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(partFile), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        if (expectedSha256 != null && !expectedSha256.isBlank() && !expectedSha256.equalsIgnoreCase(sha256)) {
+            throw new RuntimeException("Checksum du fichier invalide");
+        }
+
+        String storedFileName = fileStorageService.commitTempFile(partFile, sha256, session.getTotalSize(),
+                session.getFileName());
+        try {
+            Long resultId = switch (session.getTarget()) {
+                case COURSE_FILE -> courseFileService.attachStoredFile(session.getTargetId(), userId, storedFileName,
+                        session.getFileName(), session.getContentType(), session.getTotalSize()).getId();
+                case SUBMISSION -> assignmentSubmissionService.attachStoredFile(session.getTargetId(), userId,
+                        storedFileName, session.getFileName(), session.getContentType(), session.getTotalSize()).getId();
+            };
+            session.setResultId(resultId);
+        } catch (RuntimeException e) {
+            // Rattachement impossible : libérer la référence prise sur le contenu ; le fichier de
+            // travail a été déplacé dans le store, la session ne peut plus être validée
+            fileStorageService.deleteFile(storedFileName);
+            discard(session);
+            throw e;
+        }
+
+        session.setStoredFileName(storedFileName);
+        session.setStatus(UploadSession.Status.COMMITTED);
+        uploadChunkRepository.deleteBySessionId(sessionId);
+        log.info("✅ Session d'upload {} validée: {}", sessionId, storedFileName);
+        return uploadSessionRepository.save(session);
+    }
+
+    public void abort(String sessionId, Long userId) throws IOException {
+        UploadSession session = getOpenSession(sessionId, userId);
+        discard(session);
+        log.info("🛑 Session d'upload {} annulée", sessionId);
+    }
+
+    public UploadSession getSession(String sessionId, Long userId) {
+        UploadSession session = uploadSessionRepository.findById(sessionId)
+                .orElseThrow(() -> new RuntimeException("Session d'upload non trouvée"));
+        if (!session.getOwnerId().equals(userId)) {
+            throw new RuntimeException("Session d'upload non autorisée");
+        }
+        return session;
+    }
+
+    public List<Integer> getMissingChunks(UploadSession session) {
+        List<Integer> received = uploadChunkRepository.findChunkIndexesBySessionId(session.getId());
+        return IntStream.range(0, session.getChunkCount())
+                .filter(i -> !received.contains(i))
+                .boxed()
+                .collect(Collectors.toList());
+    }
+
+    public Map<String, Object> toResponse(UploadSession session) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("sessionId", session.getId());
+        response.put("status", session.getStatus());
+        response.put("target", session.getTarget());
+        response.put("targetId", session.getTargetId());
+        response.put("fileName", session.getFileName());
+        response.put("totalSize", session.getTotalSize());
+        response.put("chunkSize", session.getChunkSize());
+        response.put("chunkCount", session.getChunkCount());
+        response.put("expiresAt", session.getExpiresAt());
+        if (session.getStatus() == UploadSession.Status.OPEN) {
+            response.put("missingChunks", getMissingChunks(session));
+        } else {
+            response.put("resultId", session.getResultId());
+        }
+        return response;
+    }
+
+    /**
+     * Nettoyage des sessions expirées (fichiers de travail et morceaux).
+     */
+    @Scheduled(fixedDelayString = "${upload.session.cleanup-interval-ms:3600000}")
+    public void purgeExpiredSessions() {
+        List<UploadSession> expired = uploadSessionRepository
+                .findByStatusAndExpiresAtBefore(UploadSession.Status.OPEN, LocalDateTime.now());
+        for (UploadSession session : expired) {
+            try {
+                discard(session);
+            } catch (IOException e) {
+                log.warn("⚠️ Nettoyage session {} impossible: {}", session.getId(), e.getMessage());
+            }
+        }
+        // Validation interrompue (arrêt du serveur) : session restée COMMITTING bien après son expiration
+        List<UploadSession> stuck = uploadSessionRepository.findByStatusAndExpiresAtBefore(
+                UploadSession.Status.COMMITTING, LocalDateTime.now().minusHours(sessionTtlHours));
+        for (UploadSession session : stuck) {
+            try {
+                discard(session);
+            } catch (IOException e) {
+                log.warn("⚠️ Nettoyage session {} impossible: {}", session.getId(), e.getMessage());
+            }
+        }
+        if (!expired.isEmpty() || !stuck.isEmpty()) {
+            log.info("🧹 {} session(s) d'upload expirée(s) supprimée(s)", expired.size() + stuck.size());
+        }
+    }
+
+    private UploadSession getOpenSession(String sessionId, Long userId) {
+        UploadSession session = getSession(sessionId, userId);
+        if (session.getStatus() != UploadSession.Status.OPEN) {
+            throw new RuntimeException("Session d'upload déjà " + session.getStatus());
+        }
+        if (session.getExpiresAt() != null && session.getExpiresAt().isBefore(LocalDateTime.now())) {
+            throw new RuntimeException("Session d'upload expirée");
+        }
+        return session;
+    }
+
+    private void discard(UploadSession session) throws IOException {
+        Files.deleteIfExists(getPartFile(session));
+        uploadChunkRepository.deleteBySessionId(session.getId());
+        session.setStatus(UploadSession.Status.ABORTED);
+        uploadSessionRepository.save(session);
+    }
+
+    private Path getPartFile(UploadSession session) throws IOException {
+        return fileStorageService.getTempFile("upload-" + session.getId() + ".part");
+    }
+}
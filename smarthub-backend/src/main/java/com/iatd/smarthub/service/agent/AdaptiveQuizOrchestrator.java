@@ -6,6 +6,7 @@ import com.iatd.smarthub.model.rag.LearningProfile;
 import com.iatd.smarthub.model.user.User;
 import com.iatd.smarthub.repository.UserRepository;
 import com.iatd.smarthub.repository.rag.LearningProfileRepository;
+import com.iatd.smarthub.service.rag.QuestionBankService;
 import com.iatd.smarthub.service.rag.RAGQuizGenerationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -25,6 +26,7 @@ public class AdaptiveQuizOrchestrator {
     private final ProgressTrackerAgent progressTrackerAgent;
     private final UserRepository userRepository;
     private final LearningProfileRepository learningProfileRepository;
+    private final QuestionBankService questionBankService;
     
     /**
      * Orchestre un quiz adaptatif complet avec stratégie
@@ -187,6 +189,15 @@ public class AdaptiveQuizOrchestrator {
                                                 String strategy, Map<String, Object> agentParams) {
         
         try {
+            int questionCount = (Integer) agentParams.getOrDefault("questionCount", 5);
+            
+            // Tirage dans la banque du cours (questions issues de son vrai contenu), sans appel LLM
+            Optional<QuizResponseDTO> banked = questionBankService.sampleQuiz(
+                userId, courseId, "Quiz " + strategy + ": " + getCourseTopic(courseId), questionCount);
+            if (banked.isPresent()) {
+                return banked.get();
+            }
+            
             // Récupérer l'utilisateur et le profil
             User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Utilisateur non trouvé"));
@@ -204,8 +215,6 @@ public class AdaptiveQuizOrchestrator {
             String ragPrompt = buildAdaptiveRAGPrompt(topic, relevantContent, profile, strategy, agentParams);
             
             // Générer le quiz
-            int questionCount = (Integer) agentParams.getOrDefault("questionCount", 5);
-            
             return ragQuizGenerationService.generateQuizFromRAGPrompt(
                 ragPrompt,
                 "Quiz " + strategy + ": " + topic,
@@ -18,6 +18,8 @@ import com.iatd.smarthub.repository.CourseRepository;
 import com.iatd.smarthub.repository.QuizAttemptRepository;
 import com.iatd.smarthub.repository.QuizRepository;
 import com.iatd.smarthub.repository.UserRepository;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
+import com.iatd.smarthub.service.rag.QuestionBankService;
 import com.iatd.smarthub.service.rag.RAGQuizService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -42,11 +44,13 @@ public class CourseQuizSupervisorAgent {
     private final QuizRepository quizRepository;
     private final CourseFileRepository courseFileRepository;
     private final ProgressTrackerAgent progressTrackerAgent;
+    private final QuestionBankService questionBankService;
     
     // Configuration
     private static final int MAX_ATTEMPTS_PER_DAY = 3;
     private static final int MIN_TIME_BETWEEN_ATTEMPTS_MINUTES = 30;
     private static final int QUIZ_TIMEOUT_MINUTES = 60;
+    private static final int COURSE_QUIZ_QUESTIONS = 20;
     
     /**
      * Vérifie si l'étudiant peut passer un quiz
@@ -333,7 +337,14 @@ public class CourseQuizSupervisorAgent {
                 return generateFallbackQuiz(course, "Service RAG non disponible");
             }
             
-            // 2. Essayer d'abord la méthode spécifique pour les cours
+            // 2. Banque de questions du cours : simple lecture en base, sans appel LLM
+            Optional<QuizResponseDTO> banked = questionBankService.sampleQuiz(
+                userId, course.getId(), "Quiz RAG - " + course.getTitle(), COURSE_QUIZ_QUESTIONS);
+            if (banked.isPresent()) {
+                return banked.get();
+            }
+            
+            // 3. Sinon génération à la demande avec la méthode spécifique pour les cours
             String courseTopic = course.getTitle();
             log.info("🎯 Appel RAG avec userId: {}, courseId: {}, topic: {}", 
                 userId, course.getId(), courseTopic);
@@ -345,6 +356,10 @@ public class CourseQuizSupervisorAgent {
                 quiz = ragQuizService.generatePersonalizedQuizForCourse(userId, course.getId(), courseTopic);
                 log.info("✅ Méthode generatePersonalizedQuizForCourse utilisée");
             } catch (Exception e1) {
+                // Quota saturé : inutile de relancer un second appel Gemini, fallback sur les fichiers
+                if (GeminiGovernor.findOverload(e1).isPresent()) {
+                    throw e1;
+                }
                 log.warn("⚠️ generatePersonalizedQuizForCourse échoué: {}, fallback...", e1.getMessage());
                 try {
                     // Fallback: méthode générale
@@ -356,13 +371,13 @@ public class CourseQuizSupervisorAgent {
                 }
             }
             
-            // 3. Vérifier la qualité du quiz généré
+            // 4. Vérifier la qualité du quiz généré
             if (quiz == null || quiz.getQuestions() == null || quiz.getQuestions().isEmpty()) {
                 log.warn("⚠️ RAG n'a généré aucune question valide");
                 return generateFallbackQuiz(course, "RAG n'a pas généré de questions valides");
             }
             
-            // 4. Améliorer les questions si nécessaire
+            // 5. Améliorer les questions si nécessaire
             List<QuestionResponseDTO> validQuestions = quiz.getQuestions().stream()
                 .filter(q -> q != null && q.getText() != null && !q.getText().trim().isEmpty())
                 .collect(Collectors.toList());
@@ -372,19 +387,20 @@ public class CourseQuizSupervisorAgent {
                 return generateFallbackQuiz(course, "Toutes les questions RAG sont invalides");
             }
             
-            // 5. S'assurer d'avoir au moins 5 questions
+            // 6. S'assurer d'avoir au moins 5 questions
             if (validQuestions.size() < 5) {
                 log.warn("⚠️ Seulement {} questions valides, complétion avec fallback", validQuestions.size());
                 int needed = 5 - validQuestions.size();
                 validQuestions.addAll(generateFallbackQuestions(needed));
             }
             
-            // 6. Mettre à jour le quiz
+            // 7. Mettre à jour le quiz
             quiz.setQuestions(validQuestions);
             quiz.setTitle("Quiz RAG - " + course.getTitle());
             quiz.setDescription("Quiz généré à partir des fichiers du cours via RAG");
             
             log.info("✅ Quiz RAG généré avec succès: {} questions valides", validQuestions.size());
+            questionBankService.recordSeen(userId, course.getId(), quiz);
             return quiz;
             
         } catch (Exception e) {
@@ -0,0 +1,204 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Disjoncteur devant Gemini, alimenté par l'issue des appels réels :
+ * CLOSED (appels normaux) → OPEN après N échecs consécutifs (rejet immédiat)
+ * → HALF_OPEN après le délai de refroidissement (un seul appel d'essai).
+ */
+@Slf4j
+@Component
+public class GeminiCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationMs;
+    private final LongSupplier clock;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+    private volatile long trialStartedAt;
+    private volatile long lastOutcomeAt;
+    private volatile String lastError;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder openings = new LongAdder();
+
+    public GeminiCircuitBreaker(
+            @Value("${gemini.circuit.failure-threshold:5}") int failureThreshold,
+            @Value("${gemini.circuit.open-duration-ms:30000}") long openDurationMs) {
+        this(failureThreshold, openDurationMs, System::currentTimeMillis);
+    }
+
+    GeminiCircuitBreaker(int failureThreshold, long openDurationMs, LongSupplier clock) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationMs = openDurationMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Autorise ou non un appel. En OPEN, le premier appel après le refroidissement
+     * fait passer en HALF_OPEN et sert d'essai ; les autres restent rejetés.
+     */
+    public boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        long now = clock.getAsLong();
+        if (current == State.OPEN && now - openedAt >= openDurationMs
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            trialStartedAt = now;
+            log.info("🟡 Disjoncteur Gemini HALF_OPEN - appel d'essai autorisé");
+            return true;
+        }
+        // Essai resté sans issue (appel annulé) : on en autorise un nouveau
+        if (current == State.HALF_OPEN && now - trialStartedAt >= openDurationMs) {
+            trialStartedAt = now;
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Lève une GeminiUnavailableException si l'appel n'est pas autorisé.
+     */
+    public void acquireOrThrow() {
+        if (!tryAcquire()) {
+            throw new GeminiUnavailableException("Service AI (Gemini) temporairement indisponible"
+                    + (lastError != null ? " (dernière erreur: " + lastError + ")" : "")
+                    + " - nouvel essai dans " + Math.max(0, remainingOpenMs() / 1000) + " s");
+        }
+    }
+
+    public void recordSuccess() {
+        successes.increment();
+        lastOutcomeAt = clock.getAsLong();
+        consecutiveFailures.set(0);
+        State previous = state.getAndSet(State.CLOSED);
+        if (previous != State.CLOSED) {
+            log.info("🟢 Disjoncteur Gemini CLOSED - service rétabli");
+        }
+    }
+
+    /**
+     * Seuls les échecs révélant une indisponibilité comptent (connexion, timeout, 429, 5xx) ;
+     * une erreur client (400, 403...) ne dit rien de la santé du service.
+     */
+    public void recordFailure(Throwable error) {
+        lastOutcomeAt = clock.getAsLong();
+        if (!isAvailabilityFailure(error)) {
+            // Gemini a répondu : le service est joignable même si la requête est refusée
+            consecutiveFailures.set(0);
+            if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                log.info("🟢 Disjoncteur Gemini CLOSED - service rétabli");
+            }
+            return;
+        }
+        failures.increment();
+        lastError = error.getMessage();
+
+        if (state.get() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        openedAt = clock.getAsLong();
+        State previous = state.getAndSet(State.OPEN);
+        if (previous != State.OPEN) {
+            openings.increment();
+            log.warn("🔴 Disjoncteur Gemini OPEN pour {} ms après {} échec(s): {}",
+                    openDurationMs, consecutiveFailures.get(), lastError);
+        }
+    }
+
+    static boolean isAvailabilityFailure(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof GeminiHttpClient.GeminiHttpException http) {
+                int status = http.getStatusCode();
+                return status == 429 || status >= 500;
+            }
+            if (t instanceof JsonProcessingException) {
+                return false;
+            }
+            if (t instanceof ConnectException || t instanceof HttpTimeoutException
+                    || t instanceof TimeoutException || t instanceof IOException) {
+                return true;
+            }
+        }
+        // Erreur de transport encapsulée par les clients (message "Timeout" / "Connexion")
+        String message = error.getMessage();
+        return message != null && (message.startsWith("Timeout Gemini") || message.startsWith("Connexion à Gemini"));
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Disponible = appels acceptés (CLOSED), ou essai possible (HALF_OPEN, refroidissement
+     * écoulé) : c'est acquireOrThrow qui n'admet qu'un seul appel d'essai.
+     */
+    public boolean isAvailable() {
+        State current = state.get();
+        return current != State.OPEN || remainingOpenMs() <= 0;
+    }
+
+    public long getLastOutcomeAt() {
+        return lastOutcomeAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    private long remainingOpenMs() {
+        return openDurationMs - (clock.getAsLong() - openedAt);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("state", state.get().name());
+        metrics.put("consecutiveFailures", consecutiveFailures.get());
+        metrics.put("failureThreshold", failureThreshold);
+        metrics.put("openDurationMs", openDurationMs);
+        metrics.put("successes", successes.sum());
+        metrics.put("failures", failures.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("openings", openings.sum());
+        metrics.put("lastError", lastError);
+        return metrics;
+    }
+
+    /**
+     * Appel refusé sans contacter Gemini (disjoncteur ouvert).
+     */
+    public static class GeminiUnavailableException extends RuntimeException {
+        public GeminiUnavailableException(String message) {
+            super(message);
+        }
+    }
+}
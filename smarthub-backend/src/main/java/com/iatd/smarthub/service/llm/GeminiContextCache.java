@@ -0,0 +1,253 @@
+package com.iatd.smarthub.service.llm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache de contexte Gemini (API cachedContents) : le contenu partagé d'un prompt (contenu
+ * packé d'un cours) est enregistré une fois côté Gemini, puis chaque génération n'envoie que
+ * la consigne propre à l'appel avec la référence du cache.
+ *
+ * La clé est l'empreinte du modèle et du contenu : un nouveau contenu de cours donne une
+ * nouvelle entrée, l'ancienne expire d'elle-même (TTL). Une entrée proche de l'expiration, ou
+ * que Gemini ne connaît plus, est ré-enregistrée. Si l'enregistrement est refusé (contenu sous
+ * le minimum de tokens, modèle non éligible), le contenu est envoyé en ligne comme avant.
+ */
+@Slf4j
+@Component
+public class GeminiContextCache {
+
+    private final GeminiHttpClient httpClient;
+    private final String model;
+    private final boolean enabled;
+    private final long ttlSeconds;
+    private final long renewMarginSeconds;
+    private final int minChars;
+    private final int maxEntries;
+
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Instant> refused = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    private final LongAdder registrations = new LongAdder();
+    private final LongAdder renewals = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder inlined = new LongAdder();
+    private final LongAdder staleReferences = new LongAdder();
+    private final LongAdder cachedTokensServed = new LongAdder();
+    private final LongAdder promptCharsSaved = new LongAdder();
+
+    public GeminiContextCache(GeminiHttpClient httpClient,
+                              @Value("${gemini.model.name:gemini-2.5-flash}") String model,
+                              @Value("${gemini.context-cache.enabled:true}") boolean enabled,
+                              @Value("${gemini.context-cache.ttl-seconds:3600}") long ttlSeconds,
+                              @Value("${gemini.context-cache.renew-margin-seconds:120}") long renewMarginSeconds,
+                              @Value("${gemini.context-cache.min-chars:4096}") int minChars,
+                              @Value("${gemini.context-cache.max-entries:200}") int maxEntries) {
+        this.httpClient = httpClient;
+        this.model = model;
+        this.enabled = enabled;
+        this.ttlSeconds = ttlSeconds;
+        this.renewMarginSeconds = renewMarginSeconds;
+        this.minChars = minChars;
+        this.maxEntries = maxEntries;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * generateContent avec le contexte partagé en cache : request ne contient que la consigne
+     * de l'appel (contents), le contexte est soit référencé (cachedContent), soit ajouté en tête.
+     */
+    public Map<String, Object> generateContent(String context, Map<String, Object> request) {
+        Optional<String> cacheName = resolve(context);
+        if (cacheName.isPresent()) {
+            try {
+                return send(withCachedContent(request, cacheName.get()), context);
+            } catch (GeminiHttpClient.GeminiHttpException e) {
+                if (!isStaleReference(e)) {
+                    throw e;
+                }
+                // Cache supprimé ou expiré côté Gemini avant l'échéance connue : un nouvel enregistrement
+                staleReferences.increment();
+                log.warn("♻️ Cache de contexte {} inconnu de Gemini, ré-enregistrement", cacheName.get());
+                entries.remove(key(context));
+                Optional<String> renewed = resolve(context);
+                if (renewed.isPresent()) {
+                    return send(withCachedContent(request, renewed.get()), context);
+                }
+            }
+        }
+        inlined.increment();
+        return httpClient.post("generateContent", model + ":generateContent", withInlineContext(request, context));
+    }
+
+    /**
+     * Nom du cache Gemini ("cachedContents/...") pour ce contexte, enregistré si besoin.
+     * Vide si le cache est désactivé, le contexte trop court ou l'enregistrement refusé.
+     */
+    public Optional<String> resolve(String context) {
+        if (!enabled || context == null || context.length() < minChars || !httpClient.isApiKeyConfigured()) {
+            return Optional.empty();
+        }
+        String key = key(context);
+        Instant refusedUntil = refused.get(key);
+        if (refusedUntil != null && Instant.now().isBefore(refusedUntil)) {
+            return Optional.empty();
+        }
+
+        CacheEntry entry = entries.get(key);
+        if (entry != null && entry.isUsable(renewMarginSeconds)) {
+            return Optional.of(entry.name());
+        }
+        // Un seul enregistrement par contexte, même sous requêtes simultanées
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            entry = entries.get(key);
+            if (entry != null && entry.isUsable(renewMarginSeconds)) {
+                return Optional.of(entry.name());
+            }
+            try {
+                CacheEntry registered = register(context);
+                if (entry != null) {
+                    renewals.increment();
+                }
+                registrations.increment();
+                evictIfNeeded();
+                entries.put(key, registered);
+                refused.remove(key);
+                return Optional.of(registered.name());
+            } catch (GeminiHttpClient.GeminiHttpException e) {
+                if (e.getStatusCode() / 100 != 4 || e.getStatusCode() == 429) {
+                    throw e;
+                }
+                // Refus définitif pour ce contenu : inutile de réessayer avant un TTL
+                refused.put(key, Instant.now().plusSeconds(ttlSeconds));
+                log.info("ℹ️ Contexte non mis en cache par Gemini ({}), envoi en ligne", e.getMessage());
+                return Optional.empty();
+            } finally {
+                locks.remove(key);
+            }
+        }
+    }
+
+    private CacheEntry register(String context) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", "models/" + model);
+        body.put("contents", List.of(Map.of("role", "user", "parts", List.of(Map.of("text", context)))));
+        body.put("ttl", ttlSeconds + "s");
+        body.put("displayName", "smarthub-" + key(context).substring(0, 16));
+
+        Map<String, Object> response = httpClient.postResource("createCachedContent", "cachedContents", body);
+        if (!(response.get("name") instanceof String name)) {
+            throw new RuntimeException("Réponse cachedContents sans nom de cache");
+        }
+        Instant expireTime = Instant.now().plusSeconds(ttlSeconds);
+        if (response.get("expireTime") instanceof String expire) {
+            try {
+                expireTime = Instant.parse(expire);
+            } catch (DateTimeParseException e) {
+                log.debug("expireTime illisible: {}", expire);
+            }
+        }
+        log.info("🗄️ Contexte enregistré dans le cache Gemini: {} ({} caractères, expire {})",
+                name, context.length(), expireTime);
+        return new CacheEntry(name, expireTime);
+    }
+
+    private Map<String, Object> send(Map<String, Object> request, String context) {
+        Map<String, Object> response = httpClient.post("generateContent", model + ":generateContent", request);
+        hits.increment();
+        promptCharsSaved.add(context.length());
+        if (response.get("usageMetadata") instanceof Map<?, ?> usage
+                && usage.get("cachedContentTokenCount") instanceof Number cached) {
+            cachedTokensServed.add(cached.longValue());
+        }
+        return response;
+    }
+
+    private static Map<String, Object> withCachedContent(Map<String, Object> request, String cacheName) {
+        Map<String, Object> cachedRequest = new HashMap<>(request);
+        cachedRequest.put("cachedContent", cacheName);
+        return cachedRequest;
+    }
+
+    /**
+     * Requête équivalente sans cache : le contexte précède la consigne dans la première partie.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> withInlineContext(Map<String, Object> request, String context) {
+        Map<String, Object> inlineRequest = new HashMap<>(request);
+        List<Map<String, Object>> contents = (List<Map<String, Object>>) request.get("contents");
+        Map<String, Object> first = contents.get(0);
+        List<Map<String, Object>> parts = (List<Map<String, Object>>) first.get("parts");
+        String instruction = parts.isEmpty() ? "" : String.valueOf(parts.get(0).get("text"));
+
+        Map<String, Object> part = new HashMap<>();
+        part.put("text", context + "\n\n" + instruction);
+        Map<String, Object> content = new HashMap<>(first);
+        content.put("parts", List.of(part));
+        List<Map<String, Object>> inlineContents = new ArrayList<>(contents);
+        inlineContents.set(0, content);
+        inlineRequest.put("contents", inlineContents);
+        return inlineRequest;
+    }
+
+    private static boolean isStaleReference(GeminiHttpClient.GeminiHttpException e) {
+        return e.getStatusCode() == 404 || e.getStatusCode() == 403
+                || (e.getStatusCode() == 400 && e.getMessage() != null
+                    && e.getMessage().toLowerCase(Locale.ROOT).contains("cachedcontent"));
+    }
+
+    private void evictIfNeeded() {
+        Instant now = Instant.now();
+        entries.values().removeIf(entry -> entry.expireTime().isBefore(now));
+        refused.values().removeIf(until -> until.isBefore(now));
+        if (entries.size() >= maxEntries) {
+            entries.entrySet().stream()
+                    .min(Comparator.comparing(e -> e.getValue().expireTime()))
+                    .ifPresent(oldest -> entries.remove(oldest.getKey()));
+        }
+    }
+
+    private String key(String context) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest((model + "\n" + context).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("entries", entries.size());
+        metrics.put("registrations", registrations.sum());
+        metrics.put("renewals", renewals.sum());
+        metrics.put("hits", hits.sum());
+        metrics.put("inlined", inlined.sum());
+        metrics.put("staleReferences", staleReferences.sum());
+        metrics.put("cachedTokensServed", cachedTokensServed.sum());
+        metrics.put("promptCharsSaved", promptCharsSaved.sum());
+        return metrics;
+    }
+
+    private record CacheEntry(String name, Instant expireTime) {
+        boolean isUsable(long marginSeconds) {
+            return Instant.now().plusSeconds(marginSeconds).isBefore(expireTime);
+        }
+    }
+}
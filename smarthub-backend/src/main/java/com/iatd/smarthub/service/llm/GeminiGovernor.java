@@ -0,0 +1,400 @@
+package com.iatd.smarthub.service.llm;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Régulateur des appels Gemini : seaux à jetons (requêtes/min et tokens/min),
+ * limite de concurrence et deux files de priorité (INTERACTIVE passe avant BATCH,
+ * BATCH plafonné pour laisser de la place aux requêtes utilisateur).
+ * Files pleines ou attente trop longue : GeminiOverloadedException (HTTP 429).
+ */
+@Slf4j
+@Component
+public class GeminiGovernor {
+
+    public enum Priority {
+        INTERACTIVE, BATCH
+    }
+
+    /**
+     * Autorisation d'appel, à rendre via release() une fois l'appel terminé.
+     */
+    public static final class Permit {
+        private final Priority priority;
+        private final int reservedTokens;
+        private boolean released;
+
+        private Permit(Priority priority, int reservedTokens) {
+            this.priority = priority;
+            this.reservedTokens = reservedTokens;
+        }
+    }
+
+    private record Waiter(Priority priority, int tokens, long enqueuedAt, CompletableFuture<Permit> future) {
+    }
+
+    private static final ThreadLocal<Priority> CURRENT_PRIORITY = new ThreadLocal<>();
+
+    private final int requestsPerMinute;
+    private final int tokensPerMinute;
+    private final int maxConcurrent;
+    private final int batchMaxConcurrent;
+    private final int outputReserveTokens;
+    private final Map<Priority, Integer> queueLimits = new EnumMap<>(Priority.class);
+    private final Map<Priority, Long> maxWaitMs = new EnumMap<>(Priority.class);
+
+    // État protégé par le verrou de l'instance
+    private final Map<Priority, Deque<Waiter>> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> running = new EnumMap<>(Priority.class);
+    private double requestTokens;
+    private double tpmTokens;
+    private long lastRefillNanos;
+    private ScheduledFuture<?> pendingDrain;
+
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "gemini-governor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<Priority, LatencyRecorder> queueTimes = new EnumMap<>(Priority.class);
+    private final Map<Priority, LongAdder> admitted = new EnumMap<>(Priority.class);
+    private final Map<Priority, LongAdder> rejected = new EnumMap<>(Priority.class);
+    private final Map<Priority, LongAdder> timedOut = new EnumMap<>(Priority.class);
+
+    public GeminiGovernor(
+            @Value("${gemini.governor.requests-per-minute:60}") int requestsPerMinute,
+            @Value("${gemini.governor.tokens-per-minute:250000}") int tokensPerMinute,
+            @Value("${gemini.governor.max-concurrent:8}") int maxConcurrent,
+            @Value("${gemini.governor.batch-max-concurrent:2}") int batchMaxConcurrent,
+            @Value("${gemini.governor.interactive-queue-limit:100}") int interactiveQueueLimit,
+            @Value("${gemini.governor.batch-queue-limit:1000}") int batchQueueLimit,
+            @Value("${gemini.governor.interactive-max-wait-ms:30000}") long interactiveMaxWaitMs,
+            @Value("${gemini.governor.batch-max-wait-ms:600000}") long batchMaxWaitMs,
+            @Value("${gemini.governor.output-reserve-tokens:2000}") int outputReserveTokens) {
+        this.requestsPerMinute = Math.max(1, requestsPerMinute);
+        this.tokensPerMinute = Math.max(1, tokensPerMinute);
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.batchMaxConcurrent = Math.max(1, Math.min(batchMaxConcurrent, this.maxConcurrent));
+        this.outputReserveTokens = outputReserveTokens;
+        queueLimits.put(Priority.INTERACTIVE, interactiveQueueLimit);
+        queueLimits.put(Priority.BATCH, batchQueueLimit);
+        maxWaitMs.put(Priority.INTERACTIVE, interactiveMaxWaitMs);
+        maxWaitMs.put(Priority.BATCH, batchMaxWaitMs);
+
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            running.put(priority, 0);
+            queueTimes.put(priority, new LatencyRecorder());
+            admitted.put(priority, new LongAdder());
+            rejected.put(priority, new LongAdder());
+            timedOut.put(priority, new LongAdder());
+        }
+        this.requestTokens = this.requestsPerMinute;
+        this.tpmTokens = this.tokensPerMinute;
+        this.lastRefillNanos = System.nanoTime();
+        // Les délais d'attente annulés (autorisation accordée) ne restent pas dans la file du planificateur
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Exécute un traitement dont les appels Gemini passent dans la file indiquée (ex: BATCH pour les tâches de masse).
+     */
+    public static <T> T callAs(Priority priority, Supplier<T> work) {
+        Priority previous = CURRENT_PRIORITY.get();
+        CURRENT_PRIORITY.set(priority);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT_PRIORITY.remove();
+            } else {
+                CURRENT_PRIORITY.set(previous);
+            }
+        }
+    }
+
+    public static Priority currentPriority() {
+        Priority priority = CURRENT_PRIORITY.get();
+        return priority != null ? priority : Priority.INTERACTIVE;
+    }
+
+    /**
+     * Attente bloquante d'une autorisation (clients synchrones).
+     */
+    public Permit acquire(Priority priority, int estimatedTokens) {
+        CompletableFuture<Permit> pending = acquireAsync(priority, estimatedTokens);
+        try {
+            return pending.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException runtime ? runtime : new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Appelant annulé (ex: requête doublée perdante) : la place obtenue entre-temps est rendue
+            if (!pending.cancel(false) && !pending.isCompletedExceptionally()) {
+                release(pending.join(), null);
+            }
+            throw new GeminiOverloadedException("Attente du régulateur Gemini interrompue", 1);
+        }
+    }
+
+    /**
+     * Autorisation non bloquante : le future est complété quand le quota le permet,
+     * ou en erreur si la file est pleine / l'attente maximale dépassée.
+     */
+    public CompletableFuture<Permit> acquireAsync(Priority priority, int estimatedTokens) {
+        int tokens = Math.min(estimatedTokens, tokensPerMinute);
+        CompletableFuture<Permit> future = new CompletableFuture<>();
+        Waiter waiter = new Waiter(priority, tokens, System.nanoTime(), future);
+
+        synchronized (this) {
+            Deque<Waiter> queue = queues.get(priority);
+            if (queue.size() >= queueLimits.get(priority)) {
+                rejected.get(priority).increment();
+                long retryAfter = Math.max(1, (long) Math.ceil(60.0 * queue.size() / requestsPerMinute));
+                log.warn("🚦 File Gemini {} pleine ({} en attente) - requête rejetée", priority, queue.size());
+                future.completeExceptionally(new GeminiOverloadedException(
+                        "Service AI saturé, réessayez dans " + retryAfter + " s", retryAfter));
+                return future;
+            }
+            queue.addLast(waiter);
+        }
+
+        long timeoutMs = maxWaitMs.get(priority);
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+            if (future.completeExceptionally(new GeminiOverloadedException(
+                    "Délai d'attente du quota Gemini dépassé (" + timeoutMs + " ms)", Math.max(1, timeoutMs / 1000)))) {
+                timedOut.get(priority).increment();
+                drain();
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        future.whenComplete((permit, error) -> timeout.cancel(false));
+
+        drain();
+        return future;
+    }
+
+    /**
+     * Rend l'autorisation ; actualTokens (usageMetadata.totalTokenCount) corrige la réservation.
+     */
+    public void release(Permit permit, Integer actualTokens) {
+        synchronized (this) {
+            if (permit.released) {
+                return;
+            }
+            permit.released = true;
+            running.merge(permit.priority, -1, Integer::sum);
+            if (actualTokens != null) {
+                // Le seau peut devenir négatif : les appels suivants attendront d'autant
+                tpmTokens -= actualTokens - permit.reservedTokens;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Estimation des tokens d'une requête : texte d'entrée (~4 caractères/token) + réserve de sortie.
+     */
+    public int estimateTokens(Map<String, Object> request) {
+        long chars = countChars(request.get("contents"));
+        int outputReserve = outputReserveTokens;
+        if (request.get("generationConfig") instanceof Map<?, ?> config
+                && config.get("maxOutputTokens") instanceof Number maxOutput) {
+            outputReserve = Math.min(outputReserve, maxOutput.intValue());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, chars / 4 + outputReserve);
+    }
+
+    /**
+     * Tokens réellement consommés d'après la réponse (usageMetadata.totalTokenCount), null si absent.
+     */
+    public static Integer actualTokens(Map<String, Object> response) {
+        if (response != null && response.get("usageMetadata") instanceof Map<?, ?> usage
+                && usage.get("totalTokenCount") instanceof Number total) {
+            return total.intValue();
+        }
+        return null;
+    }
+
+    private long countChars(Object node) {
+        if (node instanceof String text) {
+            return text.length();
+        }
+        if (node instanceof Map<?, ?> map) {
+            return map.values().stream().mapToLong(this::countChars).sum();
+        }
+        if (node instanceof Collection<?> collection) {
+            return collection.stream().mapToLong(this::countChars).sum();
+        }
+        return 0;
+    }
+
+    private void drain() {
+        List<Supplier<Boolean>> grants = new ArrayList<>();
+        synchronized (this) {
+            refill();
+            for (Priority priority : Priority.values()) {
+                Deque<Waiter> queue = queues.get(priority);
+                while (!queue.isEmpty()) {
+                    Waiter head = queue.peekFirst();
+                    if (head.future().isDone()) {
+                        queue.pollFirst();
+                        continue;
+                    }
+                    if (!hasCapacity(priority, head.tokens())) {
+                        break;
+                    }
+                    queue.pollFirst();
+                    requestTokens -= 1;
+                    tpmTokens -= head.tokens();
+                    running.merge(priority, 1, Integer::sum);
+                    Permit permit = new Permit(priority, head.tokens());
+                    grants.add(() -> grant(head, permit));
+                }
+                // Priorité stricte : la file BATCH n'avance pas tant que des requêtes interactives attendent
+                if (!queue.isEmpty()) {
+                    break;
+                }
+            }
+            scheduleRefillDrainIfNeeded();
+        }
+        // Complétion hors verrou (les continuations s'exécutent sur ce thread)
+        boolean returned = false;
+        for (Supplier<Boolean> grant : grants) {
+            returned |= !grant.get();
+        }
+        if (returned) {
+            drain();
+        }
+    }
+
+    private boolean grant(Waiter waiter, Permit permit) {
+        if (waiter.future().complete(permit)) {
+            admitted.get(waiter.priority()).increment();
+            queueTimes.get(waiter.priority()).record((System.nanoTime() - waiter.enqueuedAt()) / 1_000_000);
+            return true;
+        } else {
+            // Appelant parti entre-temps (timeout, annulation) : on rend les ressources
+            synchronized (this) {
+                running.merge(permit.priority, -1, Integer::sum);
+                requestTokens += 1;
+                tpmTokens += permit.reservedTokens;
+                permit.released = true;
+            }
+            return false;
+        }
+    }
+
+    private boolean hasCapacity(Priority priority, int tokens) {
+        int totalRunning = running.values().stream().mapToInt(Integer::intValue).sum();
+        if (totalRunning >= maxConcurrent) {
+            return false;
+        }
+        if (priority == Priority.BATCH && running.get(Priority.BATCH) >= batchMaxConcurrent) {
+            return false;
+        }
+        return requestTokens >= 1 && tpmTokens >= tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedMinutes = (now - lastRefillNanos) / 60_000_000_000.0;
+        lastRefillNanos = now;
+        requestTokens = Math.min(requestsPerMinute, requestTokens + elapsedMinutes * requestsPerMinute);
+        tpmTokens = Math.min(tokensPerMinute, tpmTokens + elapsedMinutes * tokensPerMinute);
+    }
+
+    /**
+     * Si la tête d'une file n'attend que le remplissage des seaux, on reprogramme un drain.
+     */
+    private void scheduleRefillDrainIfNeeded() {
+        Waiter head = null;
+        for (Priority priority : Priority.values()) {
+            head = queues.get(priority).peekFirst();
+            if (head != null) {
+                break;
+            }
+        }
+        if (head == null || (pendingDrain != null && !pendingDrain.isDone())) {
+            return;
+        }
+        double missingRequests = Math.max(0, 1 - requestTokens);
+        double missingTokens = Math.max(0, head.tokens() - tpmTokens);
+        long waitMs = (long) Math.ceil(Math.max(
+                missingRequests * 60_000.0 / requestsPerMinute,
+                missingTokens * 60_000.0 / tokensPerMinute));
+        if (waitMs > 0) {
+            pendingDrain = scheduler.schedule(this::drain, waitMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        refill();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("requestsPerMinute", requestsPerMinute);
+        metrics.put("tokensPerMinute", tokensPerMinute);
+        metrics.put("maxConcurrent", maxConcurrent);
+        metrics.put("requestBucket", Math.round(requestTokens * 10) / 10.0);
+        metrics.put("tokenBucket", Math.round(tpmTokens));
+
+        Map<String, Object> lanes = new LinkedHashMap<>();
+        for (Priority priority : Priority.values()) {
+            Map<String, Object> lane = new LinkedHashMap<>();
+            lane.put("running", running.get(priority));
+            lane.put("queued", queues.get(priority).size());
+            lane.put("queueLimit", queueLimits.get(priority));
+            lane.put("admitted", admitted.get(priority).sum());
+            lane.put("rejected", rejected.get(priority).sum());
+            lane.put("timedOut", timedOut.get(priority).sum());
+            lane.put("queueTimeMs", queueTimes.get(priority).snapshot());
+            lanes.put(priority.name(), lane);
+        }
+        metrics.put("lanes", lanes);
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Retrouve une saturation du régulateur dans une chaîne d'exceptions encapsulées.
+     */
+    public static Optional<GeminiOverloadedException> findOverload(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof GeminiOverloadedException overloaded) {
+                return Optional.of(overloaded);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Quota ou file d'attente Gemini saturés : l'appelant doit réessayer plus tard.
+     */
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public static class GeminiOverloadedException extends RuntimeException {
+        private final long retryAfterSeconds;
+
+        public GeminiOverloadedException(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.iatd.smarthub.service.llm;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * État de santé de Gemini tenu à jour en arrière-plan : les services consultent
+ * isAvailable() au lieu de lancer une génération de test avant chaque appel.
+ * La sonde (countTokens, sans génération) ne part que si aucun appel réel
+ * n'a renseigné le disjoncteur récemment.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GeminiHealthMonitor {
+
+    private final GeminiHttpClient geminiHttpClient;
+    private final GeminiCircuitBreaker circuitBreaker;
+    private final LlmTrafficReplay trafficReplay;
+
+    @Value("${gemini.model.name:gemini-2.5-flash}")
+    private String geminiModelName;
+
+    @Value("${gemini.health.interval-ms:30000}")
+    private long intervalMs;
+
+    @Value("${gemini.health.probe-timeout-ms:5000}")
+    private long probeTimeoutMs;
+
+    private volatile Instant lastProbeAt;
+    private volatile boolean lastProbeOk;
+
+    /**
+     * Vrai si une clé est configurée et que le disjoncteur accepte les appels
+     * (toujours vrai en rejeu : les réponses enregistrées ne dépendent pas de Gemini).
+     */
+    public boolean isAvailable() {
+        if (trafficReplay.isEnabled()) {
+            return true;
+        }
+        return geminiHttpClient.isApiKeyConfigured() && circuitBreaker.isAvailable();
+    }
+
+    @Scheduled(fixedDelayString = "${gemini.health.interval-ms:30000}",
+            initialDelayString = "${gemini.health.initial-delay-ms:10000}")
+    public void refresh() {
+        if (!geminiHttpClient.isApiKeyConfigured() || trafficReplay.isEnabled()) {
+            return;
+        }
+        // Le trafic réel suffit à renseigner l'état
+        long sinceLastOutcome = System.currentTimeMillis() - circuitBreaker.getLastOutcomeAt();
+        if (circuitBreaker.getState() == GeminiCircuitBreaker.State.CLOSED && sinceLastOutcome < intervalMs) {
+            return;
+        }
+        probe();
+    }
+
+    /**
+     * Sonde légère : countTokens ne consomme pas de quota de génération.
+     * En OPEN, elle ne part qu'une fois le refroidissement écoulé et sert d'appel d'essai.
+     */
+    void probe() {
+        Map<String, Object> request = Map.of(
+                "contents", List.of(Map.of("parts", List.of(Map.of("text", "ping")))));
+        try {
+            // File interactive (attente courte) : la sonde ne part qu'en l'absence de trafic
+            geminiHttpClient.post("healthProbe", geminiModelName + ":countTokens", request, probeTimeoutMs);
+            lastProbeOk = true;
+            log.debug("💓 Sonde Gemini OK");
+        } catch (GeminiCircuitBreaker.GeminiUnavailableException | GeminiGovernor.GeminiOverloadedException e) {
+            // Disjoncteur ouvert ou quota saturé : pas d'appel, le trafic réel renseigne l'état
+            return;
+        } catch (Exception e) {
+            lastProbeOk = false;
+            log.warn("💔 Sonde Gemini en échec: {}", e.getMessage());
+        }
+        lastProbeAt = Instant.now();
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("available", isAvailable());
+        status.put("apiKeyConfigured", geminiHttpClient.isApiKeyConfigured());
+        status.put("circuitState", circuitBreaker.getState().name());
+        status.put("lastError", circuitBreaker.getLastError());
+        status.put("lastProbeAt", lastProbeAt != null ? lastProbeAt.toString() : null);
+        status.put("lastProbeOk", lastProbeAt != null ? lastProbeOk : null);
+        status.put("replay", trafficReplay.isEnabled());
+        return status;
+    }
+}
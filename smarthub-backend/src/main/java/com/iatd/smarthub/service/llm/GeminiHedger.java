@@ -0,0 +1,252 @@
+package com.iatd.smarthub.service.llm;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Requêtes doublées (hedging, optionnel) contre la traîne de latence de Gemini : un appel resté
+ * sans réponse au-delà du centile configuré de sa latence récente est relancé une fois. La
+ * première réponse réussie est gardée et l'autre appel est annulé.
+ *
+ * Un budget global borne le surcoût : chaque appel rapporte budget-ratio crédit (0,05 = 5 %
+ * d'appels en plus au plus), chaque doublon en coûte un. Un doublon n'est pas une reprise :
+ * si le premier appel échoue avant le délai, son erreur est rendue telle quelle.
+ */
+@Slf4j
+@Component
+public class GeminiHedger {
+
+    private final boolean enabled;
+    private final double percentile;
+    private final double budgetRatio;
+    private final double maxCredits;
+    private final long minDelayMs;
+    private final int minSamples;
+
+    private final Map<String, LatencyRecorder> latencies = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final ExecutorService attempts = Executors.newVirtualThreadPerTaskExecutor();
+    private double credits;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedgesFired = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetDenied = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+
+    public GeminiHedger(@Value("${gemini.hedging.enabled:false}") boolean enabled,
+                        @Value("${gemini.hedging.percentile:0.95}") double percentile,
+                        @Value("${gemini.hedging.budget-ratio:0.05}") double budgetRatio,
+                        @Value("${gemini.hedging.max-burst:10}") int maxBurst,
+                        @Value("${gemini.hedging.min-delay-ms:200}") long minDelayMs,
+                        @Value("${gemini.hedging.min-samples:20}") int minSamples) {
+        this.enabled = enabled;
+        this.percentile = Math.min(0.999, Math.max(0.5, percentile));
+        this.budgetRatio = Math.max(0, budgetRatio);
+        this.maxCredits = Math.max(1, maxBurst);
+        this.minDelayMs = Math.max(1, minDelayMs);
+        this.minSamples = Math.max(1, minSamples);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gemini-hedger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (enabled) {
+            log.info("🪞 Requêtes doublées Gemini actives (p{}, budget {} %)", Math.round(this.percentile * 100),
+                    Math.round(this.budgetRatio * 100));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        attempts.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appel bloquant, doublé s'il dépasse le délai de l'opération. Chaque tentative tourne sur un
+     * thread virtuel ; la perdante est interrompue.
+     */
+    public <T> T call(String operation, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        GeminiGovernor.Priority priority = GeminiGovernor.currentPriority();
+        CompletableFuture<T> result = race(operation, () -> {
+            CompletableFuture<T> attempt = new CompletableFuture<>();
+            Future<?> task = attempts.submit(() -> {
+                try {
+                    attempt.complete(GeminiGovernor.callAs(priority, call));
+                } catch (Throwable e) {
+                    attempt.completeExceptionally(e);
+                }
+            });
+            attempt.whenComplete((value, error) -> {
+                if (attempt.isCancelled()) {
+                    task.cancel(true);
+                }
+            });
+            return attempt;
+        });
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException("Erreur de communication avec Gemini: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Appel Gemini interrompu", e);
+        }
+    }
+
+    /**
+     * Variante non bloquante : la tentative perdante est désabonnée (requête annulée).
+     */
+    public <T> Mono<T> callAsync(String operation, Supplier<Mono<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        return Mono.fromFuture(() -> race(operation, () -> call.get().toFuture()));
+    }
+
+    /**
+     * Lance la première tentative, et le doublon au délai de l'opération si le budget le permet.
+     * La priorité du thread appelant est reportée sur les deux tentatives.
+     */
+    private <T> CompletableFuture<T> race(String operation, Supplier<CompletableFuture<T>> attempt) {
+        GeminiGovernor.Priority priority = GeminiGovernor.currentPriority();
+        long delayMs = hedgeDelayMs(operation);
+        earnCredit();
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        List<CompletableFuture<T>> started = new CopyOnWriteArrayList<>();
+        AtomicInteger live = new AtomicInteger(1);
+        // Gagnant désigné (et compté) avant que l'appelant ne reçoive la réponse
+        AtomicBoolean settled = new AtomicBoolean();
+
+        long start = System.nanoTime();
+        CompletableFuture<T> primary = GeminiGovernor.callAs(priority, attempt::get);
+        started.add(primary);
+        primary.whenComplete((value, error) -> {
+            if (error == null || primary.isCancelled()) {
+                // Une première tentative annulée compte pour sa durée écoulée (borne basse)
+                latency(operation).record((System.nanoTime() - start) / 1_000_000);
+            }
+            if (error == null) {
+                if (settled.compareAndSet(false, true)) {
+                    result.complete(value);
+                }
+            } else if (live.decrementAndGet() == 0 && settled.compareAndSet(false, true)) {
+                result.completeExceptionally(error);
+            }
+        });
+
+        ScheduledFuture<?> hedgeTimer = delayMs < 0 ? null : timer.schedule(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (!spendCredit()) {
+                budgetDenied.increment();
+                return;
+            }
+            live.incrementAndGet();
+            hedgesFired.increment();
+            log.debug("🪞 {} sans réponse après {} ms, requête doublée", operation, delayMs);
+            CompletableFuture<T> hedge = GeminiGovernor.callAs(priority, attempt::get);
+            started.add(hedge);
+            hedge.whenComplete((value, error) -> {
+                if (error == null) {
+                    if (settled.compareAndSet(false, true)) {
+                        hedgeWins.increment();
+                        result.complete(value);
+                    }
+                } else if (live.decrementAndGet() == 0 && settled.compareAndSet(false, true)) {
+                    result.completeExceptionally(error);
+                }
+            });
+            if (result.isDone()) {
+                hedge.cancel(true);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+
+        result.whenComplete((value, error) -> {
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+            }
+            for (CompletableFuture<T> attemptFuture : started) {
+                if (attemptFuture.cancel(true)) {
+                    cancelled.increment();
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Délai avant doublon : centile de la latence récente des premières tentatives de l'opération
+     * (-1 tant que l'historique est trop court). Les doublons gagnants, rapides par construction,
+     * n'y entrent pas : seule la première tentative est mesurée, annulée ou non.
+     */
+    long hedgeDelayMs(String operation) {
+        LatencyRecorder recorder = latency(operation);
+        if (recorder.getCount() < minSamples) {
+            return -1;
+        }
+        return Math.max(minDelayMs, recorder.percentile(percentile));
+    }
+
+    private LatencyRecorder latency(String operation) {
+        return latencies.computeIfAbsent(operation, k -> new LatencyRecorder(256));
+    }
+
+    private synchronized void earnCredit() {
+        calls.increment();
+        credits = Math.min(maxCredits, credits + budgetRatio);
+    }
+
+    private synchronized boolean spendCredit() {
+        if (credits < 1) {
+            return false;
+        }
+        credits -= 1;
+        return true;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("percentile", percentile);
+        metrics.put("budgetRatio", budgetRatio);
+        metrics.put("calls", calls.sum());
+        metrics.put("hedgesFired", hedgesFired.sum());
+        metrics.put("hedgeWins", hedgeWins.sum());
+        metrics.put("budgetDenied", budgetDenied.sum());
+        metrics.put("cancelledAttempts", cancelled.sum());
+        synchronized (this) {
+            metrics.put("credits", Math.round(credits * 100) / 100.0);
+        }
+        Map<String, Object> delays = new LinkedHashMap<>();
+        latencies.keySet().forEach(operation -> delays.put(operation, hedgeDelayMs(operation)));
+        metrics.put("hedgeDelayMs", delays);
+        return metrics;
+    }
+}
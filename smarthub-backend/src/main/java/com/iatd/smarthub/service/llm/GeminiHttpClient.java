@@ -0,0 +1,220 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Point d'accès unique à l'API Gemini : client HTTP partagé (HTTP/2, keep-alive),
+ * délais de connexion / lecture issus de la configuration et métriques par opération.
+ */
+@Slf4j
+@Component
+public class GeminiHttpClient {
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final GeminiCircuitBreaker circuitBreaker;
+    private final GeminiGovernor governor;
+
+    @Value("${gemini.api.key:}")
+    private String apiKey;
+
+    @Value("${gemini.api.url:https://generativelanguage.googleapis.com/v1beta/models/}")
+    private String apiUrl;
+
+    @Value("${gemini.timeout.ms:60000}")
+    private long timeoutMs;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final Map<String, LongAdder> responsesByVersion = new ConcurrentHashMap<>();
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+
+    public GeminiHttpClient(HttpClient httpClient, ObjectMapper objectMapper,
+                            GeminiCircuitBreaker circuitBreaker, GeminiGovernor governor) {
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.circuitBreaker = circuitBreaker;
+        this.governor = governor;
+    }
+
+    /**
+     * POST JSON sur une méthode de l'API (ex: "gemini-2.5-flash:generateContent").
+     * La clé est transmise en en-tête pour ne jamais apparaître dans les URLs loguées.
+     */
+    public Map<String, Object> post(String operation, String method, Map<String, Object> body) {
+        return post(operation, method, body, timeoutMs);
+    }
+
+    public Map<String, Object> post(String operation, String method, Map<String, Object> body, long requestTimeoutMs) {
+        return send(operation, apiUrl + method, body, requestTimeoutMs);
+    }
+
+    /**
+     * POST sur une ressource à la racine de l'API, hors de /models/ (ex: "cachedContents").
+     */
+    public Map<String, Object> postResource(String operation, String resource, Map<String, Object> body) {
+        return send(operation, getApiRoot() + resource, body, timeoutMs);
+    }
+
+    private Map<String, Object> send(String operation, String url, Map<String, Object> body, long requestTimeoutMs) {
+        // Rejet immédiat si le disjoncteur est ouvert, sinon l'issue de l'appel l'alimente
+        circuitBreaker.acquireOrThrow();
+        // Attente de quota dans la file de priorité du thread appelant
+        GeminiGovernor.Permit permit = governor.acquire(GeminiGovernor.currentPriority(), governor.estimateTokens(body));
+        Integer actualTokens = null;
+        try {
+            Map<String, Object> result = execute(operation, url, body, requestTimeoutMs);
+            actualTokens = GeminiGovernor.actualTokens(result);
+            circuitBreaker.recordSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            // Appel annulé (ex: requête doublée perdante) : rien n'est appris sur la santé du service
+            if (!(e.getCause() instanceof InterruptedException)) {
+                circuitBreaker.recordFailure(e);
+            }
+            throw e;
+        } finally {
+            governor.release(permit, actualTokens);
+        }
+    }
+
+    private Map<String, Object> execute(String operation, String url, Map<String, Object> body, long requestTimeoutMs) {
+        OperationStats stats = operations.computeIfAbsent(operation, k -> new OperationStats());
+        int current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+        long start = System.nanoTime();
+
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofMillis(requestTimeoutMs))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "application/json")
+                    .header("x-goog-api-key", apiKey != null ? apiKey : "")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            responsesByVersion.computeIfAbsent(response.version().name(), k -> new LongAdder()).increment();
+
+            if (response.statusCode() / 100 != 2) {
+                stats.errors.increment();
+                String errorBody = new String(response.body());
+                throw new GeminiHttpException(response.statusCode(),
+                        "Erreur HTTP Gemini " + response.statusCode() + ": "
+                                + errorBody.substring(0, Math.min(500, errorBody.length())));
+            }
+
+            return objectMapper.readValue(response.body(), MAP_TYPE);
+
+        } catch (HttpConnectTimeoutException | ConnectException e) {
+            connectFailures.increment();
+            stats.errors.increment();
+            throw new RuntimeException("Connexion à Gemini impossible: " + e.getMessage(), e);
+        } catch (HttpTimeoutException e) {
+            timeouts.increment();
+            stats.errors.increment();
+            throw new RuntimeException("Timeout Gemini après " + requestTimeoutMs + " ms", e);
+        } catch (IOException e) {
+            stats.errors.increment();
+            throw new RuntimeException("Erreur de communication avec Gemini: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stats.errors.increment();
+            throw new RuntimeException("Appel Gemini interrompu", e);
+        } finally {
+            long durationMs = (System.nanoTime() - start) / 1_000_000;
+            stats.latency.record(durationMs);
+            inFlight.decrementAndGet();
+            log.debug("⏱️ Gemini {} terminé en {} ms", operation, durationMs);
+        }
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * Racine de l'API : l'URL configurée sans le segment "models/".
+     */
+    public String getApiRoot() {
+        return apiUrl.endsWith("models/") ? apiUrl.substring(0, apiUrl.length() - "models/".length()) : apiUrl;
+    }
+
+    public boolean isApiKeyConfigured() {
+        return apiKey != null && !apiKey.isEmpty();
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+
+        Map<String, Object> pool = new LinkedHashMap<>();
+        pool.put("httpVersion", httpClient.version().name());
+        pool.put("connectTimeoutMs", httpClient.connectTimeout().map(Duration::toMillis).orElse(-1L));
+        pool.put("readTimeoutMs", timeoutMs);
+        pool.put("inFlight", inFlight.get());
+        pool.put("peakInFlight", peakInFlight.get());
+        pool.put("timeouts", timeouts.sum());
+        pool.put("connectFailures", connectFailures.sum());
+        Map<String, Long> versions = new LinkedHashMap<>();
+        responsesByVersion.forEach((version, counter) -> versions.put(version, counter.sum()));
+        pool.put("responsesByVersion", versions);
+        metrics.put("pool", pool);
+
+        Map<String, Object> byOperation = new LinkedHashMap<>();
+        operations.forEach((name, stats) -> {
+            Map<String, Object> op = new LinkedHashMap<>(stats.latency.snapshot());
+            op.put("errors", stats.errors.sum());
+            byOperation.put(name, op);
+        });
+        metrics.put("operations", byOperation);
+        return metrics;
+    }
+
+    private static class OperationStats {
+        private final LatencyRecorder latency = new LatencyRecorder();
+        private final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * Réponse HTTP non 2xx de Gemini (le code permet de distinguer 429 / 5xx des erreurs client).
+     */
+    public static class GeminiHttpException extends RuntimeException {
+        private final int statusCode;
+
+        public GeminiHttpException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.iatd.smarthub.service.llm;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gemini derrière l'abstraction {@link LlmProvider} : passe par {@link GeminiHttpClient}
+ * (disjoncteur, quotas, métriques).
+ */
+@Component
+public class GeminiLlmProvider implements LlmProvider {
+
+    private final GeminiHttpClient geminiHttpClient;
+    private final GeminiCircuitBreaker circuitBreaker;
+    private final String modelName;
+
+    public GeminiLlmProvider(GeminiHttpClient geminiHttpClient, GeminiCircuitBreaker circuitBreaker,
+                             @Value("${gemini.model.name:gemini-2.5-flash}") String modelName) {
+        this.geminiHttpClient = geminiHttpClient;
+        this.circuitBreaker = circuitBreaker;
+        this.modelName = modelName;
+    }
+
+    @Override
+    public String name() {
+        return "gemini";
+    }
+
+    @Override
+    public boolean isLocal() {
+        return false;
+    }
+
+    @Override
+    public boolean supports(LlmTask task) {
+        return true;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return geminiHttpClient.isApiKeyConfigured() && circuitBreaker.getState() != GeminiCircuitBreaker.State.OPEN;
+    }
+
+    @Override
+    public String generate(LlmRequest request) {
+        Map<String, Object> generationConfig = new HashMap<>();
+        generationConfig.put("temperature", request.temperature());
+        if (request.maxOutputTokens() > 0) {
+            generationConfig.put("maxOutputTokens", request.maxOutputTokens());
+        }
+        if (request.json()) {
+            generationConfig.put("responseMimeType", "application/json");
+        }
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("contents", List.of(Map.of("parts", List.of(Map.of("text", request.prompt())))));
+        body.put("generationConfig", generationConfig);
+
+        return extractText(geminiHttpClient.post(
+                "llm-" + request.task().name().toLowerCase(), modelName + ":generateContent", body));
+    }
+
+    /**
+     * Concatène les parties texte du premier candidat (hors parties de réflexion).
+     */
+    @SuppressWarnings("unchecked")
+    static String extractText(Map<String, Object> responseBody) {
+        List<Map<String, Object>> candidates = responseBody != null
+                ? (List<Map<String, Object>>) responseBody.get("candidates") : null;
+        if (candidates == null || candidates.isEmpty()) {
+            throw new RuntimeException("Aucun candidat dans la réponse Gemini");
+        }
+        Map<String, Object> candidate = candidates.get(0);
+        if ("SAFETY".equals(candidate.get("finishReason"))) {
+            throw new RuntimeException("Réponse bloquée pour raison de sécurité");
+        }
+        Map<String, Object> content = (Map<String, Object>) candidate.get("content");
+        List<Map<String, Object>> parts = content != null ? (List<Map<String, Object>>) content.get("parts") : null;
+
+        StringBuilder text = new StringBuilder();
+        if (parts != null) {
+            for (Map<String, Object> part : parts) {
+                if (!Boolean.TRUE.equals(part.get("thought")) && part.get("text") != null) {
+                    text.append(part.get("text"));
+                }
+            }
+        }
+        if (text.toString().isBlank()) {
+            throw new RuntimeException("Réponse Gemini sans texte");
+        }
+        return text.toString().trim();
+    }
+}
@@ -0,0 +1,77 @@
+package com.iatd.smarthub.service.llm;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistiques de latence sur fenêtre glissante (derniers échantillons) :
+ * moyenne, percentiles et maximum, sans dépendance externe.
+ */
+public class LatencyRecorder {
+
+    private final long[] samples;
+    private final AtomicLong index = new AtomicLong();
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMs = new LongAdder();
+    private final AtomicLong maxMs = new AtomicLong();
+
+    public LatencyRecorder() {
+        this(1024);
+    }
+
+    public LatencyRecorder(int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    public void record(long durationMs) {
+        long slot = index.getAndIncrement();
+        samples[(int) (slot % samples.length)] = durationMs;
+        count.increment();
+        totalMs.add(durationMs);
+        maxMs.accumulateAndGet(durationMs, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        long total = count.sum();
+        snapshot.put("count", total);
+        if (total == 0) {
+            return snapshot;
+        }
+
+        int size = (int) Math.min(total, samples.length);
+        long[] window = Arrays.copyOf(samples, size);
+        Arrays.sort(window);
+        snapshot.put("avgMs", totalMs.sum() / total);
+        snapshot.put("p50Ms", percentile(window, 0.50));
+        snapshot.put("p95Ms", percentile(window, 0.95));
+        snapshot.put("p99Ms", percentile(window, 0.99));
+        snapshot.put("maxMs", maxMs.get());
+        return snapshot;
+    }
+
+    /**
+     * Percentile sur la fenêtre courante (-1 si aucun échantillon).
+     */
+    public long percentile(double quantile) {
+        int size = (int) Math.min(count.sum(), samples.length);
+        if (size == 0) {
+            return -1;
+        }
+        long[] window = Arrays.copyOf(samples, size);
+        Arrays.sort(window);
+        return percentile(window, quantile);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int position = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(position, sorted.length - 1))];
+    }
+}
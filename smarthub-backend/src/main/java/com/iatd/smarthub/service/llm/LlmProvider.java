@@ -0,0 +1,27 @@
+package com.iatd.smarthub.service.llm;
+
+/**
+ * Fournisseur de génération de texte (Gemini, Ollama local...). Les implémentations
+ * sont des beans Spring découverts par {@link LlmRouter}.
+ */
+public interface LlmProvider {
+
+    String name();
+
+    /**
+     * Vrai pour un modèle exécuté localement (sans quota ni coût par appel).
+     */
+    boolean isLocal();
+
+    boolean supports(LlmTask task);
+
+    /**
+     * Disponibilité connue sans appel coûteux (clé configurée, disjoncteur, dernière sonde).
+     */
+    boolean isAvailable();
+
+    /**
+     * Génère le texte de la réponse ; lève une RuntimeException en cas d'échec.
+     */
+    String generate(LlmRequest request);
+}
@@ -0,0 +1,14 @@
+package com.iatd.smarthub.service.llm;
+
+/**
+ * Appel de génération indépendant du fournisseur.
+ *
+ * @param maxOutputTokens 0 pour la valeur par défaut du fournisseur
+ * @param json            vrai si la réponse attendue est un objet JSON
+ */
+public record LlmRequest(String prompt, LlmTask task, int maxOutputTokens, double temperature, boolean json) {
+
+    public static LlmRequest of(String prompt, LlmTask task) {
+        return new LlmRequest(prompt, task, 0, 0.3, false);
+    }
+}
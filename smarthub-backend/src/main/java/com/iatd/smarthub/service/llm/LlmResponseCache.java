@@ -0,0 +1,297 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Cache des réponses brutes de génération, indexé par l'empreinte SHA-256
+ * (modèle + requête complète : prompt et paramètres de génération).
+ * Niveau mémoire LRU borné + niveau disque, TTL, et invalidation par portée
+ * (ex: "course:42") quand les fichiers d'un cours changent.
+ */
+@Slf4j
+@Component
+public class LlmResponseCache {
+
+    /**
+     * Entrée persistée sur disque (un fichier JSON par empreinte).
+     */
+    record Entry(String key, long createdAt, Set<String> scopes, String response) {
+    }
+
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper canonicalMapper;
+
+    @Value("${llm.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${llm.cache.ttl-hours:24}")
+    private long ttlHours;
+
+    @Value("${llm.cache.memory-max-entries:200}")
+    private int memoryMaxEntries;
+
+    @Value("${llm.cache.disk-max-entries:2000}")
+    private int diskMaxEntries;
+
+    @Value("${llm.cache.dir:${file.upload-dir:./uploads}/llm-cache}")
+    private String cacheDir;
+
+    private Path root;
+
+    // Accès protégés par le verrou de l'instance
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> keysByScope = new HashMap<>();
+    private final LinkedHashMap<String, Long> diskIndex = new LinkedHashMap<>();
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public LlmResponseCache(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.canonicalMapper = objectMapper.copy().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    }
+
+    /**
+     * Reconstruit l'index disque (portées, ordre d'ancienneté) et purge les entrées expirées.
+     */
+    @PostConstruct
+    public void init() {
+        root = Paths.get(cacheDir).toAbsolutePath().normalize();
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            log.warn("⚠️ Cache LLM disque indisponible ({}): {}", root, e.getMessage());
+            return;
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            files.filter(p -> p.toString().endsWith(".json")).forEach(p -> {
+                try {
+                    Entry entry = objectMapper.readValue(p.toFile(), Entry.class);
+                    if (isExpired(entry)) {
+                        Files.deleteIfExists(p);
+                    } else {
+                        entries.add(entry);
+                    }
+                } catch (IOException e) {
+                    log.debug("Entrée de cache illisible supprimée: {}", p);
+                    deleteQuietly(p);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("⚠️ Lecture du cache LLM impossible: {}", e.getMessage());
+        }
+
+        entries.sort(Comparator.comparingLong(Entry::createdAt));
+        synchronized (this) {
+            for (Entry entry : entries) {
+                diskIndex.put(entry.key(), entry.createdAt());
+                indexScopes(entry);
+            }
+        }
+        log.info("🗄️ Cache LLM: {} réponse(s) sur disque ({})", entries.size(), root);
+    }
+
+    /**
+     * Empreinte stable de la requête : les clés des maps sont triées avant hachage.
+     * maxOutputTokens n'en fait pas partie (budget adaptatif, voir LlmTokenAccounting).
+     */
+    public String fingerprint(String model, Map<String, Object> request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(canonicalMapper.writeValueAsBytes(LlmTokenAccounting.withoutOutputBudget(request)));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException("Empreinte de requête impossible", e);
+        }
+    }
+
+    public Optional<String> get(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (!isExpired(entry)) {
+                    memoryHits.increment();
+                    return Optional.of(entry.response());
+                }
+                removeKey(key);
+                deleteQuietly(pathFor(key));
+                misses.increment();
+                return Optional.empty();
+            }
+            if (!diskIndex.containsKey(key)) {
+                misses.increment();
+                return Optional.empty();
+            }
+        }
+
+        // Niveau disque (hors verrou), puis promotion en mémoire
+        Path file = pathFor(key);
+        try {
+            Entry entry = objectMapper.readValue(file.toFile(), Entry.class);
+            synchronized (this) {
+                if (!diskIndex.containsKey(key)) {
+                    misses.increment();
+                    return Optional.empty();
+                }
+                if (isExpired(entry)) {
+                    removeKey(key);
+                    deleteQuietly(file);
+                    misses.increment();
+                    return Optional.empty();
+                }
+                putInMemory(entry);
+            }
+            diskHits.increment();
+            return Optional.of(entry.response());
+        } catch (IOException e) {
+            synchronized (this) {
+                removeKey(key);
+            }
+            misses.increment();
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, String response, String scope) {
+        if (!enabled || response == null) {
+            return;
+        }
+        Set<String> scopes = scope != null ? Set.of(scope) : Set.of();
+        Entry entry = new Entry(key, System.currentTimeMillis(), scopes, response);
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            putInMemory(entry);
+            indexScopes(entry);
+            diskIndex.remove(key);
+            diskIndex.put(key, entry.createdAt());
+            while (diskIndex.size() > diskMaxEntries) {
+                String oldest = diskIndex.keySet().iterator().next();
+                removeKey(oldest);
+                evicted.add(oldest);
+            }
+        }
+        evicted.forEach(k -> deleteQuietly(pathFor(k)));
+
+        // Écriture atomique : fichier temporaire puis renommage
+        Path file = pathFor(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+            objectMapper.writeValue(tmp.toFile(), entry);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("⚠️ Écriture du cache LLM impossible: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Portée des générations construites à partir des fichiers d'un cours.
+     */
+    public static String courseScope(Long courseId) {
+        return "course:" + courseId;
+    }
+
+    /**
+     * Supprime toutes les réponses associées à une portée (ex: fichiers d'un cours modifiés).
+     */
+    public int invalidateScope(String scope) {
+        List<String> keys;
+        synchronized (this) {
+            Set<String> scoped = keysByScope.remove(scope);
+            if (scoped == null || scoped.isEmpty()) {
+                return 0;
+            }
+            keys = new ArrayList<>(scoped);
+            keys.forEach(this::removeKey);
+        }
+        keys.forEach(k -> deleteQuietly(pathFor(k)));
+        invalidations.add(keys.size());
+        log.info("🧹 Cache LLM: {} réponse(s) invalidée(s) pour {}", keys.size(), scope);
+        return keys.size();
+    }
+
+    public void invalidate(String key) {
+        synchronized (this) {
+            removeKey(key);
+        }
+        deleteQuietly(pathFor(key));
+        invalidations.increment();
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("ttlHours", ttlHours);
+        metrics.put("memoryEntries", memory.size());
+        metrics.put("diskEntries", diskIndex.size());
+        metrics.put("memoryHits", memoryHits.sum());
+        metrics.put("diskHits", diskHits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("invalidations", invalidations.sum());
+        return metrics;
+    }
+
+    private void putInMemory(Entry entry) {
+        memory.put(entry.key(), entry);
+        while (memory.size() > memoryMaxEntries) {
+            String eldest = memory.keySet().iterator().next();
+            memory.remove(eldest);
+        }
+    }
+
+    private void indexScopes(Entry entry) {
+        for (String scope : entry.scopes()) {
+            keysByScope.computeIfAbsent(scope, s -> new HashSet<>()).add(entry.key());
+        }
+    }
+
+    private void removeKey(String key) {
+        memory.remove(key);
+        diskIndex.remove(key);
+        keysByScope.values().forEach(keys -> keys.remove(key));
+        keysByScope.values().removeIf(Set::isEmpty);
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.createdAt() > ttlHours * 3_600_000L;
+    }
+
+    private Path pathFor(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Suppression impossible: {}", path);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.iatd.smarthub.service.llm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Choix du fournisseur LLM pour chaque appel, d'après la nature de la tâche et les mesures
+ * récentes de chaque fournisseur (latence moyenne mobile, taux d'erreur sur fenêtre glissante).
+ *
+ * Score d'un fournisseur = latence x (1 + pénalité x taux d'erreur), multiplié par
+ * preferenceFactor s'il n'est pas le type préféré pour la tâche (local pour une tâche légère,
+ * distant sinon). Les fournisseurs au-delà de maxErrorRate, puis les indisponibles, passent
+ * en dernier : ils ne sont essayés qu'en repli. En cas d'échec, le suivant est essayé.
+ */
+@Slf4j
+@Component
+public class LlmRouter {
+
+    private final List<LlmProvider> providers;
+    private final double maxErrorRate;
+    private final int minSamples;
+    private final int window;
+    private final double errorPenalty;
+    private final double preferenceFactor;
+    private final long initialLatencyMs;
+
+    private final Map<String, ProviderStats> stats = new ConcurrentHashMap<>();
+
+    public LlmRouter(List<LlmProvider> providers,
+                     @Value("${llm.routing.max-error-rate:0.5}") double maxErrorRate,
+                     @Value("${llm.routing.min-samples:5}") int minSamples,
+                     @Value("${llm.routing.window:20}") int window,
+                     @Value("${llm.routing.error-penalty:4.0}") double errorPenalty,
+                     @Value("${llm.routing.preference-factor:3.0}") double preferenceFactor,
+                     @Value("${llm.routing.initial-latency-ms:1000}") long initialLatencyMs) {
+        this.providers = List.copyOf(providers);
+        this.maxErrorRate = maxErrorRate;
+        this.minSamples = minSamples;
+        this.window = Math.max(1, window);
+        this.errorPenalty = errorPenalty;
+        this.preferenceFactor = preferenceFactor;
+        this.initialLatencyMs = initialLatencyMs;
+        providers.forEach(p -> stats.put(p.name(), new ProviderStats(this.window, initialLatencyMs)));
+        log.info("🧭 Routage LLM: {}", providers.stream().map(LlmProvider::name).toList());
+    }
+
+    /**
+     * Génère la réponse via le meilleur fournisseur, en basculant sur les suivants en cas d'échec.
+     */
+    public LlmResponse generate(LlmRequest request) {
+        List<LlmProvider> candidates = route(request.task());
+        if (candidates.isEmpty()) {
+            throw new RuntimeException("Aucun fournisseur LLM pour la tâche " + request.task());
+        }
+
+        RuntimeException lastError = null;
+        for (LlmProvider provider : candidates) {
+            ProviderStats providerStats = stats.get(provider.name());
+            long start = System.nanoTime();
+            try {
+                String text = provider.generate(request);
+                long latencyMs = (System.nanoTime() - start) / 1_000_000;
+                providerStats.recordSuccess(latencyMs, request.task());
+                log.debug("🧭 {} servi par {} en {} ms", request.task(), provider.name(), latencyMs);
+                return new LlmResponse(text, provider.name(), latencyMs);
+            } catch (RuntimeException e) {
+                providerStats.recordFailure((System.nanoTime() - start) / 1_000_000);
+                log.warn("⚠️ {} en échec sur {}: {}", request.task(), provider.name(), e.getMessage());
+                lastError = e;
+            }
+        }
+        throw new RuntimeException("Tous les fournisseurs LLM ont échoué: " + lastError.getMessage(), lastError);
+    }
+
+    /**
+     * Fournisseurs capables de traiter la tâche, du plus au moins adapté.
+     */
+    public List<LlmProvider> route(LlmTask task) {
+        List<LlmProvider> candidates = new ArrayList<>();
+        for (LlmProvider provider : providers) {
+            if (provider.supports(task)) {
+                candidates.add(provider);
+            }
+        }
+        Map<LlmProvider, Integer> tiers = new HashMap<>();
+        Map<LlmProvider, Double> scores = new HashMap<>();
+        for (LlmProvider provider : candidates) {
+            ProviderStats providerStats = stats.get(provider.name());
+            double errorRate = providerStats.errorRate();
+            boolean unhealthy = providerStats.samples() >= minSamples && errorRate > maxErrorRate;
+            tiers.put(provider, !provider.isAvailable() ? 2 : unhealthy ? 1 : 0);
+
+            double score = providerStats.latencyMs() * (1 + errorPenalty * errorRate);
+            boolean preferred = provider.isLocal() == task.isLightweight();
+            scores.put(provider, preferred ? score : score * preferenceFactor);
+        }
+        candidates.sort(Comparator.<LlmProvider>comparingInt(tiers::get).thenComparingDouble(scores::get));
+        return candidates;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (LlmProvider provider : providers) {
+            Map<String, Object> providerMetrics = stats.get(provider.name()).snapshot();
+            providerMetrics.put("local", provider.isLocal());
+            providerMetrics.put("available", provider.isAvailable());
+            metrics.put(provider.name(), providerMetrics);
+        }
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (LlmTask task : LlmTask.values()) {
+            routes.put(task.name(), route(task).stream().map(LlmProvider::name).toList());
+        }
+        metrics.put("routes", routes);
+        return metrics;
+    }
+
+    public record LlmResponse(String text, String provider, long latencyMs) {
+    }
+
+    /**
+     * Mesures d'un fournisseur : latence moyenne mobile exponentielle des succès
+     * et issues des derniers appels. La latence part de initialLatencyMs : un fournisseur
+     * qui échoue vite (modèle absent) ne paraît pas le plus rapide avant son premier succès.
+     */
+    private static class ProviderStats {
+        private static final double ALPHA = 0.3;
+
+        private final boolean[] outcomes;
+        private final LatencyRecorder latency = new LatencyRecorder(256);
+        private final Map<LlmTask, Long> servedByTask = new EnumMap<>(LlmTask.class);
+        private int next;
+        private int filled;
+        private int failuresInWindow;
+        private double ewmaLatencyMs;
+        private long calls;
+        private long successes;
+        private long failures;
+
+        ProviderStats(int window, long initialLatencyMs) {
+            this.outcomes = new boolean[window];
+            this.ewmaLatencyMs = initialLatencyMs;
+        }
+
+        synchronized void recordSuccess(long latencyMs, LlmTask task) {
+            ewmaLatencyMs = successes++ == 0 ? latencyMs : ALPHA * latencyMs + (1 - ALPHA) * ewmaLatencyMs;
+            latency.record(latencyMs);
+            servedByTask.merge(task, 1L, Long::sum);
+            record(false);
+        }
+
+        synchronized void recordFailure(long latencyMs) {
+            failures++;
+            // Un échec lent (timeout) pèse aussi sur la latence attendue, une fois un succès mesuré
+            if (successes > 0 && latencyMs > ewmaLatencyMs) {
+                ewmaLatencyMs = ALPHA * latencyMs + (1 - ALPHA) * ewmaLatencyMs;
+            }
+            record(true);
+        }
+
+        private void record(boolean failed) {
+            calls++;
+            if (filled == outcomes.length && outcomes[next]) {
+                failuresInWindow--;
+            }
+            outcomes[next] = failed;
+            if (failed) {
+                failuresInWindow++;
+            }
+            next = (next + 1) % outcomes.length;
+            filled = Math.min(filled + 1, outcomes.length);
+        }
+
+        synchronized int samples() {
+            return filled;
+        }
+
+        synchronized double errorRate() {
+            return filled == 0 ? 0 : (double) failuresInWindow / filled;
+        }
+
+        synchronized double latencyMs() {
+            return ewmaLatencyMs;
+        }
+
+        synchronized Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("calls", calls);
+            snapshot.put("failures", failures);
+            snapshot.put("errorRate", Math.round(errorRate() * 100) / 100.0);
+            snapshot.put("ewmaLatencyMs", Math.round(ewmaLatencyMs));
+            snapshot.put("latency", latency.snapshot());
+            snapshot.put("servedByTask", new LinkedHashMap<>(servedByTask));
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.iatd.smarthub.service.llm;
+
+/**
+ * Nature d'un appel LLM, utilisée par {@link LlmRouter} pour choisir le fournisseur.
+ * Les tâches légères partent de préférence vers le modèle local.
+ */
+public enum LlmTask {
+    QUIZ_GENERATION(false),
+    FALLBACK_QUIZ(true),
+    QUESTION_REPHRASE(true),
+    SIMPLE_TEXT(true);
+
+    private final boolean lightweight;
+
+    LlmTask(boolean lightweight) {
+        this.lightweight = lightweight;
+    }
+
+    public boolean isLightweight() {
+        return lightweight;
+    }
+}
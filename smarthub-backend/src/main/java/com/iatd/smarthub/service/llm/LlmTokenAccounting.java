@@ -0,0 +1,243 @@
+package com.iatd.smarthub.service.llm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Comptabilité des tokens Gemini (usageMetadata) par opération et méthode, et budgets de sortie
+ * adaptatifs : maxOutputTokens est déduit des tokens réellement produits sur les derniers appels
+ * du même type de génération, au lieu d'une réserve fixe.
+ *
+ * Budget = réflexion (par appel, décomptée de maxOutputTokens par Gemini) + texte par unité
+ * (question) x unités, au centile configuré, avec une marge. Tant que l'historique est trop
+ * court, le budget statique de l'appelant s'applique ; il reste aussi le plafond. Une réponse
+ * coupée (MAX_TOKENS) compte comme un besoin double du budget accordé.
+ */
+@Slf4j
+@Component
+public class LlmTokenAccounting {
+
+    private final boolean enabled;
+    private final int minSamples;
+    private final int window;
+    private final double percentile;
+    private final double headroom;
+    private final int overheadTokens;
+    private final int minTokens;
+
+    private final Map<String, UsageStats> usage = new ConcurrentHashMap<>();
+    private final Map<String, BudgetStats> budgets = new ConcurrentHashMap<>();
+
+    public LlmTokenAccounting(@Value("${llm.token-budget.enabled:true}") boolean enabled,
+                              @Value("${llm.token-budget.min-samples:5}") int minSamples,
+                              @Value("${llm.token-budget.window:50}") int window,
+                              @Value("${llm.token-budget.percentile:0.95}") double percentile,
+                              @Value("${llm.token-budget.headroom:1.3}") double headroom,
+                              @Value("${llm.token-budget.overhead-tokens:256}") int overheadTokens,
+                              @Value("${llm.token-budget.min-tokens:512}") int minTokens) {
+        this.enabled = enabled;
+        this.minSamples = Math.max(1, minSamples);
+        this.window = Math.max(this.minSamples, window);
+        this.percentile = Math.min(1.0, Math.max(0.5, percentile));
+        this.headroom = Math.max(1.0, headroom);
+        this.overheadTokens = Math.max(0, overheadTokens);
+        this.minTokens = Math.max(1, minTokens);
+    }
+
+    /**
+     * Cumuls d'usageMetadata pour une opération et une méthode (ex: "generateContent" sur
+     * "gemini-2.5-flash:generateContent").
+     */
+    private static final class UsageStats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder promptTokens = new LongAdder();
+        final LongAdder outputTokens = new LongAdder();
+        final LongAdder thoughtsTokens = new LongAdder();
+        final LongAdder cachedTokens = new LongAdder();
+        final LongAdder totalTokens = new LongAdder();
+    }
+
+    /**
+     * Historique de sortie d'un type de génération : texte par unité et réflexion par appel.
+     */
+    private static final class BudgetStats {
+        final Deque<Double> perUnit = new ArrayDeque<>();
+        final Deque<Double> thoughts = new ArrayDeque<>();
+        final LongAdder truncations = new LongAdder();
+        final LongAdder budgetsGranted = new LongAdder();
+        final LongAdder tokensGranted = new LongAdder();
+        final LongAdder staticTokens = new LongAdder();
+        volatile int lastBudget;
+    }
+
+    /**
+     * Consommation d'un appel (réponse complète, ou dernier morceau d'un flux).
+     */
+    public void recordUsage(String operation, String method, Map<String, Object> response) {
+        if (response == null || !(response.get("usageMetadata") instanceof Map<?, ?> metadata)) {
+            return;
+        }
+        UsageStats stats = usage.computeIfAbsent(operation + " " + method, k -> new UsageStats());
+        stats.calls.increment();
+        stats.promptTokens.add(count(metadata, "promptTokenCount"));
+        stats.outputTokens.add(count(metadata, "candidatesTokenCount"));
+        stats.thoughtsTokens.add(count(metadata, "thoughtsTokenCount"));
+        stats.cachedTokens.add(count(metadata, "cachedContentTokenCount"));
+        stats.totalTokens.add(count(metadata, "totalTokenCount"));
+    }
+
+    /**
+     * Budget de sortie pour units unités (questions) d'un type de génération (ex: "quiz"),
+     * borné par staticBudget, le budget fixe utilisé jusqu'ici.
+     */
+    public int maxOutputTokens(String kind, int units, int staticBudget) {
+        if (!enabled) {
+            return staticBudget;
+        }
+        BudgetStats stats = budgets.computeIfAbsent(kind, k -> new BudgetStats());
+        int budget = staticBudget;
+        Double perUnit = quantile(stats.perUnit, percentile);
+        Double thoughts = quantile(stats.thoughts, percentile);
+        if (perUnit != null && thoughts != null) {
+            long adaptive = (long) Math.ceil((thoughts + perUnit * Math.max(1, units)) * headroom) + overheadTokens;
+            budget = (int) Math.min(staticBudget, Math.max(minTokens, adaptive));
+        }
+        stats.budgetsGranted.increment();
+        stats.tokensGranted.add(budget);
+        stats.staticTokens.add(staticBudget);
+        stats.lastBudget = budget;
+        log.debug("📊 Budget de sortie {} pour {} unité(s): {} tokens (statique: {})", kind, units, budget, staticBudget);
+        return budget;
+    }
+
+    /**
+     * Sortie réelle d'un appel, rapportée au nombre d'unités demandées ; request porte le
+     * maxOutputTokens accordé.
+     */
+    public void recordOutput(String kind, int units, Map<String, Object> request, Map<String, Object> response) {
+        if (response == null || !(response.get("usageMetadata") instanceof Map<?, ?> metadata)) {
+            return;
+        }
+        BudgetStats stats = budgets.computeIfAbsent(kind, k -> new BudgetStats());
+        int safeUnits = Math.max(1, units);
+        double produced = count(metadata, "candidatesTokenCount");
+        double thoughts = count(metadata, "thoughtsTokenCount");
+        if ("MAX_TOKENS".equals(finishReason(response))) {
+            stats.truncations.increment();
+            Integer granted = grantedBudget(request);
+            if (granted != null) {
+                produced = Math.max(produced, granted * 2.0);
+            }
+            log.warn("⚠️ Sortie {} coupée à {} tokens, budgets suivants relevés", kind, granted);
+        }
+        add(stats.perUnit, produced / safeUnits);
+        add(stats.thoughts, thoughts);
+    }
+
+    private void add(Deque<Double> samples, double value) {
+        synchronized (samples) {
+            samples.addLast(value);
+            while (samples.size() > window) {
+                samples.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Copie de la requête sans maxOutputTokens : le budget adaptatif varie d'un appel à l'autre
+     * sans changer la réponse attendue (clés de cache et de rejeu).
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> withoutOutputBudget(Map<String, Object> request) {
+        if (request == null || !(request.get("generationConfig") instanceof Map<?, ?> config)
+                || !config.containsKey("maxOutputTokens")) {
+            return request;
+        }
+        Map<String, Object> generationConfig = new HashMap<>((Map<String, Object>) config);
+        generationConfig.remove("maxOutputTokens");
+        Map<String, Object> copy = new HashMap<>(request);
+        copy.put("generationConfig", generationConfig);
+        return copy;
+    }
+
+    private Double quantile(Deque<Double> samples, double q) {
+        double[] values;
+        synchronized (samples) {
+            if (samples.size() < minSamples) {
+                return null;
+            }
+            values = samples.stream().mapToDouble(Double::doubleValue).toArray();
+        }
+        Arrays.sort(values);
+        return values[(int) Math.min(values.length - 1, Math.ceil(q * values.length) - 1)];
+    }
+
+    private static Integer grantedBudget(Map<String, Object> request) {
+        if (request != null && request.get("generationConfig") instanceof Map<?, ?> config
+                && config.get("maxOutputTokens") instanceof Number granted) {
+            return granted.intValue();
+        }
+        return null;
+    }
+
+    private static String finishReason(Map<String, Object> response) {
+        if (response.get("candidates") instanceof List<?> candidates && !candidates.isEmpty()
+                && candidates.get(0) instanceof Map<?, ?> candidate && candidate.get("finishReason") != null) {
+            return candidate.get("finishReason").toString();
+        }
+        return null;
+    }
+
+    private static long count(Map<?, ?> metadata, String field) {
+        return metadata.get(field) instanceof Number value ? value.longValue() : 0;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> byOperation = new TreeMap<>();
+        usage.forEach((key, stats) -> {
+            long calls = stats.calls.sum();
+            Map<String, Object> view = new LinkedHashMap<>();
+            view.put("calls", calls);
+            view.put("promptTokens", stats.promptTokens.sum());
+            view.put("outputTokens", stats.outputTokens.sum());
+            view.put("thoughtsTokens", stats.thoughtsTokens.sum());
+            view.put("cachedTokens", stats.cachedTokens.sum());
+            view.put("totalTokens", stats.totalTokens.sum());
+            view.put("avgOutputTokens", calls == 0 ? 0 : (stats.outputTokens.sum() + stats.thoughtsTokens.sum()) / calls);
+            byOperation.put(key, view);
+        });
+
+        Map<String, Object> byKind = new TreeMap<>();
+        budgets.forEach((kind, stats) -> {
+            Double p50 = quantile(stats.perUnit, 0.5);
+            Double high = quantile(stats.perUnit, percentile);
+            Double thoughts = quantile(stats.thoughts, percentile);
+            Map<String, Object> view = new LinkedHashMap<>();
+            synchronized (stats.perUnit) {
+                view.put("samples", stats.perUnit.size());
+            }
+            view.put("outputPerUnitP50", p50 != null ? Math.round(p50) : null);
+            view.put("outputPerUnitHigh", high != null ? Math.round(high) : null);
+            view.put("thoughtsPerCallHigh", thoughts != null ? Math.round(thoughts) : null);
+            view.put("lastBudget", stats.lastBudget);
+            view.put("budgetsGranted", stats.budgetsGranted.sum());
+            view.put("tokensReserved", stats.tokensGranted.sum());
+            view.put("tokensReservedStatic", stats.staticTokens.sum());
+            view.put("truncations", stats.truncations.sum());
+            byKind.put(kind, view);
+        });
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("adaptiveBudgets", enabled);
+        metrics.put("percentile", percentile);
+        metrics.put("headroom", headroom);
+        metrics.put("usage", byOperation);
+        metrics.put("budgets", byKind);
+        return metrics;
+    }
+}
@@ -0,0 +1,192 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Enregistrement (optionnel) des échanges réels avec Gemini, pour les rejouer hors ligne
+ * avec {@link LlmTrafficReplay} : une ligne JSON par échange (requête, réponse ou erreur,
+ * morceaux de flux horodatés, durée), dans des fichiers .jsonl.gz tournants.
+ *
+ * La clé d'API n'est jamais écrite : elle circule en en-tête, et toute occurrence de la clé
+ * configurée ou d'une clé Google ("AIza...") dans le contenu est masquée.
+ */
+@Slf4j
+@Component
+public class LlmTrafficRecorder {
+
+    private static final Pattern GOOGLE_API_KEY = Pattern.compile("AIza[0-9A-Za-z_\\-]{35}");
+    private static final String REDACTED = "[REDACTED]";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /**
+     * Morceau d'une réponse en flux, à offsetMs du début de l'appel.
+     */
+    public record StreamChunk(long offsetMs, Map<String, Object> chunk) {
+    }
+
+    /**
+     * Échange enregistré : response (appel simple) ou chunks (flux), ou error/status en cas d'échec.
+     */
+    public record Exchange(String operation, String method, Map<String, Object> request,
+                           Map<String, Object> response, List<StreamChunk> chunks,
+                           Integer status, String error, long durationMs, long recordedAt) {
+    }
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path dir;
+    private final int maxRecordsPerFile;
+    private final String apiKey;
+
+    private Writer writer;
+    private Path currentFile;
+    private int recordsInFile;
+    private int fileSequence;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private final LongAdder filesWritten = new LongAdder();
+
+    public LlmTrafficRecorder(ObjectMapper objectMapper,
+                              @Value("${llm.recording.enabled:false}") boolean enabled,
+                              @Value("${llm.recording.dir:${file.upload-dir:./uploads}/llm-recordings}") String dir,
+                              @Value("${llm.recording.max-records-per-file:500}") int maxRecordsPerFile,
+                              @Value("${gemini.api.key:}") String apiKey) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.maxRecordsPerFile = Math.max(1, maxRecordsPerFile);
+        this.apiKey = apiKey != null ? apiKey : "";
+        if (enabled) {
+            log.info("🎙️ Enregistrement du trafic LLM actif ({})", this.dir);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void record(String operation, String method, Map<String, Object> request,
+                       Map<String, Object> response, long durationMs) {
+        write(new Exchange(operation, method, request, response, null, null, null, durationMs,
+                System.currentTimeMillis()));
+    }
+
+    public void recordStream(String operation, String method, Map<String, Object> request,
+                             List<StreamChunk> chunks, long durationMs) {
+        write(new Exchange(operation, method, request, null, List.copyOf(chunks), null, null, durationMs,
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Échec enregistré tel que vu par l'appelant (code HTTP si Gemini a répondu), pour rejouer
+     * aussi les erreurs de production.
+     */
+    public void recordFailure(String operation, String method, Map<String, Object> request,
+                              Throwable error, long durationMs) {
+        Integer status = null;
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof GeminiHttpClient.GeminiHttpException http) {
+                status = http.getStatusCode();
+                break;
+            }
+        }
+        write(new Exchange(operation, method, request, null, null, status, String.valueOf(error.getMessage()),
+                durationMs, System.currentTimeMillis()));
+    }
+
+    private void write(Exchange exchange) {
+        if (!enabled) {
+            return;
+        }
+        String line;
+        try {
+            line = redact(objectMapper.writeValueAsString(exchange));
+        } catch (IOException e) {
+            writeFailures.increment();
+            log.warn("⚠️ Échange LLM non sérialisable: {}", e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (writer == null || recordsInFile >= maxRecordsPerFile) {
+                    rotate();
+                }
+                writer.write(line);
+                writer.write('\n');
+                // Vidage synchronisé : un fichier interrompu reste lisible jusqu'au dernier échange
+                writer.flush();
+                recordsInFile++;
+                recorded.increment();
+            } catch (IOException e) {
+                writeFailures.increment();
+                log.warn("⚠️ Enregistrement LLM impossible ({}): {}", currentFile, e.getMessage());
+                closeQuietly();
+            }
+        }
+    }
+
+    private String redact(String line) {
+        String redacted = apiKey.length() >= 8 ? line.replace(apiKey, REDACTED) : line;
+        return GOOGLE_API_KEY.matcher(redacted).replaceAll(REDACTED);
+    }
+
+    private void rotate() throws IOException {
+        closeQuietly();
+        Files.createDirectories(dir);
+        currentFile = dir.resolve("traffic-" + LocalDateTime.now().format(FILE_TIME) + "-" + (++fileSequence)
+                + ".jsonl.gz");
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(currentFile), true), StandardCharsets.UTF_8));
+        recordsInFile = 0;
+        filesWritten.increment();
+        log.info("🎙️ Nouveau fichier d'enregistrement LLM: {}", currentFile.getFileName());
+    }
+
+    private void closeQuietly() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.debug("Fermeture enregistrement LLM: {}", e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        closeQuietly();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("dir", dir.toString());
+        metrics.put("recorded", recorded.sum());
+        metrics.put("files", filesWritten.sum());
+        metrics.put("writeFailures", writeFailures.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,237 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Rejeu du trafic Gemini enregistré par {@link LlmTrafficRecorder} : quand il est actif,
+ * OllamaService sert les réponses enregistrées au lieu d'appeler Gemini, avec la durée
+ * d'origine divisée par speed (1 = temps réel, 10 = dix fois plus vite, 0 = immédiat).
+ *
+ * Une requête identique à une requête enregistrée (au budget de sortie près) reçoit sa réponse ;
+ * sinon, hors mode strict, les échanges de la même méthode sont servis à tour de rôle (les prompts
+ * réels dépendent des profils et des cours, seules la forme et la taille des réponses comptent
+ * pour un banc).
+ */
+@Slf4j
+@Component
+public class LlmTrafficReplay {
+
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper canonicalMapper;
+    private final boolean enabled;
+    private final Path dir;
+    private final double speed;
+    private final boolean strict;
+
+    private final Map<String, LlmTrafficRecorder.Exchange> byFingerprint = new ConcurrentHashMap<>();
+    private final Map<String, List<LlmTrafficRecorder.Exchange>> byMethod = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> cursors = new ConcurrentHashMap<>();
+
+    private final LongAdder exactHits = new LongAdder();
+    private final LongAdder substitutions = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public LlmTrafficReplay(ObjectMapper objectMapper,
+                            @Value("${llm.replay.enabled:false}") boolean enabled,
+                            @Value("${llm.replay.dir:${llm.recording.dir:${file.upload-dir:./uploads}/llm-recordings}}") String dir,
+                            @Value("${llm.replay.speed:1.0}") double speed,
+                            @Value("${llm.replay.strict:false}") boolean strict) {
+        this.objectMapper = objectMapper;
+        this.canonicalMapper = objectMapper.copy().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        this.enabled = enabled;
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.speed = Math.max(0, speed);
+        this.strict = strict;
+    }
+
+    /**
+     * Charge tous les fichiers .jsonl.gz du dossier (un fichier interrompu est lu jusqu'à sa coupure).
+     */
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(p -> p.toString().endsWith(".jsonl.gz")).sorted().toList();
+        } catch (IOException e) {
+            throw new IllegalStateException("Dossier de rejeu LLM illisible: " + dir, e);
+        }
+        int loaded = 0;
+        for (Path file : files) {
+            loaded += loadFile(file);
+        }
+        log.info("▶️ Rejeu LLM actif: {} échange(s) chargé(s) depuis {} fichier(s) ({}), vitesse x{}",
+                loaded, files.size(), dir, speed);
+    }
+
+    private int loadFile(Path file) {
+        // Octets décompressés jusqu'à la coupure éventuelle (fichier en cours d'écriture ou arrêt brutal)
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        boolean truncated = false;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            in.transferTo(raw);
+        } catch (EOFException e) {
+            truncated = true;
+        } catch (IOException e) {
+            log.warn("⚠️ Fichier de rejeu {} illisible: {}", file.getFileName(), e.getMessage());
+            return 0;
+        }
+
+        int loaded = 0;
+        for (String line : raw.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                LlmTrafficRecorder.Exchange exchange = objectMapper.readValue(line, LlmTrafficRecorder.Exchange.class);
+                byFingerprint.putIfAbsent(fingerprint(exchange.method(), exchange.request()), exchange);
+                byMethod.computeIfAbsent(exchange.method(), k -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(exchange);
+                loaded++;
+            } catch (IOException e) {
+                // Dernière ligne coupée : les échanges complets sont gardés
+                log.debug("Échange illisible ignoré dans {}: {}", file.getFileName(), e.getMessage());
+            }
+        }
+        if (truncated) {
+            log.warn("⚠️ Fichier de rejeu {} interrompu, {} échange(s) complet(s) lu(s)", file.getFileName(), loaded);
+        }
+        return loaded;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Réponse enregistrée pour cet appel, après la durée d'origine ajustée (appel bloquant).
+     */
+    public Map<String, Object> replay(String method, Map<String, Object> request) {
+        LlmTrafficRecorder.Exchange exchange = find(method, request);
+        sleep(scaled(exchange.durationMs()));
+        return responseOf(exchange);
+    }
+
+    /**
+     * Variante non bloquante de replay : l'attente est un délai Reactor, sans thread immobilisé.
+     */
+    public Mono<Map<String, Object>> replayAsync(String method, Map<String, Object> request) {
+        return Mono.fromCallable(() -> find(method, request))
+                .delayUntil(exchange -> Mono.delay(Duration.ofMillis(scaled(exchange.durationMs()))))
+                .map(this::responseOf);
+    }
+
+    /**
+     * Flux rejoué avec l'espacement enregistré entre morceaux. Un échange enregistré hors flux
+     * est servi comme un flux d'un seul morceau.
+     */
+    public Flux<Map<String, Object>> replayStream(String method, Map<String, Object> request) {
+        return Mono.fromCallable(() -> find(method, request))
+                .flatMapMany(exchange -> {
+                    if (exchange.chunks() == null) {
+                        return Mono.delay(Duration.ofMillis(scaled(exchange.durationMs())))
+                                .map(tick -> responseOf(exchange));
+                    }
+                    long[] previous = {0};
+                    return Flux.fromIterable(exchange.chunks())
+                            .concatMap(chunk -> {
+                                long gap = Math.max(0, chunk.offsetMs() - previous[0]);
+                                previous[0] = chunk.offsetMs();
+                                return Mono.delay(Duration.ofMillis(scaled(gap))).map(tick -> chunk.chunk());
+                            });
+                });
+    }
+
+    private LlmTrafficRecorder.Exchange find(String method, Map<String, Object> request) {
+        LlmTrafficRecorder.Exchange exact = byFingerprint.get(fingerprint(method, request));
+        if (exact != null) {
+            exactHits.increment();
+            return exact;
+        }
+        List<LlmTrafficRecorder.Exchange> candidates = byMethod.get(method);
+        if (strict || candidates == null || candidates.isEmpty()) {
+            misses.increment();
+            throw new RuntimeException("Aucun échange enregistré pour " + method + (strict ? " (rejeu strict)" : ""));
+        }
+        substitutions.increment();
+        int next = cursors.computeIfAbsent(method, k -> new AtomicInteger()).getAndIncrement();
+        return candidates.get(Math.floorMod(next, candidates.size()));
+    }
+
+    private Map<String, Object> responseOf(LlmTrafficRecorder.Exchange exchange) {
+        if (exchange.error() != null) {
+            if (exchange.status() != null) {
+                throw new GeminiHttpClient.GeminiHttpException(exchange.status(), exchange.error());
+            }
+            throw new RuntimeException(exchange.error());
+        }
+        return exchange.response();
+    }
+
+    private long scaled(long durationMs) {
+        return speed == 0 ? 0 : Math.round(durationMs / speed);
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Rejeu LLM interrompu", e);
+        }
+    }
+
+    private String fingerprint(String method, Map<String, Object> request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(method.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(canonicalMapper.writeValueAsBytes(LlmTokenAccounting.withoutOutputBudget(request)));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException("Empreinte de requête impossible", e);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("speed", speed);
+        metrics.put("strict", strict);
+        metrics.put("exchanges", byMethod.values().stream().mapToInt(List::size).sum());
+        metrics.put("exactHits", exactHits.sum());
+        metrics.put("substitutions", substitutions.sum());
+        metrics.put("misses", misses.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,140 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iatd.smarthub.config.OllamaConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Modèle local servi par Ollama (POST /api/generate, sans streaming). La disponibilité
+ * est sondée sur /api/tags par une tâche planifiée : le routage et /llm-metrics lisent
+ * le dernier résultat sans jamais attendre une connexion refusée quand Ollama n'est pas lancé.
+ */
+@Slf4j
+@Component
+public class OllamaLlmProvider implements LlmProvider {
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final OllamaConfig config;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final HttpClient httpClient;
+
+    private volatile boolean lastProbeOk;
+
+    public OllamaLlmProvider(OllamaConfig config, ObjectMapper objectMapper,
+                             @Value("${ollama.enabled:true}") boolean enabled) {
+        this.config = config;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        // HTTP/1.1 : Ollama n'accepte pas la montée en HTTP/2 en clair
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+    }
+
+    @Override
+    public String name() {
+        return "ollama";
+    }
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    /**
+     * Le petit modèle local ne traite que les tâches légères.
+     */
+    @Override
+    public boolean supports(LlmTask task) {
+        return task.isLightweight();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return enabled && lastProbeOk;
+    }
+
+    @Scheduled(fixedDelayString = "${ollama.probe-interval-ms:30000}")
+    public void refreshAvailability() {
+        if (enabled) {
+            lastProbeOk = probe();
+        }
+    }
+
+    private boolean probe() {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(config.getTagsApiUrl()))
+                    .timeout(Duration.ofSeconds(2))
+                    .GET()
+                    .build();
+            boolean ok = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() / 100 == 2;
+            log.debug("🦙 Sonde Ollama {}: {}", config.getApi().getUrl(), ok ? "OK" : "KO");
+            return ok;
+        } catch (IOException e) {
+            log.debug("🦙 Ollama injoignable: {}", e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public String generate(LlmRequest request) {
+        Map<String, Object> options = new HashMap<>();
+        options.put("temperature", request.temperature());
+        options.put("num_predict", request.maxOutputTokens() > 0 ? request.maxOutputTokens() : config.getMaxTokens());
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", config.getModelName());
+        body.put("prompt", request.prompt());
+        body.put("stream", false);
+        body.put("options", options);
+        if (request.json()) {
+            body.put("format", "json");
+        }
+
+        try {
+            HttpRequest httpRequest = HttpRequest.newBuilder(URI.create(config.getGenerateUrl()))
+                    .timeout(Duration.ofMillis(config.getTimeoutMs()))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+            HttpResponse<byte[]> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() / 100 != 2) {
+                String errorBody = new String(response.body());
+                throw new RuntimeException("Erreur HTTP Ollama " + response.statusCode() + ": "
+                        + errorBody.substring(0, Math.min(300, errorBody.length())));
+            }
+
+            Object text = objectMapper.readValue(response.body(), MAP_TYPE).get("response");
+            if (text == null || text.toString().isBlank()) {
+                throw new RuntimeException("Réponse Ollama vide");
+            }
+            lastProbeOk = true;
+            return text.toString().trim();
+        } catch (IOException e) {
+            lastProbeOk = false;
+            throw new RuntimeException("Erreur de communication avec Ollama: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Appel Ollama interrompu", e);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Lecture des questions d'une réponse de modèle avec le parseur Jackson non bloquant :
+ * un seul passage sur les tokens, sans nettoyage par regex ni arbre JSON intermédiaire.
+ * Tolère le texte avant le JSON (prose, balise ```json) et ignore tout ce qui suit
+ * la fin du tableau de questions. Les questions complètes sont conservées même si
+ * la réponse est tronquée ou invalide plus loin.
+ * Le tableau lu est {"questions": [...]} ou un tableau racine. Non thread-safe : une instance par réponse.
+ */
+@Slf4j
+public class QuizJsonStreamParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    private boolean started;
+    private boolean finished;
+    private boolean complete;
+    private int depth;
+    private int questionsDepth = -1;
+    private String rootField;
+    private QuestionBuilder current;
+
+    public QuizJsonStreamParser() {
+        try {
+            this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException("Création du parseur JSON impossible", e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Analyse une réponse complète.
+     */
+    public static Result parse(String response) {
+        QuizJsonStreamParser streamParser = new QuizJsonStreamParser();
+        List<ParsedQuestion> questions = new ArrayList<>(streamParser.feed(response != null ? response : ""));
+        questions.addAll(streamParser.finish());
+        return new Result(questions, streamParser.isComplete());
+    }
+
+    /**
+     * Ajoute un morceau de réponse et retourne les questions qu'il complète.
+     */
+    public List<ParsedQuestion> feed(CharSequence chunk) {
+        List<ParsedQuestion> completed = new ArrayList<>();
+        if (finished || chunk.isEmpty()) {
+            return completed;
+        }
+        String text = chunk.toString();
+        if (!started) {
+            int start = indexOfJsonStart(text);
+            if (start < 0) {
+                return completed;
+            }
+            started = true;
+            text = text.substring(start);
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            feeder.feedInput(bytes, 0, bytes.length);
+            drain(completed);
+        } catch (IOException e) {
+            stop(e);
+        }
+        return completed;
+    }
+
+    /**
+     * Signale la fin de la réponse.
+     */
+    public List<ParsedQuestion> finish() {
+        List<ParsedQuestion> completed = new ArrayList<>();
+        if (!finished && started) {
+            feeder.endOfInput();
+            try {
+                drain(completed);
+            } catch (IOException e) {
+                stop(e);
+            }
+        }
+        finished = true;
+        return completed;
+    }
+
+    /**
+     * Vrai si le tableau de questions a été refermé (réponse non tronquée).
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    private static int indexOfJsonStart(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '{' || c == '[') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void stop(IOException e) {
+        log.debug("🔍 JSON interrompu après {} niveaux: {}", depth, e.getMessage());
+        finished = true;
+    }
+
+    private void drain(List<ParsedQuestion> completed) throws IOException {
+        JsonToken token;
+        while (!finished && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            handle(token, completed);
+        }
+    }
+
+    private void handle(JsonToken token, List<ParsedQuestion> completed) throws IOException {
+        switch (token) {
+            case FIELD_NAME -> {
+                if (current != null) {
+                    current.field(depth, parser.currentName());
+                } else if (depth == 1) {
+                    rootField = parser.currentName();
+                }
+            }
+            case START_ARRAY -> {
+                if (questionsDepth < 0 && current == null
+                        && (depth == 0 || (depth == 1 && "questions".equalsIgnoreCase(rootField)))) {
+                    questionsDepth = depth + 1;
+                } else if (current != null) {
+                    current.startArray(depth);
+                }
+                depth++;
+            }
+            case START_OBJECT -> {
+                if (current == null && depth == questionsDepth) {
+                    current = new QuestionBuilder(depth + 1);
+                } else if (current != null) {
+                    current.startObject(depth);
+                }
+                depth++;
+            }
+            case END_OBJECT, END_ARRAY -> {
+                depth--;
+                if (current != null && depth == questionsDepth) {
+                    completed.add(current.build());
+                    current = null;
+                } else if (current != null) {
+                    current.end(depth);
+                } else if (depth == questionsDepth - 1 || depth == 0) {
+                    // Fin du tableau de questions : la suite (texte, balise) est ignorée
+                    complete = true;
+                    finished = true;
+                }
+            }
+            case VALUE_STRING, VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT, VALUE_TRUE, VALUE_FALSE -> {
+                if (current != null) {
+                    current.value(depth, parser.getText());
+                }
+            }
+            default -> {
+                // VALUE_NULL, VALUE_EMBEDDED_OBJECT : rien à retenir
+            }
+        }
+    }
+
+    /**
+     * Accumule les champs d'une question : valeurs simples, et listes de chaînes
+     * (les éléments objets d'une liste, ex: {"text": "..."}, sont réduits à leur texte).
+     */
+    private static class QuestionBuilder {
+        private final int base;
+        private final Map<String, String> values = new LinkedHashMap<>();
+        private final Map<String, List<String>> lists = new LinkedHashMap<>();
+
+        private String field;
+        private List<String> list;
+        private String elementField;
+        private boolean elementCaptured;
+
+        QuestionBuilder(int base) {
+            this.base = base;
+        }
+
+        void field(int depth, String name) {
+            if (depth == base) {
+                field = name;
+            } else if (list != null && depth == base + 2) {
+                elementField = name;
+            }
+        }
+
+        void startArray(int depth) {
+            if (depth == base && field != null) {
+                list = new ArrayList<>();
+            }
+        }
+
+        void startObject(int depth) {
+            if (list != null && depth == base + 1) {
+                elementField = null;
+                elementCaptured = false;
+            }
+        }
+
+        void value(int depth, String text) {
+            if (depth == base && field != null) {
+                values.putIfAbsent(field, text);
+            } else if (list != null && depth == base + 1) {
+                list.add(text);
+            } else if (list != null && depth == base + 2 && !elementCaptured
+                    && ("text".equals(elementField) || "option".equals(elementField))) {
+                list.add(text);
+                elementCaptured = true;
+            }
+        }
+
+        void end(int depth) {
+            if (list != null && depth == base) {
+                lists.putIfAbsent(field, list);
+                list = null;
+            }
+        }
+
+        ParsedQuestion build() {
+            return new ParsedQuestion(values, lists);
+        }
+    }
+
+    /**
+     * Champs d'une question tels que lus dans la réponse.
+     */
+    public static class ParsedQuestion {
+        private final Map<String, String> values;
+        private final Map<String, List<String>> lists;
+
+        public ParsedQuestion(Map<String, String> values, Map<String, List<String>> lists) {
+            this.values = Collections.unmodifiableMap(values);
+            this.lists = Collections.unmodifiableMap(lists);
+        }
+
+        public boolean has(String key) {
+            return values.containsKey(key) || lists.containsKey(key);
+        }
+
+        /**
+         * Valeur simple (chaîne, nombre, booléen) du champ, ou null.
+         */
+        public String value(String key) {
+            return values.get(key);
+        }
+
+        /**
+         * Liste du champ, ou null si le champ n'est pas un tableau.
+         */
+        public List<String> list(String key) {
+            return lists.get(key);
+        }
+
+        public Map<String, String> values() {
+            return values;
+        }
+    }
+
+    public record Result(List<ParsedQuestion> questions, boolean complete) {
+    }
+}
@@ -0,0 +1,285 @@
+package com.iatd.smarthub.service.llm;
+
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import jakarta.annotation.PreDestroy;
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client Gemini non bloquant (WebClient / Reactor Netty) : les appels en attente
+ * n'occupent aucun thread, seules les connexions du pool sont limitées.
+ */
+@Slf4j
+@Component
+public class ReactiveGeminiClient {
+
+    private static final ParameterizedTypeReference<Map<String, Object>> MAP_TYPE = new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<ServerSentEvent<Map<String, Object>>> SSE_MAP_TYPE =
+            new ParameterizedTypeReference<>() {};
+
+    private final WebClient webClient;
+    private final GeminiCircuitBreaker circuitBreaker;
+    private final GeminiGovernor governor;
+    private final ConnectionProvider connectionProvider;
+    private final long timeoutMs;
+    private final int maxConnections;
+    private final String apiKey;
+    private final String apiUrl;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+
+    public ReactiveGeminiClient(
+            WebClient.Builder builder,
+            GeminiCircuitBreaker circuitBreaker,
+            GeminiGovernor governor,
+            @Value("${gemini.api.key:}") String apiKey,
+            @Value("${gemini.api.url:https://generativelanguage.googleapis.com/v1beta/models/}") String apiUrl,
+            @Value("${gemini.timeout.ms:60000}") long timeoutMs,
+            @Value("${gemini.connect-timeout.ms:5000}") int connectTimeoutMs,
+            @Value("${gemini.reactive.max-connections:50}") int maxConnections,
+            @Value("${gemini.reactive.pending-acquire-max:500}") int pendingAcquireMax) {
+        this.circuitBreaker = circuitBreaker;
+        this.governor = governor;
+        this.apiKey = apiKey != null ? apiKey : "";
+        this.apiUrl = apiUrl;
+        this.timeoutMs = timeoutMs;
+        this.maxConnections = maxConnections;
+
+        this.connectionProvider = ConnectionProvider.builder("gemini")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMax)
+                .pendingAcquireTimeout(Duration.ofMillis(timeoutMs))
+                .maxIdleTime(Duration.ofSeconds(30))
+                .build();
+
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .protocol(HttpProtocol.H2, HttpProtocol.HTTP11)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(timeoutMs));
+
+        this.webClient = builder
+                .baseUrl(apiUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                .build();
+    }
+
+    /**
+     * POST JSON sur une méthode de l'API (ex: "gemini-2.5-flash:generateContent"), sans bloquer.
+     */
+    public Mono<Map<String, Object>> post(String operation, String method, Map<String, Object> body) {
+        // Priorité lue sur le thread appelant, à l'assemblage
+        GeminiGovernor.Priority priority = GeminiGovernor.currentPriority();
+        return Mono.defer(() -> {
+            if (!circuitBreaker.tryAcquire()) {
+                return Mono.error(new GeminiCircuitBreaker.GeminiUnavailableException(
+                        "Service AI (Gemini) temporairement indisponible"));
+            }
+            // Attente de quota sans bloquer de thread ; l'autorisation est rendue quelle que soit l'issue
+            return Mono.fromFuture(() -> governor.acquireAsync(priority, governor.estimateTokens(body)))
+                    .flatMap(permit -> {
+                        Integer[] actualTokens = new Integer[1];
+                        return exchange(operation, method, body)
+                                .doOnNext(result -> actualTokens[0] = GeminiGovernor.actualTokens(result))
+                                .doFinally(signal -> governor.release(permit, actualTokens[0]));
+                    });
+        });
+    }
+
+    /**
+     * Appel en flux (ex: "gemini-2.5-flash:streamGenerateContent") : chaque morceau de réponse
+     * est émis dès sa réception (SSE côté Gemini). Le délai s'applique entre deux morceaux.
+     */
+    public Flux<Map<String, Object>> stream(String operation, String method, Map<String, Object> body) {
+        GeminiGovernor.Priority priority = GeminiGovernor.currentPriority();
+        return Flux.defer(() -> {
+            if (!circuitBreaker.tryAcquire()) {
+                return Flux.error(new GeminiCircuitBreaker.GeminiUnavailableException(
+                        "Service AI (Gemini) temporairement indisponible"));
+            }
+            return Mono.fromFuture(() -> governor.acquireAsync(priority, governor.estimateTokens(body)))
+                    .flatMapMany(permit -> {
+                        // usageMetadata du dernier morceau = consommation réelle
+                        Integer[] actualTokens = new Integer[1];
+                        return exchangeStream(operation, method, body)
+                                .doOnNext(chunk -> {
+                                    Integer tokens = GeminiGovernor.actualTokens(chunk);
+                                    if (tokens != null) {
+                                        actualTokens[0] = tokens;
+                                    }
+                                })
+                                .doFinally(signal -> governor.release(permit, actualTokens[0]));
+                    });
+        });
+    }
+
+    private Flux<Map<String, Object>> exchangeStream(String operation, String method, Map<String, Object> body) {
+        return Flux.defer(() -> {
+            OperationStats stats = operations.computeIfAbsent(operation, k -> new OperationStats());
+            int current = inFlight.incrementAndGet();
+            peakInFlight.accumulateAndGet(current, Math::max);
+            long start = System.nanoTime();
+            boolean[] firstChunk = {true};
+
+            return webClient.post()
+                    .uri(methodUri(method + "?alt=sse"))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .header("x-goog-api-key", apiKey)
+                    .bodyValue(body)
+                    .exchangeToFlux(response -> {
+                        if (response.statusCode().is2xxSuccessful()) {
+                            return response.bodyToFlux(SSE_MAP_TYPE)
+                                    .map(ServerSentEvent::data)
+                                    .filter(Objects::nonNull);
+                        }
+                        int status = response.statusCode().value();
+                        return response.bodyToMono(String.class)
+                                .defaultIfEmpty("")
+                                .flatMapMany(errorBody -> Flux.error(new GeminiHttpClient.GeminiHttpException(status,
+                                        "Erreur HTTP Gemini " + status + ": "
+                                                + errorBody.substring(0, Math.min(500, errorBody.length())))));
+                    })
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .doOnNext(chunk -> {
+                        if (firstChunk[0]) {
+                            firstChunk[0] = false;
+                            stats.firstChunk.record((System.nanoTime() - start) / 1_000_000);
+                        }
+                    })
+                    .onErrorMap(e -> translateError(e, stats))
+                    .doOnComplete(circuitBreaker::recordSuccess)
+                    .doOnError(circuitBreaker::recordFailure)
+                    .doFinally(signal -> {
+                        long durationMs = (System.nanoTime() - start) / 1_000_000;
+                        stats.latency.record(durationMs);
+                        inFlight.decrementAndGet();
+                        log.debug("⏱️ Gemini {} (flux) terminé en {} ms [{}]", operation, durationMs, signal);
+                    });
+        });
+    }
+
+    private Mono<Map<String, Object>> exchange(String operation, String method, Map<String, Object> body) {
+        return Mono.defer(() -> {
+            OperationStats stats = operations.computeIfAbsent(operation, k -> new OperationStats());
+            int current = inFlight.incrementAndGet();
+            peakInFlight.accumulateAndGet(current, Math::max);
+            long start = System.nanoTime();
+
+            return webClient.post()
+                    .uri(methodUri(method))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .header("x-goog-api-key", apiKey)
+                    .bodyValue(body)
+                    .exchangeToMono(response -> {
+                        if (response.statusCode().is2xxSuccessful()) {
+                            return response.bodyToMono(MAP_TYPE);
+                        }
+                        int status = response.statusCode().value();
+                        return response.bodyToMono(String.class)
+                                .defaultIfEmpty("")
+                                .flatMap(errorBody -> Mono.error(new GeminiHttpClient.GeminiHttpException(status,
+                                        "Erreur HTTP Gemini " + status + ": "
+                                                + errorBody.substring(0, Math.min(500, errorBody.length())))));
+                    })
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .onErrorMap(e -> translateError(e, stats))
+                    .doOnSuccess(result -> circuitBreaker.recordSuccess())
+                    .doOnError(circuitBreaker::recordFailure)
+                    .doFinally(signal -> {
+                        long durationMs = (System.nanoTime() - start) / 1_000_000;
+                        stats.latency.record(durationMs);
+                        inFlight.decrementAndGet();
+                        log.debug("⏱️ Gemini {} (async) terminé en {} ms [{}]", operation, durationMs, signal);
+                    });
+        });
+    }
+
+    /**
+     * URI absolue de la méthode : passé tel quel, "gemini-2.5-flash:generateContent" serait lu
+     * comme une URI de schéma "gemini-2.5-flash" et l'URL de base ignorée.
+     */
+    private URI methodUri(String method) {
+        return URI.create(apiUrl + method);
+    }
+
+    private Throwable translateError(Throwable e, OperationStats stats) {
+        stats.errors.increment();
+        if (e instanceof GeminiHttpClient.GeminiHttpException) {
+            return e;
+        }
+        if (e instanceof TimeoutException || e.getCause() instanceof TimeoutException) {
+            timeouts.increment();
+            return new RuntimeException("Timeout Gemini après " + timeoutMs + " ms", e);
+        }
+        if (e instanceof WebClientRequestException && e.getCause() instanceof ConnectException) {
+            connectFailures.increment();
+            return new RuntimeException("Connexion à Gemini impossible: " + e.getMessage(), e);
+        }
+        return new RuntimeException("Erreur de communication avec Gemini: " + e.getMessage(), e);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+
+        Map<String, Object> pool = new LinkedHashMap<>();
+        pool.put("maxConnections", maxConnections);
+        pool.put("readTimeoutMs", timeoutMs);
+        pool.put("inFlight", inFlight.get());
+        pool.put("peakInFlight", peakInFlight.get());
+        pool.put("timeouts", timeouts.sum());
+        pool.put("connectFailures", connectFailures.sum());
+        metrics.put("pool", pool);
+
+        Map<String, Object> byOperation = new LinkedHashMap<>();
+        operations.forEach((name, stats) -> {
+            Map<String, Object> op = new LinkedHashMap<>(stats.latency.snapshot());
+            op.put("errors", stats.errors.sum());
+            if (stats.firstChunk.getCount() > 0) {
+                op.put("timeToFirstChunk", stats.firstChunk.snapshot());
+            }
+            byOperation.put(name, op);
+        });
+        metrics.put("operations", byOperation);
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        connectionProvider.disposeLater().block(Duration.ofSeconds(5));
+    }
+
+    private static class OperationStats {
+        private final LatencyRecorder latency = new LatencyRecorder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyRecorder firstChunk = new LatencyRecorder();
+    }
+}
@@ -0,0 +1,78 @@
+package com.iatd.smarthub.service.llm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Regroupement des calculs identiques simultanés : le premier appelant (leader)
+ * exécute le calcul, les suivants sur la même clé attendent et reçoivent son résultat
+ * (ou son exception). La clé est libérée dès la fin du calcul, rien n'est mis en cache.
+ */
+@Slf4j
+@Component
+public class SingleFlight {
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder followers = new LongAdder();
+
+    @Value("${llm.single-flight.wait-timeout-ms:180000}")
+    private long waitTimeoutMs;
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> computation) {
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, created);
+
+        if (existing != null) {
+            followers.increment();
+            log.info("🔗 Calcul identique déjà en cours, attente du résultat partagé ({})", key);
+            return (T) await(existing, key);
+        }
+
+        leaders.increment();
+        try {
+            T result = computation.get();
+            created.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    private Object await(CompletableFuture<Object> future, String key) {
+        try {
+            return future.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException(cause.getMessage(), cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Délai dépassé en attente du calcul partagé " + key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Attente du calcul partagé interrompue", e);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("inFlight", inFlight.size());
+        metrics.put("leaders", leaders.sum());
+        metrics.put("coalesced", followers.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,343 @@
+package com.iatd.smarthub.service.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Construit le contexte RAG sous un budget de tokens : les fichiers sont découpés
+ * en morceaux, classés par pertinence (TF-IDF sur le titre du cours / le sujet),
+ * puis sélectionnés avec une part garantie par fichier avant répartition du reste.
+ */
+@Slf4j
+@Service
+public class ContextPackerService {
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "le", "la", "les", "un", "une", "des", "du", "de", "et", "ou", "en", "au", "aux",
+            "pour", "par", "sur", "dans", "avec", "est", "sont", "que", "qui", "quoi", "ce",
+            "cette", "ces", "son", "ses", "leur", "the", "and", "for", "with", "from", "that",
+            "this", "are", "was", "cours", "course", "introduction", "chapitre", "partie");
+
+    @Value("${rag.context.token-budget:6000}")
+    private int tokenBudget;
+
+    @Value("${rag.context.chunk-tokens:250}")
+    private int chunkTokens;
+
+    @Value("${rag.context.min-file-share:0.5}")
+    private double minFileShare;
+
+    /**
+     * Morceau de fichier retenu dans le contexte.
+     *
+     * @param chunkIndexes numéros (dans le fichier) des passages retenus
+     */
+    public record PackedFile(String fileName, String content, int tokens, int selectedChunks, int totalChunks,
+                             List<Integer> chunkIndexes) {
+        
+        /**
+         * Références des passages retenus, au format "fichier#numéro".
+         */
+        public List<String> sourceRefs() {
+            return chunkIndexes.stream().map(index -> fileName + "#" + index).toList();
+        }
+    }
+
+    private record Chunk(String fileName, int index, String text, int tokens, Map<String, Integer> terms) {
+    }
+
+    public List<PackedFile> pack(String query, Map<String, String> fileContents) {
+        return pack(query, fileContents, tokenBudget);
+    }
+
+    public List<PackedFile> pack(String query, Map<String, String> fileContents, int budget) {
+        if (fileContents == null || fileContents.isEmpty()) {
+            return List.of();
+        }
+        Map<String, List<Chunk>> chunksByFile = new LinkedHashMap<>();
+        Set<Chunk> selected = select(query, fileContents, budget, chunksByFile);
+        return rebuild(chunksByFile, selected, true);
+    }
+
+    /**
+     * Même sélection que pack(), répartie en parts disjointes et contiguës (ordre des fichiers
+     * puis des passages) de tailles proches : chaque part sert de contexte à une génération
+     * indépendante. Retourne moins de parts que demandé si le contenu est trop court.
+     */
+    public List<List<PackedFile>> packShards(String query, Map<String, String> fileContents, int shards) {
+        if (fileContents == null || fileContents.isEmpty()) {
+            return List.of();
+        }
+        Map<String, List<Chunk>> chunksByFile = new LinkedHashMap<>();
+        Set<Chunk> selected = select(query, fileContents, tokenBudget, chunksByFile);
+
+        List<Chunk> ordered = chunksByFile.values().stream()
+                .flatMap(List::stream)
+                .filter(selected::contains)
+                .toList();
+        int shardCount = Math.max(1, Math.min(shards, ordered.size()));
+        int totalTokens = ordered.stream().mapToInt(Chunk::tokens).sum();
+
+        List<List<PackedFile>> result = new ArrayList<>();
+        Set<Chunk> shard = Collections.newSetFromMap(new IdentityHashMap<>());
+        int consumedTokens = 0;
+        for (int i = 0; i < ordered.size(); i++) {
+            Chunk chunk = ordered.get(i);
+            shard.add(chunk);
+            consumedTokens += chunk.tokens();
+            int remainingChunks = ordered.size() - i - 1;
+            int remainingShards = shardCount - result.size() - 1;
+            // Coupure quand la part atteint sa cible, en gardant au moins un passage par part restante
+            boolean targetReached = consumedTokens >= (long) totalTokens * (result.size() + 1) / shardCount;
+            if (remainingShards > 0 && (targetReached || remainingChunks == remainingShards)) {
+                result.add(rebuild(chunksByFile, shard, false));
+                shard = Collections.newSetFromMap(new IdentityHashMap<>());
+            }
+        }
+        if (!shard.isEmpty()) {
+            result.add(rebuild(chunksByFile, shard, false));
+        }
+
+        log.info("🧩 Contexte RAG réparti en {} parts ({} tokens estimés)", result.size(), totalTokens);
+        return result;
+    }
+
+    private Set<Chunk> select(String query, Map<String, String> fileContents, int budget,
+                              Map<String, List<Chunk>> chunksByFile) {
+        // 1. Découpage en morceaux
+        List<Chunk> allChunks = new ArrayList<>();
+        for (Map.Entry<String, String> entry : fileContents.entrySet()) {
+            List<Chunk> chunks = splitIntoChunks(entry.getKey(), entry.getValue());
+            chunksByFile.put(entry.getKey(), chunks);
+            allChunks.addAll(chunks);
+        }
+
+        // 2. Score de pertinence de chaque morceau
+        Map<Chunk, Double> scores = scoreChunks(query, allChunks);
+        Comparator<Chunk> byRelevance = Comparator.<Chunk>comparingDouble(scores::get).reversed()
+                .thenComparingInt(Chunk::index);
+
+        // 3. Part équitable par fichier, puis le reste au classement global
+        Set<Chunk> selected = Collections.newSetFromMap(new IdentityHashMap<>());
+        int used = 0;
+        int fairShare = (int) (budget * minFileShare / chunksByFile.size());
+        for (List<Chunk> chunks : chunksByFile.values()) {
+            int fileUsed = 0;
+            for (Chunk chunk : chunks.stream().sorted(byRelevance).toList()) {
+                boolean firstOfFile = fileUsed == 0;
+                if (!firstOfFile && fileUsed + chunk.tokens() > fairShare) {
+                    break;
+                }
+                if (used + chunk.tokens() > budget) {
+                    break;
+                }
+                selected.add(chunk);
+                fileUsed += chunk.tokens();
+                used += chunk.tokens();
+            }
+        }
+
+        for (Chunk chunk : allChunks.stream().sorted(byRelevance).toList()) {
+            if (selected.contains(chunk)) {
+                continue;
+            }
+            if (used + chunk.tokens() <= budget) {
+                selected.add(chunk);
+                used += chunk.tokens();
+            }
+        }
+
+        log.info("📦 Contexte RAG: {} tokens estimés sur un budget de {} ({} / {} morceaux)",
+                used, budget, selected.size(), allChunks.size());
+        return selected;
+    }
+
+    /**
+     * Reconstitution des passages retenus dans l'ordre d'origine de chaque fichier.
+     */
+    private List<PackedFile> rebuild(Map<String, List<Chunk>> chunksByFile, Set<Chunk> selected,
+                                     boolean keepEmptyFiles) {
+        List<PackedFile> packed = new ArrayList<>();
+        for (Map.Entry<String, List<Chunk>> entry : chunksByFile.entrySet()) {
+            List<Chunk> chunks = entry.getValue();
+            StringBuilder content = new StringBuilder();
+            int tokens = 0;
+            int count = 0;
+            int previousIndex = -1;
+            List<Integer> indexes = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                if (!selected.contains(chunk)) {
+                    continue;
+                }
+                // Marqueur d'omission entre deux passages non contigus
+                if (chunk.index() != previousIndex + 1) {
+                    content.append("[...]\n\n");
+                }
+                content.append(chunk.text()).append("\n\n");
+                tokens += chunk.tokens();
+                count++;
+                indexes.add(chunk.index());
+                previousIndex = chunk.index();
+            }
+            if (count > 0 && previousIndex < chunks.size() - 1) {
+                content.append("[...]\n");
+            }
+            if (count == 0 && !keepEmptyFiles) {
+                continue;
+            }
+            packed.add(new PackedFile(entry.getKey(), content.toString().trim(), tokens, count, chunks.size(), indexes));
+        }
+        return packed;
+    }
+
+    /**
+     * Estimation du nombre de tokens sans tokenizer externe :
+     * ~4 caractères par token pour les mots, 1 token par signe de ponctuation.
+     */
+    public int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                wordLength++;
+                continue;
+            }
+            if (wordLength > 0) {
+                tokens += (wordLength + 3) / 4;
+                wordLength = 0;
+            }
+            if (!Character.isWhitespace(c)) {
+                tokens++;
+            }
+        }
+        if (wordLength > 0) {
+            tokens += (wordLength + 3) / 4;
+        }
+        return tokens;
+    }
+
+    private List<Chunk> splitIntoChunks(String fileName, String content) {
+        List<Chunk> chunks = new ArrayList<>();
+        if (content == null || content.isBlank()) {
+            return chunks;
+        }
+
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (String paragraph : content.split("\\n\\s*\\n")) {
+            String trimmed = paragraph.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            // Paragraphe trop long : découpage par phrases, puis par mots (texte PDF sans ponctuation)
+            List<String> pieces = estimateTokens(trimmed) > chunkTokens
+                    ? splitOversized(trimmed)
+                    : List.of(trimmed);
+            for (String piece : pieces) {
+                int pieceTokens = estimateTokens(piece);
+                if (currentTokens > 0 && currentTokens + pieceTokens > chunkTokens) {
+                    chunks.add(newChunk(fileName, chunks.size(), current.toString(), currentTokens));
+                    current.setLength(0);
+                    currentTokens = 0;
+                }
+                if (current.length() > 0) {
+                    current.append(pieces.size() > 1 ? " " : "\n\n");
+                }
+                current.append(piece);
+                currentTokens += pieceTokens;
+            }
+        }
+        if (currentTokens > 0) {
+            chunks.add(newChunk(fileName, chunks.size(), current.toString(), currentTokens));
+        }
+        return chunks;
+    }
+
+    private List<String> splitOversized(String paragraph) {
+        List<String> pieces = new ArrayList<>();
+        for (String sentence : paragraph.split("(?<=[.!?])\\s+")) {
+            if (estimateTokens(sentence) <= chunkTokens) {
+                pieces.add(sentence);
+                continue;
+            }
+            StringBuilder window = new StringBuilder();
+            int windowTokens = 0;
+            for (String word : sentence.split("\\s+")) {
+                int wordTokens = estimateTokens(word);
+                if (windowTokens > 0 && windowTokens + wordTokens > chunkTokens) {
+                    pieces.add(window.toString());
+                    window.setLength(0);
+                    windowTokens = 0;
+                }
+                if (window.length() > 0) {
+                    window.append(' ');
+                }
+                window.append(word);
+                windowTokens += wordTokens;
+            }
+            if (window.length() > 0) {
+                pieces.add(window.toString());
+            }
+        }
+        return pieces;
+    }
+
+    private Chunk newChunk(String fileName, int index, String text, int tokens) {
+        Map<String, Integer> terms = new HashMap<>();
+        for (String term : tokenize(text)) {
+            terms.merge(term, 1, Integer::sum);
+        }
+        return new Chunk(fileName, index, text, tokens, terms);
+    }
+
+    private Map<Chunk, Double> scoreChunks(String query, List<Chunk> chunks) {
+        Set<String> queryTerms = new HashSet<>(tokenize(query));
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        for (Chunk chunk : chunks) {
+            for (String term : chunk.terms().keySet()) {
+                if (queryTerms.contains(term)) {
+                    documentFrequency.merge(term, 1, Integer::sum);
+                }
+            }
+        }
+
+        Map<Chunk, Double> scores = new IdentityHashMap<>();
+        int n = chunks.size();
+        for (Chunk chunk : chunks) {
+            double score = 0;
+            for (String term : queryTerms) {
+                Integer tf = chunk.terms().get(term);
+                if (tf == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (double) n / documentFrequency.get(term));
+                score += (1 + Math.log(tf)) * idf;
+            }
+            // Normalisation par la longueur et léger avantage au début du fichier (définitions, plan)
+            score = score / Math.sqrt(Math.max(1, chunk.tokens()) / 100.0 + 1);
+            score += 0.05 / (1 + chunk.index());
+            scores.put(chunk, score);
+        }
+        return scores;
+    }
+
+    private List<String> tokenize(String text) {
+        if (text == null) {
+            return List.of();
+        }
+        String normalized = Normalizer.normalize(text.toLowerCase(), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "");
+        return Arrays.stream(normalized.split("[^a-z0-9]+"))
+                .filter(term -> term.length() > 2 && !STOP_WORDS.contains(term))
+                .collect(Collectors.toList());
+    }
+}
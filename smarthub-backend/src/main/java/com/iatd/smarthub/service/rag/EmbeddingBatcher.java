@@ -0,0 +1,225 @@
+package com.iatd.smarthub.service.rag;
+
+import com.iatd.smarthub.service.OllamaService;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
+import com.iatd.smarthub.service.llm.GeminiHttpClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Regroupement des demandes d'embedding simultanées : les textes arrivés pendant au plus
+ * max-wait-ms (ou jusqu'à max-size textes) partent en un seul appel batchEmbedContents,
+ * et chaque appelant reçoit son propre vecteur. Un texte seul garde l'appel embedContent.
+ *
+ * Un même texte demandé deux fois dans la fenêtre n'est envoyé qu'une fois.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class EmbeddingBatcher {
+
+    private final OllamaService ollamaService;
+
+    @Value("${embedding.batch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${embedding.batch.max-size:32}")
+    private int maxBatchSize;
+
+    @Value("${embedding.batch.max-wait-ms:5}")
+    private long maxWaitMs;
+
+    @Value("${gemini.timeout.ms:60000}")
+    private long timeoutMs;
+
+    /**
+     * Textes d'un lot, avec la priorité la plus haute de ses appelants.
+     */
+    private record Batch(Map<String, CompletableFuture<float[]>> entries, GeminiGovernor.Priority priority) {
+    }
+
+    private final Object lock = new Object();
+    private Map<String, CompletableFuture<float[]>> pending = new LinkedHashMap<>();
+    private GeminiGovernor.Priority pendingPriority = GeminiGovernor.Priority.BATCH;
+    private ScheduledFuture<?> flushTimer;
+
+    private ScheduledExecutorService timer;
+    private ExecutorService senders;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedTexts = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final AtomicInteger largestBatch = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "embedding-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Plusieurs lots peuvent être en vol en même temps (le gouverneur borne les appels)
+        senders = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    /**
+     * Embedding du texte (appel bloquant), regroupé avec les demandes simultanées.
+     */
+    public float[] embed(String text) {
+        if (!enabled) {
+            return ollamaService.generateEmbedding(text);
+        }
+        try {
+            return submit(text).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException("Impossible de générer l'embedding: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Timeout de l'embedding après " + timeoutMs + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Embedding interrompu", e);
+        }
+    }
+
+    /**
+     * Ajoute le texte au lot en cours ; le lot part au bout de max-wait-ms ou dès qu'il est plein.
+     */
+    public CompletableFuture<float[]> submit(String text) {
+        requests.increment();
+        if (!enabled) {
+            return CompletableFuture.supplyAsync(() -> ollamaService.generateEmbedding(text), senders);
+        }
+        GeminiGovernor.Priority priority = GeminiGovernor.currentPriority();
+        Batch full = null;
+        CompletableFuture<float[]> future;
+        synchronized (lock) {
+            if (priority == GeminiGovernor.Priority.INTERACTIVE) {
+                pendingPriority = priority;
+            }
+            CompletableFuture<float[]> existing = pending.get(text);
+            if (existing != null) {
+                duplicates.increment();
+                // Copie par appelant : le vecteur n'est jamais partagé
+                return existing.thenApply(float[]::clone);
+            }
+            future = new CompletableFuture<>();
+            pending.put(text, future);
+            if (pending.size() >= maxBatchSize) {
+                full = drain();
+            } else if (pending.size() == 1) {
+                flushTimer = timer.schedule(this::flushDue, maxWaitMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    private Batch drain() {
+        Batch batch = new Batch(pending, pendingPriority);
+        pending = new LinkedHashMap<>();
+        pendingPriority = GeminiGovernor.Priority.BATCH;
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        return batch;
+    }
+
+    private void flushDue() {
+        Batch batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = drain();
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch batch) {
+        try {
+            senders.execute(() -> send(batch));
+        } catch (RejectedExecutionException e) {
+            batch.entries().values().forEach(f -> f.completeExceptionally(
+                    new RuntimeException("Service d'embeddings arrêté", e)));
+        }
+    }
+
+    private void send(Batch batch) {
+        List<String> texts = new ArrayList<>(batch.entries().keySet());
+        batches.increment();
+        batchedTexts.add(texts.size());
+        largestBatch.accumulateAndGet(texts.size(), Math::max);
+        try {
+            List<float[]> vectors = GeminiGovernor.callAs(batch.priority(), () -> texts.size() == 1
+                    ? List.of(ollamaService.generateEmbedding(texts.get(0)))
+                    : ollamaService.generateEmbeddingsBatch(texts));
+            for (int i = 0; i < texts.size(); i++) {
+                batch.entries().get(texts.get(i)).complete(vectors.get(i));
+            }
+        } catch (RuntimeException e) {
+            failedBatches.increment();
+            if (texts.size() > 1 && isRejectedRequest(e)) {
+                // Un texte refusé ne doit pas faire échouer les autres : envoi un par un
+                log.warn("⚠️ Lot de {} embeddings refusé ({}), envoi texte par texte", texts.size(), e.getMessage());
+                texts.forEach(text -> dispatch(new Batch(
+                        Map.of(text, batch.entries().get(text)), batch.priority())));
+                return;
+            }
+            log.warn("⚠️ Échec du lot de {} embedding(s): {}", texts.size(), e.getMessage());
+            batch.entries().values().forEach(f -> f.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Erreur 4xx (hors 429) : la requête elle-même est en cause, pas la disponibilité de Gemini.
+     */
+    private static boolean isRejectedRequest(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof GeminiHttpClient.GeminiHttpException http) {
+                return http.getStatusCode() >= 400 && http.getStatusCode() < 500 && http.getStatusCode() != 429;
+            }
+        }
+        return false;
+    }
+
+    public Map<String, Object> getMetrics() {
+        long batchCount = batches.sum();
+        long requestCount = requests.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("maxBatchSize", maxBatchSize);
+        metrics.put("maxWaitMs", maxWaitMs);
+        metrics.put("requests", requestCount);
+        metrics.put("duplicates", duplicates.sum());
+        metrics.put("calls", batchCount);
+        metrics.put("callsSaved", enabled ? Math.max(0, requestCount - batchCount) : 0);
+        metrics.put("averageBatchSize", batchCount == 0 ? 0.0
+                : Math.round(batchedTexts.sum() * 10.0 / batchCount) / 10.0);
+        metrics.put("largestBatch", largestBatch.get());
+        metrics.put("failedBatches", failedBatches.sum());
+        return metrics;
+    }
+}
@@ -1,13 +1,16 @@
 package com.iatd.smarthub.service.rag;
 
-import com.iatd.smarthub.service.OllamaService;
+import com.iatd.smarthub.service.llm.GeminiHealthMonitor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
@@ -16,7 +19,8 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class EmbeddingService {
     
-    private final OllamaService ollamaService;  // Utilise OllamaService mais il utilise maintenant Gemini
+    private final GeminiHealthMonitor geminiHealthMonitor;
+    private final EmbeddingBatcher embeddingBatcher;
     private final Map<String, float[]> embeddingCache = new ConcurrentHashMap<>();
     
     /**
@@ -42,8 +46,8 @@ public class EmbeddingService {
             log.debug("🔧 Génération embedding pour: {}...", 
                      normalizedText.substring(0, Math.min(50, normalizedText.length())));
             
-            // Utiliser la méthode d'OllamaService qui utilise maintenant Gemini
-            float[] embedding = ollamaService.generateEmbedding(normalizedText);
+            // Regroupé avec les demandes simultanées (un seul appel Gemini par lot)
+            float[] embedding = embeddingBatcher.embed(normalizedText);
             
             if (embedding != null && embedding.length > 0) {
                 log.info("✅ Embedding généré avec Gemini ({} dimensions)", embedding.length);
@@ -66,6 +70,34 @@ public class EmbeddingService {
         }
     }
     
+    /**
+     * Embedding réel uniquement : vide si Gemini échoue, là où l'embedding de fallback
+     * (pseudo-aléatoire) fausserait une comparaison de textes
+     */
+    public Optional<float[]> findEmbedding(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        String normalizedText = normalizeTextForEmbedding(text);
+        String cacheKey = "embed_" + normalizedText.hashCode();
+        float[] cached = embeddingCache.get(cacheKey);
+        if (cached != null) {
+            return Optional.of(cached.clone());
+        }
+        try {
+            float[] embedding = embeddingBatcher.embed(normalizedText);
+            if (embedding == null || embedding.length == 0) {
+                return Optional.empty();
+            }
+            embeddingCache.put(cacheKey, embedding.clone());
+            manageCacheSize();
+            return Optional.of(embedding);
+        } catch (Exception e) {
+            log.warn("⚠️ Embedding indisponible: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+    
     /**
      * Embedding de fallback si Gemini échoue
      */
@@ -133,14 +165,7 @@ public class EmbeddingService {
      * Test de la connexion au service AI (Gemini)
      */
     public boolean testAIConnection() {
-        try {
-            // Tester avec une méthode disponible
-            String testResponse = ollamaService.generateText("test");
-            return testResponse != null && !testResponse.contains("error") && !testResponse.contains("Erreur");
-        } catch (Exception e) {
-            log.warn("Connexion AI échouée: {}", e.getMessage());
-            return false;
-        }
+        return geminiHealthMonitor.isAvailable();
     }
     
     public Map<String, Object> checkModelCompatibility() {
@@ -178,21 +203,37 @@ public class EmbeddingService {
     }
     
     /**
-     * Batch embedding generation
+     * Batch embedding generation : les textes hors cache partent ensemble (lots batchEmbedContents)
      */
     public Map<String, float[]> generateEmbeddingsBatch(List<String> texts) {
         Map<String, float[]> results = new HashMap<>();
+        Map<String, CompletableFuture<float[]>> inFlight = new LinkedHashMap<>();
         
         for (String text : texts) {
+            if (text == null || text.trim().isEmpty() || results.containsKey(text) || inFlight.containsKey(text)) {
+                continue;
+            }
+            float[] cached = embeddingCache.get("embed_" + normalizeTextForEmbedding(text).hashCode());
+            if (cached != null) {
+                results.put(text, cached.clone());
+            } else {
+                inFlight.put(text, embeddingBatcher.submit(normalizeTextForEmbedding(text)));
+            }
+        }
+        
+        inFlight.forEach((text, future) -> {
+            String normalizedText = normalizeTextForEmbedding(text);
             try {
-                float[] embedding = generateEmbedding(text);
+                float[] embedding = future.join();
+                embeddingCache.put("embed_" + normalizedText.hashCode(), embedding.clone());
+                manageCacheSize();
                 results.put(text, embedding);
             } catch (Exception e) {
                 log.warn("Erreur génération embedding pour '{}...': {}", 
                         text.substring(0, Math.min(30, text.length())), e.getMessage());
-                results.put(text, generateFallbackEmbedding(text));
+                results.put(text, generateFallbackEmbedding(normalizedText));
             }
-        }
+        });
         
         return results;
     }
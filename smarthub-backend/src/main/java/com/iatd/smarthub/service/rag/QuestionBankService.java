@@ -0,0 +1,273 @@
+package com.iatd.smarthub.service.rag;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iatd.smarthub.dto.QuestionResponseDTO;
+import com.iatd.smarthub.dto.QuizResponseDTO;
+import com.iatd.smarthub.model.course.Course;
+import com.iatd.smarthub.model.course.CourseFile;
+import com.iatd.smarthub.model.quiz.QuestionBankEntry;
+import com.iatd.smarthub.repository.CourseFileRepository;
+import com.iatd.smarthub.repository.CourseRepository;
+import com.iatd.smarthub.repository.QuestionBankRepository;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Banque de questions par cours : le démarrage d'un quiz tire des questions déjà générées
+ * (lecture en base) au lieu d'appeler le LLM. Sous le seuil minSize, le cours est mis en
+ * file de réapprovisionnement ; la tâche planifiée génère alors des lots en priorité BATCH
+ * jusqu'à targetSize.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QuestionBankService {
+
+    private static final TypeReference<List<String>> OPTIONS_TYPE = new TypeReference<>() {};
+
+    private final QuestionBankRepository questionBankRepository;
+    private final CourseRepository courseRepository;
+    private final CourseFileRepository courseFileRepository;
+    private final RAGQuizService ragQuizService;
+    private final QuestionDeduplicationService deduplicationService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${quiz.bank.enabled:true}")
+    private boolean enabled;
+
+    @Value("${quiz.bank.min-size:40}")
+    private int minSize;
+
+    @Value("${quiz.bank.target-size:80}")
+    private int targetSize;
+
+    @Value("${quiz.bank.batch-size:20}")
+    private int batchSize;
+
+    @Value("${quiz.bank.max-batches-per-refill:3}")
+    private int maxBatchesPerRefill;
+
+    private final Set<Long> refillQueue = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Quiz de questionCount questions tiré de la banque du cours, parmi celles que l'étudiant
+     * n'a pas encore vues, en privilégiant les moins servies. Vide si la banque ne contient pas
+     * assez de questions nouvelles pour lui sur le contenu actuel.
+     */
+    public Optional<QuizResponseDTO> sampleQuiz(Long userId, Long courseId, String quizTitle, int questionCount) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        long start = System.currentTimeMillis();
+        List<CourseFile> courseFiles = courseFileRepository.findByCourseId(courseId);
+        if (courseFiles.isEmpty()) {
+            return Optional.empty();
+        }
+        List<QuestionBankEntry> entries = questionBankRepository.findByCourseIdAndContentVersion(
+            courseId, contentVersion(courseFiles));
+        if (entries.size() < minSize) {
+            requestRefill(courseId);
+        }
+        // Filtre de Bloom chargé en une requête, puis testé en mémoire pour chaque question
+        if (userId != null) {
+            SeenQuestionsFilter seen = deduplicationService.seenFilter(userId, courseId);
+            entries = entries.stream().filter(entry -> !seen.mightContain(entry.getText())).toList();
+        }
+        if (entries.size() < questionCount) {
+            log.info("🏦 Banque du cours {} insuffisante pour l'utilisateur {} ({} / {} questions non vues)",
+                courseId, userId, entries.size(), questionCount);
+            return Optional.empty();
+        }
+
+        // Mélange puis tri stable : hasard parmi les questions les moins servies
+        List<QuestionBankEntry> shuffled = new ArrayList<>(entries);
+        Collections.shuffle(shuffled);
+        shuffled.sort(Comparator.comparingInt(QuestionBankEntry::getTimesServed));
+        List<QuestionBankEntry> picked = shuffled.subList(0, questionCount);
+        questionBankRepository.markServed(picked.stream().map(QuestionBankEntry::getId).toList(), LocalDateTime.now());
+        deduplicationService.recordSeen(userId, courseId, picked.stream().map(QuestionBankEntry::getText).toList());
+
+        QuizResponseDTO quiz = new QuizResponseDTO();
+        quiz.setTitle(quizTitle);
+        quiz.setDescription("Quiz généré à partir des fichiers du cours via RAG");
+        quiz.setQuestions(picked.stream().map(this::toDTO).collect(Collectors.toList()));
+
+        log.info("⚡ Quiz du cours {} servi depuis la banque: {} questions en {} ms",
+            courseId, questionCount, System.currentTimeMillis() - start);
+        return Optional.of(quiz);
+    }
+
+    /**
+     * Mémorise les questions d'un quiz généré à la demande, pour ne pas les resservir depuis la banque.
+     */
+    public void recordSeen(Long userId, Long courseId, QuizResponseDTO quiz) {
+        if (quiz != null && quiz.getQuestions() != null) {
+            deduplicationService.recordSeen(userId, courseId, quiz.getQuestions().stream()
+                .map(QuestionResponseDTO::getText).filter(Objects::nonNull).toList());
+        }
+    }
+
+    public void requestRefill(Long courseId) {
+        if (enabled && refillQueue.add(courseId)) {
+            log.info("🏦 Réapprovisionnement de la banque demandé pour le cours {}", courseId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${quiz.bank.refill-interval-ms:60000}",
+            initialDelayString = "${quiz.bank.refill-interval-ms:60000}")
+    public void refillPending() {
+        for (Long courseId : List.copyOf(refillQueue)) {
+            try {
+                GeminiGovernor.callAs(GeminiGovernor.Priority.BATCH, () -> refill(courseId));
+            } catch (Exception e) {
+                log.warn("⚠️ Réapprovisionnement de la banque du cours {} en échec: {}", courseId, e.getMessage());
+            } finally {
+                refillQueue.remove(courseId);
+            }
+        }
+    }
+
+    /**
+     * Complète la banque du cours jusqu'à targetSize (au plus maxBatchesPerRefill lots),
+     * après avoir retiré les questions d'une ancienne version du contenu. Une question est
+     * rejetée si son texte normalisé existe déjà ou si l'index LSH y trouve une paraphrase.
+     *
+     * @return nombre de questions ajoutées
+     */
+    public int refill(Long courseId) {
+        Course course = courseRepository.findById(courseId)
+            .orElseThrow(() -> new RuntimeException("Cours non trouvé: " + courseId));
+        List<CourseFile> courseFiles = courseFileRepository.findByCourseId(courseId);
+        if (courseFiles.isEmpty()) {
+            return 0;
+        }
+        String version = contentVersion(courseFiles);
+        int stale = questionBankRepository.deleteStale(courseId, version);
+        if (stale > 0) {
+            log.info("🧹 {} questions obsolètes retirées de la banque du cours {}", stale, courseId);
+        }
+
+        List<QuestionBankEntry> existing = questionBankRepository.findByCourseIdAndContentVersion(courseId, version);
+        List<String> existingTexts = existing.stream().map(QuestionBankEntry::getText)
+            .collect(Collectors.toCollection(ArrayList::new));
+        Set<String> seen = existingTexts.stream()
+            .map(RAGQuizGenerationService::normalizeQuestionText)
+            .collect(Collectors.toCollection(HashSet::new));
+        QuestionLshIndex<String> index = deduplicationService.buildCourseIndex(existing);
+
+        int added = 0;
+        int nearDuplicates = 0;
+        for (int batch = 0; batch < maxBatchesPerRefill && existingTexts.size() < targetSize; batch++) {
+            int wanted = Math.min(batchSize, targetSize - existingTexts.size());
+            List<QuestionBankEntry> fresh = new ArrayList<>();
+            for (RAGQuizService.SourcedQuestion sourced : ragQuizService.generateBankQuestions(
+                    courseId, course.getTitle(), courseFiles, wanted, existingTexts)) {
+                QuestionResponseDTO question = sourced.question();
+                if (!seen.add(RAGQuizGenerationService.normalizeQuestionText(question.getText()))) {
+                    continue;
+                }
+                Optional<float[]> embedding = deduplicationService.embed(question.getText());
+                if (embedding.isPresent() && !deduplicationService.admit(index, question.getText(), embedding.get())) {
+                    nearDuplicates++;
+                    continue;
+                }
+                QuestionBankEntry entry = toEntry(courseId, version, sourced);
+                entry.setEmbedding(embedding.orElse(null));
+                fresh.add(entry);
+                existingTexts.add(question.getText());
+            }
+            if (fresh.isEmpty()) {
+                break;
+            }
+            questionBankRepository.saveAll(fresh);
+            added += fresh.size();
+        }
+
+        log.info("🏦 Banque du cours {}: +{} questions ({} au total, {} paraphrases rejetées)",
+            courseId, added, existingTexts.size(), nearDuplicates);
+        return added;
+    }
+
+    public Map<String, Object> getStatus(Long courseId) {
+        List<CourseFile> courseFiles = courseFileRepository.findByCourseId(courseId);
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("courseId", courseId);
+        status.put("enabled", enabled);
+        status.put("questions", courseFiles.isEmpty() ? 0
+            : questionBankRepository.countByCourseIdAndContentVersion(courseId, contentVersion(courseFiles)));
+        status.put("minSize", minSize);
+        status.put("targetSize", targetSize);
+        status.put("refillPending", refillQueue.contains(courseId));
+        status.put("deduplication", deduplicationService.getMetrics());
+        return status;
+    }
+
+    /**
+     * Empreinte du contenu du cours : identifiants et chemins de stockage des fichiers.
+     */
+    static String contentVersion(List<CourseFile> courseFiles) {
+        StringBuilder key = new StringBuilder();
+        courseFiles.stream()
+            .sorted(Comparator.comparing(CourseFile::getId, Comparator.nullsFirst(Comparator.naturalOrder())))
+            .forEach(file -> key.append(file.getId()).append(':').append(file.getFilePath()).append('|'));
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private QuestionBankEntry toEntry(Long courseId, String version, RAGQuizService.SourcedQuestion sourced) {
+        QuestionResponseDTO question = sourced.question();
+        QuestionBankEntry entry = new QuestionBankEntry();
+        entry.setCourseId(courseId);
+        entry.setContentVersion(version);
+        entry.setText(question.getText());
+        entry.setType(question.getType());
+        entry.setCorrectAnswer(question.getCorrectAnswer() != null ? question.getCorrectAnswer() : "");
+        entry.setExplanation(question.getExplanation());
+        String refs = String.join(",", sourced.sourceRefs());
+        if (refs.length() > 2000) {
+            int cut = refs.lastIndexOf(',', 2000);
+            refs = refs.substring(0, cut > 0 ? cut : 2000);
+        }
+        entry.setSourceRefs(refs);
+        try {
+            entry.setOptions(objectMapper.writeValueAsString(question.getOptions()));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Sérialisation des options impossible: " + e.getMessage(), e);
+        }
+        return entry;
+    }
+
+    private QuestionResponseDTO toDTO(QuestionBankEntry entry) {
+        QuestionResponseDTO dto = new QuestionResponseDTO();
+        dto.setText(entry.getText());
+        dto.setType(entry.getType());
+        dto.setCorrectAnswer(entry.getCorrectAnswer());
+        dto.setExplanation(entry.getExplanation());
+        try {
+            dto.setOptions(entry.getOptions() != null
+                ? objectMapper.readValue(entry.getOptions(), OPTIONS_TYPE) : new ArrayList<>());
+        } catch (JsonProcessingException e) {
+            log.warn("⚠️ Options illisibles pour la question {} de la banque", entry.getId());
+            dto.setOptions(new ArrayList<>());
+        }
+        return dto;
+    }
+}
@@ -0,0 +1,153 @@
+package com.iatd.smarthub.service.rag;
+
+import com.iatd.smarthub.model.quiz.QuestionBankEntry;
+import com.iatd.smarthub.model.quiz.StudentSeenQuestions;
+import com.iatd.smarthub.repository.QuestionBankRepository;
+import com.iatd.smarthub.repository.StudentSeenQuestionsRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dédoublonnage sémantique des questions générées et suivi des questions déjà vues.
+ *
+ * Les paraphrases (parts, nouvelles tentatives, générations successives d'un même cours)
+ * sont détectées par un index LSH des embeddings de la banque du cours. Les questions déjà
+ * présentées à un étudiant sont mémorisées dans un filtre de Bloom par (étudiant, cours).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QuestionDeduplicationService {
+
+    private final EmbeddingService embeddingService;
+    private final QuestionBankRepository questionBankRepository;
+    private final StudentSeenQuestionsRepository seenQuestionsRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${quiz.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${quiz.dedup.similarity-threshold:0.92}")
+    private double similarityThreshold;
+
+    @Value("${quiz.dedup.lsh-tables:10}")
+    private int lshTables;
+
+    @Value("${quiz.dedup.lsh-bits:10}")
+    private int lshBits;
+
+    @Value("${quiz.dedup.seen-filter-bits:16384}")
+    private int seenFilterBits;
+
+    @Value("${quiz.dedup.seen-filter-hashes:5}")
+    private int seenFilterHashes;
+
+    private final AtomicLong rejectedDuplicates = new AtomicLong();
+    private final AtomicLong embeddingFailures = new AtomicLong();
+
+    /**
+     * Embedding d'une question, vide si le dédoublonnage est désactivé ou le modèle indisponible :
+     * la question n'est alors contrôlée que par son texte normalisé.
+     */
+    public Optional<float[]> embed(String questionText) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Optional<float[]> embedding = embeddingService.findEmbedding(questionText);
+        if (embedding.isEmpty()) {
+            embeddingFailures.incrementAndGet();
+        }
+        return embedding;
+    }
+
+    /**
+     * Index LSH des questions de la banque d'un cours. Les embeddings sont stockés avec les
+     * questions ; seules les entrées qui n'en ont pas encore sont envoyées au modèle.
+     */
+    public QuestionLshIndex<String> buildCourseIndex(List<QuestionBankEntry> entries) {
+        QuestionLshIndex<String> index = new QuestionLshIndex<>(lshTables, lshBits, similarityThreshold);
+        List<QuestionBankEntry> updated = new ArrayList<>();
+        for (QuestionBankEntry entry : entries) {
+            if (entry.getEmbedding() == null || entry.getEmbedding().length == 0) {
+                Optional<float[]> embedding = embed(entry.getText());
+                if (embedding.isEmpty()) {
+                    continue;
+                }
+                entry.setEmbedding(embedding.get());
+                updated.add(entry);
+            }
+            index.add(entry.getText(), entry.getEmbedding());
+        }
+        if (!updated.isEmpty()) {
+            questionBankRepository.saveAll(updated);
+        }
+        return index;
+    }
+
+    /**
+     * Ajoute la question à l'index si aucune question proche n'y figure.
+     *
+     * @return false si la question est un quasi-doublon
+     */
+    public boolean admit(QuestionLshIndex<String> index, String questionText, float[] embedding) {
+        Optional<String> duplicate = index.findNearDuplicate(embedding);
+        if (duplicate.isPresent()) {
+            rejectedDuplicates.incrementAndGet();
+            log.debug("♻️ Quasi-doublon rejeté: \"{}\" ~ \"{}\"", questionText, duplicate.get());
+            return false;
+        }
+        index.add(questionText, embedding);
+        return true;
+    }
+
+    /**
+     * Questions déjà vues par l'étudiant dans ce cours (une seule requête).
+     */
+    public SeenQuestionsFilter seenFilter(Long userId, Long courseId) {
+        return seenQuestionsRepository.findByUserIdAndCourseId(userId, courseId)
+            .map(row -> SeenQuestionsFilter.fromBytes(row.getBloomFilter(), seenFilterBits, seenFilterHashes))
+            .orElseGet(() -> new SeenQuestionsFilter(seenFilterBits, seenFilterHashes));
+    }
+
+    /**
+     * Ajoute les questions au filtre de l'étudiant, dans une transaction dédiée qui verrouille
+     * sa ligne : un échec n'annule pas la transaction de l'appelant (quiz déjà servi).
+     */
+    public void recordSeen(Long userId, Long courseId, Collection<String> questionTexts) {
+        if (userId == null || courseId == null || questionTexts.isEmpty()) {
+            return;
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            transaction.executeWithoutResult(status -> {
+                seenQuestionsRepository.ensureExists(userId, courseId);
+                StudentSeenQuestions row = seenQuestionsRepository.findForUpdate(userId, courseId)
+                    .orElseThrow(() -> new IllegalStateException("Ligne des questions vues introuvable"));
+                SeenQuestionsFilter filter = SeenQuestionsFilter.fromBytes(row.getBloomFilter(), seenFilterBits, seenFilterHashes);
+                questionTexts.forEach(filter::put);
+                row.setBloomFilter(filter.toBytes());
+                row.setQuestionsSeen(row.getQuestionsSeen() + questionTexts.size());
+            });
+        } catch (RuntimeException e) {
+            log.error("❌ Questions vues non enregistrées (userId: {}, courseId: {})", userId, courseId, e);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("similarityThreshold", similarityThreshold);
+        metrics.put("rejectedDuplicates", rejectedDuplicates.get());
+        metrics.put("embeddingFailures", embeddingFailures.get());
+        return metrics;
+    }
+}
@@ -0,0 +1,113 @@
+package com.iatd.smarthub.service.rag;
+
+import java.util.*;
+
+/**
+ * Index LSH (hyperplans aléatoires) d'embeddings de questions : chaque table hache un
+ * vecteur sur bitsPerTable signes de projections. Deux questions proches partagent au moins
+ * un bucket avec forte probabilité ; seuls ces candidats sont comparés en cosinus exact.
+ */
+public class QuestionLshIndex<T> {
+
+    private static final long SEED = 0x5eed_1dL;
+
+    private final int tables;
+    private final int bitsPerTable;
+    private final double similarityThreshold;
+
+    private final List<T> items = new ArrayList<>();
+    private final List<float[]> vectors = new ArrayList<>();
+    private final List<Map<Integer, List<Integer>>> buckets = new ArrayList<>();
+    private float[][] hyperplanes;
+
+    public QuestionLshIndex(int tables, int bitsPerTable, double similarityThreshold) {
+        if (bitsPerTable < 1 || bitsPerTable > 31) {
+            throw new IllegalArgumentException("bitsPerTable doit être entre 1 et 31");
+        }
+        this.tables = Math.max(1, tables);
+        this.bitsPerTable = bitsPerTable;
+        this.similarityThreshold = similarityThreshold;
+        for (int t = 0; t < this.tables; t++) {
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Élément déjà indexé dont le cosinus avec le vecteur atteint le seuil.
+     */
+    public synchronized Optional<T> findNearDuplicate(float[] vector) {
+        if (!compatible(vector)) {
+            return Optional.empty();
+        }
+        Set<Integer> checked = new HashSet<>();
+        for (int t = 0; t < tables; t++) {
+            for (int candidate : buckets.get(t).getOrDefault(key(t, vector), List.of())) {
+                if (checked.add(candidate) && cosine(vector, vectors.get(candidate)) >= similarityThreshold) {
+                    return Optional.of(items.get(candidate));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    public synchronized void add(T item, float[] vector) {
+        if (!compatible(vector)) {
+            return;
+        }
+        int position = items.size();
+        items.add(item);
+        vectors.add(vector);
+        for (int t = 0; t < tables; t++) {
+            buckets.get(t).computeIfAbsent(key(t, vector), k -> new ArrayList<>()).add(position);
+        }
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    /**
+     * Les hyperplans sont tirés au premier vecteur (graine fixe) ; un vecteur d'une autre
+     * dimension (autre modèle d'embedding) est ignoré.
+     */
+    private boolean compatible(float[] vector) {
+        if (vector == null || vector.length == 0) {
+            return false;
+        }
+        if (hyperplanes == null) {
+            Random random = new Random(SEED);
+            hyperplanes = new float[tables * bitsPerTable][vector.length];
+            for (float[] plane : hyperplanes) {
+                for (int i = 0; i < plane.length; i++) {
+                    plane[i] = (float) random.nextGaussian();
+                }
+            }
+        }
+        return vector.length == hyperplanes[0].length;
+    }
+
+    private int key(int table, float[] vector) {
+        int key = 0;
+        for (int b = 0; b < bitsPerTable; b++) {
+            float[] plane = hyperplanes[table * bitsPerTable + b];
+            double dot = 0;
+            for (int i = 0; i < vector.length; i++) {
+                dot += plane[i] * vector[i];
+            }
+            key = (key << 1) | (dot >= 0 ? 1 : 0);
+        }
+        return key;
+    }
+
+    static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+}
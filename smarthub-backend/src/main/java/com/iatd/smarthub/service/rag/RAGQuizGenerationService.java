@@ -5,12 +5,21 @@ import com.iatd.smarthub.dto.QuizResponseDTO;
 import com.iatd.smarthub.model.quiz.Question;
 import com.iatd.smarthub.model.quiz.QuestionType;
 import com.iatd.smarthub.service.OllamaService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
+import com.iatd.smarthub.service.llm.GeminiHealthMonitor;
+import com.iatd.smarthub.service.llm.QuizJsonStreamParser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
+import java.text.Normalizer;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -18,7 +27,7 @@ import java.util.*;
 public class RAGQuizGenerationService {
     
     private final OllamaService ollamaService;
-    private final ObjectMapper objectMapper;
+    private final GeminiHealthMonitor geminiHealthMonitor;
     
     // CHANGÉ DE 5 À 20 QUESTIONS
     private static final int MAX_QUESTIONS = 20;
@@ -27,6 +36,34 @@ public class RAGQuizGenerationService {
      * Génère un quiz à partir d'un prompt RAG (sans sauvegarde en base)
      */
     public QuizResponseDTO generateQuizFromRAGPrompt(String ragPrompt, String quizTitle, int questionCount) {
+        return generateQuizFromRAGPrompt(ragPrompt, quizTitle, questionCount, null);
+    }
+    
+    /**
+     * @param cacheScope portée d'invalidation du cache de réponses (ex: "course:42"), peut être null
+     */
+    public QuizResponseDTO generateQuizFromRAGPrompt(String ragPrompt, String quizTitle, int questionCount, String cacheScope) {
+        return generateQuiz(null, ragPrompt, quizTitle, questionCount, cacheScope);
+    }
+    
+    /**
+     * Prompt de quiz de cours en deux parties : le contenu du cours, identique pour tous les
+     * étudiants (mis en cache côté Gemini), et la consigne propre à l'appel (profil, types, exclusions).
+     */
+    public record CoursePrompt(String sharedContext, String instruction) {
+        
+        public String inline() {
+            return sharedContext + "\n\n" + instruction;
+        }
+    }
+    
+    public QuizResponseDTO generateQuizFromCoursePrompt(CoursePrompt prompt, String quizTitle, int questionCount,
+                                                        String cacheScope) {
+        return generateQuiz(prompt.sharedContext(), prompt.instruction(), quizTitle, questionCount, cacheScope);
+    }
+    
+    private QuizResponseDTO generateQuiz(String sharedContext, String ragPrompt, String quizTitle, int questionCount,
+                                         String cacheScope) {
         log.info("🎯 Génération quiz RAG: {} ({} questions, max: {})", quizTitle, questionCount, MAX_QUESTIONS);
         
         try {
@@ -43,7 +80,7 @@ public class RAGQuizGenerationService {
             
             // 3. Appel à Gemini via OllamaService
             long startTime = System.currentTimeMillis();
-            List<Question> aiQuestions = ollamaService.generateStructuredQuiz(ragPrompt);
+            List<Question> aiQuestions = ollamaService.generateStructuredQuiz(sharedContext, ragPrompt, 20, cacheScope);
             long duration = System.currentTimeMillis() - startTime;
             
             log.info("⏱️ Gemini a répondu en {}ms", duration);
@@ -88,17 +125,131 @@ public class RAGQuizGenerationService {
     }
     
     /**
-     * Vérifie si le service AI est disponible
+     * Génération répartie : chaque prompt couvre une part disjointe du contenu et demande
+     * questionsPerShard questions. Les parts sont lancées en parallèle sur des threads virtuels,
+     * puis fusionnées sans doublons. Une part en échec ne coûte que ses propres questions.
      */
-    private boolean isAIServiceAvailable() {
-        try {
-            // Tester avec une méthode disponible
-            String testResponse = ollamaService.generateText("test");
-            return testResponse != null && !testResponse.toLowerCase().contains("erreur");
-        } catch (Exception e) {
-            log.warn("Service AI non disponible: {}", e.getMessage());
-            return false;
+    public QuizResponseDTO generateQuizFromShardPrompts(List<CoursePrompt> shardPrompts, int questionsPerShard,
+                                                        String quizTitle, int questionCount, String cacheScope) {
+        log.info("🎯 Génération quiz RAG répartie: {} ({} parts x {} questions)",
+                quizTitle, shardPrompts.size(), questionsPerShard);
+        
+        List<Question> merged = generateShards(shardPrompts, questionsPerShard, cacheScope).stream()
+            .flatMap(List::stream)
+            .collect(Collectors.toList());
+        
+        QuizResponseDTO quiz = convertToQuizResponse(merged, quizTitle, Math.min(questionCount, MAX_QUESTIONS));
+        log.info("✅ Quiz RAG réparti généré avec succès: {} questions", quiz.getQuestions().size());
+        return quiz;
+    }
+    
+    /**
+     * Même génération répartie, sans fusion : les questions de chaque part restent rattachées
+     * à leur part (donc à leurs passages sources). Une part en échec donne une liste vide.
+     */
+    public List<List<QuestionResponseDTO>> generateQuestionsPerShard(List<CoursePrompt> shardPrompts, int questionsPerShard,
+                                                                     String cacheScope) {
+        List<List<QuestionResponseDTO>> perShard = new ArrayList<>();
+        for (List<Question> shard : generateShards(shardPrompts, questionsPerShard, cacheScope)) {
+            perShard.add(shard.stream()
+                .map(this::convertQuestionToDTO)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        }
+        return perShard;
+    }
+    
+    /**
+     * Lance les parts en parallèle et retourne leurs questions dans l'ordre des parts,
+     * sans doublons entre parts. Échoue seulement si toutes les parts ont échoué.
+     */
+    private List<List<Question>> generateShards(List<CoursePrompt> shardPrompts, int questionsPerShard, String cacheScope) {
+        if (!isAIServiceAvailable()) {
+            log.error("🚨 Service AI (Gemini) non disponible pour la génération RAG");
+            throw new RuntimeException("Service AI (Gemini) non disponible. Vérifiez votre connexion internet et votre clé API.");
+        }
+        
+        // La priorité du quota (ThreadLocal) n'est pas héritée par les threads virtuels
+        GeminiGovernor.Priority priority = GeminiGovernor.currentPriority();
+        long startTime = System.currentTimeMillis();
+        List<List<Question>> results = new ArrayList<>();
+        Set<String> seenTexts = new HashSet<>();
+        RuntimeException firstFailure = null;
+        int failedShards = 0;
+        int uniqueQuestions = 0;
+        
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<List<Question>>> shards = new ArrayList<>();
+            for (CoursePrompt shardPrompt : shardPrompts) {
+                shards.add(executor.submit(() -> GeminiGovernor.callAs(priority,
+                    () -> ollamaService.generateStructuredQuiz(shardPrompt.sharedContext(), shardPrompt.instruction(),
+                        questionsPerShard, cacheScope))));
+            }
+            
+            // Fusion dans l'ordre des parts (ordre du contenu)
+            for (int i = 0; i < shards.size(); i++) {
+                List<Question> kept = new ArrayList<>();
+                try {
+                    for (Question question : shards.get(i).get()) {
+                        if (question.getText() != null && seenTexts.add(normalizeQuestionText(question.getText()))) {
+                            kept.add(question);
+                        }
+                    }
+                    log.info("🧩 Part {}/{}: {} questions retenues", i + 1, shards.size(), kept.size());
+                } catch (ExecutionException e) {
+                    failedShards++;
+                    log.warn("⚠️ Part {}/{} en échec: {}", i + 1, shards.size(), e.getCause().getMessage());
+                    if (firstFailure == null) {
+                        firstFailure = e.getCause() instanceof RuntimeException runtime
+                            ? runtime : new RuntimeException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Génération du quiz interrompue", e);
+                }
+                results.add(kept);
+                uniqueQuestions += kept.size();
+            }
         }
+        
+        log.info("⏱️ Génération répartie terminée en {}ms: {} questions uniques, {} part(s) en échec",
+                System.currentTimeMillis() - startTime, uniqueQuestions, failedShards);
+        
+        if (uniqueQuestions == 0) {
+            throw new RuntimeException("Erreur génération quiz: toutes les parts ont échoué", firstFailure);
+        }
+        return results;
+    }
+    
+    /**
+     * Clé de déduplication : minuscules, sans accents ni ponctuation.
+     */
+    static String normalizeQuestionText(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFD)
+            .replaceAll("\\p{M}", "")
+            .toLowerCase(Locale.ROOT)
+            .replaceAll("[^\\p{Alnum}]+", " ")
+            .trim();
+    }
+    
+    /**
+     * Version en flux : les questions sont converties et émises une à une, au fil de la réponse Gemini.
+     */
+    public Flux<QuestionResponseDTO> streamQuizFromRAGPrompt(String ragPrompt, String cacheScope) {
+        if (!isAIServiceAvailable()) {
+            return Flux.error(new RuntimeException("Service AI (Gemini) non disponible. Vérifiez votre connexion internet et votre clé API."));
+        }
+        log.info("🎯 Génération quiz RAG en flux ({} caractères de prompt)", ragPrompt.length());
+        return ollamaService.streamStructuredQuiz(ragPrompt, cacheScope)
+            .take(MAX_QUESTIONS)
+            .mapNotNull(this::convertQuestionToDTO);
+    }
+    
+    /**
+     * Vérifie si le service AI est disponible (état tenu à jour en arrière-plan, sans appel Gemini)
+     */
+    private boolean isAIServiceAvailable() {
+        return geminiHealthMonitor.isAvailable();
     }
     
     /**
@@ -135,6 +286,22 @@ public class RAGQuizGenerationService {
         return quizResponse;
     }
     
+    /**
+     * Questions de secours produites par le modèle routé pour les tâches légères (local de préférence).
+     * Liste vide si aucun fournisseur n'a répondu : l'appelant garde alors ses questions génériques.
+     */
+    public List<QuestionResponseDTO> generateRoutedFallbackQuestions(String topic, List<String> hints, int questionCount) {
+        try {
+            return ollamaService.generateFallbackQuestions(topic, hints, questionCount).stream()
+                .map(this::convertQuestionToDTO)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        } catch (Exception e) {
+            log.warn("⚠️ Questions de secours indisponibles: {}", e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
     /**
      * Convertit une Question en QuestionResponseDTO
      */
@@ -211,12 +378,15 @@ public class RAGQuizGenerationService {
      */
     private QuizResponseDTO parseQuizFromJSON(String jsonResponse, String quizTitle, int expectedCount) {
         try {
-            // Nettoyer le JSON
-            String cleanedJson = cleanJsonResponse(jsonResponse);
-            
-            // Parser
-            Map<String, Object> quizData = objectMapper.readValue(cleanedJson, Map.class);
-            List<Map<String, Object>> questionsData = (List<Map<String, Object>>) quizData.get("questions");
+            // Lecture en flux : texte autour du JSON ignoré, questions complètes d'une réponse tronquée conservées
+            QuizJsonStreamParser.Result result = QuizJsonStreamParser.parse(jsonResponse);
+            List<QuizJsonStreamParser.ParsedQuestion> questionsData = result.questions();
+            if (questionsData.isEmpty()) {
+                throw new RuntimeException("Impossible d'extraire des questions de la réponse");
+            }
+            if (!result.complete()) {
+                log.warn("⚠️ JSON tronqué: {} questions complètes récupérées", questionsData.size());
+            }
             
             // Créer le DTO
             QuizResponseDTO quizResponse = new QuizResponseDTO();
@@ -225,10 +395,10 @@ public class RAGQuizGenerationService {
             quizResponse.setQuestions(new ArrayList<>());
             
             int validQuestions = 0;
-            for (Map<String, Object> qData : questionsData) {
+            for (QuizJsonStreamParser.ParsedQuestion qData : questionsData) {
                 if (validQuestions >= MAX_QUESTIONS) break;
                 
-                QuestionResponseDTO question = parseQuestionFromMap(qData);
+                QuestionResponseDTO question = parseQuestionFromFields(qData);
                 if (question != null) {
                     quizResponse.getQuestions().add(question);
                     validQuestions++;
@@ -251,11 +421,11 @@ public class RAGQuizGenerationService {
     }
     
     /**
-     * Parse une question depuis la Map
+     * Construit une question depuis les champs lus dans la réponse
      */
-    private QuestionResponseDTO parseQuestionFromMap(Map<String, Object> qData) {
+    private QuestionResponseDTO parseQuestionFromFields(QuizJsonStreamParser.ParsedQuestion qData) {
         try {
-            log.debug("🔍 Parsing question data: {}", qData.keySet());
+            log.debug("🔍 Parsing question data: {}", qData.values().keySet());
             
             QuestionResponseDTO question = new QuestionResponseDTO();
             
@@ -282,8 +452,8 @@ public class RAGQuizGenerationService {
             question.setExplanation(extractExplanation(qData));
             
             // 6. ID (générer un ID temporaire)
-            question.setId(qData.containsKey("id") ? 
-                Long.parseLong(qData.get("id").toString()) : 
+            question.setId(qData.value("id") != null ? 
+                Long.parseLong(qData.value("id")) : 
                 System.currentTimeMillis() % 1000);
             
             log.debug("✅ Question parsée: '{}' ({} options, type: {})", 
@@ -301,31 +471,27 @@ public class RAGQuizGenerationService {
     /**
      * Extraction flexible du texte de la question
      */
-    private String extractQuestionText(Map<String, Object> qData) {
+    private String extractQuestionText(QuizJsonStreamParser.ParsedQuestion qData) {
         String[] possibleKeys = {"text", "question", "q", "content", "query", "prompt"};
         
         for (String key : possibleKeys) {
-            if (qData.containsKey(key)) {
-                Object value = qData.get(key);
-                if (value != null) {
-                    String text = value.toString().trim();
-                    if (!text.isEmpty()) {
-                        log.debug("📝 Texte trouvé dans clé '{}': {}...", key, 
-                                 text.substring(0, Math.min(50, text.length())));
-                        return text;
-                    }
+            String value = qData.value(key);
+            if (value != null) {
+                String text = value.trim();
+                if (!text.isEmpty()) {
+                    log.debug("📝 Texte trouvé dans clé '{}': {}...", key, 
+                             text.substring(0, Math.min(50, text.length())));
+                    return text;
                 }
             }
         }
         
         // Si aucune clé trouvée, chercher dans les valeurs
-        for (Map.Entry<String, Object> entry : qData.entrySet()) {
-            if (entry.getValue() instanceof String) {
-                String value = entry.getValue().toString().trim();
-                if (value.length() > 20 && value.contains("?")) {
-                    log.debug("📝 Texte trouvé dans valeur de '{}'", entry.getKey());
-                    return value;
-                }
+        for (Map.Entry<String, String> entry : qData.values().entrySet()) {
+            String value = entry.getValue().trim();
+            if (value.length() > 20 && value.contains("?")) {
+                log.debug("📝 Texte trouvé dans valeur de '{}'", entry.getKey());
+                return value;
             }
         }
         
@@ -335,11 +501,10 @@ public class RAGQuizGenerationService {
     /**
      * Détection intelligente du type de question
      */
-    private QuestionType detectQuestionType(Map<String, Object> qData) {
+    private QuestionType detectQuestionType(QuizJsonStreamParser.ParsedQuestion qData) {
         // 1. Vérifier la clé "type"
-        if (qData.containsKey("type")) {
-            Object typeObj = qData.get("type");
-            String typeStr = typeObj.toString().toUpperCase().replace(" ", "_");
+        if (qData.value("type") != null) {
+            String typeStr = qData.value("type").toUpperCase().replace(" ", "_");
             
             log.debug("🎯 Type brut: '{}'", typeStr);
             
@@ -364,14 +529,13 @@ public class RAGQuizGenerationService {
         }
         
         // 2. Détection par analyse des options
-        if (qData.containsKey("options")) {
-            Object options = qData.get("options");
-            if (options instanceof List) {
-                List<?> opts = (List<?>) options;
+        if (qData.has("options")) {
+            List<String> opts = qData.list("options");
+            if (opts != null) {
                 if (opts.size() == 2) {
                     // Vérifier si c'est TRUE_FALSE
-                    String opt1 = opts.get(0).toString().toLowerCase();
-                    String opt2 = opts.get(1).toString().toLowerCase();
+                    String opt1 = opts.get(0).toLowerCase();
+                    String opt2 = opts.get(1).toLowerCase();
                     if ((opt1.contains("vrai") && opt2.contains("faux")) || 
                         (opt1.contains("true") && opt2.contains("false"))) {
                         return QuestionType.TRUE_FALSE;
@@ -382,11 +546,9 @@ public class RAGQuizGenerationService {
         }
         
         // 3. Détection par présence de réponses multiples
-        if (qData.containsKey("correctAnswer")) {
-            Object correct = qData.get("correctAnswer");
-            if (correct instanceof List && ((List<?>) correct).size() > 1) {
-                return QuestionType.MULTIPLE_CHOICE;
-            }
+        List<String> correctAnswers = qData.list("correctAnswer");
+        if (correctAnswers != null && correctAnswers.size() > 1) {
+            return QuestionType.MULTIPLE_CHOICE;
         }
         
         // 4. Par défaut
@@ -397,7 +559,7 @@ public class RAGQuizGenerationService {
     /**
      * Extraction flexible des options
      */
-    private List<String> extractQuestionOptions(Map<String, Object> qData, QuestionType type) {
+    private List<String> extractQuestionOptions(QuizJsonStreamParser.ParsedQuestion qData, QuestionType type) {
         List<String> options = new ArrayList<>();
         
         // Si c'est OPEN_ENDED ou SHORT_ANSWER, pas d'options nécessaires
@@ -406,48 +568,22 @@ public class RAGQuizGenerationService {
         }
         
         // 1. Essayer la clé "options"
-        if (qData.containsKey("options")) {
-            Object opts = qData.get("options");
-            
-            if (opts instanceof List) {
-                List<?> rawOptions = (List<?>) opts;
-                
-                for (Object opt : rawOptions) {
-                    if (opt == null) continue;
-                    
-                    if (opt instanceof Map) {
-                        // Format: {"text": "Option A", "correct": true}
-                        Map<String, Object> optMap = (Map<String, Object>) opt;
-                        if (optMap.containsKey("text")) {
-                            String optText = optMap.get("text").toString().trim();
-                            if (!optText.isEmpty()) {
-                                options.add(optText);
-                            }
-                        } else if (optMap.containsKey("option")) {
-                            String optText = optMap.get("option").toString().trim();
-                            if (!optText.isEmpty()) {
-                                options.add(optText);
-                            }
-                        }
-                    } else if (opt instanceof String) {
-                        // Format simple: "Option A"
-                        String optText = opt.toString().trim();
-                        if (!optText.isEmpty()) {
-                            options.add(optText);
-                        }
-                    } else {
-                        // Autre type, convertir en string
-                        options.add(opt.toString().trim());
-                    }
+        List<String> rawOptions = qData.list("options");
+        if (rawOptions != null) {
+            // Format: ["Option A", ...] ou [{"text": "Option A", "correct": true}, ...] (réduit au texte)
+            for (String opt : rawOptions) {
+                String optText = opt.trim();
+                if (!optText.isEmpty()) {
+                    options.add(optText);
                 }
-            } else if (opts instanceof String) {
-                // Format: "Option A, Option B, Option C"
-                String[] parts = ((String) opts).split(",");
-                for (String part : parts) {
-                    String trimmed = part.trim();
-                    if (!trimmed.isEmpty()) {
-                        options.add(trimmed);
-                    }
+            }
+        } else if (qData.value("options") != null) {
+            // Format: "Option A, Option B, Option C"
+            String[] parts = qData.value("options").split(",");
+            for (String part : parts) {
+                String trimmed = part.trim();
+                if (!trimmed.isEmpty()) {
+                    options.add(trimmed);
                 }
             }
         }
@@ -474,32 +610,27 @@ public class RAGQuizGenerationService {
     /**
      * Extraction flexible de la réponse correcte
      */
-    private String extractCorrectAnswer(Map<String, Object> qData, QuestionType type, List<String> options) {
+    private String extractCorrectAnswer(QuizJsonStreamParser.ParsedQuestion qData, QuestionType type, List<String> options) {
         // 1. Essayer la clé "correctAnswer"
-        if (qData.containsKey("correctAnswer")) {
-            Object correct = qData.get("correctAnswer");
-            
-            if (correct == null) {
-                return getDefaultAnswerForJSON(type, options);
-            }
+        if (qData.has("correctAnswer")) {
+            List<String> correctList = qData.list("correctAnswer");
+            String correct = qData.value("correctAnswer");
             
             // Pour MULTIPLE_CHOICE
             if (type == QuestionType.MULTIPLE_CHOICE) {
-                if (correct instanceof List) {
+                if (correctList != null) {
                     // Format: ["Option A", "Option C"]
                     List<String> answers = new ArrayList<>();
-                    for (Object ans : (List<?>) correct) {
-                        if (ans != null) {
-                            String answer = ans.toString().trim();
-                            if (!answer.isEmpty() && !answers.contains(answer)) {
-                                answers.add(answer);
-                            }
+                    for (String ans : correctList) {
+                        String answer = ans.trim();
+                        if (!answer.isEmpty() && !answers.contains(answer)) {
+                            answers.add(answer);
                         }
                     }
                     return answers.isEmpty() ? getDefaultAnswerForJSON(type, options) : String.join(",", answers);
-                } else if (correct instanceof String) {
+                } else {
                     // Format: "Option A, Option C" ou "A,C"
-                    String answerStr = correct.toString().trim();
+                    String answerStr = correct.trim();
                     if (answerStr.contains(",")) {
                         String[] parts = answerStr.split(",");
                         List<String> answers = new ArrayList<>();
@@ -517,7 +648,7 @@ public class RAGQuizGenerationService {
                 }
             } else {
                 // Pour SINGLE_CHOICE, TRUE_FALSE, OPEN_ENDED
-                String answer = correct.toString().trim();
+                String answer = correct != null ? correct.trim() : String.join(", ", correctList).trim();
                 return answer.isEmpty() ? getDefaultAnswerForJSON(type, options) : answer;
             }
         }
@@ -525,13 +656,11 @@ public class RAGQuizGenerationService {
         // 2. Chercher dans d'autres clés
         String[] possibleKeys = {"answer", "correct", "solution", "response"};
         for (String key : possibleKeys) {
-            if (qData.containsKey(key)) {
-                Object answer = qData.get(key);
-                if (answer != null) {
-                    String answerStr = answer.toString().trim();
-                    if (!answerStr.isEmpty()) {
-                        return answerStr;
-                    }
+            String answer = qData.value(key);
+            if (answer != null) {
+                String answerStr = answer.trim();
+                if (!answerStr.isEmpty()) {
+                    return answerStr;
                 }
             }
         }
@@ -559,24 +688,22 @@ public class RAGQuizGenerationService {
     /**
      * Extraction de l'explication
      */
-    private String extractExplanation(Map<String, Object> qData) {
+    private String extractExplanation(QuizJsonStreamParser.ParsedQuestion qData) {
         String[] possibleKeys = {"explanation", "explication", "reason", "why", "rationale", "details"};
         
         for (String key : possibleKeys) {
-            if (qData.containsKey(key)) {
-                Object value = qData.get(key);
-                if (value != null) {
-                    String explanation = value.toString().trim();
-                    if (!explanation.isEmpty()) {
-                        return explanation;
-                    }
+            String value = qData.value(key);
+            if (value != null) {
+                String explanation = value.trim();
+                if (!explanation.isEmpty()) {
+                    return explanation;
                 }
             }
         }
         
         // Fallback basé sur le type
-        if (qData.containsKey("type")) {
-            String type = qData.get("type").toString().toLowerCase();
+        if (qData.value("type") != null) {
+            String type = qData.value("type").toLowerCase();
             if (type.contains("choice")) {
                 return "Sélectionnez la ou les réponses correctes basées sur le contexte du cours";
             }
@@ -585,57 +712,6 @@ public class RAGQuizGenerationService {
         return "Explication basée sur le contenu du cours";
     }
     
-    /**
-     * Nettoie la réponse JSON
-     */
-    private String cleanJsonResponse(String response) {
-        if (response == null) return "{\"questions\":[]}";
-        
-        // Retirer les backticks de markdown
-        response = response.replaceAll("```json\\n?", "").replaceAll("\\n?```", "");
-        
-        // Trouver le premier { et dernier }
-        int start = response.indexOf('{');
-        int end = response.lastIndexOf('}');
-        
-        if (start >= 0 && end > start) {
-            String json = response.substring(start, end + 1);
-            
-            // Valider que c'est du JSON
-            try {
-                objectMapper.readTree(json);
-                return json;
-            } catch (Exception e) {
-                log.debug("JSON invalide, tentative de correction...");
-            }
-        }
-        
-        // Fallback: chercher du JSON-like
-        String[] lines = response.split("\n");
-        StringBuilder jsonBuilder = new StringBuilder();
-        boolean inJson = false;
-        
-        for (String line : lines) {
-            line = line.trim();
-            if (line.startsWith("{") || line.startsWith("[")) {
-                inJson = true;
-            }
-            if (inJson) {
-                jsonBuilder.append(line);
-                if (line.endsWith("}") || line.endsWith("]")) {
-                    break;
-                }
-            }
-        }
-        
-        String extracted = jsonBuilder.toString();
-        if (extracted.isEmpty()) {
-            throw new RuntimeException("Impossible d'extraire du JSON de la réponse");
-        }
-        
-        return extracted;
-    }
-    
     /**
      * Génère un quiz de fallback
      */
@@ -784,17 +860,10 @@ public class RAGQuizGenerationService {
      */
     public boolean validateQuizJSON(String jsonResponse) {
         try {
-            String cleanedJson = cleanJsonResponse(jsonResponse);
-            Map<String, Object> quizData = objectMapper.readValue(cleanedJson, Map.class);
-            
-            if (!quizData.containsKey("questions")) {
-                log.warn("❌ JSON invalide: clé 'questions' manquante");
-                return false;
-            }
-            
-            List<?> questions = (List<?>) quizData.get("questions");
-            if (questions == null || questions.isEmpty()) {
-                log.warn("❌ JSON invalide: liste de questions vide");
+            QuizJsonStreamParser.Result result = QuizJsonStreamParser.parse(jsonResponse);
+            List<QuizJsonStreamParser.ParsedQuestion> questions = result.questions();
+            if (questions.isEmpty()) {
+                log.warn("❌ JSON invalide: aucune question complète");
                 return false;
             }
             
@@ -839,11 +908,7 @@ public class RAGQuizGenerationService {
             status.put("rag_generation_supported", true);
             status.put("max_questions_per_quiz", MAX_QUESTIONS);
             
-            // Tester avec un petit prompt
-            if (aiAvailable) {
-                String testResponse = ollamaService.generateText("bonjour");
-                status.put("ai_response_test", testResponse != null && testResponse.length() > 0);
-            }
+            status.put("ai_health", geminiHealthMonitor.getStatus());
             
         } catch (Exception e) {
             status.put("error", e.getMessage());
@@ -13,11 +13,22 @@ import com.iatd.smarthub.repository.UserRepository;
 import com.iatd.smarthub.repository.rag.KnowledgeBaseRepository;
 import com.iatd.smarthub.repository.rag.LearningProfileRepository;
 import com.iatd.smarthub.repository.rag.QuizRecommendationRepository;
+import com.iatd.smarthub.service.FileStorageService;
 import com.iatd.smarthub.service.OllamaService;
+import com.iatd.smarthub.service.llm.GeminiContextCache;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
+import com.iatd.smarthub.service.llm.GeminiHealthMonitor;
+import com.iatd.smarthub.service.llm.LlmResponseCache;
+import com.iatd.smarthub.service.llm.SingleFlight;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 // Import PDFBox pour extraction réelle - CORRIGÉ pour version 3.0.2
 import org.apache.pdfbox.Loader;  // IMPORTANT: Nouveau dans PDFBox 3.x
@@ -26,9 +37,12 @@ import org.apache.pdfbox.text.PDFTextStripper;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -48,6 +62,19 @@ public class RAGQuizService {
     private final QuizRecommendationRepository quizRecommendationRepository;
     private final VectorRAGService vectorRAGService;
     private final EmbeddingService embeddingService;
+    private final FileStorageService fileStorageService;
+    private final ContextPackerService contextPackerService;
+    private final GeminiHealthMonitor geminiHealthMonitor;
+    private final SingleFlight singleFlight;
+    private final TransactionTemplate transactionTemplate;
+    private final GeminiContextCache geminiContextCache;
+    
+    private static final int COURSE_QUIZ_QUESTIONS = 20;
+    // Questions demandées au modèle local quand la génération du quiz de cours a échoué
+    private static final int FALLBACK_LOCAL_QUESTIONS = 8;
+    
+    @Value("${rag.quiz.shards:4}")
+    private int quizShards;
     
     /**
      * Génère un quiz basé sur les fichiers d'un cours
@@ -81,23 +108,11 @@ public class RAGQuizService {
                         .map(CourseFile::getFileName)
                         .collect(Collectors.joining(", ")));
             
-            // 4. LIRE LE VRAI CONTENU DES FICHIERS
-            Map<String, String> fileContents = readRealFilesContent(courseFiles);
-            
-            // 5. Valider la pertinence du contenu
-            validateContentRelevance(courseTitle, fileContents);
-            
-            // 6. Construire un prompt AVEC LE VRAI CONTENU - CORRIGÉ
-            String ragPrompt = buildStrictRAGPrompt(courseTitle, profile, courseFiles, fileContents);
-            
-            log.debug("📝 Prompt cours généré: {} caractères", ragPrompt.length());
-            
-            // 7. Générer le quiz avec le vrai contenu - CHANGEMENT 1: 20 au lieu de 5
-            QuizResponseDTO quiz = ragQuizGenerationService.generateQuizFromRAGPrompt(
-                ragPrompt,
-                "Quiz: " + courseTitle,
-                20  // CHANGÉ DE 5 À 20
-            );
+            // 4-7. Extraction, prompt et génération : les demandes simultanées identiques
+            // (même cours, mêmes fichiers, même profil) partagent un seul calcul
+            String fingerprint = courseGenerationFingerprint(courseId, courseTitle, profile, courseFiles);
+            QuizResponseDTO quiz = singleFlight.execute(fingerprint,
+                () -> generateCourseQuiz(courseId, courseTitle, profile, courseFiles)).copy();
             
             // 8. Enregistrer la recommandation
             saveCourseRecommendation(user, courseId, courseTitle, courseFiles);
@@ -109,12 +124,204 @@ public class RAGQuizService {
             return quiz;
             
         } catch (Exception e) {
+            // Quota Gemini saturé : on remonte l'erreur (HTTP 429) plutôt qu'un quiz dégradé
+            GeminiGovernor.findOverload(e).ifPresent(overloaded -> {
+                throw overloaded;
+            });
             log.error("❌ Erreur génération quiz cours: {}", e.getMessage(), e);
             // Fallback: générer un quiz basique
             return generateFallbackCourseQuiz(courseId, courseTitle);
         }
     }
     
+    /**
+     * Variante en flux de generatePersonalizedQuizForCourse : le prompt est préparé en transaction
+     * hors du thread réseau, puis chaque question est émise dès que Gemini l'a produite.
+     * Recommandation et profil sont mis à jour une fois le flux terminé.
+     */
+    public Flux<QuestionResponseDTO> streamPersonalizedQuizForCourse(Long userId, Long courseId, String courseTitle) {
+        log.info("📡 Génération quiz en flux pour cours - userId: {}, courseId: {}, title: {}",
+                 userId, courseId, courseTitle);
+        
+        return Mono.fromCallable(() -> transactionTemplate.execute(status -> {
+                User user = userRepository.findById(userId)
+                    .orElseThrow(() -> new RuntimeException("Utilisateur non trouvé: " + userId));
+                LearningProfile profile = learningProfileRepository.findByUserId(userId)
+                    .orElseGet(() -> createDefaultProfile(user));
+                List<CourseFile> courseFiles = courseFileRepository.findByCourseId(courseId);
+                if (courseFiles.isEmpty()) {
+                    throw new RuntimeException("Le cours n'a pas de fichiers disponibles");
+                }
+                return buildCoursePrompt(courseTitle, profile, courseFiles);
+            }))
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMapMany(ragPrompt -> ragQuizGenerationService.streamQuizFromRAGPrompt(
+                ragPrompt, LlmResponseCache.courseScope(courseId)))
+            .concatWith(Mono.<QuestionResponseDTO>fromRunnable(() -> recordCourseQuiz(userId, courseId, courseTitle))
+                .subscribeOn(Schedulers.boundedElastic()))
+            .doOnError(e -> log.error("❌ Erreur génération quiz cours en flux: {}", e.getMessage()));
+    }
+    
+    private void recordCourseQuiz(Long userId, Long courseId, String courseTitle) {
+        transactionTemplate.executeWithoutResult(status -> {
+            userRepository.findById(userId).ifPresent(user ->
+                saveCourseRecommendation(user, courseId, courseTitle, courseFileRepository.findByCourseId(courseId)));
+            learningProfileRepository.findByUserId(userId)
+                .ifPresent(profile -> updateProfileWithCourse(profile, courseTitle));
+        });
+    }
+    
+    /**
+     * Étapes 4 à 7 : lecture du contenu, prompt(s) et génération. Au-delà d'une part, le contenu
+     * retenu est réparti en parts disjointes générées en parallèle (latence d'une petite réponse,
+     * et une réponse mal formée ne coûte qu'une part).
+     */
+    private QuizResponseDTO generateCourseQuiz(Long courseId, String courseTitle,
+                                               LearningProfile profile, List<CourseFile> courseFiles) {
+        // 4. LIRE LE VRAI CONTENU DES FICHIERS
+        Map<String, String> fileContents = readRealFilesContent(courseFiles);
+        
+        // 5. Valider la pertinence du contenu
+        validateContentRelevance(courseTitle, fileContents);
+        
+        String cacheScope = LlmResponseCache.courseScope(courseId);
+        if (quizShards > 1) {
+            List<List<ContextPackerService.PackedFile>> shards =
+                contextPackerService.packShards(relevanceQuery(courseTitle, profile), fileContents, quizShards);
+            if (shards.size() > 1) {
+                // Une question de marge par part pour absorber les doublons entre parts
+                int questionsPerShard = (COURSE_QUIZ_QUESTIONS + shards.size() - 1) / shards.size() + 1;
+                List<RAGQuizGenerationService.CoursePrompt> shardPrompts = new ArrayList<>();
+                for (int i = 0; i < shards.size(); i++) {
+                    shardPrompts.add(buildStrictRAGPrompt(courseTitle, profile, courseFiles, shards.get(i),
+                        QuestionMix.forShard(i, shards.size(), questionsPerShard)));
+                }
+                return ragQuizGenerationService.generateQuizFromShardPrompts(
+                    shardPrompts, questionsPerShard, "Quiz: " + courseTitle, COURSE_QUIZ_QUESTIONS, cacheScope);
+            }
+        }
+        
+        // 6. Construire un prompt AVEC LE VRAI CONTENU - CORRIGÉ
+        RAGQuizGenerationService.CoursePrompt ragPrompt = buildStrictRAGPrompt(courseTitle, profile, courseFiles,
+            contextPackerService.pack(relevanceQuery(courseTitle, profile), fileContents), QuestionMix.COURSE_QUIZ);
+        log.debug("📝 Prompt cours généré: {} + {} caractères",
+            ragPrompt.sharedContext().length(), ragPrompt.instruction().length());
+        
+        // 7. Générer le quiz avec le vrai contenu - CHANGEMENT 1: 20 au lieu de 5
+        return ragQuizGenerationService.generateQuizFromCoursePrompt(
+            ragPrompt,
+            "Quiz: " + courseTitle,
+            COURSE_QUIZ_QUESTIONS,
+            cacheScope
+        );
+    }
+    
+    /**
+     * Question générée pour la banque du cours, avec les passages dont elle est issue.
+     */
+    public record SourcedQuestion(QuestionResponseDTO question, List<String> sourceRefs) {
+    }
+    
+    /**
+     * Lot de questions pour la banque du cours : mêmes parts disjointes que generateCourseQuiz,
+     * mais sans profil apprenant (la banque est partagée) et en écartant les questions déjà en banque.
+     * Chaque question porte les références des passages de sa part.
+     */
+    public List<SourcedQuestion> generateBankQuestions(Long courseId, String courseTitle, List<CourseFile> courseFiles,
+                                                       int questionCount, List<String> existingQuestions) {
+        Map<String, String> fileContents = readRealFilesContent(courseFiles);
+        if (fileContents.isEmpty()) {
+            throw new RuntimeException("Aucun contenu lisible pour le cours " + courseId);
+        }
+        
+        LearningProfile neutralProfile = new LearningProfile();
+        neutralProfile.setProficiencyLevel("INTERMEDIATE");
+        neutralProfile.setInterests(new ArrayList<>());
+        
+        List<List<ContextPackerService.PackedFile>> shards = contextPackerService.packShards(
+            relevanceQuery(courseTitle, neutralProfile), fileContents, Math.max(1, quizShards));
+        int questionsPerShard = (questionCount + shards.size() - 1) / shards.size() + 1;
+        String avoid = describeExistingQuestions(existingQuestions);
+        
+        List<RAGQuizGenerationService.CoursePrompt> shardPrompts = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            RAGQuizGenerationService.CoursePrompt prompt = buildStrictRAGPrompt(courseTitle, neutralProfile, courseFiles,
+                shards.get(i), QuestionMix.forShard(i, shards.size(), questionsPerShard));
+            shardPrompts.add(new RAGQuizGenerationService.CoursePrompt(prompt.sharedContext(), prompt.instruction() + avoid));
+        }
+        
+        List<List<QuestionResponseDTO>> perShard = ragQuizGenerationService.generateQuestionsPerShard(
+            shardPrompts, questionsPerShard, LlmResponseCache.courseScope(courseId));
+        
+        List<SourcedQuestion> generated = new ArrayList<>();
+        for (int i = 0; i < perShard.size(); i++) {
+            List<String> refs = shards.get(i).stream()
+                .flatMap(packed -> packed.sourceRefs().stream())
+                .toList();
+            perShard.get(i).forEach(question -> generated.add(new SourcedQuestion(question, refs)));
+        }
+        log.info("🏦 {} questions générées pour la banque du cours {}", generated.size(), courseId);
+        return generated;
+    }
+    
+    /**
+     * Consigne anti-répétition : le modèle voit (un extrait de) ce que la banque contient déjà.
+     */
+    private String describeExistingQuestions(List<String> existingQuestions) {
+        if (existingQuestions == null || existingQuestions.isEmpty()) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("\n\nQUESTIONS DÉJÀ POSÉES (à ne pas répéter ni reformuler):\n");
+        existingQuestions.stream()
+            .limit(60)
+            .forEach(question -> text.append("- ")
+                .append(question.length() > 120 ? question.substring(0, 120) + "..." : question)
+                .append("\n"));
+        return text.toString();
+    }
+    
+    /**
+     * Lit le contenu réel des fichiers, vérifie sa pertinence et construit le prompt RAG strict.
+     */
+    private String buildCoursePrompt(String courseTitle, LearningProfile profile, List<CourseFile> courseFiles) {
+        // 4. LIRE LE VRAI CONTENU DES FICHIERS
+        Map<String, String> fileContents = readRealFilesContent(courseFiles);
+        
+        // 5. Valider la pertinence du contenu
+        validateContentRelevance(courseTitle, fileContents);
+        
+        // 6. Construire un prompt AVEC LE VRAI CONTENU - CORRIGÉ
+        String ragPrompt = buildStrictRAGPrompt(courseTitle, profile, courseFiles,
+            contextPackerService.pack(relevanceQuery(courseTitle, profile), fileContents), QuestionMix.COURSE_QUIZ).inline();
+        
+        log.debug("📝 Prompt cours généré: {} caractères", ragPrompt.length());
+        return ragPrompt;
+    }
+    
+    /**
+     * Empreinte d'une génération de quiz de cours : tout ce dont dépend le prompt
+     * (cours, fichiers stockés, niveau et intérêts du profil).
+     */
+    private String courseGenerationFingerprint(Long courseId, String courseTitle,
+                                               LearningProfile profile, List<CourseFile> courseFiles) {
+        StringBuilder key = new StringBuilder()
+            .append(courseId).append('|').append(courseTitle).append('|')
+            .append(profile.getProficiencyLevel()).append('|');
+        if (profile.getInterests() != null) {
+            profile.getInterests().forEach(interest -> key.append(interest).append(','));
+        }
+        courseFiles.stream()
+            .sorted(Comparator.comparing(CourseFile::getId, Comparator.nullsFirst(Comparator.naturalOrder())))
+            .forEach(file -> key.append('|').append(file.getId()).append(':').append(file.getFilePath()));
+        
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            return "course-quiz:" + courseId + ":" + HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
     /**
      * Lit le VRAI contenu des fichiers
      */
@@ -162,8 +369,14 @@ public class RAGQuizService {
                 return null;
             }
             
-            String uploadDir = "uploads/";
-            Path filePath = Paths.get(uploadDir, file.getFilePath()).toAbsolutePath().normalize();
+            // Contenu déjà extrait pour ce SHA-256 (même fichier partagé entre cours)
+            Optional<String> cached = fileStorageService.getExtractedText(file.getFilePath());
+            if (cached.isPresent()) {
+                log.info("♻️ Contenu déjà extrait réutilisé pour {}", file.getFileName());
+                return cached.get();
+            }
+            
+            Path filePath = fileStorageService.resolvePath(file.getFilePath());
             log.info("📁 Recherche fichier à: {}", filePath);
             
             if (!Files.exists(filePath)) {
@@ -182,6 +395,7 @@ public class RAGQuizService {
                 try {
                     String content = Files.readString(filePath);
                     log.info("📄 Fichier texte lu: {} caractères", content.length());
+                    fileStorageService.saveExtractedText(file.getFilePath(), content);
                     return content;
                 } catch (IOException e) {
                     log.error("❌ Erreur lecture fichier texte: {}", e.getMessage());
@@ -191,7 +405,7 @@ public class RAGQuizService {
             
             // 2. FICHIERS PDF - EXTRACTION RÉELLE (CORRIGÉ POUR PDFBox 3.x)
             if (fileType.contains("pdf")) {
-                return extractRealPDFContent(filePath);
+                return extractRealPDFContent(filePath, file.getFilePath());
             }
             
             // 3. Autres types
@@ -208,7 +422,7 @@ public class RAGQuizService {
     /**
      * Extrait le VRAI contenu d'un PDF avec PDFBox 3.0.2 - CORRIGÉ
      */
-    private String extractRealPDFContent(Path filePath) {
+    private String extractRealPDFContent(Path filePath, String storedFileName) {
         log.info("📖 Extraction RÉELLE PDF avec PDFBox 3.0.2: {}", filePath.getFileName());
         
         // CORRECTION: Utiliser Loader.loadPDF() au lieu de PDDocument.load()
@@ -243,6 +457,7 @@ public class RAGQuizService {
             analyzeExtractedContent(filePath.getFileName().toString(), text);
             
             log.info("✅ PDF extrait avec succès: {} caractères", text.length());
+            fileStorageService.saveExtractedText(storedFileName, text);
             return text;
             
         } catch (IOException e) {
@@ -343,10 +558,65 @@ public class RAGQuizService {
     }
     
     /**
-     * Construit un prompt STRICT basé sur le vrai contenu - CORRIGÉ POUR ÉVITER LES PLACEHOLDERS
+     * Requête de pertinence pour la sélection des passages : titre du cours et intérêts du profil.
+     */
+    private String relevanceQuery(String courseTitle, LearningProfile profile) {
+        // Avec le cache de contexte, un même contenu packé pour tous les étudiants du cours
+        if (geminiContextCache.isEnabled()) {
+            return courseTitle;
+        }
+        return courseTitle + " " + (profile.getInterests() != null ?
+            String.join(" ", profile.getInterests()) : "");
+    }
+    
+    /**
+     * Répartition des types de questions demandés dans un prompt.
      */
-    private String buildStrictRAGPrompt(String courseTitle, LearningProfile profile, 
-                                       List<CourseFile> files, Map<String, String> fileContents) {
+    private record QuestionMix(int singleChoice, int multipleChoice, int trueFalse) {
+        
+        static final QuestionMix COURSE_QUIZ = new QuestionMix(18, 1, 1);
+        
+        /**
+         * Part i sur n : la question MULTIPLE_CHOICE va à la première part, la TRUE_FALSE à la deuxième.
+         */
+        static QuestionMix forShard(int index, int shards, int questions) {
+            int multiple = index == 0 ? 1 : 0;
+            int trueFalse = index == Math.min(1, shards - 1) ? 1 : 0;
+            return new QuestionMix(questions - multiple - trueFalse, multiple, trueFalse);
+        }
+        
+        int total() {
+            return singleChoice + multipleChoice + trueFalse;
+        }
+        
+        String describe() {
+            StringBuilder text = new StringBuilder("TYPES DE QUESTIONS REQUIS (")
+                .append(total()).append(" questions total):\n");
+            text.append("- ").append(singleChoice).append(" questions SINGLE_CHOICE (une seule bonne réponse)\n");
+            if (multipleChoice > 0) {
+                text.append("- ").append(multipleChoice).append(" question MULTIPLE_CHOICE (plusieurs bonnes réponses)\n");
+            }
+            if (trueFalse > 0) {
+                text.append("- ").append(trueFalse).append(" question TRUE_FALSE (vrai/faux)\n");
+            }
+            return text.toString();
+        }
+    }
+    
+    /**
+     * Construit un prompt STRICT basé sur le vrai contenu - CORRIGÉ POUR ÉVITER LES PLACEHOLDERS.
+     * Le contenu et les règles (communs à tous les étudiants) sont séparés de la consigne
+     * propre à l'appel, pour que le cache de contexte Gemini puisse les réutiliser.
+     */
+    private RAGQuizGenerationService.CoursePrompt buildStrictRAGPrompt(String courseTitle, LearningProfile profile,
+                                       List<CourseFile> files, List<ContextPackerService.PackedFile> packedFiles,
+                                       QuestionMix mix) {
+        return new RAGQuizGenerationService.CoursePrompt(
+            buildCourseContext(courseTitle, files, packedFiles), buildCourseInstruction(profile, mix));
+    }
+    
+    private String buildCourseContext(String courseTitle, List<CourseFile> files,
+                                      List<ContextPackerService.PackedFile> packedFiles) {
         
         StringBuilder prompt = new StringBuilder();
         
@@ -368,30 +638,22 @@ public class RAGQuizService {
             
             Nombre de fichiers: """).append(files.size()).append("""
             
-            Profil étudiant:
-            - Niveau: """).append(translateProficiencyLevel(profile.getProficiencyLevel())).append("""
-            - Intérêts: """).append(profile.getInterests() != null ? 
-                String.join(", ", profile.getInterests()) : "Non spécifié").append("""
-            
             """).append("=".repeat(80)).append("\n\n");
         
         // 1. ANALYSE DÉTAILLÉE DU CONTENU
         prompt.append("📊 CONTENU EXACT DES FICHIERS (NE PAS INVENTER):\n\n");
         
+        // Passages les plus pertinents sous budget de tokens (au lieu des 3000 premiers caractères)
         int fileIndex = 1;
-        for (Map.Entry<String, String> entry : fileContents.entrySet()) {
-            String fileName = entry.getKey();
-            String content = entry.getValue();
-            
-            prompt.append("📄 FICHIER ").append(fileIndex).append(": ").append(fileName).append("\n");
+        for (ContextPackerService.PackedFile packedFile : packedFiles) {
+            prompt.append("📄 FICHIER ").append(fileIndex).append(": ").append(packedFile.fileName()).append("\n");
             prompt.append("-".repeat(50)).append("\n");
             
-            // CHANGEMENT 3: 3000 caractères au lieu de 2000 pour 20 questions
-            String limitedContent = content.length() > 3000 ? 
-                content.substring(0, 3000) + "\n\n[... contenu tronqué pour raison de longueur ...]" :
-                content;
-            
-            prompt.append(limitedContent).append("\n\n");
+            if (packedFile.selectedChunks() < packedFile.totalChunks()) {
+                prompt.append("(extraits les plus pertinents: ").append(packedFile.selectedChunks())
+                      .append("/").append(packedFile.totalChunks()).append(" passages)\n");
+            }
+            prompt.append(packedFile.content()).append("\n\n");
             
             // Indicateur de fin de fichier
             prompt.append("✓ Fin du fichier ").append(fileIndex).append("\n\n");
@@ -400,7 +662,7 @@ public class RAGQuizService {
         
         prompt.append("=".repeat(80)).append("\n\n");
         
-        // 2. INSTRUCTIONS DE GÉNÉRATION TRÈS STRICTES - CHANGEMENT 4: 20 questions
+        // 2. INSTRUCTIONS DE GÉNÉRATION TRÈS STRICTES
         prompt.append("""
             🎯 RÈGLES DE GÉNÉRATION DES QUESTIONS:
             
@@ -410,11 +672,6 @@ public class RAGQuizService {
             3. Référencer le nom du fichier dans l'explication
             4. Ne pas modifier, extrapoler ou interpréter le contenu
             
-            TYPES DE QUESTIONS REQUIS (20 questions total):
-            - 18 questions SINGLE_CHOICE (une seule bonne réponse)
-            - 1 question MULTIPLE_CHOICE (plusieurs bonnes réponses)
-            - 1 question TRUE_FALSE (vrai/faux)
-            
             CRITÈRES DE QUALITÉ:
             ✓ Questions CLAIRES et SPÉCIFIQUES
             ✓ Options PLAUSIBLES mais une seule bonne réponse (sauf multiple_choice)
@@ -458,17 +715,34 @@ public class RAGQuizService {
             - "OPTION_1", "OPTION_2", etc. par de vraies options distinctes
             - "CORRECT_OPTION" par l'option correcte
             - "EXPLANATION_WITH_SOURCE" par une explication qui cite le fichier et la ligne
+            """);
+        
+        return prompt.toString();
+    }
+    
+    /**
+     * Consigne propre à l'appel : profil de l'étudiant, types et nombre de questions.
+     */
+    private String buildCourseInstruction(LearningProfile profile, QuestionMix mix) {
+        return new StringBuilder("""
+            Profil étudiant:
+            - Niveau: """).append(translateProficiencyLevel(profile.getProficiencyLevel())).append("""
+            
+            - Intérêts: """).append(profile.getInterests() != null ? 
+                String.join(", ", profile.getInterests()) : "Non spécifié").append("""
+            
+            
+            """).append(mix.describe()).append("""
             
             ⚠️ IMPORTANT FINAL:
             - Retourner UNIQUEMENT le JSON
             - PAS de commentaires
             - PAS d'explications supplémentaires
-            - 20 questions exactement
+            - """).append(mix.total()).append("""
+             questions exactement
             - Chaque question doit avoir une source identifiable dans le contenu
             - NE PAS copier les textes d'exemple comme "Question précise basée sur le contenu?"
-            """);
-        
-        return prompt.toString();
+            """).toString();
     }
     
     /**
@@ -603,6 +877,15 @@ public class RAGQuizService {
         quiz.setDescription("Quiz basé sur les fichiers du cours (mode fallback)");
         quiz.setQuestions(new ArrayList<>());
         
+        // Tâche légère : le routeur LLM la confie de préférence au modèle local
+        List<QuestionResponseDTO> routed = ragQuizGenerationService.generateRoutedFallbackQuestions(
+            courseTitle, files.stream().map(CourseFile::getFileName).limit(5).toList(), FALLBACK_LOCAL_QUESTIONS);
+        if (!routed.isEmpty()) {
+            quiz.setDescription("Quiz de secours généré sans le contexte du cours");
+            quiz.setQuestions(routed);
+            return quiz;
+        }
+        
         // CHANGEMENT 5: Générer 20 questions de fallback au lieu de 5
         for (int i = 1; i <= 20; i++) {
             QuestionResponseDTO q = new QuestionResponseDTO();
@@ -764,15 +1047,9 @@ public class RAGQuizService {
             diagnostic.put("ragQuizGenerationService", ragQuizGenerationService != null ? "✅ Disponible" : "❌ Absent");
             diagnostic.put("ollamaService", ollamaService != null ? "✅ Disponible" : "❌ Absent");
             
-            // Tester la disponibilité du service AI (Gemini)
-            boolean aiAvailable = false;
-            try {
-                String testResponse = ollamaService.generateText("test");
-                aiAvailable = testResponse != null && !testResponse.toLowerCase().contains("erreur");
-            } catch (Exception e) {
-                aiAvailable = false;
-            }
-            diagnostic.put("aiServiceAvailable", aiAvailable);
+            // Disponibilité du service AI (Gemini) : état maintenu en arrière-plan
+            diagnostic.put("aiServiceAvailable", geminiHealthMonitor.isAvailable());
+            diagnostic.put("aiHealth", geminiHealthMonitor.getStatus());
             diagnostic.put("aiService", "Gemini");
             
             // Test PDFBox
@@ -957,7 +1234,7 @@ public class RAGQuizService {
     private boolean checkFileExists(String filePath) {
         if (filePath == null || filePath.isEmpty()) return false;
         try {
-            return Files.exists(Paths.get(filePath));
+            return fileStorageService.exists(filePath);
         } catch (Exception e) {
             return false;
         }
@@ -989,7 +1266,7 @@ public class RAGQuizService {
                     testResult.put("status", "❌ ERREUR: Chemin vide en base");
                     testResult.put("exists", false);
                 } else {
-                    Path filePath = Paths.get(file.getFilePath());
+                    Path filePath = fileStorageService.resolvePath(file.getFilePath());
                     
                     // Vérifier existence
                     boolean exists = Files.exists(filePath);
@@ -1206,12 +1483,6 @@ public class RAGQuizService {
      * Vérifie la disponibilité du service AI (Gemini)
      */
     public boolean isAIServiceAvailable() {
-        try {
-            String testResponse = ollamaService.generateText("test");
-            return testResponse != null && !testResponse.toLowerCase().contains("erreur");
-        } catch (Exception e) {
-            log.warn("Service AI non disponible: {}", e.getMessage());
-            return false;
-        }
+        return geminiHealthMonitor.isAvailable();
     }
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.iatd.smarthub.service.rag;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Filtre de Bloom des questions déjà vues par un étudiant dans un cours : une seule ligne
+ * en base par (étudiant, cours), testée en mémoire pour chaque question. Pas de faux
+ * négatif ; les rares faux positifs écartent à tort une question jamais vue.
+ */
+public class SeenQuestionsFilter {
+
+    private final BitSet bits;
+    private final int size;
+    private final int hashes;
+
+    public SeenQuestionsFilter(int size, int hashes) {
+        this(new BitSet(size), size, hashes);
+    }
+
+    private SeenQuestionsFilter(BitSet bits, int size, int hashes) {
+        this.bits = bits;
+        this.size = size;
+        this.hashes = Math.max(1, hashes);
+    }
+
+    /**
+     * Relit un filtre sérialisé ; si la taille configurée a changé, repart d'un filtre vide
+     * (les positions des bits dépendent de la taille).
+     */
+    public static SeenQuestionsFilter fromBytes(byte[] data, int size, int hashes) {
+        if (data == null || data.length != byteLength(size)) {
+            return new SeenQuestionsFilter(size, hashes);
+        }
+        return new SeenQuestionsFilter(BitSet.valueOf(data), size, hashes);
+    }
+
+    /**
+     * Sérialisation à longueur fixe : la taille du filtre se relit dans la longueur du tableau.
+     */
+    public byte[] toBytes() {
+        return Arrays.copyOf(bits.toByteArray(), byteLength(size));
+    }
+
+    private static int byteLength(int size) {
+        return (size + 7) / 8;
+    }
+
+    public void put(String question) {
+        long[] hash = hash(question);
+        for (int i = 0; i < hashes; i++) {
+            bits.set(index(hash, i));
+        }
+    }
+
+    public boolean mightContain(String question) {
+        long[] hash = hash(question);
+        for (int i = 0; i < hashes; i++) {
+            if (!bits.get(index(hash, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Double hachage : h1 + i * h2, à partir d'un seul SHA-256 de la question normalisée
+    private int index(long[] hash, int i) {
+        return (int) Math.floorMod(hash[0] + i * hash[1], (long) size);
+    }
+
+    private static long[] hash(String question) {
+        String normalized = question != null ? RAGQuizGenerationService.normalizeQuestionText(question) : "";
+        try {
+            ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256")
+                .digest(normalized.getBytes(StandardCharsets.UTF_8)));
+            return new long[]{digest.getLong(), digest.getLong() | 1};
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
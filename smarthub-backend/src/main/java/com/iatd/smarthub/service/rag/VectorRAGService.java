@@ -3,6 +3,7 @@ package com.iatd.smarthub.service.rag;
 import com.iatd.smarthub.model.rag.KnowledgeBase;
 import com.iatd.smarthub.model.rag.LearningProfile;
 import com.iatd.smarthub.repository.rag.KnowledgeBaseRepository;
+import com.iatd.smarthub.service.llm.GeminiGovernor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -220,10 +221,11 @@ public class VectorRAGService {
             
             for (KnowledgeBase doc : allDocs) {
                 try {
-                    // Générer un nouvel embedding Gemini
+                    // Générer un nouvel embedding Gemini (file BATCH : cède la place aux requêtes interactives)
                     String content = doc.getContent();
                     if (content != null && !content.trim().isEmpty()) {
-                        float[] newEmbedding = embeddingService.generateEmbedding(content);
+                        float[] newEmbedding = GeminiGovernor.callAs(GeminiGovernor.Priority.BATCH,
+                            () -> embeddingService.generateEmbedding(content));
                         
                         // Mettre à jour le document
                         doc.setEmbedding(newEmbedding);
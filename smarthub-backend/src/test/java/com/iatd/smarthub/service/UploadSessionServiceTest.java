@@ -0,0 +1,105 @@
+package com.iatd.smarthub.service;
+
+import com.iatd.smarthub.model.storage.UploadChunk;
+import com.iatd.smarthub.model.storage.UploadSession;
+import com.iatd.smarthub.repository.UploadChunkRepository;
+import com.iatd.smarthub.repository.UploadSessionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Réception des morceaux : un morceau corrompu, nouveau ou renvoyé, ne modifie jamais
+ * les octets déjà acceptés du fichier de travail.
+ */
+class UploadSessionServiceTest {
+
+    private static final byte[] GOOD = "abcd".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BAD = "zzzz".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tmpDir;
+
+    private final UploadSessionRepository sessionRepository = mock(UploadSessionRepository.class);
+    private final UploadChunkRepository chunkRepository = mock(UploadChunkRepository.class);
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    private final Set<String> acceptedChunks = new HashSet<>();
+
+    private UploadSessionService service;
+    private UploadSession session;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new UploadSessionService(sessionRepository, chunkRepository, fileStorageService,
+                mock(CourseFileService.class), mock(AssignmentSubmissionService.class));
+        ReflectionTestUtils.setField(service, "defaultChunkSize", 4);
+        ReflectionTestUtils.setField(service, "maxChunkSize", 16);
+        ReflectionTestUtils.setField(service, "maxFileSize", 1024L);
+        ReflectionTestUtils.setField(service, "sessionTtlHours", 1L);
+
+        when(fileStorageService.getTempFile(anyString())).thenAnswer(call -> tmpDir.resolve(call.<String>getArgument(0)));
+        when(sessionRepository.save(any())).thenAnswer(call -> call.getArgument(0));
+        when(chunkRepository.save(any())).thenAnswer(call -> {
+            acceptedChunks.add(call.<UploadChunk>getArgument(0).getId());
+            return call.getArgument(0);
+        });
+        when(chunkRepository.existsById(anyString())).thenAnswer(call -> acceptedChunks.contains(call.<String>getArgument(0)));
+
+        session = service.createSession(7L, UploadSession.Target.COURSE_FILE, 1L, "cours.pdf", "application/pdf", 8L, 4);
+        when(sessionRepository.findById(session.getId())).thenReturn(Optional.of(session));
+    }
+
+    @Test
+    void resentAcceptedChunkWithBadBytesKeepsTheVerifiedData() throws Exception {
+        service.receiveChunk(session.getId(), 7L, 0, sha256(GOOD), GOOD.length, new ByteArrayInputStream(GOOD));
+
+        service.receiveChunk(session.getId(), 7L, 0, sha256(GOOD), BAD.length, new ByteArrayInputStream(BAD));
+
+        assertThat(partFileBytes(0, 4)).isEqualTo(GOOD);
+        verify(chunkRepository, times(1)).save(any());
+    }
+
+    @Test
+    void corruptedChunkIsNotWrittenNorRecorded() throws Exception {
+        service.receiveChunk(session.getId(), 7L, 0, sha256(GOOD), GOOD.length, new ByteArrayInputStream(GOOD));
+
+        assertThatThrownBy(() -> service.receiveChunk(session.getId(), 7L, 1, sha256(GOOD), BAD.length,
+                new ByteArrayInputStream(BAD)))
+                .hasMessageContaining("Checksum du morceau 1");
+
+        assertThat(Files.size(partFile())).isEqualTo(4);
+        assertThat(acceptedChunks).containsExactly(session.getId() + ":0");
+        try (var files = Files.list(tmpDir)) {
+            assertThat(files.map(path -> path.getFileName().toString())).noneMatch(name -> name.endsWith(".chunk"));
+        }
+    }
+
+    private Path partFile() {
+        return tmpDir.resolve("upload-" + session.getId() + ".part");
+    }
+
+    private byte[] partFileBytes(int from, int to) throws Exception {
+        return Arrays.copyOfRange(Files.readAllBytes(partFile()), from, to);
+    }
+
+    private static String sha256(byte[] data) {
+        return HexFormat.of().formatHex(FileStorageService.newSha256().digest(data));
+    }
+}
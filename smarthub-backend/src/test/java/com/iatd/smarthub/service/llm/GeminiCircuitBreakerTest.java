@@ -0,0 +1,51 @@
+package com.iatd.smarthub.service.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Disjoncteur : HALF_OPEN reste disponible pour les appelants, mais un seul appel d'essai
+ * passe jusqu'à son issue.
+ */
+class GeminiCircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final GeminiCircuitBreaker breaker = new GeminiCircuitBreaker(2, 30_000, now::get);
+
+    @Test
+    void halfOpenIsAvailableButAdmitsASingleTrial() {
+        breaker.recordFailure(new ConnectException("refused"));
+        breaker.recordFailure(new ConnectException("refused"));
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.OPEN);
+        assertThat(breaker.isAvailable()).isFalse();
+
+        now.addAndGet(30_000);
+        assertThat(breaker.isAvailable()).isTrue();
+        breaker.acquireOrThrow();
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.isAvailable()).isTrue();
+        assertThatThrownBy(breaker::acquireOrThrow)
+                .isInstanceOf(GeminiCircuitBreaker.GeminiUnavailableException.class);
+
+        breaker.recordSuccess();
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.CLOSED);
+        breaker.acquireOrThrow();
+    }
+
+    @Test
+    void failedTrialReopensTheCircuit() {
+        breaker.recordFailure(new ConnectException("refused"));
+        breaker.recordFailure(new ConnectException("refused"));
+        now.addAndGet(30_000);
+        breaker.acquireOrThrow();
+
+        breaker.recordFailure(new ConnectException("refused"));
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.OPEN);
+        assertThat(breaker.isAvailable()).isFalse();
+    }
+}
@@ -0,0 +1,208 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Cache de contexte contre un stub local de l'API Gemini (cachedContents + generateContent).
+ */
+class GeminiContextCacheTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String COURSE_CONTENT = "Le deep learning utilise des réseaux de neurones à plusieurs couches. "
+            .repeat(80);
+    private static final String INSTRUCTION = "Profil étudiant: débutant. Génère 5 questions.";
+
+    private HttpServer stub;
+    private final Map<String, String> cachesOnServer = new ConcurrentHashMap<>();
+    private final AtomicInteger creations = new AtomicInteger();
+    private final List<Map<String, Object>> generateRequests = new CopyOnWriteArrayList<>();
+    private final List<Integer> generateRequestBytes = new CopyOnWriteArrayList<>();
+    private volatile long cacheLifetimeSeconds = 3600;
+    private volatile int serverMinChars = 1000;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/v1beta/cachedContents", this::createCache);
+        stub.createContext("/v1beta/models/", this::generate);
+        stub.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    @Test
+    void courseContentIsRegisteredOnceThenOnlyTheInstructionIsSent() {
+        GeminiContextCache cache = contextCache(true, 4096);
+
+        String first = text(cache.generateContent(COURSE_CONTENT, instructionRequest()));
+        String second = text(cache.generateContent(COURSE_CONTENT, instructionRequest()));
+
+        assertThat(creations).hasValue(1);
+        assertThat(first).isEqualTo(second).startsWith("cached:");
+        assertThat(generateRequests).allSatisfy(request -> {
+            assertThat(request).containsKey("cachedContent");
+            assertThat(MAPPER.valueToTree(request).toString()).doesNotContain("deep learning");
+        });
+        // Upload par génération : la consigne seule, pas les ~5 800 caractères du cours
+        assertThat(generateRequestBytes).allSatisfy(bytes -> assertThat(bytes).isLessThan(600));
+        assertThat(cache.getMetrics()).containsEntry("hits", 2L).containsEntry("inlined", 0L);
+        assertThat((Long) cache.getMetrics().get("cachedTokensServed")).isEqualTo(2L * COURSE_CONTENT.length() / 4);
+    }
+
+    @Test
+    void entryCloseToExpiryIsRegisteredAgain() {
+        cacheLifetimeSeconds = 60; // sous la marge de renouvellement (120 s)
+        GeminiContextCache cache = contextCache(true, 4096);
+
+        cache.generateContent(COURSE_CONTENT, instructionRequest());
+        cache.generateContent(COURSE_CONTENT, instructionRequest());
+
+        assertThat(creations).hasValue(2);
+        assertThat(cache.getMetrics()).containsEntry("renewals", 1L);
+    }
+
+    @Test
+    void cacheUnknownToGeminiIsRegisteredAgainAndTheCallRetried() {
+        GeminiContextCache cache = contextCache(true, 4096);
+        cache.generateContent(COURSE_CONTENT, instructionRequest());
+
+        cachesOnServer.clear(); // supprimé côté Gemini avant l'échéance connue
+        String answer = text(cache.generateContent(COURSE_CONTENT, instructionRequest()));
+
+        assertThat(answer).startsWith("cached:");
+        assertThat(creations).hasValue(2);
+        assertThat(cache.getMetrics()).containsEntry("staleReferences", 1L);
+    }
+
+    @Test
+    void contentRefusedByGeminiIsSentInlineWithoutRetryingRegistration() {
+        serverMinChars = 100_000;
+        GeminiContextCache cache = contextCache(true, 4096);
+
+        String answer = text(cache.generateContent(COURSE_CONTENT, instructionRequest()));
+        cache.generateContent(COURSE_CONTENT, instructionRequest());
+
+        assertThat(answer).startsWith("inline:");
+        assertThat(creations).hasValue(0);
+        assertThat(generateRequests).allSatisfy(request -> assertThat(request).doesNotContainKey("cachedContent"));
+        assertThat(cache.getMetrics()).containsEntry("inlined", 2L);
+    }
+
+    @Test
+    void shortOrDisabledContextIsSentInline() {
+        GeminiContextCache disabled = contextCache(false, 4096);
+        GeminiContextCache shortContent = contextCache(true, 4096);
+
+        assertThat(text(disabled.generateContent(COURSE_CONTENT, instructionRequest()))).startsWith("inline:");
+        assertThat(text(shortContent.generateContent("Contenu court.", instructionRequest()))).startsWith("inline:");
+        assertThat(creations).hasValue(0);
+    }
+
+    private GeminiContextCache contextCache(boolean enabled, int minChars) {
+        GeminiCircuitBreaker breaker = new GeminiCircuitBreaker(5, 30_000);
+        GeminiGovernor governor = new GeminiGovernor(600, 1_000_000, 8, 2, 100, 100, 5_000, 5_000, 100);
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        GeminiHttpClient client = new GeminiHttpClient(httpClient, MAPPER, breaker, governor);
+        ReflectionTestUtils.setField(client, "apiKey", "test-key");
+        ReflectionTestUtils.setField(client, "apiUrl", "http://127.0.0.1:" + stub.getAddress().getPort() + "/v1beta/models/");
+        ReflectionTestUtils.setField(client, "timeoutMs", 5_000L);
+        return new GeminiContextCache(client, "gemini-test", enabled, 3600, 120, minChars, 10);
+    }
+
+    private static Map<String, Object> instructionRequest() {
+        Map<String, Object> request = new HashMap<>();
+        request.put("contents", List.of(Map.of("parts", List.of(Map.of("text", INSTRUCTION)))));
+        request.put("generationConfig", Map.of("maxOutputTokens", 1000));
+        return request;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String text(Map<String, Object> response) {
+        Map<String, Object> candidate = ((List<Map<String, Object>>) response.get("candidates")).get(0);
+        Map<String, Object> content = (Map<String, Object>) candidate.get("content");
+        return (String) ((List<Map<String, Object>>) content.get("parts")).get(0).get("text");
+    }
+
+    // ---- stub Gemini ----
+
+    @SuppressWarnings("unchecked")
+    private void createCache(HttpExchange exchange) throws IOException {
+        Map<String, Object> body = MAPPER.readValue(exchange.getRequestBody().readAllBytes(), Map.class);
+        String content = firstText((List<Map<String, Object>>) body.get("contents"));
+        if (content.length() < serverMinChars) {
+            respond(exchange, 400, "{\"error\": {\"code\": 400, \"message\": \"Cached content is too small\"}}");
+            return;
+        }
+        String name = "cachedContents/c" + creations.incrementAndGet();
+        cachesOnServer.put(name, content);
+        respond(exchange, 200, MAPPER.writeValueAsString(Map.of(
+                "name", name,
+                "model", body.get("model"),
+                "expireTime", Instant.now().plusSeconds(cacheLifetimeSeconds).toString(),
+                "usageMetadata", Map.of("totalTokenCount", content.length() / 4))));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void generate(HttpExchange exchange) throws IOException {
+        byte[] raw = exchange.getRequestBody().readAllBytes();
+        Map<String, Object> body = MAPPER.readValue(raw, Map.class);
+        generateRequests.add(body);
+        generateRequestBytes.add(raw.length);
+
+        String prompt = firstText((List<Map<String, Object>>) body.get("contents"));
+        int cachedTokens = 0;
+        String answer;
+        if (body.get("cachedContent") instanceof String name) {
+            String cached = cachesOnServer.get(name);
+            if (cached == null) {
+                respond(exchange, 404, "{\"error\": {\"code\": 404, \"message\": \"CachedContent not found\"}}");
+                return;
+            }
+            cachedTokens = cached.length() / 4;
+            answer = "cached:" + prompt.length();
+        } else {
+            answer = "inline:" + prompt.length();
+        }
+        int promptTokens = prompt.length() / 4 + cachedTokens;
+        respond(exchange, 200, MAPPER.writeValueAsString(Map.of(
+                "candidates", List.of(Map.of("content", Map.of("parts", List.of(Map.of("text", answer))),
+                        "finishReason", "STOP")),
+                "usageMetadata", Map.of("promptTokenCount", promptTokens, "cachedContentTokenCount", cachedTokens,
+                        "totalTokenCount", promptTokens + 10))));
+    }
+
+    private static String firstText(List<Map<String, Object>> contents) {
+        List<?> parts = (List<?>) contents.get(0).get("parts");
+        return parts.isEmpty() ? "" : String.valueOf(((Map<?, ?>) parts.get(0)).get("text"));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,134 @@
+package com.iatd.smarthub.service.llm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Requêtes doublées : le doublon part au centile de latence, la première réponse gagne et
+ * l'autre tentative est annulée ; le budget borne le nombre de doublons.
+ */
+class GeminiHedgerTest {
+
+    private GeminiHedger hedger;
+
+    @AfterEach
+    void tearDown() {
+        hedger.shutdown();
+    }
+
+    @Test
+    void slowCallIsHedgedAndTheLoserIsInterrupted() throws InterruptedException {
+        hedger = new GeminiHedger(true, 0.95, 1.0, 10, 1, 5);
+        warmUp(5, 10);
+
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch loserInterrupted = new CountDownLatch(1);
+        long start = System.nanoTime();
+        String result = hedger.call("op", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(5_000);
+                } catch (InterruptedException e) {
+                    loserInterrupted.countDown();
+                    throw new RuntimeException("Appel Gemini interrompu", e);
+                }
+                return "lent";
+            }
+            return "doublon";
+        });
+
+        assertThat(result).isEqualTo("doublon");
+        assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(2_000);
+        assertThat(loserInterrupted.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(hedger.getMetrics()).containsEntry("hedgesFired", 1L).containsEntry("hedgeWins", 1L);
+    }
+
+    @Test
+    void cancelledPrimariesKeepTheDelayFromDrifting() {
+        hedger = new GeminiHedger(true, 0.5, 1.0, 10, 1, 5);
+        warmUp(5, 100);
+        long before = hedger.hedgeDelayMs("op");
+
+        for (int i = 0; i < 6; i++) {
+            AtomicInteger attempts = new AtomicInteger();
+            hedger.call("op", () -> attempts.incrementAndGet() == 1 ? sleepThen(5_000, "lent") : "doublon");
+        }
+
+        assertThat(hedger.getMetrics()).containsEntry("hedgeWins", 6L);
+        assertThat(hedger.hedgeDelayMs("op")).isGreaterThanOrEqualTo(before);
+    }
+
+    @Test
+    void hedgesStayWithinTheBudget() {
+        hedger = new GeminiHedger(true, 0.5, 0.1, 10, 1, 5);
+        warmUp(10, 5);
+        for (int i = 0; i < 30; i++) {
+            hedger.call("op", () -> sleepThen(40, "ok"));
+        }
+
+        long calls = (Long) hedger.getMetrics().get("calls");
+        long fired = (Long) hedger.getMetrics().get("hedgesFired");
+        assertThat(fired).isPositive().isLessThanOrEqualTo(Math.round(calls * 0.1));
+        assertThat((Long) hedger.getMetrics().get("budgetDenied")).isPositive();
+    }
+
+    @Test
+    void earlyFailureIsReturnedWithoutHedging() {
+        hedger = new GeminiHedger(true, 0.95, 1.0, 10, 50, 5);
+        warmUp(5, 1);
+
+        assertThatThrownBy(() -> hedger.call("op", () -> {
+            throw new GeminiHttpClient.GeminiHttpException(400, "Invalid argument");
+        })).isInstanceOf(GeminiHttpClient.GeminiHttpException.class);
+        assertThat(hedger.getMetrics()).containsEntry("hedgesFired", 0L);
+    }
+
+    @Test
+    void asyncLoserIsUnsubscribed() throws InterruptedException {
+        hedger = new GeminiHedger(true, 0.95, 1.0, 10, 1, 5);
+        for (int i = 0; i < 5; i++) {
+            hedger.callAsync("op", () -> Mono.just("ok").delayElement(Duration.ofMillis(10))).block();
+        }
+
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch loserCancelled = new CountDownLatch(1);
+        String result = hedger.callAsync("op", () -> attempts.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofSeconds(5)).map(tick -> "lent").doOnCancel(loserCancelled::countDown)
+                : Mono.just("doublon")).block(Duration.ofSeconds(2));
+
+        assertThat(result).isEqualTo("doublon");
+        assertThat(loserCancelled.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void disabledHedgerCallsThrough() {
+        hedger = new GeminiHedger(false, 0.95, 1.0, 10, 1, 1);
+        assertThat(hedger.call("op", () -> "direct")).isEqualTo("direct");
+        assertThat(hedger.getMetrics()).containsEntry("calls", 0L);
+    }
+
+    private void warmUp(int calls, long latencyMs) {
+        for (int i = 0; i < calls; i++) {
+            hedger.call("op", () -> sleepThen(latencyMs, "ok"));
+        }
+    }
+
+    private static String sleepThen(long ms, String value) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Appel Gemini interrompu", e);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,349 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stub local de l'API Gemini pour les tests de charge hors quota : generateContent,
+ * streamGenerateContent (SSE), embedContent et batchEmbedContents sous /v1beta/models/.
+ *
+ * Latence (distribution tirée à chaque requête), débit de sortie en tokens par seconde,
+ * taux d'erreurs HTTP et taux de JSON mal formé sont réglables à chaud. Les réponses de
+ * génération sont des quiz valides du nombre de questions demandé par le prompt.
+ */
+public class GeminiStubServer implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // Prompt structuré (EXACTEMENT n QUESTIONS) ou prompt de sujet (Génère n questions)
+    private static final Pattern QUESTION_COUNT = Pattern.compile("EXACTEMENT (\\d+) QUESTIONS|Génère (\\d+) questions");
+    private static final int EMBEDDING_DIMENSIONS = 768;
+    private static final int STREAM_CHUNK_CHARS = 200;
+
+    /**
+     * Distribution de la latence avant le premier octet de réponse, en millisecondes.
+     */
+    @FunctionalInterface
+    public interface LatencyDistribution {
+
+        long sampleMs(Random random);
+
+        static LatencyDistribution fixed(long ms) {
+            return random -> ms;
+        }
+
+        static LatencyDistribution uniform(long minMs, long maxMs) {
+            return random -> minMs + (long) (random.nextDouble() * (maxMs - minMs));
+        }
+
+        /**
+         * Log-normale de médiane medianMs : sigma ~0.5 donne une queue proche d'une API distante.
+         */
+        static LatencyDistribution logNormal(long medianMs, double sigma) {
+            return random -> Math.round(medianMs * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong questionSequence = new AtomicLong();
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+    private volatile LatencyDistribution latency = LatencyDistribution.fixed(0);
+    private volatile int tokensPerSecond = 0;
+    private volatile double errorRate = 0;
+    private volatile int errorStatus = 503;
+    private volatile double malformedRate = 0;
+    private final AtomicInteger truncateNext = new AtomicInteger();
+
+    public GeminiStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        // Un thread virtuel par requête : les latences simulées n'immobilisent pas de thread plateforme
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/v1beta/models/", this::handle);
+        server.start();
+    }
+
+    /**
+     * URL à donner à gemini.api.url (se termine par "/v1beta/models/").
+     */
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/";
+    }
+
+    public GeminiStubServer latency(LatencyDistribution latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Débit de sortie simulé (0 = réponse immédiate) : le corps, ou chaque morceau du flux,
+     * est retenu le temps de « générer » ses tokens (4 caractères par token).
+     */
+    public GeminiStubServer tokensPerSecond(int tokensPerSecond) {
+        this.tokensPerSecond = tokensPerSecond;
+        return this;
+    }
+
+    public GeminiStubServer errorRate(double errorRate, int status) {
+        this.errorRate = errorRate;
+        this.errorStatus = status;
+        return this;
+    }
+
+    /**
+     * Part des réponses de génération dont le texte du modèle est un JSON tronqué
+     * (flux coupé au milieu d'une question) ; l'enveloppe HTTP reste valide, comme chez Gemini.
+     */
+    public GeminiStubServer malformedRate(double malformedRate) {
+        this.malformedRate = malformedRate;
+        return this;
+    }
+
+    /**
+     * Tronque les count prochaines réponses de génération, quel que soit malformedRate.
+     */
+    public GeminiStubServer truncateNext(int count) {
+        truncateNext.set(count);
+        return this;
+    }
+
+    public long requests(String endpoint) {
+        EndpointStats stats = endpoints.get(endpoint);
+        return stats != null ? stats.requests.sum() : 0;
+    }
+
+    public long injectedErrors(String endpoint) {
+        EndpointStats stats = endpoints.get(endpoint);
+        return stats != null ? stats.errors.sum() : 0;
+    }
+
+    public long injectedMalformed(String endpoint) {
+        EndpointStats stats = endpoints.get(endpoint);
+        return stats != null ? stats.malformed.sum() : 0;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new TreeMap<>();
+        endpoints.forEach((name, stats) -> metrics.put(name, Map.of(
+                "requests", stats.requests.sum(),
+                "errors", stats.errors.sum(),
+                "malformed", stats.malformed.sum())));
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // ---- requêtes ----
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] raw = exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            String endpoint = path.substring(path.lastIndexOf(':') + 1);
+            EndpointStats stats = endpoints.computeIfAbsent(endpoint, k -> new EndpointStats());
+            stats.requests.increment();
+
+            Random random = ThreadLocalRandom.current();
+            sleep(latency.sampleMs(random));
+            if (random.nextDouble() < errorRate) {
+                stats.errors.increment();
+                respond(exchange, errorStatus, "{\"error\": {\"code\": " + errorStatus
+                        + ", \"message\": \"Injected failure\", \"status\": \"UNAVAILABLE\"}}");
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> body = MAPPER.readValue(raw, Map.class);
+            boolean malformed = random.nextDouble() < malformedRate
+                    || (endpoint.toLowerCase().endsWith("generatecontent")
+                        && truncateNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0);
+            switch (endpoint) {
+                case "generateContent" -> generate(exchange, body, malformed, stats);
+                case "streamGenerateContent" -> stream(exchange, body, malformed, stats);
+                case "embedContent" -> respond(exchange, 200, MAPPER.writeValueAsString(
+                        Map.of("embedding", embedding(body.get("content")))));
+                case "batchEmbedContents" -> batchEmbed(exchange, body);
+                default -> respond(exchange, 404, "{\"error\": {\"code\": 404, \"message\": \"Unknown method "
+                        + endpoint + "\"}}");
+            }
+        }
+    }
+
+    private void generate(HttpExchange exchange, Map<String, Object> body, boolean malformed, EndpointStats stats)
+            throws IOException {
+        String prompt = promptText(body);
+        String answer = quizJson(questionCount(prompt));
+        if (malformed) {
+            stats.malformed.increment();
+            answer = truncate(answer);
+        }
+        pace(answer.length());
+        respond(exchange, 200, MAPPER.writeValueAsString(Map.of(
+                "candidates", List.of(Map.of(
+                        "content", Map.of("role", "model", "parts", List.of(Map.of("text", answer))),
+                        "finishReason", malformed ? "MAX_TOKENS" : "STOP")),
+                "usageMetadata", usage(prompt, answer))));
+    }
+
+    private void stream(HttpExchange exchange, Map<String, Object> body, boolean malformed, EndpointStats stats)
+            throws IOException {
+        String prompt = promptText(body);
+        String answer = quizJson(questionCount(prompt));
+        if (malformed) {
+            stats.malformed.increment();
+            answer = truncate(answer);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        for (int start = 0; start < answer.length(); start += STREAM_CHUNK_CHARS) {
+            String piece = answer.substring(start, Math.min(answer.length(), start + STREAM_CHUNK_CHARS));
+            boolean last = start + STREAM_CHUNK_CHARS >= answer.length();
+            pace(piece.length());
+            Map<String, Object> candidate = new HashMap<>();
+            candidate.put("content", Map.of("role", "model", "parts", List.of(Map.of("text", piece))));
+            if (last) {
+                candidate.put("finishReason", malformed ? "MAX_TOKENS" : "STOP");
+            }
+            Map<String, Object> chunk = new HashMap<>();
+            chunk.put("candidates", List.of(candidate));
+            if (last) {
+                chunk.put("usageMetadata", usage(prompt, answer));
+            }
+            out.write(("data: " + MAPPER.writeValueAsString(chunk) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void batchEmbed(HttpExchange exchange, Map<String, Object> body) throws IOException {
+        List<Map<String, Object>> requests = (List<Map<String, Object>>) body.getOrDefault("requests", List.of());
+        List<Map<String, Object>> embeddings = new ArrayList<>(requests.size());
+        for (Map<String, Object> request : requests) {
+            embeddings.add(embedding(request.get("content")));
+        }
+        respond(exchange, 200, MAPPER.writeValueAsString(Map.of("embeddings", embeddings)));
+    }
+
+    // ---- contenu des réponses ----
+
+    /**
+     * Quiz JSON de count questions, toutes distinctes (numéro global) pour ne pas être
+     * fusionnées par le dédoublonnage des parts.
+     */
+    private String quizJson(int count) throws IOException {
+        List<Map<String, Object>> questions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long n = questionSequence.incrementAndGet();
+            String answer = "Réponse correcte " + n;
+            questions.add(Map.of(
+                    "text", "Question de charge " + n + " : quelle notion du cours illustre l'exemple " + n + " ?",
+                    "type", "SINGLE_CHOICE",
+                    "options", List.of(answer, "Distracteur A " + n, "Distracteur B " + n, "Distracteur C " + n),
+                    "correctAnswer", answer,
+                    "explanation", "Le passage " + n + " du cours décrit cette notion."));
+        }
+        return MAPPER.writeValueAsString(Map.of("questions", questions));
+    }
+
+    private static String truncate(String json) {
+        // Coupé au milieu de la dernière question : les précédentes restent exploitables
+        int cut = json.lastIndexOf("{\"");
+        return json.substring(0, Math.max(1, cut + (json.length() - cut) / 2));
+    }
+
+    private static Map<String, Object> embedding(Object content) {
+        String text = content instanceof Map<?, ?> map ? firstPartText(map.get("parts")) : "";
+        // Vecteur déterministe par texte : un même texte donne le même embedding
+        Random random = new Random(text.hashCode());
+        List<Double> values = new ArrayList<>(EMBEDDING_DIMENSIONS);
+        for (int i = 0; i < EMBEDDING_DIMENSIONS; i++) {
+            values.add(random.nextGaussian());
+        }
+        return Map.of("values", values);
+    }
+
+    private static int questionCount(String prompt) {
+        Matcher matcher = QUESTION_COUNT.matcher(prompt);
+        int count = 10;
+        while (matcher.find()) {
+            count = Integer.parseInt(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        }
+        return Math.max(1, count);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String promptText(Map<String, Object> body) {
+        StringBuilder text = new StringBuilder();
+        for (Map<String, Object> content : (List<Map<String, Object>>) body.getOrDefault("contents", List.of())) {
+            text.append(firstPartText(content.get("parts")));
+        }
+        return text.toString();
+    }
+
+    private static String firstPartText(Object parts) {
+        if (parts instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof Map<?, ?> part) {
+            return String.valueOf(part.get("text"));
+        }
+        return "";
+    }
+
+    private static Map<String, Object> usage(String prompt, String answer) {
+        int promptTokens = prompt.length() / 4;
+        int outputTokens = answer.length() / 4;
+        return Map.of("promptTokenCount", promptTokens, "candidatesTokenCount", outputTokens,
+                "totalTokenCount", promptTokens + outputTokens);
+    }
+
+    private void pace(int outputChars) {
+        int rate = tokensPerSecond;
+        if (rate > 0) {
+            sleep(outputChars / 4 * 1000L / rate);
+        }
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static class EndpointStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder malformed = new LongAdder();
+    }
+}
@@ -0,0 +1,114 @@
+package com.iatd.smarthub.service.llm;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Balayage de concurrence d'une opération du pipeline LLM : pour chaque niveau, n clients
+ * (threads plateforme, comme les threads de requête Tomcat) se partagent un nombre fixe
+ * d'appels. Mesure le débit, la latence p50/p99 par appel et l'allocation mémoire.
+ *
+ * L'allocation est celle de toute la JVM pendant le palier (stub compris, threads virtuels
+ * des parts et event loops Netty inclus) : à comparer entre paliers et entre versions.
+ */
+public class LlmLoadHarness {
+
+    /**
+     * Un appel de l'opération mesurée ; false = réponse dégradée (fallback), une exception = échec.
+     */
+    @FunctionalInterface
+    public interface Operation {
+        boolean call(int requestIndex) throws Exception;
+    }
+
+    public record LevelResult(String operation, int concurrency, int requests, int succeeded, int degraded,
+                              int failed, double throughputPerSecond, long p50Ms, long p99Ms,
+                              double allocatedMbPerSecond, long allocatedBytesPerRequest) {
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final List<LevelResult> results = new CopyOnWriteArrayList<>();
+    private final AtomicInteger requestIndex = new AtomicInteger();
+
+    public List<LevelResult> sweep(String name, int[] concurrencyLevels, int requestsPerLevel, Operation operation)
+            throws InterruptedException {
+        List<LevelResult> sweep = new ArrayList<>();
+        for (int concurrency : concurrencyLevels) {
+            sweep.add(run(name, concurrency, requestsPerLevel, operation));
+        }
+        return sweep;
+    }
+
+    public LevelResult run(String name, int concurrency, int requests, Operation operation)
+            throws InterruptedException {
+        LatencyRecorder latency = new LatencyRecorder(Math.max(1, requests));
+        LongAdder succeeded = new LongAdder();
+        LongAdder degraded = new LongAdder();
+        LongAdder failed = new LongAdder();
+        AtomicInteger remaining = new AtomicInteger(requests);
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch done = new CountDownLatch(concurrency);
+        long allocatedBefore = THREADS.getTotalThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int c = 0; c < concurrency; c++) {
+            clients.execute(() -> {
+                try {
+                    while (remaining.getAndDecrement() > 0) {
+                        long callStart = System.nanoTime();
+                        try {
+                            if (operation.call(requestIndex.getAndIncrement())) {
+                                succeeded.increment();
+                            } else {
+                                degraded.increment();
+                            }
+                        } catch (Exception e) {
+                            failed.increment();
+                        }
+                        latency.record((System.nanoTime() - callStart) / 1_000_000);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsedNanos = Math.max(1, System.nanoTime() - start);
+        long allocated = Math.max(0, THREADS.getTotalThreadAllocatedBytes() - allocatedBefore);
+        clients.shutdown();
+
+        double seconds = elapsedNanos / 1e9;
+        LevelResult result = new LevelResult(name, concurrency, requests, (int) succeeded.sum(), (int) degraded.sum(),
+                (int) failed.sum(), requests / seconds, latency.percentile(0.50), latency.percentile(0.99),
+                allocated / seconds / (1024 * 1024), allocated / Math.max(1, requests));
+        results.add(result);
+        return result;
+    }
+
+    public List<LevelResult> getResults() {
+        return List.copyOf(results);
+    }
+
+    /**
+     * Tableau texte de tous les paliers mesurés.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "%-30s %6s %6s %5s %5s %5s %9s %7s %7s %9s %11s%n",
+                "operation", "conc", "reqs", "ok", "degr", "fail", "req/s", "p50ms", "p99ms", "alloc MB/s", "alloc B/req"));
+        for (LevelResult r : results) {
+            report.append(String.format(Locale.ROOT, "%-30s %6d %6d %5d %5d %5d %9.1f %7d %7d %9.1f %11d%n",
+                    r.operation(), r.concurrency(), r.requests(), r.succeeded(), r.degraded(), r.failed(),
+                    r.throughputPerSecond(), r.p50Ms(), r.p99Ms(), r.allocatedMbPerSecond(),
+                    r.allocatedBytesPerRequest()));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,389 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iatd.smarthub.dto.QuizResponseDTO;
+import com.iatd.smarthub.model.course.CourseFile;
+import com.iatd.smarthub.model.quiz.Question;
+import com.iatd.smarthub.model.rag.LearningProfile;
+import com.iatd.smarthub.model.user.User;
+import com.iatd.smarthub.repository.CourseFileRepository;
+import com.iatd.smarthub.repository.UserRepository;
+import com.iatd.smarthub.repository.rag.KnowledgeBaseRepository;
+import com.iatd.smarthub.repository.rag.LearningProfileRepository;
+import com.iatd.smarthub.repository.rag.QuizRecommendationRepository;
+import com.iatd.smarthub.service.FileStorageService;
+import com.iatd.smarthub.service.OllamaService;
+import com.iatd.smarthub.service.rag.*;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Charge du pipeline LLM (OllamaService, EmbeddingService, RAGQuizService) contre le stub
+ * Gemini local : aucun appel réseau externe, aucun quota consommé.
+ *
+ * Seuls les contrôles déterministes tournent dans le build ; les balayages de concurrence et les
+ * fautes aléatoires sont tagués "benchmark". Pour une vraie campagne, par exemple :
+ * mvn test -Dtest=LlmPipelineLoadTest -Dsurefire.excludedGroups= -Dloadtest.levels=1,8,32,64
+ *     -Dloadtest.requests=500 -Dloadtest.latency-ms=800 -Dloadtest.tokens-per-second=400
+ */
+@Slf4j
+class LlmPipelineLoadTest {
+
+    private static final int[] LEVELS = Arrays.stream(System.getProperty("loadtest.levels", "1,4,16").split(","))
+            .map(String::trim).mapToInt(Integer::parseInt).toArray();
+    private static final int REQUESTS = Integer.getInteger("loadtest.requests", 16);
+    private static final long LATENCY_MS = Long.getLong("loadtest.latency-ms", 20);
+    private static final int TOKENS_PER_SECOND = Integer.getInteger("loadtest.tokens-per-second", 20_000);
+
+    private static final String COURSE_TITLE = "Deep Learning";
+    private static final LlmLoadHarness HARNESS = new LlmLoadHarness();
+
+    @TempDir
+    Path cacheDir;
+
+    private GeminiStubServer stub;
+    private ReactiveGeminiClient reactiveClient;
+    private OllamaService ollamaService;
+    private LlmTokenAccounting tokenAccounting;
+    private GeminiHedger hedger;
+    private EmbeddingBatcher embeddingBatcher;
+    private EmbeddingService embeddingService;
+    private RAGQuizService ragQuizService;
+
+    @BeforeEach
+    void wirePipeline() throws IOException {
+        stub = new GeminiStubServer()
+                .latency(GeminiStubServer.LatencyDistribution.logNormal(LATENCY_MS, 0.5))
+                .tokensPerSecond(TOKENS_PER_SECOND);
+        hedger = new GeminiHedger(false, 0.95, 0.05, 10, 200, 20);
+        wire(new GeminiCircuitBreaker(5, 30_000), recorder(false), replay(false, 1));
+    }
+
+    @AfterEach
+    void stopStub() {
+        hedger.shutdown();
+        embeddingBatcher.shutdown();
+        reactiveClient.shutdown();
+        stub.close();
+    }
+
+    @AfterAll
+    static void printReport() {
+        log.info("📊 Charge du pipeline LLM:\n{}", HARNESS.report());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void structuredQuizThroughOllamaService() throws InterruptedException {
+        List<LlmLoadHarness.LevelResult> results = HARNESS.sweep("ollama.structuredQuiz", LEVELS, REQUESTS,
+                i -> !ollamaService.generateStructuredQuiz("Contenu du cours n°" + i, 5, null).isEmpty());
+
+        assertThat(results).allSatisfy(r -> assertThat(r.succeeded()).isEqualTo(REQUESTS));
+        assertThat(stub.requests("generateContent")).isEqualTo((long) REQUESTS * LEVELS.length);
+        // Après quelques réponses, la réserve de sortie suit l'usage réel au lieu du budget fixe
+        assertThat(tokenAccounting.maxOutputTokens("quiz", 5, 11_500)).isLessThan(11_500);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void streamedQuizThroughOllamaService() throws InterruptedException {
+        List<LlmLoadHarness.LevelResult> results = HARNESS.sweep("ollama.streamQuiz", LEVELS, REQUESTS,
+                i -> ollamaService.streamStructuredQuiz("Contenu du cours n°" + i, null).collectList().block().size() == 20);
+
+        assertThat(results).allSatisfy(r -> assertThat(r.succeeded()).isEqualTo(REQUESTS));
+        assertThat(stub.requests("streamGenerateContent")).isEqualTo((long) REQUESTS * LEVELS.length);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void embeddingsThroughEmbeddingService() throws InterruptedException {
+        // Textes distincts : le cache d'embeddings du service ne doit pas absorber la charge
+        List<LlmLoadHarness.LevelResult> results = HARNESS.sweep("embedding.findEmbedding", LEVELS, REQUESTS,
+                i -> embeddingService.findEmbedding("Passage de cours numéro " + i).isPresent());
+
+        assertThat(results).allSatisfy(r -> assertThat(r.succeeded()).isEqualTo(REQUESTS));
+        // Appels simultanés regroupés en batchEmbedContents : moins d'appels que de demandes
+        long calls = stub.requests("embedContent") + stub.requests("batchEmbedContents");
+        assertThat(calls).isLessThanOrEqualTo((long) REQUESTS * LEVELS.length);
+        if (Arrays.stream(LEVELS).anyMatch(level -> level > 1)) {
+            assertThat(calls).isLessThan((long) REQUESTS * LEVELS.length);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void courseQuizThroughRAGQuizService() throws InterruptedException {
+        // Un cours par requête : le regroupement des générations identiques (SingleFlight) n'intervient pas
+        List<LlmLoadHarness.LevelResult> results = HARNESS.sweep("ragQuiz.courseQuiz", LEVELS, REQUESTS, i -> {
+            QuizResponseDTO quiz = ragQuizService.generatePersonalizedQuizForCourse((long) i, (long) i, COURSE_TITLE);
+            return quiz.getQuestions().size() == 20 && !quiz.getDescription().contains("fallback")
+                    && !quiz.getDescription().contains("secours");
+        });
+
+        assertThat(results).allSatisfy(r -> assertThat(r.succeeded()).isEqualTo(REQUESTS));
+        // Contenu réparti en parts générées en parallèle : plusieurs generateContent par quiz
+        assertThat(stub.requests("generateContent")).isGreaterThan((long) REQUESTS * LEVELS.length);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void injectedErrorsFailCallsAndTruncatedJsonIsToppedUp() throws Exception {
+        // Disjoncteur hors jeu : chaque échec observé correspond à une erreur injectée
+        stopStub();
+        stub = new GeminiStubServer()
+                .latency(GeminiStubServer.LatencyDistribution.uniform(1, 10))
+                .errorRate(0.2, 503)
+                .malformedRate(0.3);
+        wire(new GeminiCircuitBreaker(10_000, 30_000), recorder(false), replay(false, 1));
+
+        LlmLoadHarness.LevelResult result = HARNESS.run("ollama.structuredQuiz+faults", 8, REQUESTS * 2,
+                i -> ollamaService.generateStructuredQuiz("Contenu du cours n°" + i, 5, null).size() == 5);
+
+        long errors = stub.injectedErrors("generateContent");
+        long malformed = stub.injectedMalformed("generateContent");
+        Map<String, Object> topUp = ollamaService.getTopUpMetrics();
+        // Une erreur sur un complément ne fait pas échouer l'appel : seules celles des générations comptent
+        assertThat((long) result.failed()).isLessThanOrEqualTo(errors);
+        // Réponse tronquée : les questions complètes sont conservées et la dernière redemandée ;
+        // un quiz ne reste court que si tous ses compléments ont échoué
+        assertThat((Long) topUp.get("topUpCalls")).isPositive().isLessThanOrEqualTo(malformed * 2);
+        assertThat((Long) topUp.get("toppedUpQuestions")).isPositive();
+        assertThat((long) result.degraded()).isEqualTo(topUp.get("shortResults"));
+        assertThat(result.succeeded() + result.degraded() + result.failed()).isEqualTo(REQUESTS * 2);
+    }
+
+    @Test
+    void truncatedResponseIsCompletedByASmallTopUpCall() {
+        ReflectionTestUtils.setField(ollamaService, "topUpMaxAttempts", 2);
+        ReflectionTestUtils.setField(ollamaService, "topUpBackoffMs", 5L);
+        ReflectionTestUtils.setField(ollamaService, "topUpMaxBackoffMs", 50L);
+        // Réponse coupée (4 questions complètes sur 5), puis premier complément coupé lui aussi
+        stub.truncateNext(2);
+
+        List<Question> questions = ollamaService.generateStructuredQuiz("Contenu du cours", 5, null);
+
+        assertThat(questions).hasSize(5).extracting(Question::getText).doesNotHaveDuplicates();
+        // Pas de régénération complète : une génération, puis deux compléments d'une question
+        assertThat(stub.requests("generateContent")).isEqualTo(3);
+        assertThat(ollamaService.getTopUpMetrics())
+                .containsEntry("topUpCalls", 2L)
+                .containsEntry("topUpFailures", 1L)
+                .containsEntry("toppedUpQuestions", 1L)
+                .containsEntry("shortResults", 0L);
+    }
+
+    @Test
+    void truncatedAsyncResponseIsCompletedByASmallTopUpCall() {
+        ReflectionTestUtils.setField(ollamaService, "topUpMaxAttempts", 2);
+        ReflectionTestUtils.setField(ollamaService, "topUpBackoffMs", 5L);
+        ReflectionTestUtils.setField(ollamaService, "topUpMaxBackoffMs", 50L);
+        // Chemin des endpoints /quizzes/generate* : même complément, reprises par Mono.delay
+        stub.truncateNext(2);
+
+        List<Question> questions = ollamaService.generateQuestionsAsync("Réseaux de neurones", 5)
+                .block(Duration.ofSeconds(30));
+
+        assertThat(questions).hasSize(5).extracting(Question::getText).doesNotHaveDuplicates();
+        assertThat(stub.requests("generateContent")).isEqualTo(3);
+        assertThat(ollamaService.getTopUpMetrics())
+                .containsEntry("topUpCalls", 2L)
+                .containsEntry("topUpFailures", 1L)
+                .containsEntry("toppedUpQuestions", 1L)
+                .containsEntry("shortResults", 0L);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void hedgingAnswersSlowCallsWithinTheBudget() throws Exception {
+        // Traîne lourde : la plupart des réponses rapides, quelques-unes très lentes
+        stopStub();
+        stub = new GeminiStubServer().latency(GeminiStubServer.LatencyDistribution.logNormal(20, 1.2));
+        hedger = new GeminiHedger(true, 0.9, 0.2, 10, 1, 10);
+        wire(new GeminiCircuitBreaker(5, 30_000), recorder(false), replay(false, 1));
+
+        int calls = REQUESTS * 4;
+        LlmLoadHarness.LevelResult result = HARNESS.run("ollama.structuredQuiz+hedging", 4, calls,
+                i -> ollamaService.generateStructuredQuiz("Contenu du cours n°" + i, 5, null).size() == 5);
+
+        long fired = (Long) hedger.getMetrics().get("hedgesFired");
+        assertThat(result.succeeded()).isEqualTo(calls);
+        assertThat(fired).isLessThanOrEqualTo(Math.round(calls * 0.2));
+        // Un doublon annulé avant son envoi n'atteint pas le stub
+        assertThat(stub.requests("generateContent")).isBetween((long) calls, calls + fired);
+    }
+
+    @Test
+    void recordedTrafficIsReplayedOfflineThroughThePipeline() throws Exception {
+        // 1. Enregistrement contre le stub (en production : contre Gemini, llm.recording.enabled=true)
+        stopStub();
+        stub = new GeminiStubServer().latency(GeminiStubServer.LatencyDistribution.fixed(40));
+        LlmTrafficRecorder recorder = recorder(true);
+        wire(new GeminiCircuitBreaker(5, 30_000), recorder, replay(false, 1));
+        for (int i = 0; i < 4; i++) {
+            ragQuizService.generatePersonalizedQuizForCourse((long) i, (long) i, COURSE_TITLE);
+            embeddingService.findEmbedding("Passage enregistré " + i);
+        }
+        recorder.close();
+        long recordedCalls = stub.requests("generateContent") + stub.requests("embedContent")
+                + stub.requests("batchEmbedContents");
+
+        // 2. Rejeu sans Gemini ni stub : parsing, validation et pipeline complet, à vitesse x10 puis sans attente
+        stopStub();
+        stub = new GeminiStubServer();
+        for (double speed : new double[]{10, 0}) {
+            LlmTrafficReplay replay = replay(true, speed);
+            wire(new GeminiCircuitBreaker(5, 30_000), recorder(false), replay);
+            LlmLoadHarness.LevelResult result = HARNESS.run("replay.courseQuiz x" + (int) speed, 4, REQUESTS, i -> {
+                QuizResponseDTO quiz = ragQuizService.generatePersonalizedQuizForCourse(1000L + i, 1000L + i, COURSE_TITLE);
+                return quiz.getQuestions().size() == 20 && !quiz.getDescription().contains("fallback");
+            });
+            assertThat(result.succeeded()).isEqualTo(REQUESTS);
+            assertThat((Long) replay.getMetrics().get("misses")).isZero();
+        }
+        assertThat(recordedCalls).isPositive();
+        assertThat(stub.requests("generateContent")).isZero();
+    }
+
+    // ---- câblage ----
+
+    private LlmTrafficRecorder recorder(boolean enabled) {
+        return new LlmTrafficRecorder(new ObjectMapper(), enabled, cacheDir.resolve("recordings").toString(), 500,
+                "load-test-key");
+    }
+
+    private LlmTrafficReplay replay(boolean enabled, double speed) {
+        LlmTrafficReplay replay = new LlmTrafficReplay(new ObjectMapper(), enabled,
+                cacheDir.resolve("recordings").toString(), speed, false);
+        replay.load();
+        return replay;
+    }
+
+    private void wire(GeminiCircuitBreaker breaker, LlmTrafficRecorder recorder, LlmTrafficReplay replay) {
+        ObjectMapper mapper = new ObjectMapper();
+        // Quotas hors d'atteinte : on mesure le pipeline, pas le gouverneur
+        GeminiGovernor governor = new GeminiGovernor(1_000_000, 1_000_000_000, 512, 128, 10_000, 10_000,
+                60_000, 60_000, 100);
+
+        GeminiHttpClient httpClient = new GeminiHttpClient(
+                HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build(), mapper, breaker, governor);
+        ReflectionTestUtils.setField(httpClient, "apiKey", "load-test-key");
+        ReflectionTestUtils.setField(httpClient, "apiUrl", stub.getApiUrl());
+        ReflectionTestUtils.setField(httpClient, "timeoutMs", 30_000L);
+
+        reactiveClient = new ReactiveGeminiClient(WebClient.builder(), breaker, governor, "load-test-key",
+                stub.getApiUrl(), 30_000, 5_000, 256, 10_000);
+
+        // Cache de réponses désactivé : chaque appel atteint le stub
+        LlmResponseCache responseCache = new LlmResponseCache(mapper);
+        ReflectionTestUtils.setField(responseCache, "enabled", false);
+        ReflectionTestUtils.setField(responseCache, "cacheDir", cacheDir.toString());
+        responseCache.init();
+
+        LlmRouter router = new LlmRouter(List.of(new GeminiLlmProvider(httpClient, breaker, "gemini-stub")),
+                0.5, 5, 20, 4.0, 3.0, 1000);
+        GeminiContextCache contextCache = new GeminiContextCache(httpClient, "gemini-stub", false, 3600, 120, 4096, 10);
+
+        tokenAccounting = new LlmTokenAccounting(true, 5, 50, 0.95, 1.3, 256, 512);
+        ollamaService = new OllamaService(httpClient, reactiveClient, responseCache, router, contextCache,
+                recorder, replay, tokenAccounting, hedger);
+        ReflectionTestUtils.setField(ollamaService, "geminiModelName", "gemini-stub");
+        ReflectionTestUtils.setField(ollamaService, "streamThinkingBudget", 0);
+        // Valeurs de application.properties : @Value n'est pas appliqué hors contexte Spring
+        ReflectionTestUtils.setField(ollamaService, "topUpMaxAttempts", 2);
+        ReflectionTestUtils.setField(ollamaService, "topUpBackoffMs", 500L);
+        ReflectionTestUtils.setField(ollamaService, "topUpMaxBackoffMs", 5000L);
+
+        GeminiHealthMonitor healthMonitor = mock(GeminiHealthMonitor.class);
+        when(healthMonitor.isAvailable()).thenReturn(true);
+        embeddingBatcher = new EmbeddingBatcher(ollamaService);
+        ReflectionTestUtils.setField(embeddingBatcher, "enabled", true);
+        ReflectionTestUtils.setField(embeddingBatcher, "maxBatchSize", 32);
+        ReflectionTestUtils.setField(embeddingBatcher, "maxWaitMs", 5L);
+        ReflectionTestUtils.setField(embeddingBatcher, "timeoutMs", 30_000L);
+        embeddingBatcher.init();
+        embeddingService = new EmbeddingService(healthMonitor, embeddingBatcher);
+        ragQuizService = ragQuizService(healthMonitor, contextCache);
+    }
+
+    private RAGQuizService ragQuizService(GeminiHealthMonitor healthMonitor, GeminiContextCache contextCache) {
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findById(anyLong())).thenAnswer(invocation -> {
+            User user = new User();
+            user.setId(invocation.getArgument(0));
+            return Optional.of(user);
+        });
+        LearningProfileRepository profileRepository = mock(LearningProfileRepository.class);
+        when(profileRepository.findByUserId(anyLong())).thenAnswer(invocation -> {
+            LearningProfile profile = new LearningProfile();
+            profile.setProficiencyLevel("INTERMEDIATE");
+            profile.setInterests(new ArrayList<>(List.of("Réseaux de neurones")));
+            profile.setWeaknesses(new ArrayList<>());
+            return Optional.of(profile);
+        });
+        CourseFileRepository courseFileRepository = mock(CourseFileRepository.class);
+        when(courseFileRepository.findByCourseId(anyLong())).thenAnswer(invocation -> List.of(
+                courseFile(1L, "chapitre1.txt"), courseFile(2L, "chapitre2.txt")));
+        FileStorageService fileStorageService = mock(FileStorageService.class);
+        when(fileStorageService.getExtractedText(anyString()))
+                .thenAnswer(invocation -> Optional.of(courseContent(invocation.getArgument(0))));
+
+        ContextPackerService contextPacker = new ContextPackerService();
+        ReflectionTestUtils.setField(contextPacker, "tokenBudget", 6000);
+        ReflectionTestUtils.setField(contextPacker, "chunkTokens", 250);
+        ReflectionTestUtils.setField(contextPacker, "minFileShare", 0.5);
+        SingleFlight singleFlight = new SingleFlight();
+        ReflectionTestUtils.setField(singleFlight, "waitTimeoutMs", 60_000L);
+
+        RAGQuizService service = new RAGQuizService(courseFileRepository, userRepository, ollamaService,
+                new RAGQuizGenerationService(ollamaService, healthMonitor), mock(KnowledgeBaseRepository.class),
+                profileRepository, mock(QuizRecommendationRepository.class),
+                mock(VectorRAGService.class), embeddingService, fileStorageService, contextPacker, healthMonitor,
+                singleFlight, mock(TransactionTemplate.class), contextCache);
+        ReflectionTestUtils.setField(service, "quizShards", 4);
+        return service;
+    }
+
+    private static CourseFile courseFile(Long id, String name) {
+        CourseFile file = new CourseFile();
+        file.setId(id);
+        file.setFileName(name);
+        file.setFilePath("blob-" + name);
+        file.setFileType("txt");
+        file.setFileSize(40_000L);
+        return file;
+    }
+
+    private static String courseContent(String fileName) {
+        String[] topics = {"rétropropagation", "descente de gradient", "convolution", "normalisation par lots",
+                "régularisation", "fonctions d'activation", "réseaux récurrents", "attention", "dropout",
+                "initialisation des poids"};
+        StringBuilder content = new StringBuilder("Deep Learning - " + fileName + "\n\n");
+        for (int i = 0; i < 300; i++) {
+            String topic = topics[i % topics.length];
+            content.append("Section ").append(i).append(" : le deep learning s'appuie sur la notion de ")
+                    .append(topic).append(", illustrée ici par l'exemple ").append(i)
+                    .append(" et ses conséquences sur l'apprentissage du réseau.\n");
+        }
+        return content.toString();
+    }
+}
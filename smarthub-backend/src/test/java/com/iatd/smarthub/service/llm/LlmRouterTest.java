@@ -0,0 +1,212 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iatd.smarthub.config.OllamaConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Routage entre une API Gemini et un Ollama simulés par des serveurs HTTP locaux.
+ */
+class LlmRouterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private HttpServer geminiStub;
+    private HttpServer ollamaStub;
+    private final AtomicInteger geminiCalls = new AtomicInteger();
+    private final AtomicInteger ollamaCalls = new AtomicInteger();
+    private volatile int ollamaStatus = 200;
+    private volatile long ollamaDelayMs;
+
+    private GeminiLlmProvider gemini;
+    private OllamaLlmProvider ollama;
+
+    @BeforeEach
+    void startStubs() throws IOException {
+        geminiStub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        geminiStub.createContext("/v1beta/models/", exchange -> {
+            geminiCalls.incrementAndGet();
+            respond(exchange, 200, "{\"candidates\": [{\"content\": {\"parts\": [{\"text\": \"réponse gemini\"}]},"
+                    + " \"finishReason\": \"STOP\"}], \"usageMetadata\": {\"totalTokenCount\": 12}}");
+        });
+        geminiStub.start();
+
+        ollamaStub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ollamaStub.createContext("/api/tags", exchange -> respond(exchange, 200, "{\"models\": []}"));
+        ollamaStub.createContext("/api/generate", exchange -> {
+            ollamaCalls.incrementAndGet();
+            sleep(ollamaDelayMs);
+            respond(exchange, ollamaStatus, ollamaStatus == 200
+                    ? "{\"model\": \"llama3.2:1b\", \"response\": \"réponse locale\", \"done\": true}"
+                    : "{\"error\": \"model not loaded\"}");
+        });
+        ollamaStub.start();
+
+        gemini = geminiProvider("http://127.0.0.1:" + geminiStub.getAddress().getPort() + "/v1beta/models/");
+        ollama = ollamaProvider("http://127.0.0.1:" + ollamaStub.getAddress().getPort());
+    }
+
+    @AfterEach
+    void stopStubs() {
+        geminiStub.stop(0);
+        ollamaStub.stop(0);
+    }
+
+    @Test
+    void lightweightTaskGoesToLocalModel() {
+        LlmRouter router = router(gemini, ollama);
+
+        LlmRouter.LlmResponse response = router.generate(LlmRequest.of("Reformule cette question", LlmTask.SIMPLE_TEXT));
+
+        assertThat(response.provider()).isEqualTo("ollama");
+        assertThat(response.text()).isEqualTo("réponse locale");
+        assertThat(geminiCalls).hasValue(0);
+    }
+
+    @Test
+    void quizGenerationStaysOnGemini() {
+        LlmRouter router = router(gemini, ollama);
+
+        LlmRouter.LlmResponse response = router.generate(LlmRequest.of("Génère 20 questions", LlmTask.QUIZ_GENERATION));
+
+        assertThat(response.provider()).isEqualTo("gemini");
+        assertThat(router.route(LlmTask.QUIZ_GENERATION)).extracting(LlmProvider::name).containsExactly("gemini");
+        assertThat(ollamaCalls).hasValue(0);
+    }
+
+    @Test
+    void failingLocalModelFailsOverThenIsDemoted() {
+        ollamaStatus = 500;
+        LlmRouter router = router(gemini, ollama);
+
+        assertThat(router.generate(LlmRequest.of("Bonjour", LlmTask.SIMPLE_TEXT)).provider()).isEqualTo("gemini");
+        assertThat(ollamaCalls).hasValue(1);
+        for (int i = 0; i < 10; i++) {
+            assertThat(router.generate(LlmRequest.of("Bonjour", LlmTask.SIMPLE_TEXT)).provider()).isEqualTo("gemini");
+        }
+
+        // Au-delà du taux d'erreur maximal (5 échantillons), le modèle local n'est plus qu'un repli
+        assertThat(router.route(LlmTask.SIMPLE_TEXT)).extracting(LlmProvider::name).containsExactly("gemini", "ollama");
+        assertThat(ollamaCalls.get()).isLessThanOrEqualTo(5);
+    }
+
+    @Test
+    void fastFailingLocalModelIsNotPreferredBeforeMinSamples() {
+        // Modèle non téléchargé : Ollama répond 404 en quelques ms
+        ollamaStatus = 404;
+        LlmRouter router = router(gemini, ollama);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(router.generate(LlmRequest.of("Bonjour", LlmTask.SIMPLE_TEXT)).provider()).isEqualTo("gemini");
+        }
+
+        // Un seul essai : l'échec rapide ne lui donne pas la meilleure latence
+        assertThat(ollamaCalls).hasValue(1);
+        assertThat(router.route(LlmTask.SIMPLE_TEXT)).extracting(LlmProvider::name).containsExactly("gemini", "ollama");
+    }
+
+    @Test
+    void availabilityIsReadFromTheLastScheduledProbe() {
+        int port = ollamaStub.getAddress().getPort();
+        assertThat(ollama.isAvailable()).isTrue();
+
+        ollamaStub.stop(0);
+        // Pas de sonde à la lecture : l'état ne change qu'au prochain passage planifié
+        assertThat(ollama.isAvailable()).isTrue();
+        ollama.refreshAvailability();
+        assertThat(ollama.isAvailable()).isFalse();
+        assertThat(ollamaProvider("http://127.0.0.1:" + port).isAvailable()).isFalse();
+    }
+
+    @Test
+    void slowLocalModelLosesToMeasuredFasterRemote() {
+        ollamaDelayMs = 300;
+        LlmRouter router = router(gemini, ollama);
+
+        assertThat(router.generate(LlmRequest.of("Bonjour", LlmTask.SIMPLE_TEXT)).provider()).isEqualTo("ollama");
+        router.generate(LlmRequest.of("Génère un quiz", LlmTask.QUIZ_GENERATION));
+
+        // Gemini mesuré à quelques ms : même pénalisé (x3) pour une tâche légère, il passe devant
+        assertThat(router.route(LlmTask.SIMPLE_TEXT)).extracting(LlmProvider::name).containsExactly("gemini", "ollama");
+        assertThat(router.generate(LlmRequest.of("Bonjour", LlmTask.SIMPLE_TEXT)).provider()).isEqualTo("gemini");
+    }
+
+    @Test
+    void unreachableLocalModelIsTriedLast() {
+        int closedPort = ollamaStub.getAddress().getPort();
+        ollamaStub.stop(0);
+        LlmRouter router = router(gemini, ollamaProvider("http://127.0.0.1:" + closedPort));
+
+        assertThat(router.route(LlmTask.FALLBACK_QUIZ)).extracting(LlmProvider::name).containsExactly("gemini", "ollama");
+        assertThat(router.generate(LlmRequest.of("Questions de secours", LlmTask.FALLBACK_QUIZ)).provider())
+                .isEqualTo("gemini");
+    }
+
+    @Test
+    void reportsLastErrorWhenEveryProviderFails() {
+        ollamaStatus = 503;
+        LlmRouter router = router(ollama);
+
+        assertThatThrownBy(() -> router.generate(LlmRequest.of("Bonjour", LlmTask.SIMPLE_TEXT)))
+                .hasMessageContaining("Erreur HTTP Ollama 503");
+        assertThatThrownBy(() -> router.generate(LlmRequest.of("Quiz", LlmTask.QUIZ_GENERATION)))
+                .hasMessageContaining("Aucun fournisseur");
+    }
+
+    private static LlmRouter router(LlmProvider... providers) {
+        return new LlmRouter(List.of(providers), 0.5, 5, 20, 4.0, 3.0, 1000);
+    }
+
+    private static GeminiLlmProvider geminiProvider(String apiUrl) {
+        GeminiCircuitBreaker breaker = new GeminiCircuitBreaker(5, 30_000);
+        GeminiGovernor governor = new GeminiGovernor(600, 1_000_000, 8, 2, 100, 100, 5_000, 5_000, 100);
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        GeminiHttpClient client = new GeminiHttpClient(httpClient, MAPPER, breaker, governor);
+        ReflectionTestUtils.setField(client, "apiKey", "test-key");
+        ReflectionTestUtils.setField(client, "apiUrl", apiUrl);
+        ReflectionTestUtils.setField(client, "timeoutMs", 5_000L);
+        return new GeminiLlmProvider(client, breaker, "gemini-test");
+    }
+
+    private static OllamaLlmProvider ollamaProvider(String url) {
+        OllamaConfig config = new OllamaConfig();
+        config.getApi().setUrl(url);
+        config.setTimeoutMs(5_000);
+        OllamaLlmProvider provider = new OllamaLlmProvider(config, MAPPER, true);
+        // Sonde planifiée en production : lancée une fois à la main
+        provider.refreshAvailability();
+        return provider;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
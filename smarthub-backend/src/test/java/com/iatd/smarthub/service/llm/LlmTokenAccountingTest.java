@@ -0,0 +1,99 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Comptabilité usageMetadata et budgets maxOutputTokens adaptatifs (démarrage à froid, mise à
+ * l'échelle par question, relèvement après une réponse coupée, clés de cache indépendantes du budget).
+ */
+class LlmTokenAccountingTest {
+
+    private static final int STATIC_BUDGET = 16_000;
+
+    private final LlmTokenAccounting accounting = new LlmTokenAccounting(true, 5, 50, 0.95, 1.2, 100, 512);
+
+    @Test
+    void staticBudgetAppliesUntilEnoughCallsAreObserved() {
+        for (int i = 0; i < 4; i++) {
+            accounting.recordOutput("quiz", 20, request(STATIC_BUDGET), response(2_000, 0, "STOP"));
+        }
+        assertThat(accounting.maxOutputTokens("quiz", 20, STATIC_BUDGET)).isEqualTo(STATIC_BUDGET);
+
+        accounting.recordOutput("quiz", 20, request(STATIC_BUDGET), response(2_000, 0, "STOP"));
+        // 100 tokens par question x 20 x 1.2 + 100
+        assertThat(accounting.maxOutputTokens("quiz", 20, STATIC_BUDGET)).isEqualTo(2_500);
+    }
+
+    @Test
+    void budgetScalesWithQuestionCountWhileThinkingStaysPerCall() {
+        for (int i = 0; i < 5; i++) {
+            accounting.recordOutput("quiz", 20, request(STATIC_BUDGET), response(2_000, 1_000, "STOP"));
+        }
+        // (1000 de réflexion + 100 x n) x 1.2 + 100
+        assertThat(accounting.maxOutputTokens("quiz", 20, STATIC_BUDGET)).isEqualTo(3_700);
+        assertThat(accounting.maxOutputTokens("quiz", 5, STATIC_BUDGET)).isEqualTo(1_900);
+        assertThat(accounting.maxOutputTokens("quiz", 200, 10_000)).isEqualTo(10_000);
+        assertThat(accounting.maxOutputTokens("raw", 1, STATIC_BUDGET)).isEqualTo(STATIC_BUDGET);
+    }
+
+    @Test
+    void truncatedResponseRaisesTheNextBudgets() {
+        for (int i = 0; i < 5; i++) {
+            accounting.recordOutput("quiz", 10, request(STATIC_BUDGET), response(1_000, 0, "STOP"));
+        }
+        int before = accounting.maxOutputTokens("quiz", 10, STATIC_BUDGET);
+        accounting.recordOutput("quiz", 10, request(before), response(before, 0, "MAX_TOKENS"));
+
+        assertThat(accounting.maxOutputTokens("quiz", 10, STATIC_BUDGET)).isGreaterThanOrEqualTo(2 * before);
+        assertThat(budgetMetrics("quiz")).containsEntry("truncations", 1L);
+    }
+
+    @Test
+    void usageIsAccumulatedPerOperationAndMethod() {
+        accounting.recordUsage("generateContent", "m:generateContent", response(300, 50, "STOP"));
+        accounting.recordUsage("generateContent", "m:generateContent", response(100, 0, "STOP"));
+        accounting.recordUsage("embedContent", "e:embedContent", Map.of("embedding", Map.of()));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> usage = (Map<String, Map<String, Object>>) accounting.getMetrics().get("usage");
+        assertThat(usage).containsOnlyKeys("generateContent m:generateContent");
+        assertThat(usage.get("generateContent m:generateContent"))
+                .containsEntry("calls", 2L)
+                .containsEntry("promptTokens", 2_000L)
+                .containsEntry("outputTokens", 400L)
+                .containsEntry("thoughtsTokens", 50L);
+    }
+
+    @Test
+    void responseCacheKeyIgnoresTheOutputBudget() {
+        LlmResponseCache cache = new LlmResponseCache(new ObjectMapper());
+
+        assertThat(cache.fingerprint("m", request(2_500))).isEqualTo(cache.fingerprint("m", request(STATIC_BUDGET)));
+        assertThat(request(2_500)).extractingByKey("generationConfig").asString().contains("maxOutputTokens");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> budgetMetrics(String kind) {
+        return ((Map<String, Map<String, Object>>) accounting.getMetrics().get("budgets")).get(kind);
+    }
+
+    private static Map<String, Object> request(int maxOutputTokens) {
+        return Map.of("contents", List.of(Map.of("parts", List.of(Map.of("text", "prompt")))),
+                "generationConfig", Map.of("maxOutputTokens", maxOutputTokens, "temperature", 0.3));
+    }
+
+    private static Map<String, Object> response(int outputTokens, int thoughtsTokens, String finishReason) {
+        return Map.of(
+                "candidates", List.of(Map.of("content", Map.of("parts", List.of(Map.of("text", "..."))),
+                        "finishReason", finishReason)),
+                "usageMetadata", Map.of("promptTokenCount", 1_000, "candidatesTokenCount", outputTokens,
+                        "thoughtsTokenCount", thoughtsTokens,
+                        "totalTokenCount", 1_000 + outputTokens + thoughtsTokens));
+    }
+}
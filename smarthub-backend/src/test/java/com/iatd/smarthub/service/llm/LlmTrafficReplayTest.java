@@ -0,0 +1,150 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Enregistrement compressé du trafic Gemini puis rejeu (correspondance exacte, substitution,
+ * erreurs, flux, rythme accéléré).
+ */
+class LlmTrafficReplayTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String API_KEY = "AIzaSyA-test-key-0123456789abcdefghijklm";
+    private static final String METHOD = "gemini-2.5-flash:generateContent";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void exactRequestGetsItsRecordedResponseAndOthersAreServedInTurn() {
+        LlmTrafficRecorder recorder = recorder(10);
+        recorder.record("generateContent", METHOD, request("prompt A"), response("réponse A"), 5);
+        recorder.record("generateContent", METHOD, request("prompt B"), response("réponse B"), 5);
+        recorder.close();
+
+        LlmTrafficReplay replay = replay(0, false);
+
+        assertThat(text(replay.replay(METHOD, request("prompt B")))).isEqualTo("réponse B");
+        assertThat(text(replay.replay(METHOD, request("prompt inconnu")))).isEqualTo("réponse A");
+        assertThat(text(replay.replay(METHOD, request("autre prompt")))).isEqualTo("réponse B");
+        assertThat(replay.getMetrics()).containsEntry("exactHits", 1L).containsEntry("substitutions", 2L);
+    }
+
+    @Test
+    void apiKeyNeverReachesTheRecordingFiles() throws IOException {
+        LlmTrafficRecorder recorder = recorder(10);
+        recorder.recordFailure("generateContent", METHOD, request("prompt"),
+                new GeminiHttpClient.GeminiHttpException(403, "API key " + API_KEY + " not valid"), 12);
+        recorder.record("generateContent", METHOD, request("clé AIzaSyB0000000000000000000000000000000ab"),
+                response("ok"), 5);
+        recorder.close();
+
+        String recorded = readAll();
+        assertThat(recorded).doesNotContain(API_KEY).doesNotContain("AIzaSyB").contains("[REDACTED]");
+    }
+
+    @Test
+    void recordedFailuresAreReplayedWithTheirStatus() {
+        LlmTrafficRecorder recorder = recorder(10);
+        recorder.recordFailure("generateContent", METHOD, request("prompt"),
+                new RuntimeException("wrapper", new GeminiHttpClient.GeminiHttpException(503, "overloaded")), 3);
+        recorder.close();
+
+        assertThatThrownBy(() -> replay(0, false).replay(METHOD, request("prompt")))
+                .isInstanceOfSatisfying(GeminiHttpClient.GeminiHttpException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(503));
+    }
+
+    @Test
+    void streamKeepsChunkOrderAndRecordedSpacingScaledBySpeed() {
+        LlmTrafficRecorder recorder = recorder(10);
+        recorder.recordStream("streamGenerateContent", "m:streamGenerateContent", request("prompt"), List.of(
+                new LlmTrafficRecorder.StreamChunk(100, response("{\"questions\": [")),
+                new LlmTrafficRecorder.StreamChunk(500, response("]}"))), 500);
+        recorder.close();
+
+        long start = System.nanoTime();
+        List<Map<String, Object>> chunks = replay(10, false)
+                .replayStream("m:streamGenerateContent", request("prompt")).collectList().block();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(chunks).extracting(LlmTrafficReplayTest::text).containsExactly("{\"questions\": [", "]}");
+        // 500 ms enregistrées, rejouées dix fois plus vite
+        assertThat(elapsedMs).isBetween(40L, 400L);
+    }
+
+    @Test
+    void filesRotateAndAnInterruptedFileIsReadUpToTheCut() throws IOException {
+        LlmTrafficRecorder recorder = recorder(2);
+        for (int i = 0; i < 5; i++) {
+            recorder.record("generateContent", METHOD, request("prompt " + i), response("réponse " + i), 1);
+        }
+        // Dernier fichier laissé ouvert : pas de fin de flux gzip, comme après un arrêt brutal
+        assertThat(recordingFiles()).hasSize(3);
+
+        LlmTrafficReplay replay = replay(0, true);
+        assertThat(replay.getMetrics()).containsEntry("exchanges", 5);
+        assertThat(text(replay.replay(METHOD, request("prompt 4")))).isEqualTo("réponse 4");
+        assertThatThrownBy(() -> replay.replay(METHOD, request("prompt inconnu")))
+                .hasMessageContaining("rejeu strict");
+        recorder.close();
+    }
+
+    private LlmTrafficRecorder recorder(int maxRecordsPerFile) {
+        return new LlmTrafficRecorder(MAPPER, true, dir.toString(), maxRecordsPerFile, API_KEY);
+    }
+
+    private LlmTrafficReplay replay(double speed, boolean strict) {
+        LlmTrafficReplay replay = new LlmTrafficReplay(MAPPER, true, dir.toString(), speed, strict);
+        replay.load();
+        return replay;
+    }
+
+    private List<Path> recordingFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".jsonl.gz")).sorted().toList();
+        }
+    }
+
+    private String readAll() throws IOException {
+        StringBuilder all = new StringBuilder();
+        for (Path file : recordingFiles()) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+                all.append(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return all.toString();
+    }
+
+    private static Map<String, Object> request(String prompt) {
+        return Map.of("contents", List.of(Map.of("parts", List.of(Map.of("text", prompt)))),
+                "generationConfig", Map.of("maxOutputTokens", 1000, "temperature", 0.3));
+    }
+
+    private static Map<String, Object> response(String text) {
+        return Map.of("candidates", List.of(Map.of(
+                "content", Map.of("parts", List.of(Map.of("text", text))), "finishReason", "STOP")));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String text(Map<String, Object> response) {
+        Map<String, Object> candidate = ((List<Map<String, Object>>) response.get("candidates")).get(0);
+        Map<String, Object> content = (Map<String, Object>) candidate.get("content");
+        return (String) ((List<Map<String, Object>>) content.get("parts")).get(0).get("text");
+    }
+}
@@ -0,0 +1,71 @@
+package com.iatd.smarthub.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Comparaison avec l'ancien chemin (regex + indexOf + readTree + readValue en Map).
+ * JMH n'étant pas disponible dans le build, mesure simple après préchauffage. Exclue du build
+ * par défaut : mvn test -Dtest=QuizJsonStreamParserBenchmark -Dsurefire.excludedGroups=
+ */
+@Slf4j
+@Tag("benchmark")
+class QuizJsonStreamParserBenchmark {
+
+    @Test
+    void compareWithLegacyParsing() throws Exception {
+        StringBuilder json = new StringBuilder("Voici le quiz :\n```json\n{\"questions\": [");
+        for (int i = 0; i < 20; i++) {
+            json.append(i > 0 ? ", " : "").append(QuizJsonStreamParserTest.QUESTION);
+        }
+        String response = json.append("]}\n```").toString();
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        assertThat(legacyParse(objectMapper, response)).hasSize(20);
+        assertThat(QuizJsonStreamParser.parse(response).questions()).hasSize(20);
+
+        int warmup = 2_000;
+        int iterations = 5_000;
+        long sink = 0;
+        for (int i = 0; i < warmup; i++) {
+            sink += legacyParse(objectMapper, response).size();
+            sink += QuizJsonStreamParser.parse(response).questions().size();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += legacyParse(objectMapper, response).size();
+        }
+        long legacyNs = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += QuizJsonStreamParser.parse(response).questions().size();
+        }
+        long streamingNs = (System.nanoTime() - start) / iterations;
+
+        log.info("📊 Parsing {} caractères, 20 questions : ancien chemin {} µs/op, flux Jackson {} µs/op",
+                response.length(), legacyNs / 1_000, streamingNs / 1_000);
+        // Chaque itération a bien lu les 20 questions (le résultat n'est pas éliminé par le JIT)
+        assertThat(sink).isEqualTo(20L * (2 * warmup + 2 * iterations));
+    }
+
+    /**
+     * Reproduction de l'ancien chemin OllamaService.cleanAndValidateAIResponse + parseAIResponse.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> legacyParse(ObjectMapper objectMapper, String response) throws Exception {
+        String cleaned = response.replaceAll("```json\\n?", "").replaceAll("\\n?```", "").trim();
+        cleaned = cleaned.substring(cleaned.indexOf('{'), cleaned.lastIndexOf('}') + 1);
+        objectMapper.readTree(cleaned);
+        Map<String, Object> responseMap = objectMapper.readValue(cleaned, Map.class);
+        return (List<Map<String, Object>>) responseMap.get("questions");
+    }
+}
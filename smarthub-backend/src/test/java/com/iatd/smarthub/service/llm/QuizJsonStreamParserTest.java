@@ -0,0 +1,75 @@
+package com.iatd.smarthub.service.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QuizJsonStreamParserTest {
+
+    static final String QUESTION =
+            "{\"text\": \"Quelle est la complexité d'une recherche \\\"dichotomique\\\" {triée} ?\", "
+                    + "\"type\": \"SINGLE_CHOICE\", "
+                    + "\"options\": [\"O(1)\", \"O(log n)\", \"O(n)\", \"O(n²)\"], "
+                    + "\"correctAnswer\": \"O(log n)\", \"explanation\": \"Division par deux à chaque étape.\"}";
+
+    @Test
+    void toleratesCodeFenceAndLeadingProse() {
+        String response = "Voici le quiz demandé :\n```json\n{\"questions\": [" + QUESTION + ", " + QUESTION
+                + "]}\n```\nBonne révision !";
+
+        QuizJsonStreamParser.Result result = QuizJsonStreamParser.parse(response);
+
+        assertThat(result.complete()).isTrue();
+        assertThat(result.questions()).hasSize(2);
+        QuizJsonStreamParser.ParsedQuestion first = result.questions().get(0);
+        assertThat(first.value("text")).isEqualTo("Quelle est la complexité d'une recherche \"dichotomique\" {triée} ?");
+        assertThat(first.list("options")).containsExactly("O(1)", "O(log n)", "O(n)", "O(n²)");
+        assertThat(first.value("correctAnswer")).isEqualTo("O(log n)");
+    }
+
+    @Test
+    void recoversCompleteQuestionsFromTruncatedResponse() {
+        String response = "{\"questions\": [" + QUESTION + ", " + QUESTION + ", {\"text\": \"Question coupée par MAX_TO";
+
+        QuizJsonStreamParser.Result result = QuizJsonStreamParser.parse(response);
+
+        assertThat(result.complete()).isFalse();
+        assertThat(result.questions()).hasSize(2);
+    }
+
+    @Test
+    void readsRootArrayAndObjectOptions() {
+        String response = "[{\"question\": \"Laquelle est une couleur primaire ?\", \"options\": "
+                + "[{\"text\": \"Rouge\", \"correct\": true}, {\"option\": \"Vert\"}], "
+                + "\"correctAnswer\": [\"Rouge\"], \"meta\": {\"options\": [\"ignorée\"]}}]";
+
+        QuizJsonStreamParser.Result result = QuizJsonStreamParser.parse(response);
+
+        assertThat(result.complete()).isTrue();
+        QuizJsonStreamParser.ParsedQuestion question = result.questions().get(0);
+        assertThat(question.value("question")).isEqualTo("Laquelle est une couleur primaire ?");
+        assertThat(question.list("options")).containsExactly("Rouge", "Vert");
+        assertThat(question.list("correctAnswer")).containsExactly("Rouge");
+        assertThat(question.has("meta")).isFalse();
+    }
+
+    @Test
+    void emitsEachQuestionAsSoonAsItsChunkArrives() {
+        String response = "```json\n{\"questions\": [" + QUESTION + ", " + QUESTION + "]}\n```";
+        QuizJsonStreamParser parser = new QuizJsonStreamParser();
+        List<Integer> completedAt = new ArrayList<>();
+
+        for (int i = 0; i < response.length(); i += 7) {
+            int end = Math.min(response.length(), i + 7);
+            parser.feed(response.substring(i, end)).forEach(q -> completedAt.add(end));
+        }
+
+        int secondQuestionStart = response.lastIndexOf(QUESTION);
+        assertThat(completedAt).hasSize(2);
+        assertThat(completedAt.get(0)).isLessThan(secondQuestionStart);
+        assertThat(parser.isComplete()).isTrue();
+    }
+}
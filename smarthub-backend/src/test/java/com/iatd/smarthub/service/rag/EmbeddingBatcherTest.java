@@ -0,0 +1,128 @@
+package com.iatd.smarthub.service.rag;
+
+import com.iatd.smarthub.service.OllamaService;
+import com.iatd.smarthub.service.llm.GeminiHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Regroupement des embeddings simultanés : un appel par lot, le bon vecteur pour chaque
+ * appelant, envoi immédiat d'un lot plein et repli texte par texte sur un lot refusé.
+ */
+class EmbeddingBatcherTest {
+
+    private OllamaService ollamaService;
+    private EmbeddingBatcher batcher;
+
+    @BeforeEach
+    void setUp() {
+        ollamaService = mock(OllamaService.class);
+        when(ollamaService.generateEmbedding(anyString()))
+                .thenAnswer(invocation -> vector(invocation.getArgument(0)));
+        when(ollamaService.generateEmbeddingsBatch(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return texts.stream().map(EmbeddingBatcherTest::vector).toList();
+        });
+        batcher = batcher(32, 20);
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    @Test
+    void concurrentCallersShareOneCallAndEachGetsItsOwnVector() throws Exception {
+        int callers = 16;
+        ExecutorService clients = Executors.newFixedThreadPool(callers);
+        CyclicBarrier start = new CyclicBarrier(callers);
+        List<Future<float[]>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            String text = "texte " + i;
+            results.add(clients.submit(() -> {
+                start.await();
+                return batcher.embed(text);
+            }));
+        }
+        for (int i = 0; i < callers; i++) {
+            assertThat(results.get(i).get(5, TimeUnit.SECONDS)).containsExactly(vector("texte " + i));
+        }
+        clients.shutdown();
+
+        assertThat((Long) batcher.getMetrics().get("calls")).isLessThan(callers);
+        assertThat((Integer) batcher.getMetrics().get("largestBatch")).isGreaterThan(1);
+    }
+
+    @Test
+    void loneTextKeepsTheSingleEmbeddingCall() {
+        assertThat(batcher.embed("seul")).containsExactly(vector("seul"));
+
+        verify(ollamaService).generateEmbedding("seul");
+        verify(ollamaService, never()).generateEmbeddingsBatch(anyList());
+    }
+
+    @Test
+    void fullBatchLeavesWithoutWaitingAndDuplicatesAreSentOnce() throws Exception {
+        batcher.shutdown();
+        batcher = batcher(3, 60_000);
+
+        CompletableFuture<float[]> a = batcher.submit("a");
+        CompletableFuture<float[]> again = batcher.submit("a");
+        CompletableFuture<float[]> b = batcher.submit("b");
+        CompletableFuture<float[]> c = batcher.submit("c");
+
+        assertThat(a.get(2, TimeUnit.SECONDS)).containsExactly(vector("a"));
+        assertThat(again.get(2, TimeUnit.SECONDS)).containsExactly(vector("a")).isNotSameAs(a.get());
+        assertThat(c.get(2, TimeUnit.SECONDS)).containsExactly(vector("c"));
+        assertThat(b.get()).containsExactly(vector("b"));
+        verify(ollamaService).generateEmbeddingsBatch(List.of("a", "b", "c"));
+    }
+
+    @Test
+    void rejectedBatchIsRetriedTextByTextWhileUnavailabilityFailsEveryCaller() throws Exception {
+        when(ollamaService.generateEmbeddingsBatch(anyList())).thenThrow(new RuntimeException("lot refusé",
+                new GeminiHttpClient.GeminiHttpException(400, "Invalid argument")));
+        when(ollamaService.generateEmbedding("mauvais")).thenThrow(new RuntimeException("texte refusé"));
+
+        CompletableFuture<float[]> good = batcher.submit("bon");
+        CompletableFuture<float[]> bad = batcher.submit("mauvais");
+
+        assertThat(good.get(2, TimeUnit.SECONDS)).containsExactly(vector("bon"));
+        assertThatThrownBy(() -> bad.get(2, TimeUnit.SECONDS)).hasRootCauseMessage("texte refusé");
+
+        doThrow(new RuntimeException("indisponible", new GeminiHttpClient.GeminiHttpException(503, "overloaded")))
+                .when(ollamaService).generateEmbeddingsBatch(anyList());
+        CompletableFuture<float[]> first = batcher.submit("un");
+        CompletableFuture<float[]> second = batcher.submit("deux");
+
+        assertThatThrownBy(() -> first.get(2, TimeUnit.SECONDS)).hasMessageContaining("indisponible");
+        assertThatThrownBy(() -> second.get(2, TimeUnit.SECONDS)).hasMessageContaining("indisponible");
+        verify(ollamaService, never()).generateEmbedding("un");
+    }
+
+    private EmbeddingBatcher batcher(int maxBatchSize, long maxWaitMs) {
+        EmbeddingBatcher batcher = new EmbeddingBatcher(ollamaService);
+        ReflectionTestUtils.setField(batcher, "enabled", true);
+        ReflectionTestUtils.setField(batcher, "maxBatchSize", maxBatchSize);
+        ReflectionTestUtils.setField(batcher, "maxWaitMs", maxWaitMs);
+        ReflectionTestUtils.setField(batcher, "timeoutMs", 5_000L);
+        batcher.init();
+        return batcher;
+    }
+
+    private static float[] vector(String text) {
+        return new float[]{text.hashCode(), text.length()};
+    }
+}
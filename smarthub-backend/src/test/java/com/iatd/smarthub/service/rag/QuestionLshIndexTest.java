@@ -0,0 +1,81 @@
+package com.iatd.smarthub.service.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Index LSH : une paraphrase au-dessus du seuil de cosinus est retrouvée, une question
+ * simplement voisine (sous le seuil) ne l'est pas.
+ */
+class QuestionLshIndexTest {
+
+    private static final int DIMENSIONS = 64;
+    private static final double THRESHOLD = 0.92;
+
+    @Test
+    void nearDuplicatesAreFoundAroundTheThreshold() {
+        Random random = new Random(42);
+        for (int i = 0; i < 50; i++) {
+            QuestionLshIndex<String> index = new QuestionLshIndex<>(10, 10, THRESHOLD);
+            float[] base = randomUnit(random);
+            index.add("originale", base);
+
+            assertThat(index.findNearDuplicate(base)).contains("originale");
+            assertThat(index.findNearDuplicate(atCosine(base, THRESHOLD + 0.05, random))).contains("originale");
+            assertThat(index.findNearDuplicate(atCosine(base, THRESHOLD - 0.02, random))).isEmpty();
+        }
+    }
+
+    @Test
+    void vectorsOfAnotherDimensionAreIgnored() {
+        QuestionLshIndex<String> index = new QuestionLshIndex<>(10, 10, THRESHOLD);
+        float[] base = randomUnit(new Random(7));
+        index.add("originale", base);
+        index.add("autre modèle", new float[DIMENSIONS / 2]);
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.findNearDuplicate(new float[DIMENSIONS / 2])).isEmpty();
+        assertThat(index.findNearDuplicate(new float[0])).isEmpty();
+    }
+
+    private static float[] randomUnit(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return normalize(vector);
+    }
+
+    /**
+     * Vecteur unitaire dont le cosinus avec base (unitaire) vaut exactement cosine.
+     */
+    private static float[] atCosine(float[] base, double cosine, Random random) {
+        float[] noise = randomUnit(random);
+        double projection = QuestionLshIndex.cosine(noise, base);
+        for (int i = 0; i < DIMENSIONS; i++) {
+            noise[i] -= (float) (projection * base[i]);
+        }
+        normalize(noise);
+        double sine = Math.sqrt(1 - cosine * cosine);
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (cosine * base[i] + sine * noise[i]);
+        }
+        return vector;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= (float) norm;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,49 @@
+package com.iatd.smarthub.service.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Filtre des questions vues : aucun faux négatif, y compris après sérialisation, et remise
+ * à zéro quand la taille configurée change.
+ */
+class SeenQuestionsFilterTest {
+
+    private static final List<String> QUESTIONS = IntStream.range(0, 1_000)
+        .mapToObj(i -> "Quelle est la complexité de l'algorithme n°" + i + " ?")
+        .toList();
+
+    @Test
+    void everyRecordedQuestionIsSeen() {
+        SeenQuestionsFilter filter = new SeenQuestionsFilter(16_384, 5);
+        QUESTIONS.forEach(filter::put);
+
+        assertThat(QUESTIONS).allMatch(filter::mightContain);
+        SeenQuestionsFilter reloaded = SeenQuestionsFilter.fromBytes(filter.toBytes(), 16_384, 5);
+        assertThat(QUESTIONS).allMatch(reloaded::mightContain);
+    }
+
+    @Test
+    void questionsAreMatchedAfterNormalization() {
+        SeenQuestionsFilter filter = new SeenQuestionsFilter(16_384, 5);
+        filter.put("Qu'est-ce qu'un arbre binaire ?");
+
+        assertThat(filter.mightContain("  QU'EST-CE QU'UN ARBRE BINAIRE ?")).isTrue();
+        assertThat(filter.mightContain("Qu'est-ce qu'un graphe orienté ?")).isFalse();
+    }
+
+    @Test
+    void filterIsResetWhenTheConfiguredSizeChanges() {
+        SeenQuestionsFilter filter = new SeenQuestionsFilter(16_384, 5);
+        filter.put("Qu'est-ce qu'un arbre binaire ?");
+        byte[] data = filter.toBytes();
+
+        assertThat(SeenQuestionsFilter.fromBytes(data, 8_192, 5).mightContain("Qu'est-ce qu'un arbre binaire ?")).isFalse();
+        assertThat(SeenQuestionsFilter.fromBytes(data, 32_768, 5).mightContain("Qu'est-ce qu'un arbre binaire ?")).isFalse();
+        assertThat(SeenQuestionsFilter.fromBytes(null, 16_384, 5).mightContain("Qu'est-ce qu'un arbre binaire ?")).isFalse();
+    }
+}